@@ -0,0 +1,76 @@
+package gedi.benchmarks;
+
+import gedi.core.data.reads.AlignedReadsDataFactory;
+import gedi.core.data.reads.DefaultAlignedReadsData;
+import gedi.util.orm.BinaryBlob;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decoding of {@link DefaultAlignedReadsData} (DefaultAlignedReadsData.deserialize) from an in-memory buffer of {@link #RECORDS} serialized
+ * records; reported per record.
+ *
+ * @author erhard
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AlignedReadsDataBenchmark {
+
+	public static final int RECORDS = 10_000;
+
+	private BinaryBlob blob;
+	private DefaultAlignedReadsData reuse = new DefaultAlignedReadsData();
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		Random rnd = new Random(Fixtures.SEED);
+		AlignedReadsDataFactory fac = new AlignedReadsDataFactory(Fixtures.CONDITIONS,false);
+		blob = new BinaryBlob();
+		for (int i=0; i<RECORDS; i++)
+			Fixtures.readsData(rnd, fac).serialize(blob);
+		blob.finish(false);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RECORDS)
+	public void deserialize(Blackhole bh) throws IOException {
+		blob.getBuffer().position(0);
+		for (int i=0; i<RECORDS; i++) {
+			DefaultAlignedReadsData d = new DefaultAlignedReadsData();
+			d.deserialize(blob);
+			bh.consume(d);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RECORDS)
+	public void deserializeReuse(Blackhole bh) throws IOException {
+		blob.getBuffer().position(0);
+		for (int i=0; i<RECORDS; i++) {
+			reuse.deserialize(blob);
+			bh.consume(reuse.getDistinctSequences());
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+package gedi.benchmarks;
+
+import gedi.util.ArrayUtils;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ArrayUtils.parallelSort (sorting a key array and permuting a second array along); the unsorted copies are restored before each
+ * invocation.
+ *
+ * @author erhard
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArrayUtilsBenchmark {
+
+	@Param({"1000000"})
+	public int size;
+
+	private int[] intKeys;
+	private int[] intValues;
+	private long[] longKeys;
+	private String[] objects;
+
+	private int[] intKeysWork;
+	private int[] intValuesWork;
+	private long[] longKeysWork;
+	private String[] objectsWork;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Random rnd = new Random(Fixtures.SEED);
+		intKeys = new int[size];
+		intValues = new int[size];
+		longKeys = new long[size];
+		objects = new String[size];
+		for (int i=0; i<size; i++) {
+			intKeys[i] = rnd.nextInt();
+			intValues[i] = i;
+			longKeys[i] = rnd.nextLong();
+			objects[i] = "o"+i;
+		}
+		intKeysWork = new int[size];
+		intValuesWork = new int[size];
+		longKeysWork = new long[size];
+		objectsWork = new String[size];
+	}
+
+	@Setup(Level.Invocation)
+	public void restore() {
+		System.arraycopy(intKeys, 0, intKeysWork, 0, size);
+		System.arraycopy(intValues, 0, intValuesWork, 0, size);
+		System.arraycopy(longKeys, 0, longKeysWork, 0, size);
+		System.arraycopy(objects, 0, objectsWork, 0, size);
+	}
+
+	@Benchmark
+	public int[] parallelSortIntInt() {
+		ArrayUtils.parallelSort(intKeysWork, intValuesWork);
+		return intValuesWork;
+	}
+
+	@Benchmark
+	public String[] parallelSortLongObject() {
+		ArrayUtils.parallelSort(longKeysWork, objectsWork);
+		return objectsWork;
+	}
+
+}
@@ -0,0 +1,39 @@
+package gedi.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks (all or the ones selected by the usual JMH command line) and writes the results as JSON to
+ * gedi-benchmarks-&lt;version&gt;.json unless -rf/-rff are given, i.e. results of different releases can be compared directly.
+ *
+ * @author erhard
+ *
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		OptionsBuilder opt = new OptionsBuilder();
+		opt.parent(cmd);
+
+		if (cmd.getIncludes().isEmpty())
+			opt.include(BenchmarkRunner.class.getPackage().getName()+".*");
+		if (!cmd.getResultFormat().hasValue())
+			opt.resultFormat(ResultFormatType.JSON);
+		if (!cmd.getResult().hasValue())
+			opt.result("gedi-benchmarks-"+getVersion()+".json");
+
+		new Runner(opt.build()).run();
+	}
+
+	private static String getVersion() {
+		String re = BenchmarkRunner.class.getPackage().getImplementationVersion();
+		return re==null?"dev":re;
+	}
+
+}
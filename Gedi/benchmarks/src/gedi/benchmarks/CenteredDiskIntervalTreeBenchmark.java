@@ -0,0 +1,88 @@
+package gedi.benchmarks;
+
+import gedi.centeredDiskIntervalTree.CenteredDiskIntervalTreeStorage;
+import gedi.core.data.reads.DefaultAlignedReadsData;
+import gedi.core.data.reads.ReadCountMode;
+import gedi.core.reference.ReferenceSequence;
+import gedi.core.region.GenomicRegion;
+import gedi.core.region.MutableReferenceGenomicRegion;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Intersection queries (CenteredDiskIntervalTree.iterateIntersectingRegions) against a cit file of mapped reads; each invocation
+ * iterates over the reads in {@link #QUERIES} random windows.
+ *
+ * @author erhard
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CenteredDiskIntervalTreeBenchmark {
+
+	public static final int QUERIES = 256;
+
+	@Param({"1000000"})
+	public int reads;
+
+	@Param({"100","10000"})
+	public int window;
+
+	private CenteredDiskIntervalTreeStorage<DefaultAlignedReadsData> storage;
+	private ReferenceSequence[] refs = new ReferenceSequence[QUERIES];
+	private GenomicRegion[] regions = new GenomicRegion[QUERIES];
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		storage = new CenteredDiskIntervalTreeStorage<DefaultAlignedReadsData>(Fixtures.cit(reads), DefaultAlignedReadsData.class);
+		Random rnd = new Random(Fixtures.SEED);
+		for (int i=0; i<QUERIES; i++) {
+			refs[i] = Fixtures.chromosome(rnd.nextInt(Fixtures.NUM_CHROMOSOMES));
+			regions[i] = Fixtures.window(rnd, window);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		storage.close();
+	}
+
+	@Benchmark
+	public void iterateIntersectingRegions(Blackhole bh) {
+		for (int i=0; i<QUERIES; i++) {
+			Spliterator<MutableReferenceGenomicRegion<DefaultAlignedReadsData>> it = storage.iterateIntersectingMutableReferenceGenomicRegions(refs[i], regions[i]);
+			it.forEachRemaining(bh::consume);
+		}
+	}
+
+	@Benchmark
+	public void iterateIntersectingRegionsData(Blackhole bh) {
+		for (int i=0; i<QUERIES; i++) {
+			Spliterator<MutableReferenceGenomicRegion<DefaultAlignedReadsData>> it = storage.iterateIntersectingMutableReferenceGenomicRegions(refs[i], regions[i]);
+			it.forEachRemaining(r->bh.consume(r.getData().getTotalCountOverallInt(ReadCountMode.All)));
+		}
+	}
+
+}
@@ -0,0 +1,97 @@
+package gedi.benchmarks;
+
+import gedi.core.data.numeric.GenomicNumericProvider.PositionNumericIterator;
+import gedi.core.data.numeric.diskrmq.DiskGenomicNumericProvider;
+import gedi.core.reference.ReferenceSequence;
+import gedi.core.region.GenomicRegion;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Range queries (range maximum/sum and value iteration) against a rmq file; each invocation queries {@link #QUERIES} random windows.
+ *
+ * @author erhard
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiskGenomicNumericBenchmark {
+
+	public static final int QUERIES = 256;
+
+	@Param({"300000"})
+	public int positions;
+
+	@Param({"100","100000"})
+	public int window;
+
+	private DiskGenomicNumericProvider provider;
+	private ReferenceSequence[] refs = new ReferenceSequence[QUERIES];
+	private GenomicRegion[] regions = new GenomicRegion[QUERIES];
+	private double[] values = new double[Fixtures.CONDITIONS];
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		provider = new DiskGenomicNumericProvider(Fixtures.rmq(positions));
+		provider.checkZoomLevels(100, Fixtures.SEED);
+		Random rnd = new Random(Fixtures.SEED);
+		for (int i=0; i<QUERIES; i++) {
+			refs[i] = Fixtures.chromosome(rnd.nextInt(Fixtures.NUM_CHROMOSOMES));
+			regions[i] = Fixtures.window(rnd, window);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		provider.close();
+	}
+
+	@Benchmark
+	public double max() {
+		double re = 0;
+		for (int i=0; i<QUERIES; i++)
+			re += provider.getMax(refs[i], regions[i], i%Fixtures.CONDITIONS);
+		return re;
+	}
+
+	@Benchmark
+	public double sum() {
+		double re = 0;
+		for (int i=0; i<QUERIES; i++)
+			re += provider.getSum(refs[i], regions[i], i%Fixtures.CONDITIONS);
+		return re;
+	}
+
+	@Benchmark
+	public void iterateValues(Blackhole bh) {
+		for (int i=0; i<QUERIES; i++) {
+			PositionNumericIterator it = provider.iterateValues(refs[i], regions[i]);
+			while (it.hasNext()) {
+				bh.consume(it.nextInt());
+				bh.consume(it.getValues(values));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,90 @@
+package gedi.benchmarks;
+
+import gedi.util.datastructure.collections.FastSortingCollection;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Adding records to a {@link FastSortingCollection} such that it spills to disk, and merging them back in order.
+ *
+ * @author erhard
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FastSortingCollectionBenchmark {
+
+	public static class Record {
+		int key;
+		long payload;
+		int[] counts;
+
+		public Record() {
+			this(0,0,new int[Fixtures.CONDITIONS]);
+		}
+
+		public Record(int key, long payload, int[] counts) {
+			this.key = key;
+			this.payload = payload;
+			this.counts = counts;
+		}
+	}
+
+	private static final Comparator<Record> COMPARATOR = (a,b)->Integer.compare(a.key, b.key);
+
+	@Param({"100000"})
+	public int records;
+
+	@Param({"true","false"})
+	public boolean compress;
+
+	private Record[] data;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Random rnd = new Random(Fixtures.SEED);
+		data = new Record[records];
+		for (int i=0; i<records; i++) {
+			int[] counts = new int[Fixtures.CONDITIONS];
+			for (int c=0; c<counts.length; c++)
+				counts[c] = rnd.nextInt(20);
+			data[i] = new Record(rnd.nextInt(), rnd.nextLong(), counts);
+		}
+	}
+
+	@Benchmark
+	public long spillAndMerge() throws IOException {
+		long re = 0;
+		try (FastSortingCollection<Record> coll = new FastSortingCollection<Record>(new Record(), COMPARATOR, 64*1024)) {
+			coll.setCompress(compress);
+			for (Record r : data)
+				coll.add(r);
+			Iterator<Record> it = coll.iterator();
+			while (it.hasNext())
+				re += it.next().payload;
+		}
+		return re;
+	}
+
+}
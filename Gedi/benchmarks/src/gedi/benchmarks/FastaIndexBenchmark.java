@@ -0,0 +1,98 @@
+package gedi.benchmarks;
+
+import gedi.core.reference.ReferenceSequence;
+import gedi.core.region.GenomicRegion;
+import gedi.core.sequence.FastaIndexSequenceProvider;
+import gedi.util.io.text.fasta.index.FastaIndexFile;
+import gedi.util.io.text.fasta.index.PackedSequenceFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Sequence lookups from an indexed fasta file, either from the fasta file itself or from the packed 2-bit file ({@link PackedSequenceFile}).
+ *
+ * @author erhard
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FastaIndexBenchmark {
+
+	public static final int QUERIES = 256;
+
+	@Param({"true","false"})
+	public boolean packed;
+
+	@Param({"30","10000"})
+	public int window;
+
+	private FastaIndexSequenceProvider provider;
+	private ReferenceSequence[] refs = new ReferenceSequence[QUERIES];
+	private GenomicRegion[] regions = new GenomicRegion[QUERIES];
+	private char[] buffer;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		FastaIndexFile fi = Fixtures.fasta();
+		if (packed)
+			provider = new FastaIndexSequenceProvider(fi).usePacked();
+		else {
+			new File(PackedSequenceFile.getPath(fi)).delete();
+			provider = new FastaIndexSequenceProvider(fi);
+		}
+		Random rnd = new Random(Fixtures.SEED);
+		for (int i=0; i<QUERIES; i++) {
+			refs[i] = Fixtures.chromosome(rnd.nextInt(Fixtures.NUM_CHROMOSOMES));
+			regions[i] = Fixtures.window(rnd, window);
+		}
+		buffer = new char[window];
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		provider.close();
+	}
+
+	@Benchmark
+	public void sequence(Blackhole bh) {
+		for (int i=0; i<QUERIES; i++)
+			bh.consume(provider.getPlusSequence(refs[i].getName(), regions[i]));
+	}
+
+	@Benchmark
+	public void sequenceIntoBuffer(Blackhole bh) {
+		for (int i=0; i<QUERIES; i++)
+			bh.consume(provider.getPlusSequence(refs[i].getName(), regions[i], buffer));
+	}
+
+	@Benchmark
+	public int singleBases() {
+		int re = 0;
+		for (int i=0; i<QUERIES; i++)
+			re += provider.getPlusSequence(refs[i].getName(), regions[i].getStart());
+		return re;
+	}
+
+}
@@ -0,0 +1,221 @@
+package gedi.benchmarks;
+
+import gedi.centeredDiskIntervalTree.CenteredDiskIntervalTreeStorage;
+import gedi.core.data.annotation.Transcript;
+import gedi.core.data.numeric.diskrmq.DiskGenomicNumericBuilder;
+import gedi.core.data.reads.AlignedReadsDataFactory;
+import gedi.core.data.reads.DefaultAlignedReadsData;
+import gedi.core.reference.Chromosome;
+import gedi.core.reference.ReferenceSequence;
+import gedi.core.region.ArrayGenomicRegion;
+import gedi.core.region.GenomicRegion;
+import gedi.core.region.ImmutableReferenceGenomicRegion;
+import gedi.core.region.intervalTree.MemoryIntervalTreeStorage;
+import gedi.util.io.text.fasta.FastaFile;
+import gedi.util.io.text.fasta.index.FastaIndexFile;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Reproducible synthetic input files for the benchmarks. Everything is generated from a fixed seed, i.e. the same parameters always
+ * produce the same files. Files are created once in {@link #getDirectory()} (system property gedi.benchmarks.fixtures, default
+ * java.io.tmpdir/gedi-benchmarks) and reused; they are written to a temporary name first, i.e. an interrupted run never leaves a
+ * partial fixture behind.
+ *
+ * @author erhard
+ *
+ */
+public class Fixtures {
+
+	public static final long SEED = 42;
+
+	public static final int NUM_CHROMOSOMES = 3;
+	public static final int CHROMOSOME_LENGTH = 1_000_000;
+	public static final int READ_LENGTH = 50;
+	public static final int INTRON_LENGTH = 500;
+	public static final int CONDITIONS = 4;
+
+	public static File getDirectory() {
+		File re = new File(System.getProperty("gedi.benchmarks.fixtures", new File(System.getProperty("java.io.tmpdir"),"gedi-benchmarks").getPath()));
+		re.mkdirs();
+		return re;
+	}
+
+	public static ReferenceSequence chromosome(int index) {
+		return Chromosome.obtain("chr"+(index+1), true);
+	}
+
+	/**
+	 * Random read (in rnd) of {@link #READ_LENGTH}, every fifth read is spliced.
+	 * @param rnd
+	 * @return
+	 */
+	public static GenomicRegion read(Random rnd) {
+		int start = rnd.nextInt(CHROMOSOME_LENGTH-READ_LENGTH-INTRON_LENGTH);
+		if (rnd.nextInt(5)==0) {
+			int split = 10+rnd.nextInt(READ_LENGTH-20);
+			return new ArrayGenomicRegion(start,start+split,start+split+INTRON_LENGTH,start+READ_LENGTH+INTRON_LENGTH);
+		}
+		return new ArrayGenomicRegion(start,start+READ_LENGTH);
+	}
+
+	/**
+	 * Random reads data with 1-3 distinct sequences, some with a mismatch.
+	 * @param rnd
+	 * @param fac
+	 * @return
+	 */
+	public static DefaultAlignedReadsData readsData(Random rnd, AlignedReadsDataFactory fac) {
+		fac.start();
+		int d = 1+rnd.nextInt(3);
+		for (int i=0; i<d; i++) {
+			fac.newDistinctSequence();
+			for (int c=0; c<CONDITIONS; c++)
+				fac.setCount(c, rnd.nextInt(4)==0?0:1+rnd.nextInt(20));
+			if (i>0)
+				fac.addMismatch(rnd.nextInt(READ_LENGTH), 'A', 'G', false);
+		}
+		return fac.create();
+	}
+
+	/**
+	 * Random genomic region (in rnd) of the given length.
+	 * @param rnd
+	 * @param length
+	 * @return
+	 */
+	public static GenomicRegion window(Random rnd, int length) {
+		int start = rnd.nextInt(CHROMOSOME_LENGTH-length);
+		return new ArrayGenomicRegion(start,start+length);
+	}
+
+	/**
+	 * A cit file of mapped reads ({@link DefaultAlignedReadsData}) evenly distributed over {@link #NUM_CHROMOSOMES} chromosomes
+	 * @param reads
+	 * @return
+	 * @throws IOException
+	 */
+	public static String cit(int reads) throws IOException {
+		File f = new File(getDirectory(),"reads-"+SEED+"-"+reads+".cit");
+		if (!f.exists()) {
+			File tmp = new File(f.getPath()+".tmp.cit");
+			tmp.delete();
+			Random rnd = new Random(SEED);
+			AlignedReadsDataFactory fac = new AlignedReadsDataFactory(CONDITIONS,false);
+			ArrayList<ImmutableReferenceGenomicRegion<DefaultAlignedReadsData>> list = new ArrayList<ImmutableReferenceGenomicRegion<DefaultAlignedReadsData>>(reads);
+			for (int i=0; i<reads; i++)
+				list.add(new ImmutableReferenceGenomicRegion<DefaultAlignedReadsData>(chromosome(i%NUM_CHROMOSOMES), read(rnd), readsData(rnd, fac)));
+			list.sort(Comparator.naturalOrder());
+
+			CenteredDiskIntervalTreeStorage<DefaultAlignedReadsData> cit = new CenteredDiskIntervalTreeStorage<DefaultAlignedReadsData>(tmp.getPath(), DefaultAlignedReadsData.class);
+			cit.fill(list.iterator());
+			cit.close();
+			rename(tmp,f);
+		}
+		return f.getPath();
+	}
+
+	/**
+	 * Random transcripts with 1-10 exons (of 50-500bp, introns of 100-5000bp) evenly distributed over {@link #NUM_CHROMOSOMES} chromosomes
+	 * (the annotation for the reads of {@link #cit(int)}).
+	 * @param transcripts
+	 * @return
+	 */
+	public static MemoryIntervalTreeStorage<Transcript> transcripts(int transcripts) {
+		Random rnd = new Random(SEED);
+		MemoryIntervalTreeStorage<Transcript> re = new MemoryIntervalTreeStorage<Transcript>(Transcript.class);
+		for (int i=0; i<transcripts; i++) {
+			int exons = 1+rnd.nextInt(10);
+			int[] coords = new int[exons*2];
+			int p = rnd.nextInt(CHROMOSOME_LENGTH/2);
+			for (int e=0; e<exons; e++) {
+				coords[2*e] = p;
+				p+=50+rnd.nextInt(451);
+				coords[2*e+1] = p;
+				p+=100+rnd.nextInt(4901);
+			}
+			if (coords[coords.length-1]>CHROMOSOME_LENGTH) continue;
+			re.add(chromosome(i%NUM_CHROMOSOMES), new ArrayGenomicRegion(coords), new Transcript("G"+i,"T"+i,-1,-1));
+		}
+		return re;
+	}
+
+	/**
+	 * A rmq file with {@link #CONDITIONS} rows containing values at the given number of random positions evenly distributed over
+	 * {@link #NUM_CHROMOSOMES} chromosomes
+	 * @param positions
+	 * @return
+	 * @throws IOException
+	 */
+	public static String rmq(int positions) throws IOException {
+		File f = new File(getDirectory(),"values-"+SEED+"-"+positions+".rmq");
+		if (!f.exists()) {
+			File tmp = new File(f.getPath()+".tmp");
+			Random rnd = new Random(SEED);
+			DiskGenomicNumericBuilder builder = new DiskGenomicNumericBuilder(tmp.getPath());
+			builder.setReferenceSorted(true);
+			int[] value = new int[CONDITIONS];
+			int perChr = positions/NUM_CHROMOSOMES;
+			int step = CHROMOSOME_LENGTH/perChr;
+			for (int c=0; c<NUM_CHROMOSOMES; c++) {
+				ReferenceSequence ref = chromosome(c);
+				for (int i=0, p=rnd.nextInt(step); i<perChr && p<CHROMOSOME_LENGTH; i++, p+=1+rnd.nextInt(2*step-1)) {
+					for (int r=0; r<value.length; r++)
+						value[r] = rnd.nextInt(100);
+					builder.addValue(ref, p, value);
+				}
+			}
+			builder.build();
+			rename(tmp,f);
+		}
+		return f.getPath();
+	}
+
+	/**
+	 * A fasta file (and its index) with {@link #NUM_CHROMOSOMES} random sequences of {@link #CHROMOSOME_LENGTH} with some soft masked
+	 * and N regions.
+	 * @return
+	 * @throws IOException
+	 */
+	public static FastaIndexFile fasta() throws IOException {
+		File f = new File(getDirectory(),"genome-"+SEED+".fasta");
+		if (!f.exists()) {
+			File tmp = new File(f.getPath()+".tmp");
+			Random rnd = new Random(SEED);
+			char[] line = new char[60];
+			try (BufferedWriter wr = new BufferedWriter(new FileWriter(tmp))) {
+				for (int c=0; c<NUM_CHROMOSOMES; c++) {
+					wr.write(">"+chromosome(c).getName()+"\n");
+					for (int p=0; p<CHROMOSOME_LENGTH; p+=line.length) {
+						int n = Math.min(line.length, CHROMOSOME_LENGTH-p);
+						boolean lower = (p/6000)%7==0;
+						boolean nrun = (p/60000)%11==5;
+						for (int i=0; i<n; i++) {
+							char b = nrun?'N':"ACGT".charAt(rnd.nextInt(4));
+							line[i] = lower?Character.toLowerCase(b):b;
+						}
+						wr.write(line, 0, n);
+						wr.write('\n');
+					}
+				}
+			}
+			rename(tmp,f);
+		}
+		FastaFile ff = new FastaFile(f.getPath());
+		return ff.obtainAndOpenDefaultIndex();
+	}
+
+	private static void rename(File from, File to) throws IOException {
+		if (!from.renameTo(to)) {
+			from.delete();
+			throw new IOException("Could not create fixture "+to);
+		}
+	}
+
+}
@@ -0,0 +1,84 @@
+package gedi.benchmarks;
+
+import gedi.centeredDiskIntervalTree.CenteredDiskIntervalTreeStorage;
+import gedi.core.data.annotation.Transcript;
+import gedi.core.data.reads.DefaultAlignedReadsData;
+import gedi.core.reference.ReferenceSequence;
+import gedi.core.region.ImmutableReferenceGenomicRegion;
+import gedi.core.region.intervalTree.MemoryIntervalTreeStorage;
+import gedi.core.region.utils.GenomicRegionOverlapJoin;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Joining a cit file of mapped reads with an annotation by the sweep of {@link GenomicRegionOverlapJoin} compared to querying the
+ * transcripts of each read; the setup checks that both report the same number of overlaps.
+ *
+ * @author erhard
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class OverlapJoinBenchmark {
+
+	@Param({"1000000"})
+	public int reads;
+
+	@Param({"10000"})
+	public int transcripts;
+
+	@Param({"1","4"})
+	public int nthreads;
+
+	private CenteredDiskIntervalTreeStorage<DefaultAlignedReadsData> storage;
+	private MemoryIntervalTreeStorage<Transcript> annotation;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		storage = new CenteredDiskIntervalTreeStorage<DefaultAlignedReadsData>(Fixtures.cit(reads), DefaultAlignedReadsData.class);
+		annotation = Fixtures.transcripts(transcripts);
+		long query = perReadQuery();
+		long join = sweepJoin();
+		if (query!=join)
+			throw new IllegalStateException("Number of overlaps differ: query="+query+" join="+join);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		storage.close();
+	}
+
+	@Benchmark
+	public long perReadQuery() {
+		long re = 0;
+		for (ReferenceSequence ref : storage.iterateReferenceSequences().sort().loop())
+			for (ImmutableReferenceGenomicRegion<DefaultAlignedReadsData> read : storage.ei(ref).loop())
+				re+=annotation.ei(read).filter(t->read.getRegion().intersects(t.getRegion())).count();
+		return re;
+	}
+
+	@Benchmark
+	public long sweepJoin() {
+		return storage.join(annotation).parallelized(nthreads, ei->ei.map(p->(long)p.Item2.size())).reduce(0L, (a,b)->a+b);
+	}
+
+}
@@ -0,0 +1,64 @@
+package gedi.benchmarks;
+
+import gedi.util.functions.EI;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of ParallelizedIterator (ExtendedIterator.parallelized) for cheap and more expensive per element work, i.e. the overhead of
+ * block dispatch and ordered reassembly vs. the achieved speedup; reported per element.
+ *
+ * @author erhard
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelizedIteratorBenchmark {
+
+	public static final int ELEMENTS = 1<<18;
+
+	@Param({"1","4"})
+	public int threads;
+
+	@Param({"1024"})
+	public int blocksize;
+
+	@Param({"1","100"})
+	public int work;
+
+	@Benchmark
+	@OperationsPerInvocation(ELEMENTS)
+	public long throughput() {
+		int w = work;
+		Iterator<Long> it = EI.seq(0, ELEMENTS).parallelized(threads, blocksize, ei->ei.map(i->compute(i,w)));
+		long re = 0;
+		while (it.hasNext())
+			re += it.next();
+		return re;
+	}
+
+	private static long compute(int i, int work) {
+		long re = i;
+		for (int r=0; r<work; r++)
+			re = re*6364136223846793005L+1442695040888963407L;
+		return re;
+	}
+
+}
@@ -1,5 +1,6 @@
 package executables;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -8,11 +9,13 @@ import java.util.HashMap;
 
 import gedi.app.Gedi;
 import gedi.app.extension.ExtensionContext;
+import gedi.centeredDiskIntervalTree.CenteredDiskIntervalTreeStorage;
 import gedi.core.data.reads.AlignedReadsData;
 import gedi.core.data.reads.BarcodedAlignedReadsData;
 import gedi.core.data.reads.DefaultAlignedReadsData;
 import gedi.core.data.reads.ReadCountMode;
 import gedi.core.genomic.Genomic;
+import gedi.core.reference.ReferenceSequence;
 import gedi.core.reference.Strandness;
 import gedi.core.region.ArrayGenomicRegion;
 import gedi.core.region.GenomicRegionStorage;
@@ -90,6 +93,8 @@ public class Bam2CIT {
 		int minmaq = -1;
 		int sechip = -1;
 		int head = -1;
+		int nthreads = 1;
+		long memory = Runtime.getRuntime().maxMemory()/2;
 		Genomic check = null;
 		String out = null;
 		PairedEndHandling peh = null;
@@ -106,6 +111,15 @@ public class Bam2CIT {
 				keepIds = true;
 			else if (args[i].equals("-head"))
 				head = checkIntParam(args,++i);
+			else if (args[i].equals("-nthreads")) {
+				nthreads = checkIntParam(args,++i);
+				if (nthreads<1) throw new RuntimeException("Must be positive: "+args[i-1]);
+			}
+			else if (args[i].equals("-memory")) {
+				memory = checkIntParam(args,++i);
+				if (memory<1) throw new RuntimeException("Must be positive: "+args[i-1]);
+				memory<<=20;
+			}
 			else if (args[i].equals("-pe"))
 				peh = ParseUtils.parseEnumNameByPrefix(checkParam(args,++i),true,PairedEndHandling.class);
 			else if (args[i].equals("-compress"))
@@ -282,14 +296,19 @@ public class Bam2CIT {
 		@SuppressWarnings("rawtypes")
 		GenomicRegionStorage outStorage = GenomicRegionStorageExtensionPoint.getInstance().get(new ExtensionContext().add(Boolean.class, compress).add(String.class, out).add(Class.class, dataClass), GenomicRegionStorageCapabilities.Disk, GenomicRegionStorageCapabilities.Fill);
 		NumericArray mitocount = NumericArray.createMemory(numCond, NumericArrayType.Double);
+		if (nthreads>1 && outStorage instanceof CenteredDiskIntervalTreeStorage)
+			((CenteredDiskIntervalTreeStorage)outStorage).setParallelBuild(nthreads, memory);
+		else
+			nthreads = 1;
 		
-		if (head>0 || !keepMito || sechip>0 || unspec || removePref!=null) {
+		if (head>0 || !keepMito || sechip>0 || unspec || removePref!=null || nthreads>1) {
 			ExtendedIterator<ImmutableReferenceGenomicRegion<AlignedReadsData>> it = null;
 			
 			String uRemovePref = removePref;
-			if (removePref==null) it = storage.ei();
-			else it = EI.wrap(storage.getReferenceSequences()).
-					filter(r->r.getName().startsWith(uRemovePref)).unfold(r->storage.ei(r)).
+			ExtendedIterator<ImmutableReferenceGenomicRegion<AlignedReadsData>> shards = removePref==null?storage.eiParallel(nthreads):storage.eiParallel(nthreads,EI.wrap(storage.getReferenceSequences()).
+					filter(r->r.getName().startsWith(uRemovePref)).toArray(ReferenceSequence.class));
+			if (removePref==null) it = shards;
+			else it = shards.
 					map(r->new ImmutableReferenceGenomicRegion<>(gedi.core.reference.Chromosome.obtain(r.getReference().getName().substring(uRemovePref.length()),r.getReference().getStrand()), r.getRegion(), r.getData()));
 
 			
@@ -309,7 +328,13 @@ public class Bam2CIT {
 				it=it.map(read->read.toStrandIndependent());
 			
 			if (progress) it = it.progress(new ConsoleProgress(System.err),-1,r->r.toLocationString());
-			outStorage.fill(it);
+			try {
+				outStorage.fill(it);
+			} finally {
+				// e.g. with -head, the workers reading the bam files have to be stopped
+				if (shards instanceof Closeable)
+					((Closeable)shards).close();
+			}
 		} else {
 			outStorage.fill(storage,progress?new ConsoleProgress(System.err):null);
 		}
@@ -405,7 +430,7 @@ public class Bam2CIT {
 		return re;
 	}
 	private static void usage() {
-		System.out.println("Bam2CIT [-p] [-id] [-compress] [-minmaq <MAQ>] [-keepMito] [-novar] [-nosec] [-10x] [-umi [-umiAllowMulti] [-umiPattern <regex-all-groups-are-used>]] [-barcodelist <multiseq-table>] [-removePrefix <prefix>] <output> <file1> <file2> ... \n\n -p shows progress\n -id add ids to CIT\n -removePrefix filters reads for that and removes the prefix (e.g. for 10x runs with human/mouse combined)\n -barcodelist <multiseq-table>  needs to be a tsv file with columns Barcode and Sample!");
+		System.out.println("Bam2CIT [-p] [-id] [-compress] [-nthreads <n> [-memory <MB>]] [-minmaq <MAQ>] [-keepMito] [-novar] [-nosec] [-10x] [-umi [-umiAllowMulti] [-umiPattern <regex-all-groups-are-used>]] [-barcodelist <multiseq-table>] [-removePrefix <prefix>] <output> <file1> <file2> ... \n\n -p shows progress\n -id add ids to CIT\n -nthreads read the bam files and build the trees of all references in parallel\n -memory memory budget for building trees in parallel (default: half of the maximal heap size)\n -removePrefix filters reads for that and removes the prefix (e.g. for 10x runs with human/mouse combined)\n -barcodelist <multiseq-table>  needs to be a tsv file with columns Barcode and Sample!");
 	}
 	
 }
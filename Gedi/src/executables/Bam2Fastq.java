@@ -4,7 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.HashSet;
 
-import gedi.util.io.text.LineOrientedFile;
+import gedi.util.io.text.fastq.FastqWriter;
 import gedi.util.userInteraction.progress.ConsoleProgress;
 import gedi.util.userInteraction.progress.NoProgress;
 import gedi.util.userInteraction.progress.Progress;
@@ -50,23 +50,32 @@ public class Bam2Fastq {
 		SamReader sam = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT).open(new File(bam));
 		progress.init();
 		
-		LineOrientedFile out = new LineOrientedFile(fastq);
-		out.startWriting();
-		
+		FastqWriter out = new FastqWriter(fastq);
+		byte[] qual = new byte[0];
 		
 		SAMRecordIterator it = sam.iterator();
 		while (it.hasNext()) {
 			SAMRecord rec = it.next();
 			int id = Integer.parseInt(rec.getReadName());
 			
-			if (!unique || rec.getIntegerAttribute("NH")==1)
-				out.writef("@%d\n%s\n+\n%s\n", id, rec.getReadString(),rec.getBaseQualityString());
+			if (!unique || rec.getIntegerAttribute("NH")==1) {
+				byte[] bases = rec.getReadBases();
+				byte[] q = rec.getBaseQualities();
+				if (bases.length==0 || q.length!=bases.length)
+					out.write(id, rec.getReadString(),rec.getBaseQualityString());
+				else {
+					if (qual.length<q.length) qual = new byte[q.length];
+					for (int i=0; i<q.length; i++)
+						qual[i] = (byte) (q[i]+33);
+					out.write(id, bases, 0, bases.length, qual, 0, q.length);
+				}
+			}
 			
 			progress.incrementProgress().setDescription(()->rec.getReadName()+" "+rec.getReferenceName()+":"+rec.getAlignmentStart());
 		}
 
 		progress.finish();
-		out.finishWriting();
+		out.close();
 	}
 
 	private static void usage() {
@@ -2,14 +2,30 @@ package executables;
 
 import gedi.centeredDiskIntervalTree.CenteredDiskIntervalTreeStorage;
 import gedi.util.StringUtils;
+import gedi.util.io.randomaccess.blocks.BlockCodec;
+import gedi.util.io.randomaccess.blocks.BlockCompressedWriter;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 
 public class CompressCIT {
 
 	public static void main(String[] args) throws IOException {
+		BlockCodec codec = null;
+		int blockSize = BlockCompressedWriter.DEFAULT_BLOCK_SIZE;
+		int i;
+		for (i=0; i<args.length-2; i++) {
+			if (args[i].equals("-codec"))
+				codec = BlockCodec.forName(args[++i]);
+			else if (args[i].equals("-blocksize"))
+				blockSize = Integer.parseInt(args[++i]);
+			else
+				break;
+		}
+		args = Arrays.copyOfRange(args, i, args.length);
+		
 		if (args.length!=2) {
 			usage();
 			System.exit(1);
@@ -24,13 +40,15 @@ public class CompressCIT {
 		
 		CenteredDiskIntervalTreeStorage in = new CenteredDiskIntervalTreeStorage(args[0]);
 		CenteredDiskIntervalTreeStorage out = new CenteredDiskIntervalTreeStorage(args[1],in.getType(),true);
+		if (codec!=null)
+			out.setBlockCompression(codec, blockSize);
 		out.fill(in);
 		out.setMetaData(in.getMetaData());
 		
 	}
 
 	private static void usage() {
-		System.out.println("CompressCIT <in> <out>");
+		System.out.println("CompressCIT [-codec <LZ4|Deflate> [-blocksize <bytes>]] <in> <out>\n\n -codec compresses blocks of lists and data instead of individual records");
 	}
 	
 }
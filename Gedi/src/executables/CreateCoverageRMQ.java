@@ -24,11 +24,32 @@ import java.util.function.UnaryOperator;
 
 public class CreateCoverageRMQ {
 
+	private static int checkPositiveIntParam(String[] args, int index) {
+		String re = checkParam(args, index);
+		if (!StringUtils.isInt(re) || Integer.parseInt(re)<=0) throw new RuntimeException("Must be a positive integer: "+args[index-1]);
+		return Integer.parseInt(re);
+	}
+	private static String checkParam(String[] args, int index)  {
+		if (index>=args.length || args[index].startsWith("-")) throw new RuntimeException("Missing argument for "+args[index-1]);
+		return args[index];
+	}
 	
 	public static void main(String[] args) throws IOException {
 	
-		if (args.length!=2 || !new File(args[0]).exists()) {
-			System.err.println("CreateCoverageRMQ <cit> <rmq>");
+		int nthreads = Runtime.getRuntime().availableProcessors();
+		long memory = Runtime.getRuntime().maxMemory()/2;
+		int i;
+		for (i=0; i<args.length-2; i++) {
+			if (args[i].equals("-p"))
+				nthreads = checkPositiveIntParam(args, ++i);
+			else if (args[i].equals("-m"))
+				memory = ((long)checkPositiveIntParam(args, ++i))<<20;
+			else
+				break;
+		}
+		
+		if (args.length-i!=2 || !new File(args[i]).exists()) {
+			System.err.println("CreateCoverageRMQ [-p <threads>] [-m <memory budget in MB>] <cit> <rmq>");
 			System.exit(1);
 		}
 		
@@ -40,29 +61,13 @@ public class CreateCoverageRMQ {
 		
 		Progress progress = new ConsoleProgress();
 		
-		DiskGenomicNumericBuilder build = new DiskGenomicNumericBuilder(args[1]);
-		build.setReferenceSorted(true);
+		DiskGenomicNumericBuilder build = new DiskGenomicNumericBuilder(args[i+1]);
+		build.setParallelBuild(nthreads, memory);
 		
-		CenteredDiskIntervalTreeStorage<AlignedReadsData> storage = new CenteredDiskIntervalTreeStorage<AlignedReadsData>(args[0]);
-		progress.init();
+		CenteredDiskIntervalTreeStorage<AlignedReadsData> storage = new CenteredDiskIntervalTreeStorage<AlignedReadsData>(args[i]);
 		
 		UnaryOperator<ReferenceGenomicRegion<AlignedReadsData>> filter = new MaxMultiplicityFilter(maxMulti);
 		
-		storage.iterateMutableReferenceGenomicRegions().forEachRemaining(mrgr->{
-			progress.setDescription(mrgr.getReference()+":"+mrgr.getRegion()).incrementProgress();
-			try {
-				ReferenceGenomicRegion<AlignedReadsData> data = filter.apply(mrgr);
-				if (data!=null)
-					build.addCoverage(mrgr.getReference(),mrgr.getRegion(),data.getData());
-			} catch (Exception e) {
-				throw new RuntimeException(e);
-			}				
-			
-		});
-		progress.setDescription("Building...");
-		
-		build.build(true);
-		
-		progress.finish();
+		build.buildCoverage(storage, filter, progress);
 	}
 }
@@ -39,6 +39,7 @@ import gedi.util.mutable.MutableInteger;
 import gedi.util.r.RRunner;
 import gedi.util.sequence.DnaSequence;
 import gedi.util.sequence.MismatchGraphBuilder;
+import gedi.util.sequence.PackedDnaSequence;
 import gedi.util.userInteraction.progress.ConsoleProgress;
 
 public class DedupUMI {
@@ -255,6 +256,34 @@ public class DedupUMI {
 		
 		return dedup(read, (data,c)->{
 			HashMap<DnaSequence,ReadMerger> regions = new HashMap<>();
+			if (data.getBarcodeLength()<=PackedDnaSequence.MAX_LENGTH) {
+				// group on the packed umis (sorted, without boxing), such that there is only a single DnaSequence per distinct umi
+				int n = 0;
+				for (int d=0; d<data.getDistinctSequences(); d++) 
+					n+=data.getBarcodeCount(d, c);
+				long[] umis = new long[n];
+				n = 0;
+				for (int d=0; d<data.getDistinctSequences(); d++) 
+					n+=data.getPackedBarcodes(d, c, umis, n);
+				long[] distinct = umis.clone();
+				int nd = PackedDnaSequence.group(distinct, 0, n, null);
+				
+				ReadMerger[] mergers = new ReadMerger[nd];
+				int k = 0;
+				for (int d=0; d<data.getDistinctSequences(); d++) {
+					int bn = data.getBarcodeCount(d, c);
+					for (int b=0; b<bn; b++) {
+						int u = Arrays.binarySearch(distinct, 0, nd, umis[k++]);
+						if (mergers[u]==null) mergers[u] = new ReadMerger();
+						mergers[u].add(data,d, mm, 1);
+					}
+				}
+				int bl = data.getBarcodeLength();
+				for (int u=0; u<nd; u++)
+					regions.put(PackedDnaSequence.unpack(distinct[u], bl), mergers[u]);
+				return regions;
+			}
+			
 			for (int d=0; d<data.getDistinctSequences(); d++) {
 //				if (data.getMultiplicity(d)!=1) throw new RuntimeException("Internal error: No multimappers allowed here!");
 				
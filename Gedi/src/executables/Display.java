@@ -284,10 +284,10 @@ public class Display {
 			if (ref==null) 
 				ref = EI.wrap(g.getSequenceNames()).map(s->Chromosome.obtain(s,true)).first();
 			GenomicRegion reg;
-			if (g.getTranscripts().getTree(ref)==null || g.getTranscripts().getTree(ref).isEmpty()) 
+			if (g.getTranscripts().getReadOnlyTree(ref)==null || g.getTranscripts().getReadOnlyTree(ref).isEmpty()) 
 				reg = new ArrayGenomicRegion(g.getLength(ref.getName())/2-100,g.getLength(ref.getName())/2+100);
 			else
-				reg = g.getTranscripts().getTree(ref).getRoot().getKey().removeIntrons();
+				reg = g.getTranscripts().getReadOnlyTree(ref).getRoot().getKey().removeIntrons();
 			reg = reg.extendAll(Math.min(reg.getStart(), reg.getTotalLength()/3), Math.min(reg.getTotalLength()/3,g.getLength(ref.getName())-reg.getEnd()));
 			loc = ref.toPlusMinusString()+":"+reg.toRegionString();
 		}
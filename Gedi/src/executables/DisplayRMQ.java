@@ -215,7 +215,7 @@ public class DisplayRMQ {
 		
 		if (loc==null || !loc.contains(":")) {
 			ReferenceSequence ref = loc==null?g.getTranscripts().getReferenceSequences().iterator().next():Chromosome.obtain(loc);
-			GenomicRegion reg = g.getTranscripts().getTree(ref).getRoot().getKey().removeIntrons();
+			GenomicRegion reg = g.getTranscripts().getReadOnlyTree(ref).getRoot().getKey().removeIntrons();
 			reg = reg.extendAll(reg.getTotalLength()/3, reg.getTotalLength()/3);
 			loc = ref.toPlusMinusString()+":"+reg.toRegionString();
 		}
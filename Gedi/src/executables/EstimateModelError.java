@@ -577,7 +577,7 @@ public class EstimateModelError {
 		MemoryIntervalTreeStorage<IntervalTree<GenomicRegion,ImmutableReferenceGenomicRegion<String>>> re = new MemoryIntervalTreeStorage<IntervalTree<GenomicRegion,ImmutableReferenceGenomicRegion<String>>>((Class)IntervalTree.class);
 
 		for (ReferenceSequence ref : annotation.getReferenceSequences()){
-			annotation.getTree(ref)
+			annotation.getReadOnlyTree(ref)
 			.groupIterator(100)
 			.map(r->new ArrayGenomicRegion(new IntervalTree<GenomicRegion,Transcript>(r,ref)))
 			.forEachRemaining(reg->re.add(ref, reg.extendFront(50).extendBack(50), new IntervalTree<GenomicRegion,ImmutableReferenceGenomicRegion<String>>(ref)));
@@ -20,9 +20,8 @@ import gedi.util.io.randomaccess.PageFileWriter;
 import gedi.util.io.randomaccess.diskarray.VariableSizeDiskArrayBuilder;
 import gedi.util.io.randomaccess.serialization.BinarySerializable;
 import gedi.util.io.randomaccess.serialization.BinarySerializer;
-import gedi.util.io.text.LineIterator;
-import gedi.util.io.text.LineOrientedFile;
-import gedi.util.io.text.LineWriter;
+import gedi.util.io.text.fastq.FastqReader;
+import gedi.util.io.text.fastq.FastqWriter;
 import gedi.util.io.text.jhp.TemplateEngine;
 import gedi.util.math.stat.RandomNumbers;
 import gedi.util.math.stat.counting.Counter;
@@ -161,7 +160,7 @@ public class ExtractBarcodes {
 		if (leading+trailing<=0) throw new UsageException("No length given!");
 		
 		VariableSizeDiskArrayBuilder<CountDnaSequence> builder = new VariableSizeDiskArrayBuilder<>(prefix+".barcodes");
-		LineWriter out = new LineOrientedFile(prefix+".fastq").write();
+		FastqWriter out = new FastqWriter(prefix+".fastq");
 		
 		Counter<String> counter = new Counter<>("Barcode",1);
 		
@@ -171,8 +170,8 @@ public class ExtractBarcodes {
 		lstart = leading;
 		lend = trailing;
 		int n = 0;
-		for (ArrayList<String> l : new LineOrientedFile(inp).lineIterator()
-				.pattern(false,true,false,false)
+		for (ArrayList<String> l : new FastqReader(inp).records()
+				.map(r->r.getSequence())
 				.filter(s->s.length()>=lstart+lend)
 				.sort(new StringSerializer(),ExtractBarcodes::compareSeq)
 				.progress(progress, -1, s->"Processing read "+s)
@@ -209,10 +208,7 @@ public class ExtractBarcodes {
 				.map(s->s.get())
 				);
 			
-			out.writeLine("@"+n++);
-			out.writeLine(getRead(l.get(0)));
-			out.writeLine("+");
-			out.writeLine(StringUtils.repeat("I", l.get(0).length()-leading-trailing));
+			out.write(n++, getRead(l.get(0)), StringUtils.repeat("I", l.get(0).length()-leading-trailing));
 			
 		}
 		
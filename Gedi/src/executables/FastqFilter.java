@@ -20,10 +20,12 @@ import gedi.util.datastructure.array.functions.NumericArrayFunction;
 import gedi.util.datastructure.collections.intcollections.IntArrayList;
 import gedi.util.datastructure.dataframe.DataFrame;
 import gedi.util.dynamic.DynamicObject;
+import gedi.util.datastructure.charsequence.ByteArrayCharSequence;
 import gedi.util.functions.EI;
-import gedi.util.io.text.LineIterator;
-import gedi.util.io.text.LineOrientedFile;
-import gedi.util.io.text.LineWriter;
+import gedi.util.functions.ExtendedIterator;
+import gedi.util.io.text.fastq.FastqReader;
+import gedi.util.io.text.fastq.FastqRecord;
+import gedi.util.io.text.fastq.FastqWriter;
 import gedi.util.math.stat.binning.IntegerBinning;
 import gedi.util.math.stat.counting.Counter;
 import gedi.util.math.stat.factor.Factor;
@@ -148,6 +150,7 @@ public class FastqFilter {
 			}
 			else if (args[i].equals("-extract")) {
 				extract = GenomicRegion.parse(checkParam(args, ++i));
+				if (extract==null) throw new UsageException("Cannot parse region for -extract: "+args[i]);
 			}
 			else if (args[i].equals("-ld")) {
 				ld = checkParam(args, ++i);
@@ -172,20 +175,26 @@ public class FastqFilter {
 		ReadLayout layout1 = layout!=null?new ReadLayout(StringUtils.splitField(layout, ',', 0)):null;
 		ReadLayout layout2 = layout!=null && layout.contains(",")?new ReadLayout(StringUtils.splitField(layout, ',', 1)):null;
 		
-		LineWriter out1;
-		LineWriter out2;
-		Runnable finish = ()->{};
+		FastqWriter out1;
+		FastqWriter out2;
+		String outPath1;
+		String outPath2;
 		if(!overwrite) {
-			out1 = new LineOrientedFile(FileUtils.getExtensionSibling(inp, ".filtered.fastq")).write();
-			out2 = inp2==null? null:new LineOrientedFile(FileUtils.getExtensionSibling(inp2, ".filtered.fastq")).write();
+			outPath1 = FileUtils.getExtensionSibling(inp, ".filtered.fastq");
+			outPath2 = inp2==null? null:FileUtils.getExtensionSibling(inp2, ".filtered.fastq");
 		} else {
-			out1 = LineWriter.tmp(true,FileUtils.getExtension(inp));
-			out2 = inp2!=null?LineWriter.tmp(true,FileUtils.getExtension(inp2)):null;
+			outPath1 = tmp(FileUtils.getExtension(inp));
+			outPath2 = inp2!=null?tmp(FileUtils.getExtension(inp2)):null;
+		}
+		out1 = new FastqWriter(outPath1);
+		out2 = outPath2!=null?new FastqWriter(outPath2):null;
+		Runnable finish = ()->{};
+		if (overwrite) {
 			finish = ()->{
 				try {
-					Files.move(Paths.get(out1.toString()), Paths.get(inp), StandardCopyOption.REPLACE_EXISTING);
+					Files.move(Paths.get(outPath1), Paths.get(inp), StandardCopyOption.REPLACE_EXISTING);
 					if (inp2!=null)
-						Files.move(Paths.get(out2.toString()), Paths.get(inp2), StandardCopyOption.REPLACE_EXISTING);
+						Files.move(Paths.get(outPath2), Paths.get(inp2), StandardCopyOption.REPLACE_EXISTING);
 				} catch (IOException e) {
 					throw new RuntimeException("Could not overwrite!",e);
 				}
@@ -197,71 +206,62 @@ public class FastqFilter {
 			throw new RuntimeException("Specify either -umi or -layout!");
 		
 		Pattern umiPattern = umiregex!=null?Pattern.compile(umiregex):null;
+		ByteArrayCharSequence header = new ByteArrayCharSequence();
+		StringBuilder name = new StringBuilder();
 		
 		int pelenmismatch = 0;
 		int n = 0;
-		LineIterator it = new LineOrientedFile(inp).lineIterator();
+		ExtendedIterator<FastqRecord> it = new FastqReader(inp).records();
 		if (inp2==null) {
 			if (umi!=null) 
 				len = len+umi[0]+umi[1];
 			while (it.hasNext()) {
-				String id = it.next();
-				String seq = it.next();
-				it.next();
-				String q = it.next();
+				FastqRecord r = it.next();
 				String addId = null;
-				if (extract!=null) {
-					q = SequenceUtils.extractSequence(extract, q);
-					seq = SequenceUtils.extractSequence(extract, seq);
-				}
+				if (extract!=null) 
+					trim(r,extract);
 				if (smartseq) {
-					int trim = Math.min(3, seq.length());
-					int pa = countPolyA(seq);
+					int trim = Math.min(3, r.length());
+					int pa = countPolyA(r);
 					if (pa<7) pa=0;
-					pa = Math.min(pa, seq.length()-trim);
-					seq = seq.substring(trim, seq.length()-pa);
-					q = q.substring(trim, q.length()-pa);
+					pa = Math.min(pa, r.length()-trim);
+					r.trim(trim, r.length()-pa);
 				}
 				
-				if (seq.length()>=len && (layout1==null || seq.length()<layout1.readlen)) {
+				if (r.length()>=len && (layout1==null || r.length()<layout1.readlen)) {
 					
 					if (umi!=null) {
-						addId=seq.substring(0,umi[0]);
-						seq=seq.substring(umi[0]+umi[1]);
-						q=q.substring(umi[0]+umi[1]);
+						addId=r.getSequenceView().subSequence(0,umi[0]).toString();
+						r.trim(umi[0]+umi[1],r.length());
 					}
 					
 					if (layout1!=null) {
-						addId = layout1.getUmi(seq);
-						seq = layout1.getInsert(seq);
-						q = layout1.getInsert(q);
+						addId = layout1.getUmi(r.getSequenceView());
+						layout1.trimInsert(r);
 					}
 					
 					if (umiPattern!=null) {
-						Matcher m = umiPattern.matcher(id);
+						Matcher m = umiPattern.matcher(header(header,r));
 						if (m.find()) {
 							addId = m.group(1);
-						} else throw new RuntimeException("Could not match umi in fastq header: "+id);
+						} else throw new RuntimeException("Could not match umi in fastq header: "+header);
 					}
 
 
 					if (keepids) {
-						out1.writeLine(id);
+						out1.write(r);
 					}
 					else {
-						out1.write("@");
-						out1.write(n+++"");
+						name.setLength(0);
+						name.append(n++);
 						if (addId!=null) {
-							out1.write("#");
-							out1.write(addId);
+							name.append("#");
+							name.append(addId);
 						}
-						out1.writeLine();
+						out1.write(name, r);
 					}
-					out1.writeLine(seq);
-					out1.writeLine("+");
-					out1.writeLine(q);
 				}
-				histo.add(seq.length());
+				histo.add(r.length());
 			}
 			out1.close();
 			
@@ -272,79 +272,56 @@ public class FastqFilter {
 			aumi[0]='#';
 			String addId = null;
 			
-			LineIterator it2 = new LineOrientedFile(inp2).lineIterator();
+			ExtendedIterator<FastqRecord> it2 = new FastqReader(inp2).records();
 			while (it.hasNext() && it2.hasNext()) {
-				String id1 = it.next();					it2.next();
-				String seq1 = it.next(); 	String seq2 = it2.next();
-				it.next();					it2.next();
-				String q1 = it.next();		String q2 = it2.next();
-				histo.add(seq1.length()+seq2.length());
+				FastqRecord r1 = it.next();
+				FastqRecord r2 = it2.next();
+				histo.add(r1.length()+r2.length());
 				
 				if (extract!=null) {
-					q1 = SequenceUtils.extractSequence(extract, q1);
-					seq1 = SequenceUtils.extractSequence(extract, seq1);
+					trim(r1,extract);
+					trim(r2,extract);
 				}
-				
-				if (extract!=null) {
-					q2 = SequenceUtils.extractSequence(extract, q2);
-					seq2 = SequenceUtils.extractSequence(extract, seq2);
-				}
-				if (seq1.length()!=seq2.length()) pelenmismatch++; 
-				if (Math.min(seq1.length(),seq2.length())>=len && (!pelen || seq1.length()==seq2.length())) {
+				if (r1.length()!=r2.length()) pelenmismatch++; 
+				if (Math.min(r1.length(),r2.length())>=len && (!pelen || r1.length()==r2.length())) {
 					
 					if (umi!=null) {
-						seq1.getChars(0, umi[0], aumi, 1);
-						seq2.getChars(0, umi[2], aumi, 1+umi[0]);
-						if (tlens!=null && seq1.length()==seq2.length() && seq1.length()!=tlens[0] && seq2.length()!=tlens[1]) {
+						CharSequence seq1 = r1.getSequenceView();
+						CharSequence seq2 = r2.getSequenceView();
+						for (int p=0; p<umi[0]; p++) aumi[1+p] = seq1.charAt(p);
+						for (int p=0; p<umi[2]; p++) aumi[1+umi[0]+p] = seq2.charAt(p);
+						if (tlens!=null && r1.length()==r2.length() && r1.length()!=tlens[0] && r2.length()!=tlens[1]) {
 							// this read has been trimmed, so any umi must be removed from both ends
-							q1=q1.substring(umi[0]+umi[1],seq1.length()-umi[2]-umi[3]);
-							seq1=seq1.substring(umi[0]+umi[1],seq1.length()-umi[2]-umi[3]);
-							q2=q2.substring(umi[2]+umi[3],seq2.length()-umi[0]-umi[1]);
-							seq2=seq2.substring(umi[2]+umi[3],seq2.length()-umi[0]-umi[1]);
+							r1.trim(umi[0]+umi[1],r1.length()-umi[2]-umi[3]);
+							r2.trim(umi[2]+umi[3],r2.length()-umi[0]-umi[1]);
 						} else {
-							seq1=seq1.substring(umi[0]+umi[1]);
-							q1=q1.substring(umi[0]+umi[1]);
-							seq2=seq2.substring(umi[2]+umi[3]);
-							q2=q2.substring(umi[2]+umi[3]);
+							r1.trim(umi[0]+umi[1],r1.length());
+							r2.trim(umi[2]+umi[3],r2.length());
 						}
 					}
 					
 					if (layout1!=null) throw new RuntimeException("Not implemented yet!");
 					
 					if (umiPattern!=null) {
-						Matcher m = umiPattern.matcher(id1);
+						Matcher m = umiPattern.matcher(header(header,r1));
 						if (m.find()) {
 							addId = m.group(1);
-						} else throw new RuntimeException("Could not match umi in fastq header: "+id1);
+						} else throw new RuntimeException("Could not match umi in fastq header: "+header);
 					}
 					
-					if (Math.min(seq1.length(),seq2.length())>=len) {
+					if (Math.min(r1.length(),r2.length())>=len) {
 						
 						if (keepids) throw new RuntimeException("Not implemented for PE!");
 						
-						out1.write("@");
-						out1.write(n+"");
-						if (umi!=null) out1.write(aumi);
-						if (addId!=null) {
-							out1.write("#");
-							out1.write(addId);
-						}
-						out1.writeLine();
-						out1.writeLine(seq1);
-						out1.writeLine("+");
-						out1.writeLine(q1);
-						
-						out2.write("@");
-						out2.write(n+++"");
-						if (umi!=null) out2.write(aumi);
+						name.setLength(0);
+						name.append(n++);
+						if (umi!=null) name.append(aumi);
 						if (addId!=null) {
-							out2.write("#");
-							out2.write(addId);
+							name.append("#");
+							name.append(addId);
 						}
-						out2.writeLine();
-						out2.writeLine(seq2);
-						out2.writeLine("+");
-						out2.writeLine(q2);
+						out1.write(name, r1);
+						out2.write(name, r2);
 					}
 					
 				}
@@ -382,13 +359,46 @@ public class FastqFilter {
 
 
 
-	private static int countPolyA(String seq) {
+	private static int countPolyA(FastqRecord r) {
 		int re = 0;
-		for (int i=seq.length()-1; i>=0 && seq.charAt(i)=='A'; i--)
+		for (int i=r.length()-1; i>=0 && r.sequence(i)=='A'; i--)
 			re++;
 		return re;
 	}
 	
+	/**
+	 * Restricts the record to the given region, as {@link SequenceUtils#extractSequence(GenomicRegion, CharSequence)}; single part regions
+	 * only trim the record, for multi part regions, the extracted sequence and quality are copied to the beginning of the record
+	 */
+	private static void trim(FastqRecord r, GenomicRegion extract) {
+		if (extract.getNumParts()==1) {
+			int from = Math.min(extract.getStart(), r.length());
+			r.trim(from, Math.max(from, Math.min(extract.getEnd(), r.length())));
+			return;
+		}
+		String seq = SequenceUtils.extractSequence(extract, r.getSequenceView());
+		String q = SequenceUtils.extractSequence(extract, r.getQualityView());
+		byte[] buffer = r.getBuffer();
+		for (int i=0; i<seq.length(); i++) {
+			buffer[r.getSequenceStart()+i] = (byte) seq.charAt(i);
+			buffer[r.getQualityStart()+i] = (byte) q.charAt(i);
+		}
+		r.trim(0, seq.length());
+	}
+	
+	/**
+	 * The complete header line (including @) of the record
+	 */
+	private static CharSequence header(ByteArrayCharSequence view, FastqRecord r) {
+		return view.set(r.getBuffer(), r.getNameStart()-1, r.getNameEnd());
+	}
+	
+	private static String tmp(String ending) throws IOException {
+		File f = File.createTempFile("tmp", "."+ending);
+		f.deleteOnExit();
+		return f.getPath();
+	}
+	
 	private static class ReadLayout {
 
 		private ArrayGenomicRegion umiBefore;
@@ -431,21 +441,21 @@ public class FastqFilter {
 			return new ArrayGenomicRegion(re);
 		}
 
-		public String getInsert(String s) {
-			return s.substring(left,s.length()-right);
+		public void trimInsert(FastqRecord r) {
+			r.trim(left,r.length()-right);
 		}
 		
-		public String getUmi(String s) {
+		public String getUmi(CharSequence s) {
 			char[] re = new char[left+right];
 			int offset=0;
 			for (int i=0; i<umiBefore.getNumParts(); i++) {
 				for (int p=umiBefore.getStart(i); p<umiBefore.getEnd(i); p++)
 					re[offset++]=s.charAt(p);
 			}
-			s=s.substring(s.length()-right);
+			int after = s.length()-right;
 			for (int i=0; i<umiAfter.getNumParts(); i++) {
 				for (int p=umiAfter.getStart(i); p<umiAfter.getEnd(i); p++)
-					re[offset++]=s.charAt(p);
+					re[offset++]=s.charAt(after+p);
 			}
 			return String.valueOf(re);
 		}
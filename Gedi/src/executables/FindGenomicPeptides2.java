@@ -27,6 +27,7 @@ import gedi.util.RunUtils;
 import gedi.util.SequenceUtils;
 import gedi.util.StringUtils;
 import gedi.util.datastructure.collections.intcollections.IntArrayList;
+import gedi.util.datastructure.tree.AhoCorasickAutomaton;
 import gedi.util.datastructure.tree.Trie;
 import gedi.util.datastructure.tree.Trie.AhoCorasickResult;
 import gedi.util.functions.EI;
@@ -1086,15 +1087,15 @@ public class FindGenomicPeptides2 {
 			
 			Trie<List<ImmutableReferenceGenomicRegion<String>>> aho = createTrie(context,input,minlen,maxlen);
 			
-			context.getLog().info("Preparing for Aho-Corasick");
-			aho.prepareAhoCorasick();
-			context.getLog().info("Trie has "+aho.getNodeCount()+" nodes!");
+			context.getLog().info("Compiling Aho-Corasick automaton");
+			AhoCorasickAutomaton<List<ImmutableReferenceGenomicRegion<String>>> automaton = aho.compile();
+			context.getLog().info("Automaton has "+automaton.getNumStates()+" states!");
 			
 			
 			if (test)
-				searchTest(context, genomic, fasta, aho, nthreads, minlen,maxlen, rnd, spliced);
+				searchTest(context, genomic, fasta, aho, automaton, nthreads, minlen,maxlen, rnd, spliced);
 			else
-				searchAll(context,genomic,fasta,aho,nthreads,minlen,maxlen, rnd, spliced);
+				searchAll(context,genomic,fasta,aho,automaton,nthreads,minlen,maxlen, rnd, spliced);
 			
 			context.getLog().info("Writing output");
 			
@@ -1179,7 +1180,7 @@ public class FindGenomicPeptides2 {
 		
 
 		private void searchAll(GediProgramContext context, Genomic genomic, String[] fasta,
-				Trie<List<ImmutableReferenceGenomicRegion<String>>> aho, int nthreads, int minlen, int maxlen, boolean rnd, boolean spliced) {
+				Trie<List<ImmutableReferenceGenomicRegion<String>>> aho, AhoCorasickAutomaton<List<ImmutableReferenceGenomicRegion<String>>> automaton, int nthreads, int minlen, int maxlen, boolean rnd, boolean spliced) {
 			
 			FastaHeaderParser pars = new DefaultFastaHeaderParser(' ');
 			
@@ -1218,9 +1219,9 @@ public class FindGenomicPeptides2 {
 					String name = pars.getId(ss.Item1.getHeader());
 					int frame = ss.Item2;
 					if (isDna(seq))
-						return searchDna(name,seq,frame,ran,aho,maxlen);
+						return searchDna(name,seq,frame,ran,automaton,maxlen);
 					else 
-						return searchProtein(name,seq,frame==1,ran,aho);
+						return searchProtein(name,seq,frame==1,ran,automaton);
 				}))
 				.iff(genomic==null, ei->ei.map(a->null))
 				.removeNulls()
@@ -1236,7 +1237,7 @@ public class FindGenomicPeptides2 {
 		}
 		
 		private void searchTest(GediProgramContext context, Genomic genomic, String[] fasta,
-				Trie<List<ImmutableReferenceGenomicRegion<String>>> aho, int nthreads, int minlen, int maxlen, boolean rnd, boolean spliced) {
+				Trie<List<ImmutableReferenceGenomicRegion<String>>> aho, AhoCorasickAutomaton<List<ImmutableReferenceGenomicRegion<String>>> automaton, int nthreads, int minlen, int maxlen, boolean rnd, boolean spliced) {
 			
 			FastaHeaderParser pars = new DefaultFastaHeaderParser(' ');
 			
@@ -1273,9 +1274,9 @@ public class FindGenomicPeptides2 {
 					String name = pars.getId(ss.Item1.getHeader());
 					int frame = ss.Item2;
 					if (isDna(seq))
-						return searchDna(name,seq,frame,ran,aho,maxlen);
+						return searchDna(name,seq,frame,ran,automaton,maxlen);
 					else 
-						return searchProtein(name,seq,frame==0,ran,aho);
+						return searchProtein(name,seq,frame==0,ran,automaton);
 				}))
 				.iff(genomic==null, ei->ei.map(a->null))
 				.removeNulls()
@@ -1298,7 +1299,7 @@ public class FindGenomicPeptides2 {
 		// frame 0-6: target, 6-12 decoy
 		// frame odd: reverse
 		private String searchDna(String name, String seq, int frame, RandomNumbers rnd,
-				Trie<List<ImmutableReferenceGenomicRegion<String>>> aho, int maxl) {
+				AhoCorasickAutomaton<List<ImmutableReferenceGenomicRegion<String>>> aho, int maxl) {
 		
 			boolean transcr = name.contains(":");
 			boolean decoy = frame>=6;
@@ -1331,7 +1332,7 @@ public class FindGenomicPeptides2 {
 				aa = StringUtils.reverse(aa);
 			
 			int c = 0;
-			for (AhoCorasickResult<List<ImmutableReferenceGenomicRegion<String>>> res :  aho.iterateAhoCorasick(aa).loop()) {
+			for (AhoCorasickResult<List<ImmutableReferenceGenomicRegion<String>>> res :  aho.iterate(aa).loop()) {
 				int s;
 				if (!decoy)
 					s = res.getStart()*3+frame;
@@ -1354,7 +1355,7 @@ public class FindGenomicPeptides2 {
 			return "For sequence "+name+" frame "+frame+" reverse "+reverse+" decoy "+decoy+": "+c;
 		}
 		
-		private void findSpliced(String aa, Trie<List<ImmutableReferenceGenomicRegion<String>>> aho,
+		private void findSpliced(String aa, AhoCorasickAutomaton<List<ImmutableReferenceGenomicRegion<String>>> aho,
 				ImmutableReferenceGenomicRegion<Object> parent, boolean decoy, int maxl) {
 			
 			int inter = 25;
@@ -1368,7 +1369,7 @@ public class FindGenomicPeptides2 {
 					split.len2 = Math.min(maxl-1, aa.length()-s-l);
 					
 					
-					for (AhoCorasickResult<List<ImmutableReferenceGenomicRegion<String>>> res :  aho.iterateAhoCorasick(split).loop()) {
+					for (AhoCorasickResult<List<ImmutableReferenceGenomicRegion<String>>> res :  aho.iterate(split).loop()) {
 						if (res.getStart()<split.len1 & res.getEnd()>split.len1)  {
 							
 							GenomicRegion reg = new ArrayGenomicRegion(
@@ -1444,7 +1445,7 @@ public class FindGenomicPeptides2 {
 		}
 
 		private String searchProtein(String name, String seq, boolean decoy, RandomNumbers rnd,
-				Trie<List<ImmutableReferenceGenomicRegion<String>>> aho) {
+				AhoCorasickAutomaton<List<ImmutableReferenceGenomicRegion<String>>> aho) {
 		
 			if (decoy && rnd!=null)
 				seq = rnd.shuffle(seq);
@@ -1452,7 +1453,7 @@ public class FindGenomicPeptides2 {
 				seq = StringUtils.reverse(seq).toString();
 			
 			int c = 0;
-			for (AhoCorasickResult<List<ImmutableReferenceGenomicRegion<String>>> res :  aho.iterateAhoCorasick(seq).loop()) {
+			for (AhoCorasickResult<List<ImmutableReferenceGenomicRegion<String>>> res :  aho.iterate(seq).loop()) {
 				int s = res.getStart();
 				if (decoy) s = seq.length()-s-res.getLength()*3;
 				res.getValue().add(new ImmutableReferenceGenomicRegion<>(Chromosome.obtain(decoy?"REV_"+name:name,true), new ArrayGenomicRegion(s,s+res.getLength()*3), res.getKey().toString()));
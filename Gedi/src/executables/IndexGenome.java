@@ -40,6 +40,7 @@ import gedi.util.io.text.fasta.DefaultFastaHeaderParser;
 import gedi.util.io.text.fasta.FastaEntry;
 import gedi.util.io.text.fasta.FastaFile;
 import gedi.util.io.text.fasta.index.FastaIndexFile;
+import gedi.util.io.text.fasta.index.PackedSequenceFile;
 import gedi.util.io.text.genbank.GenbankFeature;
 import gedi.util.io.text.genbank.GenbankFile;
 import gedi.util.io.text.tsv.formats.GtfFileReader;
@@ -108,6 +109,7 @@ public class IndexGenome {
 		boolean bowtie = true;
 		boolean star = true;
 		boolean kallisto = true;
+		boolean packed = true;
 		int fixedNbases = -1;
 		
 		String ensemblOrg = null;
@@ -168,6 +170,9 @@ public class IndexGenome {
 			else if (args[i].equals("-nokallisto")) {
 				kallisto=false;
 			}
+			else if (args[i].equals("-nopacked")) {
+				packed=false;
+			}
 			else if (args[i].equals("-nbases")) {
 				fixedNbases = checkIntParam(args, ++i);
 			}
@@ -416,6 +421,7 @@ public class IndexGenome {
 			} else {
 				annoStorageClass = aaano.getClass().getSimpleName();
 			}
+			writeAnnotationIndex(aaano);
 			
 			annotPath = StringUtils.removeFooter(seqpath,"fi")+"gtf";
 			if (!new File(annotPath).exists()) {
@@ -522,6 +528,18 @@ public class IndexGenome {
 				System.err.println("Indexed fasta file in "+seqpath);
 				
 			}
+			if (packed) {
+				FastaIndexFile fi = new FastaIndexFile(seqpath).open();
+				PackedSequenceFile pf = PackedSequenceFile.open(fi);
+				if (pf==null) {
+					progress.init().setDescription("Creating packed sequence file "+PackedSequenceFile.getPath(fi));
+					PackedSequenceFile.create(fi);
+					progress.finish();
+					System.err.println("Created packed sequence file "+PackedSequenceFile.getPath(fi));
+				}
+				else pf.close();
+				fi.close();
+			}
 
 			annopath = prefix+".index";
 			genetabpath = prefix+".genes.tab";
@@ -561,8 +579,10 @@ public class IndexGenome {
 					System.err.println("Indexed annotation file in "+annopath);
 					
 					annoStorageClass = cl.getClass().getSimpleName();
+					writeAnnotationIndex(cl);
 				} else {
 					annoStorageClass = aaano.getClass().getSimpleName();
+					writeAnnotationIndex(aaano);
 				}
 				
 			}
@@ -755,6 +775,17 @@ public class IndexGenome {
 	}
 	
 
+	/**
+	 * Writes the frozen index of the annotation that is loaded by {@link gedi.core.genomic.Annotation} instead of building the interval trees.
+	 * @param storage
+	 * @throws IOException
+	 */
+	private static void writeAnnotationIndex(GenomicRegionStorage<Transcript> storage) throws IOException {
+		File index = new File(storage.getPath()+MemoryIntervalTreeStorage.INDEX_EXTENSION);
+		if (!index.exists() || index.lastModified()<new File(storage.getPath()).lastModified())
+			storage.toMemory().writeIndex(index.getPath());
+	}
+	
 	private static void usage(String message) {
 		System.err.println();
 		if (message!=null){
@@ -779,6 +810,7 @@ public class IndexGenome {
 		System.err.println(" -nobowtie\t\t\tDo not create bowtie indices");
 		System.err.println(" -nostar\t\t\tDo not create STAR indices");
 		System.err.println(" -nomapping\t\t\tImplies -nokallisto -nobowtie -nostar");
+		System.err.println(" -nopacked\t\t\tDo not create the 2-bit packed genome (for fast sequence lookups)");
 		System.err.println(" -nbases <nbases>\t\t\tSpecify nbases parameter for STAR (instead of using the formula in the STAR manual)");
 		
 		System.err.println(" -p\t\t\tShow progress");
@@ -8,6 +8,7 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.TreeSet;
 
 import gedi.app.Gedi;
 import gedi.centeredDiskIntervalTree.CenteredDiskIntervalTreeStorage;
@@ -16,9 +17,11 @@ import gedi.core.data.reads.AlignedReadsDataMerger;
 import gedi.core.data.reads.BarcodedAlignedReadsData;
 import gedi.core.data.reads.DefaultAlignedReadsData;
 import gedi.core.reference.Chromosome;
+import gedi.core.reference.ReferenceSequence;
 import gedi.core.region.ImmutableReferenceGenomicRegion;
 import gedi.util.FileUtils;
 import gedi.util.FunctorUtils;
+import gedi.util.StringUtils;
 import gedi.util.FunctorUtils.ParallellIterator;
 import gedi.util.dynamic.DynamicObject;
 import gedi.util.functions.EI;
@@ -27,6 +30,16 @@ import gedi.util.r.RRunner;
 import gedi.util.userInteraction.progress.ConsoleProgress;
 
 public class MergeCIT {
+	
+	private static int checkIntParam(String[] args, int index) {
+		String re = checkParam(args, index);
+		if (!StringUtils.isInt(re)) throw new RuntimeException("Must be an integer: "+args[index-1]);
+		return Integer.parseInt(args[index]);
+	}
+	private static String checkParam(String[] args, int index)  {
+		if (index>=args.length || args[index].startsWith("-")) throw new RuntimeException("Missing argument for "+args[index-1]);
+		return args[index];
+	}
 
 	@SuppressWarnings("unchecked")
 	public static void main(String[] args) throws IOException {
@@ -40,16 +53,27 @@ public class MergeCIT {
 		HashSet<String> skip = new HashSet<>(); 
 		String out = null;
 		String referenceSequence = null;
+		int nthreads = 1;
+		long memory = Runtime.getRuntime().maxMemory()/2;
 		
 		for (int i=0; i<args.length; i++) {
 			if (args[i].equals("-p"))
 				progress = true;
 			else if (args[i].equals("-c"))
 				clear = true;
+			else if (args[i].equals("-nthreads")) {
+				nthreads = checkIntParam(args,++i);
+				if (nthreads<1) throw new RuntimeException("Must be positive: "+args[i-1]);
+			}
+			else if (args[i].equals("-memory")) {
+				memory = checkIntParam(args,++i);
+				if (memory<1) throw new RuntimeException("Must be positive: "+args[i-1]);
+				memory<<=20;
+			}
 			else if (args[i].equals("-ref"))
-				referenceSequence = args[++i];
+				referenceSequence = checkParam(args,++i);
 			else if (args[i].equals("-s"))
-				EI.split(args[++i], ',').toCollection(skip);
+				EI.split(checkParam(args,++i), ',').toCollection(skip);
 			else {
 				out = args[i++];
 				args = Arrays.copyOfRange(args, i, args.length);
@@ -92,33 +116,34 @@ public class MergeCIT {
 		DynamicObject[] metas = EI.wrap(storages).map(CenteredDiskIntervalTreeStorage::getMetaData).filter(d->!d.isNull()).toArray(DynamicObject.class);
 		DynamicObject meta = metas.length==storages.length?DynamicObject.merge(metas):DynamicObject.getEmpty();
 		
-		ExtendedIterator<ImmutableReferenceGenomicRegion<? extends AlignedReadsData>>[] iterators;
-		
-		if (referenceSequence==null) 
-			iterators = (ExtendedIterator[]) 
-					EI.wrap(storages)
-						.map(s->s.ei()
-								.iff(skip.size()>0, ei->ei.filter(rgr->!skip.contains(rgr.getReference().getName())))
-								.checkOrder((Comparator)FunctorUtils.naturalComparator(),()->s.getPath()))
-						.toArray(new ExtendedIterator[0]);
-		else {
+		TreeSet<ReferenceSequence> refs = new TreeSet<>();
+		for (CenteredDiskIntervalTreeStorage<AlignedReadsData> s : storages)
+			refs.addAll(s.getReferenceSequences());
+		if (referenceSequence!=null) {
 			System.out.println("Will only merge on "+referenceSequence);
-			String creferenceSequence = referenceSequence;
-			iterators = (ExtendedIterator[]) 
-			EI.wrap(storages)
-				.map(s->s.ei(Chromosome.obtain(creferenceSequence,true),Chromosome.obtain(creferenceSequence,false))
-						.iff(skip.size()>0, ei->ei.filter(rgr->!skip.contains(rgr.getReference().getName())))
-						.checkOrder((Comparator)FunctorUtils.naturalComparator(),()->s.getPath()))
-				.toArray(new ExtendedIterator[0]);
+			refs.retainAll(Arrays.asList(Chromosome.obtain(referenceSequence,true),Chromosome.obtain(referenceSequence,false)));
 		}
+		refs.removeIf(r->skip.contains(r.getName()));
 		
 		int[] conditions = EI.wrap(storages).mapToInt(s->s.getRandomRecord().getNumConditions()).toIntArray();
 		AlignedReadsDataMerger merger = new AlignedReadsDataMerger(conditions);
 		
-		ParallellIterator<ImmutableReferenceGenomicRegion<? extends AlignedReadsData>> pit = (ParallellIterator<ImmutableReferenceGenomicRegion<? extends AlignedReadsData>>) FunctorUtils.parallellIterator((Iterator[])iterators, FunctorUtils.naturalComparator(), ImmutableReferenceGenomicRegion.class);
-		
 		CenteredDiskIntervalTreeStorage<DefaultAlignedReadsData> outCit = new CenteredDiskIntervalTreeStorage<DefaultAlignedReadsData>(out, cls,compressed);
-		outCit.fill(pit.map(merger::merge).iff(progress, ei->ei.progress(new ConsoleProgress(System.err),-1,e->e.toLocationString()+e.getData())),new ConsoleProgress(System.err));
+		if (nthreads>1)
+			outCit.setParallelBuild(nthreads, memory);
+		
+		// each reference is merged and streamed into its tree by its own thread
+		boolean cprogress = progress && nthreads<=1; // otherwise, progress is reported per reference
+		outCit.fillByReference(refs, ref->{
+			ExtendedIterator<ImmutableReferenceGenomicRegion<? extends AlignedReadsData>>[] iterators = (ExtendedIterator[]) 
+					EI.wrap(storages)
+						.map(s->s.ei(ref)
+								.checkOrder((Comparator)FunctorUtils.naturalComparator(),()->s.getPath()))
+						.toArray(new ExtendedIterator[0]);
+			ParallellIterator<ImmutableReferenceGenomicRegion<? extends AlignedReadsData>> pit = (ParallellIterator<ImmutableReferenceGenomicRegion<? extends AlignedReadsData>>) FunctorUtils.parallellIterator((Iterator[])iterators, FunctorUtils.naturalComparator(), ImmutableReferenceGenomicRegion.class);
+			AlignedReadsDataMerger rmerger = merger.spawn();
+			return pit.map(rmerger::merge).iff(cprogress, ei->ei.progress(new ConsoleProgress(System.err),-1,e->e.toLocationString()+e.getData()));
+		},ref->Arrays.stream(storages).mapToLong(s->s.size(ref)).sum(),new ConsoleProgress(System.err));
 		if (!meta.isNull())
 			outCit.setMetaData(meta);
 		
@@ -166,7 +191,7 @@ public class MergeCIT {
 	}
 
 	private static void usage() {
-		System.out.println("MergeCIT [-c] [-p] [-s skip1,skip2,...] <output> <file1> <file2> ... \n\n -c removes the input files after successful merging\n -p shows progress\n -s skip chromosomes");
+		System.out.println("MergeCIT [-c] [-p] [-nthreads <n> [-memory <MB>]] [-s skip1,skip2,...] <output> <file1> <file2> ... \n\n -c removes the input files after successful merging\n -p shows progress\n -nthreads merge and build the trees of this many references in parallel\n -memory memory budget for building trees in parallel (default: half of the maximal heap size)\n -s skip chromosomes");
 	}
 	
 }
@@ -1016,8 +1016,8 @@ public class Prism {
 						.count()>0) 
 					return false;
 				
-				ArrayList<GenomicRegion> left = g.getTranscripts().getTree(hit.getReference()).getIntervalsLeftNeighbor(hit.getRegion().getStart(), hit.getRegion().getStart(), new ArrayList<>());
-				ArrayList<GenomicRegion> right = g.getTranscripts().getTree(hit.getReference()).getIntervalsRightNeighbor(hit.getRegion().getStop(), hit.getRegion().getStop(), new ArrayList<>());
+				ArrayList<GenomicRegion> left = g.getTranscripts().getReadOnlyTree(hit.getReference()).getIntervalsLeftNeighbor(hit.getRegion().getStart(), hit.getRegion().getStart(), new ArrayList<>());
+				ArrayList<GenomicRegion> right = g.getTranscripts().getReadOnlyTree(hit.getReference()).getIntervalsRightNeighbor(hit.getRegion().getStop(), hit.getRegion().getStop(), new ArrayList<>());
 				if (!left.isEmpty() && !right.isEmpty()) {
 					buf.Item.add(new ImmutableReferenceGenomicRegion<>(hit.getReference(), new ArrayGenomicRegion(left.get(0).getEnd(),right.get(0).getStart())));
 				}
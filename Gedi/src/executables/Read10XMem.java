@@ -50,7 +50,6 @@ import gedi.util.math.stat.counting.Counter;
 import gedi.util.math.stat.descriptive.WeightedMeanVarianceOnline;
 import gedi.util.math.stat.kernel.EpanechnikovKernel;
 import gedi.util.math.stat.kernel.PreparedIntKernel;
-import gedi.util.mutable.MutableInteger;
 import gedi.util.mutable.MutablePair;
 import gedi.util.mutable.MutableTriple;
 import gedi.util.program.CommandLineHandler;
@@ -64,7 +63,7 @@ import gedi.util.program.parametertypes.GenomicParameterType;
 import gedi.util.program.parametertypes.IntParameterType;
 import gedi.util.program.parametertypes.StorageParameterType;
 import gedi.util.program.parametertypes.StringParameterType;
-import gedi.util.sequence.DnaSequence;
+import gedi.util.sequence.PackedDnaSequence;
 import jdistlib.Normal;
 
 
@@ -151,6 +150,7 @@ public class Read10XMem {
 			GenomicRegionStorage<BarcodedAlignedReadsData> reads = getParameter(1);
 			Genomic genomic = getParameter(2);
 			int nthreads = getIntParameter(3);
+			checkBarcodeLength(reads);
 			int maxdist = getIntParameter(4);
 			String whitelistFile = getParameter(5);
 			boolean test = getBooleanParameter(6);
@@ -323,17 +323,14 @@ public class Read10XMem {
 			for (ImmutableReferenceGenomicRegion<BarcodedAlignedReadsData> read : r.getData()) {
 				for (int c=0; c<conditions.length; c++)
 					for (int d=0; d<read.getData().getDistinctSequences(); d++)
-						bco[c].addBarcodes(read.getData().getBarcodes(d, c));
+						bco[c].addBarcodes(read.getData(),d, c);
 			}
-			System.out.println("Determined barcodes: "+EI.wrap(bco).mapToInt(bc->bc.counter.size()).sum());
+			System.out.println("Determined barcodes: "+EI.wrap(bco).mapToInt(bc->bc.size()).sum());
 			
-			HashMap<DnaSequence,MutableInteger>[] w = new HashMap[bco.length];
-			for (int c=0; c<bco.length; c++)
-				w[c] = bco[c].get();
 			// If a umi occurs n times, its weight is n (such that it can be counted as 1/n)
 			
 			// map reads to their weights
-			ArrayList<ImmutableReferenceGenomicRegion<double[]>> umiw = readsToWeights(r.getData(),w);
+			ArrayList<ImmutableReferenceGenomicRegion<double[]>> umiw = readsToWeights(r.getData(),bco);
 			
 			// kernel density estimation, alters r!
 			double[][] smoothed = smooth(g,r,umiw,sd);
@@ -611,14 +608,14 @@ public class Read10XMem {
 
 		private static ArrayList<ImmutableReferenceGenomicRegion<double[]>> readsToWeights(
 				ArrayList<ImmutableReferenceGenomicRegion<BarcodedAlignedReadsData>> data,
-				HashMap<DnaSequence, MutableInteger>[] w) {
+				BarcodeCounter[] w) {
 			ArrayList<ImmutableReferenceGenomicRegion<double[]>> re = new ArrayList<>();
 			for (ImmutableReferenceGenomicRegion<BarcodedAlignedReadsData> read : data) {
 				double[] a = new double[read.getData().getNumConditions()];
 				for (int c=0; c<a.length; c++)
 					for (int d=0; d<read.getData().getDistinctSequences(); d++)
-						for (DnaSequence bc : read.getData().getBarcodes(d, c)) {
-							a[c]+=1.0/w[c].get(bc).N;
+						for (int b=0; b<read.getData().getBarcodeCount(d, c); b++) {
+							a[c]+=1.0/w[c].get(read.getData().getPackedBarcode(d, c, b));
 						}
 				re.add(new ImmutableReferenceGenomicRegion<>(read.getReference(), read.getRegion(),a));
 			}
@@ -637,15 +634,16 @@ public class Read10XMem {
 			int nind = EI.wrap(whitelists).unfold(m->EI.wrap(m.values())).mapToInt(x->x).max()+1;
 			
 			// collect all reads per barcode (full reg, raw probs to peaks, em probs to peaks
-			HashMap<MutablePair<DnaSequence,Integer>,MutableTriple<GenomicRegion,double[],Read10XMerger>> regions = new HashMap<>();
+			HashMap<MutablePair<Long,Integer>,MutableTriple<GenomicRegion,double[],Read10XMerger>> regions = new HashMap<>();
 			for (ImmutableReferenceGenomicRegion<BarcodedAlignedReadsData> r : or.getData()) {
 				for (int d=0; d<r.getData().getDistinctSequences(); d++) {
 					for (int c=0; c<r.getData().getNumConditions(); c++) {
-						for (DnaSequence bc : r.getData().getBarcodes(d, c)) {
-							String cellbc = bc.toString().substring(0,cellBarcodeLength);
+						for (int b=0; b<r.getData().getBarcodeCount(d, c); b++) {
+							long bc = r.getData().getPackedBarcode(d, c, b);
+							String cellbc = PackedDnaSequence.toString(bc, cellBarcodeLength);
 							Integer cell = whitelists[c].get(cellbc); 
 							if (cell!=null) {
-								MutablePair<DnaSequence, Integer> key = new MutablePair<DnaSequence,Integer>(bc,c);
+								MutablePair<Long, Integer> key = new MutablePair<Long,Integer>(bc,c);
 								MutableTriple<GenomicRegion,double[],Read10XMerger> p = regions.computeIfAbsent(key, x->new MutableTriple<>(new ArrayGenomicRegion(),new double[peaks.length],null));
 								p.Item1 = p.Item1.union(r.getRegion());
 							}
@@ -686,16 +684,17 @@ public class Read10XMem {
 			
 //			System.out.println("Finished em");
 			
-			HashMap<MutablePair<DnaSequence,Integer>,ImmutableReferenceGenomicRegion<Void>> barcodeToPeak = em.getMap(regions);
+			HashMap<MutablePair<Long,Integer>,ImmutableReferenceGenomicRegion<Void>> barcodeToPeak = em.getMap(regions);
 			
 			for (ImmutableReferenceGenomicRegion<BarcodedAlignedReadsData> r : or.getData()) {
 				for (int d=0; d<r.getData().getDistinctSequences(); d++) {
 					for (int c=0; c<r.getData().getNumConditions(); c++) {
-						for (DnaSequence bc : r.getData().getBarcodes(d, c)) {
-							String cellbc = bc.toString().substring(0,cellBarcodeLength);
+						for (int b=0; b<r.getData().getBarcodeCount(d, c); b++) {
+							long bc = r.getData().getPackedBarcode(d, c, b);
+							String cellbc = PackedDnaSequence.toString(bc, cellBarcodeLength);
 							Integer cell = whitelists[c].get(cellbc); 
 							if (cell!=null) {
-								MutablePair<DnaSequence, Integer> key = new MutablePair<DnaSequence,Integer>(bc,c);
+								MutablePair<Long, Integer> key = new MutablePair<Long,Integer>(bc,c);
 								MutableTriple<GenomicRegion,double[],Read10XMerger> p = regions.get(key);
 								if (p!=null) { // because of removal
 									if (p.Item3==null) {
@@ -722,12 +721,12 @@ public class Read10XMem {
 //			System.out.println("Assembled reads "+barcodeToPeak.size());
 			
 			HashMap<GenomicRegion,ArrayList<DefaultAlignedReadsData>> pre = new HashMap<>();
-			for (MutablePair<DnaSequence,Integer> pp : regions.keySet()) {
+			for (MutablePair<Long,Integer> pp : regions.keySet()) {
 				
 				MutableTriple<GenomicRegion, double[], Read10XMerger> p = regions.get(pp);
 				
 				ImmutableReferenceGenomicRegion<Void> rgr = new ImmutableReferenceGenomicRegion<>(or.getReference(), p.Item1);
-				String cellbc = pp.Item1.toString().substring(0,cellBarcodeLength);
+				String cellbc = PackedDnaSequence.toString(pp.Item1, cellBarcodeLength);
 				Integer cell = whitelists[pp.Item2].get(cellbc); 
 				
 				AlignedReadsDataFactory fac = new AlignedReadsDataFactory(nind);
@@ -777,8 +776,9 @@ public class Read10XMem {
 			for (ImmutableReferenceGenomicRegion<BarcodedAlignedReadsData> r : or.getData()) {
 				for (int d=0; d<r.getData().getDistinctSequences(); d++) {
 					for (int c=0; c<r.getData().getNumConditions(); c++) {
-						for (DnaSequence bc : r.getData().getBarcodes(d, c)) {
-							String cell = bc.toString().substring(0,cellBarcodeLength);
+						for (int b=0; b<r.getData().getBarcodeCount(d, c); b++) {
+							long bc = r.getData().getPackedBarcode(d, c, b);
+							String cell = PackedDnaSequence.toString(bc, cellBarcodeLength);
 							Integer index = whitelists[c].get(cell); 
 							if (index!=null) {
 								regions.computeIfAbsent(index, x->new ArrayList<>()).add(new MutablePair<>(r, d));
@@ -1233,6 +1233,7 @@ public class Read10XMem {
 			GenomicRegionStorage<BarcodedAlignedReadsData> reads = getParameter(1);
 			Genomic genomic = getParameter(2);
 			int nthreads = getIntParameter(3);
+			checkBarcodeLength(reads);
 
 			
 			String[] signals = {"AATAAA","ATTAAA","AGTAAA","TATAAA"};
@@ -1295,9 +1296,8 @@ public class Read10XMem {
 					for (ImmutableReferenceGenomicRegion<BarcodedAlignedReadsData> read : reads.ei(t).filter(r->isCompatible(t.getRegion(), tgr.set(r.getRegion()))).loop()) {
 						for (int c=0; c<read.getData().getNumConditions(); c++)
 							for (int d=0; d<read.getData().getDistinctSequences(); d++)
-								bco.addBarcodes(read.getData().getBarcodes(d, c));
+								bco.addBarcodes(read.getData(),d, c);
 					}
-					HashMap<DnaSequence, MutableInteger> bcoo = bco.get();
 					WeightedMeanVarianceOnline tmvo = new WeightedMeanVarianceOnline();
 					for (ImmutableReferenceGenomicRegion<BarcodedAlignedReadsData> read : reads.ei(t).filter(r->isCompatible(t.getRegion(), tgr.set(r.getRegion()))).loop()) {
 						int dist = t.getRegion().getTotalLength()-induce(t,tgr.set(read.getRegion())).getStart();
@@ -1305,8 +1305,8 @@ public class Read10XMem {
 							double w = 0;
 							for (int c=0; c<read.getData().getNumConditions(); c++)
 								for (int d=0; d<read.getData().getDistinctSequences(); d++)
-									for (DnaSequence bc : read.getData().getBarcodes(d, c)) 
-										w+=1.0/bcoo.get(bc).N;
+									for (int b=0; b<read.getData().getBarcodeCount(d, c); b++) 
+										w+=1.0/bco.get(read.getData().getPackedBarcode(d, c, b));
 							tmvo.add(dist, w);
 						}
 					}
@@ -1380,17 +1380,63 @@ public class Read10XMem {
 		
 	}
 	
+	/**
+	 * Barcodes (cell barcode and UMI) are processed 2-bit packed, i.e. they must not be longer than {@link PackedDnaSequence#MAX_LENGTH}.
+	 * @param reads
+	 */
+	private static void checkBarcodeLength(GenomicRegionStorage<BarcodedAlignedReadsData> reads) {
+		BarcodedAlignedReadsData r = reads.getRandomRecord();
+		if (r!=null && r.getBarcodeLength()>PackedDnaSequence.MAX_LENGTH)
+			throw new RuntimeException("Barcodes (cell barcode and UMI) must not be longer than "+PackedDnaSequence.MAX_LENGTH+"nt, found "+r.getBarcodeLength()+"nt!");
+	}
+	
+	/**
+	 * Counts 2-bit packed barcodes (of at most {@link PackedDnaSequence#MAX_LENGTH}); all barcodes must be added before they are counted.
+	 * @author erhard
+	 *
+	 */
 	private static class BarcodeCounter {
-		private HashMap<DnaSequence,MutableInteger> counter = new HashMap<DnaSequence,MutableInteger>();
+		private long[] barcodes = new long[16];
+		private int n = 0;
 		
-		public void addBarcodes(DnaSequence[] dna) {
-			for (DnaSequence d : dna) {
-				counter.computeIfAbsent(d, x->new MutableInteger()).N++;
+		private long[] distinct;
+		private int[] counts;
+		private int size = -1;
+		
+		public void addBarcodes(BarcodedAlignedReadsData data, int d, int c) {
+			int count = data.getBarcodeCount(d, c);
+			if (n+count>barcodes.length)
+				barcodes = Arrays.copyOf(barcodes, Math.max(n+count, barcodes.length*2));
+			n+=data.getPackedBarcodes(d, c, barcodes, n);
+			size = -1;
+		}
+		
+		private void group() {
+			if (size<0) {
+				distinct = Arrays.copyOf(barcodes, n);
+				counts = new int[n];
+				size = PackedDnaSequence.group(distinct, 0, n, counts);
 			}
 		}
 		
-		public HashMap<DnaSequence, MutableInteger> get() {
-			return counter;
+		/**
+		 * Number of distinct barcodes
+		 * @return
+		 */
+		public int size() {
+			group();
+			return size;
+		}
+		
+		/**
+		 * How often the given barcode has been added
+		 * @param barcode
+		 * @return
+		 */
+		public int get(long barcode) {
+			group();
+			int ind = Arrays.binarySearch(distinct, 0, size, barcode);
+			return ind<0?0:counts[ind];
 		}
 		
 //		public HashMap<DnaSequence,Double> estimate() {
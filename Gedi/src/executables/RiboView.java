@@ -421,7 +421,7 @@ public class RiboView {
 				loc = rgr.toLocationString();
 			} else {
 				ReferenceSequence ref = loc==null?g.getTranscripts().getReferenceSequences().iterator().next():Chromosome.obtain(loc);
-				GenomicRegion reg = g.getTranscripts().getTree(ref).getRoot().getKey().removeIntrons();
+				GenomicRegion reg = g.getTranscripts().getReadOnlyTree(ref).getRoot().getKey().removeIntrons();
 				reg = reg.extendAll(reg.getTotalLength()/3, reg.getTotalLength()/3);
 				loc = ref.toPlusMinusString()+":"+reg.toRegionString();
 			}
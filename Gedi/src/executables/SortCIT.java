@@ -7,28 +7,40 @@ import java.util.Collections;
 
 import gedi.centeredDiskIntervalTree.CenteredDiskIntervalTreeStorage;
 import gedi.core.data.reads.DefaultAlignedReadsData;
-import gedi.core.reference.ReferenceSequence;
+import gedi.core.region.ArrayGenomicRegion;
 import gedi.core.region.ImmutableReferenceGenomicRegion;
-import gedi.core.region.intervalTree.MemoryIntervalTreeStorage;
 import gedi.util.FileUtils;
+import gedi.util.StringUtils;
 import gedi.util.functions.EI;
 import gedi.util.userInteraction.progress.ConsoleProgress;
 import gedi.util.userInteraction.progress.NoProgress;
 
 /**
- * Most basic by loading it chromosome by chromosome into memory (could be done by repeated intersection queries!)
+ * Sorts by repeated intersection queries: only the regions starting in the current window of a reference are held in memory, and
+ * references are processed in parallel.
  * @author erhard
  *
  */
 public class SortCIT {
 
+	private static int checkPositiveIntParam(String[] args, int index) {
+		if (index>=args.length || args[index].startsWith("-")) throw new RuntimeException("Missing argument for "+args[index-1]);
+		if (!StringUtils.isInt(args[index]) || Integer.parseInt(args[index])<1) throw new RuntimeException("Must be a positive integer: "+args[index-1]);
+		return Integer.parseInt(args[index]);
+	}
 	
 	public static void main(String[] args) throws IOException {
 		boolean progress = false;
+		int nthreads = 1;
+		int window = 1<<20;
 		
 		for (int i=0; i<args.length; i++) {
 			if (args[i].equals("-p"))
 				progress = true;
+			else if (args[i].equals("-nthreads"))
+				nthreads = checkPositiveIntParam(args, ++i);
+			else if (args[i].equals("-window"))
+				window = checkPositiveIntParam(args, ++i);
 			else {
 				args = Arrays.copyOfRange(args, i, args.length);
 				i = args.length;
@@ -43,22 +55,33 @@ public class SortCIT {
 		
 		CenteredDiskIntervalTreeStorage<DefaultAlignedReadsData> in = new CenteredDiskIntervalTreeStorage<>(args[args.length-1]);
 		CenteredDiskIntervalTreeStorage<DefaultAlignedReadsData> out = new CenteredDiskIntervalTreeStorage<>(outPath,in.getType(),in.isCompressed());
+		if (nthreads>1)
+			out.setParallelBuild(nthreads, Runtime.getRuntime().maxMemory()/2);
 
-		ArrayList<ReferenceSequence> refs = new ArrayList<>(in.getReferenceSequences());
-		Collections.sort(refs);
-		
-		boolean uprogress = progress;
-		out.fill(EI.wrap(refs).unfold(ref->{
-			ArrayList<ImmutableReferenceGenomicRegion<DefaultAlignedReadsData>> l = in.ei(ref).progress(uprogress?new ConsoleProgress(System.err):new NoProgress(),(int)in.size(ref), d->d.toString()).list();
-			Collections.sort(l);
-			return EI.wrap(l);
-		}));
+		int uwindow = window;
+		out.fillByReference(in.getReferenceSequences(), ref->{
+			int[] extent = {Integer.MAX_VALUE,0};
+			in.ei(ref).forEachRemaining(r->{
+				extent[0] = Math.min(extent[0], r.getRegion().getStart());
+				extent[1] = Math.max(extent[1], r.getRegion().getEnd());
+			});
+			if (extent[0]>=extent[1]) return null;
+			
+			return EI.seq(extent[0]/uwindow, (extent[1]-1)/uwindow+1).unfold(w->{
+				int start = w*uwindow;
+				ArrayList<ImmutableReferenceGenomicRegion<DefaultAlignedReadsData>> l = in.ei(ref,new ArrayGenomicRegion(start,start+uwindow))
+						.filter(r->r.getRegion().getStart()>=start)
+						.list();
+				Collections.sort(l);
+				return EI.wrap(l);
+			});
+		},in::size,progress?new ConsoleProgress(System.err):new NoProgress());
 		
 	}
 
 
 	private static void usage() {
-		System.out.println("SortCIT [-p] <cit> ... \n\n -p shows progress");
+		System.out.println("SortCIT [-p] [-nthreads <n>] [-window <w>] <cit> ... \n\n -p shows progress\n -nthreads sort this many references in parallel\n -window size of the windows that are sorted in memory (default: 1Mb)");
 	}
 	
 }
@@ -2,6 +2,7 @@ package executables;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 
 import gedi.util.ArrayUtils;
@@ -10,13 +11,15 @@ import gedi.util.datastructure.graph.SimpleDirectedGraph;
 import gedi.util.functions.EI;
 import gedi.util.functions.ExtendedIterator;
 import gedi.util.functions.ParallelizedIterator;
-import gedi.util.io.text.LineIterator;
-import gedi.util.io.text.LineOrientedFile;
-import gedi.util.io.text.LineWriter;
+import gedi.util.io.text.fastq.FastqBatch;
+import gedi.util.io.text.fastq.FastqReader;
+import gedi.util.io.text.fastq.FastqRecord;
+import gedi.util.io.text.fastq.FastqWriter;
 import gedi.util.math.stat.Ranking;
 import gedi.util.sequence.Alphabet;
 import gedi.util.sequence.DnaSequence;
 import gedi.util.sequence.KmerIteratorBuilder;
+import gedi.util.sequence.KmerIteratorBuilder.ByteKMerHashIterator;
 import gedi.util.sequence.KmerIteratorBuilder.KMerHashIterator;
 import gedi.util.userInteraction.progress.ConsoleProgress;
 import gedi.util.userInteraction.progress.NoProgress;
@@ -28,6 +31,7 @@ public class Trim {
 	private static final int KMER_SIZE = 6;
 	public static final double FREQ_CUTOFF = 0.4;
 	private static final int DETERMINE = 100_000;
+	private static final int BATCH = 2000;
 
 	public static void main(String[] args) throws IOException {
 		
@@ -57,16 +61,17 @@ public class Trim {
 	private static void single(Progress prog, String[] args) throws IOException {
 		// Phase 1: Determine adapters
 		KmerIteratorBuilder kmerer = new KmerIteratorBuilder(Alphabet.getDna(),KMER_SIZE);
-		ParallelizedIterator<String, Object, int[]> para = EI.lines(args[0])
-				.head(DETERMINE*4)//Runtime.getRuntime().availableProcessors()
-				.parallelized(1, 8000,()->new int[kmerer.getNumKmers()], 
+		ParallelizedIterator<FastqBatch, Object, int[]> para = new FastqReader(args[0]).batches(BATCH)
+				.head(DETERMINE/BATCH)//Runtime.getRuntime().availableProcessors()
+				.parallelized(1, 1,()->new int[kmerer.getNumKmers()], 
 						(eit,state)->{
+							FastqRecord r = new FastqRecord();
 							while (eit.hasNext()) {
-								eit.next(); // Header 1
-								String s1 = eit.next();
-								eit.next(); // inter 1
-								eit.next(); // qual 1
-								kmerer.iterateSequence(s1,hash->state[hash]++);
+								FastqBatch b = eit.next();
+								for (int i=0; i<b.size(); i++) {
+									b.get(i, r);
+									kmerer.iterateSequence(r.getBuffer(),r.getSequenceStart(),r.getSequenceEnd(),hash->state[hash]++);
+								}
 							}
 							return EI.empty();
 						}
@@ -79,30 +84,30 @@ public class Trim {
 
 		int argmax = ArrayUtils.argmax(histo);
 
-		ParallelizedIterator<String, Object, DetermineState> para2 = EI.lines(args[0])
-				.head(DETERMINE*4)//Runtime.getRuntime().availableProcessors()
-				.parallelized(1, 8000,()->new DetermineState(), 
+		ParallelizedIterator<FastqBatch, Object, DetermineState> para2 = new FastqReader(args[0]).batches(BATCH)
+				.head(DETERMINE/BATCH)//Runtime.getRuntime().availableProcessors()
+				.parallelized(1, 1,()->new DetermineState(), 
 						(eit,state)->{
+							FastqRecord r = new FastqRecord();
 							while (eit.hasNext()) {
-								eit.next(); // Header 1
-								String s1 = eit.next();
-								eit.next(); // inter 1
-								eit.next(); // qual 1
-								KMerHashIterator kit = kmerer.iterateSequence(s1);
-								while (kit.hasNext()) {
-									int hash = kit.nextInt();
-									if (histo[hash]>histo[argmax]*FREQ_CUTOFF) {
-										int m = kit.getLastOffset();
-										for (int i=m; i<s1.length(); i++) {
-											int ind = SequenceUtils.inv_nucleotides[s1.charAt(i)];
-											if (ind>=0 && ind<5)
-												state.fw[i-m][ind]++;
+								FastqBatch b = eit.next();
+								for (int ri=0; ri<b.size(); ri++) {
+									b.get(ri, r);
+									ByteKMerHashIterator kit = kmerer.iterateSequence(r.getBuffer(),r.getSequenceStart(),r.getSequenceEnd());
+									while (kit.hasNext()) {
+										int hash = kit.nextInt();
+										if (histo[hash]>histo[argmax]*FREQ_CUTOFF) {
+											int m = kit.getLastOffset();
+											for (int i=m; i<r.length(); i++) {
+												int ind = SequenceUtils.inv_nucleotides[r.sequence(i)&0xFF];
+												if (ind>=0 && ind<5)
+													state.fw[i-m][ind]++;
+											}
+											kit.drain();
 										}
-										kit.drain();
 									}
 								}
 								
-								
 							}
 							return EI.empty();
 						}
@@ -121,28 +126,29 @@ public class Trim {
 	
 	private static void paired(Progress prog, String[] args) throws IOException {
 		// Phase 1: Determine adapters
-		ParallelizedIterator<String, Object, DetermineState> para = EI.lines(args[0]).alternating(EI.lines(args[1]))
-				.head(DETERMINE*8)//Runtime.getRuntime().availableProcessors()
-				.parallelized(1, 8000,()->new DetermineState(), 
+		ParallelizedIterator<FastqBatch, Object, DetermineState> para = new FastqReader(args[0]).batches(BATCH).alternating(new FastqReader(args[1]).batches(BATCH))
+				.head(DETERMINE/BATCH*2)//Runtime.getRuntime().availableProcessors()
+				.parallelized(1, 2,()->new DetermineState(), 
 						(eit,state)->{
+							FastqRecord r1 = new FastqRecord();
+							FastqRecord r2 = new FastqRecord();
 							while (eit.hasNext()) {
-								eit.next(); // Header 1
-								eit.next(); // Header 2
-								String s1 = eit.next();
-								String s2 = eit.next();
-								eit.next(); // inter 1
-								eit.next(); // inter 2
-								eit.next(); // qual 1
-								eit.next(); // qual 2
-								int m = suffixPrefixMatch(s1, SequenceUtils.getDnaReverseComplement(s2));
-//								System.out.println(m);
-								for (int i=m; i<s1.length(); i++) {
-									int ind = SequenceUtils.inv_nucleotides[s1.charAt(i)];
-									if (ind>=0 && ind<5)
-										state.fw[i-m][ind]++;
-									ind = SequenceUtils.inv_nucleotides[s2.charAt(i)];
-									if (ind>=0 && ind<5)
-										state.bw[i-m][ind]++;
+								FastqBatch b1 = eit.next();
+								FastqBatch b2 = eit.next();
+								checkPaired(b1, b2);
+								for (int ri=0; ri<b1.size(); ri++) {
+									CharSequence s1 = b1.get(ri, r1).getSequenceView();
+									CharSequence s2 = b2.get(ri, r2).getSequenceView();
+									int m = suffixPrefixMatch(s1, SequenceUtils.getDnaReverseComplement(s2));
+	//								System.out.println(m);
+									for (int i=m; i<s1.length(); i++) {
+										int ind = SequenceUtils.inv_nucleotides[s1.charAt(i)];
+										if (ind>=0 && ind<5)
+											state.fw[i-m][ind]++;
+										ind = SequenceUtils.inv_nucleotides[s2.charAt(i)];
+										if (ind>=0 && ind<5)
+											state.bw[i-m][ind]++;
+									}
 								}
 							}
 							return EI.empty();
@@ -173,60 +179,58 @@ public class Trim {
 			bwpos[hash] = it.getLastOffset();
 		}
 		
-		// phase 2: trim
-		ExtendedIterator<String> rit = EI.lines(args[0]).alternating(EI.lines(args[1]))
+		// phase 2: trim (records are trimmed within their batches)
+		ExtendedIterator<FastqBatch> rit = new FastqReader(args[0]).batches(BATCH).alternating(new FastqReader(args[1]).batches(BATCH))
 			.progress(prog,-1,a->"Processing reads")	
-			.parallelized(Runtime.getRuntime().availableProcessors(), 8000,
+			.parallelized(Runtime.getRuntime().availableProcessors(), 2,
 				eit->{
-					String[] re = new String[4000];
-					int ind = 0;
+					ArrayList<FastqBatch> re = new ArrayList<>();
+					FastqRecord r1 = new FastqRecord();
+					FastqRecord r2 = new FastqRecord();
 					while (eit.hasNext()) {
-						eit.next(); // Header 1
-						eit.next(); // Header 2
-						String s1 = eit.next();
-						String s2 = eit.next();
-						eit.next(); // inter 1
-						eit.next(); // inter 2
-						String q1 = eit.next(); // qual 1
-						String q2 = eit.next(); // qual 2
-						int m = findAdapter(s1,s2,fw,bw,fwpos,kmerer);
-						if (m==-1)
-							m = findAdapter(s2,s1,bw,fw, bwpos,kmerer);
-						if (m==-1)
-							m = expensiveMatch(s1, s2, fw, bw);
-						
-						if (m==-1) {
-							re[ind++] = s1;
-							re[ind++] = q1;
-							re[ind++] = s2;
-							re[ind++] = q2;
-						}
-						else {
-							re[ind++] = s1.substring(0,m);
-							re[ind++] = q1.substring(0,m);
-							re[ind++] = s2.substring(0,m);
-							re[ind++] = q2.substring(0,m);
+						FastqBatch b1 = eit.next();
+						FastqBatch b2 = eit.next();
+						checkPaired(b1, b2);
+						for (int ri=0; ri<b1.size(); ri++) {
+							b1.get(ri, r1);
+							b2.get(ri, r2);
+							int m = findAdapter(r1,r2,fw,bw,fwpos,kmerer);
+							if (m==-1)
+								m = findAdapter(r2,r1,bw,fw, bwpos,kmerer);
+							if (m==-1)
+								m = expensiveMatch(r1.getSequenceView(), r2.getSequenceView(), fw, bw);
+							
+							if (m!=-1) {
+								r1.trim(0, m);
+								r2.trim(0, m);
+							}
 						}
+						re.add(b1);
+						re.add(b2);
 					}
 					return EI.wrap(re);
 				}
 				);
 		
-		LineWriter wfw = new LineOrientedFile(args[2]).write();
-		LineWriter wbw = new LineOrientedFile(args[3]).write();
+		FastqWriter wfw = new FastqWriter(args[2]);
+		FastqWriter wbw = new FastqWriter(args[3]);
 		
-		int index = 0;
+		long index = 0;
 		while (rit.hasNext()) {
-			wfw.writef2("@%d\n%s\n+\n%s\n", index,rit.next(),rit.next());
-			wbw.writef2("@%d\n%s\n+\n%s\n", index,rit.next(),rit.next());
-			index++;
+			wfw.write(rit.next(), index);
+			index = wbw.write(rit.next(), index);
 		}
 		wfw.close();
 		wbw.close();
 		
 	}
 	
-	private static int expensiveMatch(String a, String b, String aadapt, String badapt) {
+	private static void checkPaired(FastqBatch b1, FastqBatch b2) {
+		if (b2==null || b1.size()!=b2.size())
+			throw new RuntimeException("Input files do not match!");
+	}
+	
+	private static int expensiveMatch(CharSequence a, CharSequence b, String aadapt, String badapt) {
 		for (int m=0; m<a.length(); m++) {
 			int maxmm = (m+aadapt.length()+badapt.length())/6;
 			if (mismatches(a, b, aadapt, badapt, m, maxmm))
@@ -236,8 +240,10 @@ public class Trim {
 	}
 
 
-	private static int findAdapter(String a, String b, String aadap, String badap, int[] pos, KmerIteratorBuilder kmerer) {
-		KMerHashIterator it = kmerer.iterateSequence(a);
+	private static int findAdapter(FastqRecord ra, FastqRecord rb, String aadap, String badap, int[] pos, KmerIteratorBuilder kmerer) {
+		ByteKMerHashIterator it = kmerer.iterateSequence(ra.getBuffer(),ra.getSequenceStart(),ra.getSequenceEnd());
+		CharSequence a = ra.getSequenceView();
+		CharSequence b = rb.getSequenceView();
 		int lastm = -1;
 		while (it.hasNext()) {
 			int hash = it.nextInt();
@@ -254,7 +260,7 @@ public class Trim {
 	}
 
 	// counts the mismatches
-	private static boolean mismatches(String a, String b, String aadap, String badap, int m, int maxmm) { 
+	private static boolean mismatches(CharSequence a, CharSequence b, String aadap, String badap, int m, int maxmm) { 
 		int mm = 0;
 		for (int i=0; i<m; i++)
 			if (a.charAt(i)!=SequenceUtils.getDnaComplement(b.charAt(m-1-i))) {
@@ -312,7 +318,7 @@ public class Trim {
 		
 	}
 	
-	private static int suffixPrefixMatch(String a, String b) {
+	private static int suffixPrefixMatch(CharSequence a, String b) {
 		assert a.length()==b.length();
 		int p = 0;
 		int s = 0;
@@ -323,7 +329,7 @@ public class Trim {
 			p+=1<<(hp*4);
 			s+=1<<(hs*4);
 			if (p==s) {
-				if (a.substring(0,i+1).equals(b.substring(b.length()-i-1)))
+				if (b.substring(b.length()-i-1).contentEquals(a.subSequence(0,i+1)))
 					re = i+1;
 			}
 		}
@@ -16,7 +16,10 @@ import gedi.core.workspace.loader.WorkspaceItemLoaderExtensionPoint;
 import gedi.util.LogUtils;
 import gedi.util.LogUtils.LogMode;
 import gedi.util.StringUtils;
+import gedi.util.dynamic.DynamicObject;
 import gedi.util.functions.EI;
+import gedi.util.io.randomaccess.ConcurrentPageFile;
+import gedi.util.io.randomaccess.PageCache;
 
 public class Gedi {
 	
@@ -42,6 +45,7 @@ public class Gedi {
 			long start = System.currentTimeMillis();
 			Config.getInstance();
 			LogUtils.config(mode,false);
+			configurePageCache();
 			
 			Logger log = getLog();
 			log.info("OS: "+System.getProperty("os.name")+" "+System.getProperty("os.version")+" "+System.getProperty("os.arch"));
@@ -67,6 +71,18 @@ public class Gedi {
 		started = true;
 	}
 	
+	/**
+	 * Applies the pagecache entry of the config (e.g. {"pagecache": {"windowMB": 64, "windows": 64}}, windowMB 0 maps whole pages) to all
+	 * {@link ConcurrentPageFile}s opened afterwards.
+	 */
+	private static void configurePageCache() {
+		DynamicObject pc = Config.getInstance().getConfig().getEntry("pagecache");
+		if (pc.hasProperty("windowMB") || pc.hasProperty("windows"))
+			ConcurrentPageFile.setDefaultPageCache(
+					pc.hasProperty("windowMB")?pc.getEntry("windowMB").asInt()*(1L<<20):PageCache.DEFAULT_WINDOW_SIZE,
+					pc.hasProperty("windows")?pc.getEntry("windows").asInt():PageCache.DEFAULT_MAX_WINDOWS);
+	}
+	
 	private static class ShutdownRunnable implements Runnable {
 
 		private Logger log;
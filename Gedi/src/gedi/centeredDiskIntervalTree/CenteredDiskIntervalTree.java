@@ -1,6 +1,7 @@
 package gedi.centeredDiskIntervalTree;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Map;
@@ -14,8 +15,12 @@ import gedi.core.region.ArrayGenomicRegion;
 import gedi.core.region.GenomicRegion;
 import gedi.core.region.MutableReferenceGenomicRegion;
 import gedi.util.FileUtils;
+import gedi.util.io.randomaccess.BinaryReader;
 import gedi.util.io.randomaccess.ConcurrentPageFile;
 import gedi.util.io.randomaccess.ConcurrentPageFileView;
+import gedi.util.io.randomaccess.blocks.BlockCache;
+import gedi.util.io.randomaccess.blocks.BlockCodec;
+import gedi.util.io.randomaccess.blocks.BlockCompressedView;
 
 /**
  * four parts:
@@ -39,6 +44,9 @@ import gedi.util.io.randomaccess.ConcurrentPageFileView;
  * 4. Data
  * Depends on D
  * 
+ * If the tree is block compressed (see {@link CenteredDiskIntervalTreeBlockCompressor}), parts 3 and 4 are sections written by 
+ * {@link gedi.util.io.randomaccess.blocks.BlockCompressedWriter}, and all offsets refer to the uncompressed data.
+ * 
  * @author erhard
  *
  * @param <D>
@@ -47,8 +55,10 @@ public class CenteredDiskIntervalTree<D> {
 
 	private ConcurrentPageFileView all;
 	private ConcurrentPageFileView nodes;
-	private ConcurrentPageFileView lists;
-	private ConcurrentPageFileView data;
+	private BinaryReader lists;
+	private BinaryReader data;
+	
+	private BlockCodec blockCodec;
 	
 	
 	private int size = -1;
@@ -56,6 +66,7 @@ public class CenteredDiskIntervalTree<D> {
 	private int max;
 	
 	private Supplier<D> supplier;
+	private boolean reuseData = false;
 	
 	private ConcurrentPageFile parent;
 	private long origEnd;
@@ -87,6 +98,31 @@ public class CenteredDiskIntervalTree<D> {
 		this.supplier = supplier;
 	}
 	
+	/**
+	 * If set, the spliterators obtain a single data object from the supplier and deserialize each record into it (i.e. the data
+	 * of the {@link MutableReferenceGenomicRegion} is overwritten when advancing, just as the region itself).
+	 * @param reuseData
+	 */
+	public void setReuseData(boolean reuseData) {
+		this.reuseData = reuseData;
+	}
+	
+	public boolean isReuseData() {
+		return reuseData;
+	}
+	
+	/**
+	 * Lists and data are block compressed with the given codec; must be set before anything is read.
+	 * @param blockCodec
+	 */
+	public void setBlockCodec(BlockCodec blockCodec) {
+		this.blockCodec = blockCodec;
+	}
+	
+	public BlockCodec getBlockCodec() {
+		return blockCodec;
+	}
+	
 	private void readHeader() {
 		if (data==null){
 			
@@ -121,11 +157,11 @@ public class CenteredDiskIntervalTree<D> {
 						start = all.getStart()+listsOffset;
 						end = all.getStart()+dataOffset;
 //						System.out.println("Lists: "+start+"-"+end);
-						lists = new ConcurrentPageFileView(parent,start,end);
+						lists = createSection(start,end);
 						start = all.getStart()+dataOffset;
 						end = origEnd;
 //						System.out.println("Data: "+start+"-"+end);
-						data = new ConcurrentPageFileView(parent,start,end);
+						data = createSection(start,end);
 						
 					} catch (IOException e) {
 						throw new RuntimeException("Wrong file format!",e);
@@ -137,6 +173,13 @@ public class CenteredDiskIntervalTree<D> {
 		}
 	}
 	
+	private BinaryReader createSection(long start, long end) throws IOException {
+		ConcurrentPageFileView raw = new ConcurrentPageFileView(parent,start,end);
+		if (blockCodec==null) return raw;
+		// keyed by the file, such that all blocks are removed from the cache when the storage is closed
+		return new BlockCompressedView(raw, blockCodec, BlockCache.getInstance(), parent);
+	}
+	
 	public int size() {
 		readHeader();
 		return count;
@@ -161,52 +204,49 @@ public class CenteredDiskIntervalTree<D> {
 
 	public Spliterator<MutableReferenceGenomicRegion<D>> spliterator(ReferenceSequence ref) {
 //		return iterateIntersectingRegions(ref, new ArrayGenomicRegion(0,Integer.MAX_VALUE));
-		try {
-			readHeader();
-			ConcurrentPageFileView file = new ConcurrentPageFileView(data);
-			
-			return new Spliterator<MutableReferenceGenomicRegion<D>>() {
-				MutableReferenceGenomicRegion<D> mrgr = new MutableReferenceGenomicRegion<D>();
-				@Override
-				public boolean tryAdvance(Consumer<? super MutableReferenceGenomicRegion<D>> action) {
-					try {
-						if (file.eof()) return false;
-						
-						GenomicRegion re = getRegion(file);//new PageGenomicRegion(new PageFile(file.getPath(), offset, offset+parts*2*Integer.BYTES));
-						D d = supplier.get();
-						FileUtils.deserialize(d,file);// dummy to advance
-						
-						action.accept(mrgr.set(ref, re, d));
-						return true;
-						
-					} catch (IOException e) {
-						throw new RuntimeException("Cannot read entry!",e);
-					}
+		readHeader();
+		BinaryReader file = data.view(0, data.size());
+		
+		return new Spliterator<MutableReferenceGenomicRegion<D>>() {
+			MutableReferenceGenomicRegion<D> mrgr = new MutableReferenceGenomicRegion<D>();
+			D reused = reuseData?supplier.get():null;
+			@Override
+			public boolean tryAdvance(Consumer<? super MutableReferenceGenomicRegion<D>> action) {
+				try {
+					if (file.eof()) return false;
+					
+					GenomicRegion re = getRegion(file);//new PageGenomicRegion(new PageFile(file.getPath(), offset, offset+parts*2*Integer.BYTES));
+					D d = reused!=null?reused:supplier.get();
+					FileUtils.deserialize(d,file);// dummy to advance
+					
+					action.accept(mrgr.set(ref, re, d));
+					return true;
+					
+				} catch (IOException e) {
+					throw new RuntimeException("Cannot read entry!",e);
 				}
+			}
 	
-				@Override
-				public Spliterator<MutableReferenceGenomicRegion<D>> trySplit() {
-					return null;
-				}
+			@Override
+			public Spliterator<MutableReferenceGenomicRegion<D>> trySplit() {
+				return null;
+			}
 	
-				@Override
-				public long estimateSize() {
-					readHeader();
-					return count;
-				}
+			@Override
+			public long estimateSize() {
+				readHeader();
+				return count;
+			}
 	
-				@Override
-				public int characteristics() {
-					return DISTINCT|NONNULL|ORDERED|IMMUTABLE|SIZED;
-				}
-				
-			};
-		} catch (IOException e) {
-			throw new RuntimeException("Cannot read file!",e);
-		}
+			@Override
+			public int characteristics() {
+				return DISTINCT|NONNULL|ORDERED|IMMUTABLE|SIZED;
+			}
+			
+		};
 	}
 
-	protected GenomicRegion getRegion(ConcurrentPageFileView file) throws IOException {
+	protected GenomicRegion getRegion(BinaryReader file) throws IOException {
 		int[] re = new int[file.getCInt()*2];
 		for (int i=0; i<re.length; i++) {
 			re[i] = file.getCInt();
@@ -301,9 +341,12 @@ public class CenteredDiskIntervalTree<D> {
 		for (Long l : data) {
 			offs[index++] = l;
 		}
+		// file order, i.e. sorted by start if the tree was filled in sorted order (and sequential reads)
+		Arrays.sort(offs);
 		
 		return new Spliterator<MutableReferenceGenomicRegion<D>>() {
 			MutableReferenceGenomicRegion<D> re = new MutableReferenceGenomicRegion<D>();
+			D reused = reuseData?supplier.get():null;
 			int index;
 			@Override
 			public boolean tryAdvance(
@@ -315,7 +358,7 @@ public class CenteredDiskIntervalTree<D> {
 				try {
 					CenteredDiskIntervalTree.this.data.position(offs[index++]);
 					GenomicRegion reg = getRegion(CenteredDiskIntervalTree.this.data);
-					D d = supplier.get();
+					D d = reused!=null?reused:supplier.get();
 					FileUtils.deserialize(d,CenteredDiskIntervalTree.this.data);
 					
 					action.accept(re.set(reference, reg, d));
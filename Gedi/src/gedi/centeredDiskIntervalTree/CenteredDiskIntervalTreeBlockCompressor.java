@@ -0,0 +1,54 @@
+package gedi.centeredDiskIntervalTree;
+
+import java.io.IOException;
+
+import gedi.util.io.randomaccess.BinaryReader;
+import gedi.util.io.randomaccess.PageFileWriter;
+import gedi.util.io.randomaccess.blocks.BlockCodec;
+import gedi.util.io.randomaccess.blocks.BlockCompressedWriter;
+
+/**
+ * Converts a single tree as written by {@link CenteredDiskIntervalTreeBuilder#build(PageFileWriter)} into its block compressed form,
+ * i.e. header and nodes are copied, lists and data are compressed by {@link BlockCompressedWriter}.
+ * 
+ * @author erhard
+ *
+ */
+public class CenteredDiskIntervalTreeBlockCompressor {
+
+	private static final int HEADER_SIZE = InternalCenteredDiskIntervalTreeBuilder.MAGIC.length()+3*Integer.BYTES+2*Long.BYTES;
+	
+	/**
+	 * 
+	 * @param tree the uncompressed tree (from 0 to tree.size())
+	 * @param out
+	 * @param codec
+	 * @param blockSize
+	 * @throws IOException
+	 */
+	public static void compress(BinaryReader tree, PageFileWriter out, BlockCodec codec, int blockSize) throws IOException {
+		long listsOffset = tree.getLong(HEADER_SIZE-2*Long.BYTES);
+		long dataOffset = tree.getLong(HEADER_SIZE-Long.BYTES);
+		
+		long start = out.position();
+		byte[] buff = new byte[(int) Math.max(HEADER_SIZE, Math.min(listsOffset, 1<<20))];
+		for (long p=0; p<listsOffset; ) {
+			int l = (int) Math.min(buff.length, listsOffset-p);
+			tree.get(p, buff, 0, l);
+			out.put(buff, 0, l);
+			p+=l;
+		}
+		
+		long nlistsOffset = out.position()-start;
+		BlockCompressedWriter.write(tree, listsOffset, dataOffset, out, codec, blockSize);
+		long ndataOffset = out.position()-start;
+		BlockCompressedWriter.write(tree, dataOffset, tree.size(), out, codec, blockSize);
+		
+		long cont = out.position();
+		out.position(start+HEADER_SIZE-2*Long.BYTES);
+		out.putLong(nlistsOffset);
+		out.putLong(ndataOffset);
+		out.position(cont);
+	}
+	
+}
@@ -0,0 +1,113 @@
+package gedi.centeredDiskIntervalTree;
+
+import java.io.File;
+import java.io.IOException;
+
+import gedi.core.region.ArrayGenomicRegion;
+import gedi.core.region.GenomicRegion;
+import gedi.util.FileUtils;
+import gedi.util.dynamic.DynamicObject;
+import gedi.util.io.randomaccess.PageFile;
+import gedi.util.io.randomaccess.PageFileWriter;
+
+/**
+ * Collects the (serialized) regions of a single reference in a temporary file, such that the tree can later be built by
+ * {@link #feed(InternalCenteredDiskIntervalTreeBuilder)} on another thread. Data are serialized in the same way as by
+ * the {@link InternalCenteredDiskIntervalTreeBuilder} (i.e. with respect to the global info) and are copied as is.
+ *
+ * @author erhard
+ *
+ * @param <D>
+ */
+public class CenteredDiskIntervalTreeSpill<D> {
+
+	/**
+	 * Approximate number of bytes per region part occupied by a {@link CenteredDiskIntervalTreeBuilder} (two nodes and their list entries)
+	 */
+	public static final long BYTES_PER_PART = 80;
+
+	private static final long SPILL_PAGE_SIZE = 1<<24;
+
+	private PageFileWriter out;
+	private int count = 0;
+	private long parts = 0;
+
+	public CenteredDiskIntervalTreeSpill(String tmpFolder, String prefix, DynamicObject globalInfo) throws IOException {
+		String path = File.createTempFile(prefix+".SPILL", ".data", new File(tmpFolder)).getPath();
+		out = new PageFileWriter(path);
+		out.setPageSize(SPILL_PAGE_SIZE);
+		out.getContext().setGlobalInfo(globalInfo);
+	}
+
+	public void add(GenomicRegion region, D data) throws IOException {
+		if (region.getBoundary(0)>Integer.MAX_VALUE/2 || region.getBoundary(0)<0)
+			return;
+
+		out.putCInt(region.getNumParts());
+		int start = region.getBoundary(0);
+		out.putCInt(start);
+		for (int i=1; i<region.getNumBoundaries(); i++)
+			out.putCInt(region.getBoundary(i)-start);
+
+		long lenPos = out.position();
+		out.putInt(0);
+		FileUtils.serialize(data,out);
+		long end = out.position();
+		out.putInt(lenPos, (int) (end-lenPos-Integer.BYTES));
+
+		count++;
+		parts+=region.getNumParts();
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Approximate heap size needed to build the tree for this reference
+	 * @return
+	 */
+	public long estimateMemory() {
+		return parts*BYTES_PER_PART;
+	}
+
+	/**
+	 * Adds all collected regions to the builder (in the order they have been added here) and removes the temporary file.
+	 * @param builder
+	 * @return
+	 * @throws IOException
+	 */
+	public InternalCenteredDiskIntervalTreeBuilder<D> feed(InternalCenteredDiskIntervalTreeBuilder<D> builder) throws IOException {
+		out.close();
+
+		PageFile in = new PageFile(out.getPath());
+		byte[] buff = new byte[1024];
+		while (!in.eof()) {
+			int n = in.getCInt();
+			int[] coords = new int[n*2];
+			coords[0] = in.getCInt();
+			for (int i=1; i<coords.length; i++)
+				coords[i] = coords[0]+in.getCInt();
+
+			int len = in.getInt();
+			if (len>buff.length) buff = new byte[Math.max(len, buff.length*2)];
+			if (len>0) in.get(buff, 0, len);
+			builder.add(new ArrayGenomicRegion(coords), buff, 0, len);
+		}
+		in.close();
+		new File(out.getPath()).delete();
+		return builder;
+	}
+
+	/**
+	 * Removes the temporary file without building anything (e.g. if building the storage failed).
+	 */
+	public void delete() {
+		try {
+			out.close();
+		} catch (IOException e) {
+		}
+		new File(out.getPath()).delete();
+	}
+
+}
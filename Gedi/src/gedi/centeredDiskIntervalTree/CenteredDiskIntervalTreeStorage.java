@@ -13,8 +13,16 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Spliterator;
 import java.util.Spliterators;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 
 import gedi.app.extension.GlobalInfoProvider;
 import gedi.core.reference.Chromosome;
@@ -27,7 +35,11 @@ import gedi.util.FileUtils;
 import gedi.util.FunctorUtils;
 import gedi.util.dynamic.DynamicObject;
 import gedi.util.io.randomaccess.ConcurrentPageFile;
+import gedi.util.io.randomaccess.PageFile;
 import gedi.util.io.randomaccess.PageFileWriter;
+import gedi.util.io.randomaccess.blocks.BlockCache;
+import gedi.util.io.randomaccess.blocks.BlockCodec;
+import gedi.util.io.randomaccess.blocks.BlockCompressedWriter;
 import gedi.util.io.text.LineOrientedFile;
 import gedi.util.mutable.MutableLong;
 import gedi.util.userInteraction.progress.Progress;
@@ -37,6 +49,7 @@ public class CenteredDiskIntervalTreeStorage<D>  implements GenomicRegionStorage
 	
 	public static final String MAGIC = "CDITS";
 	public static final String EXT_MAGIC = "ECDIT";
+	public static final String BLOCK_MAGIC = "BCDIT";
 	
 	private String path;
 	
@@ -47,6 +60,8 @@ public class CenteredDiskIntervalTreeStorage<D>  implements GenomicRegionStorage
 	private String extendedJson;
 	
 	private boolean compression;
+	private BlockCodec blockCodec;
+	private int blockSize = BlockCompressedWriter.DEFAULT_BLOCK_SIZE;
 	
 	public CenteredDiskIntervalTreeStorage(String file, Class<D> dataClass) throws IOException {
 		this(file,dataClass,false);
@@ -80,6 +95,56 @@ public class CenteredDiskIntervalTreeStorage<D>  implements GenomicRegionStorage
 		return compression;
 	}
 	
+	/**
+	 * Writes lists and data of each tree in blocks of the given size compressed by the codec (file version {@link #BLOCK_MAGIC}) instead of
+	 * compressing each record individually. Queries only decompress the blocks they touch, decompressed blocks are shared between
+	 * threads in the {@link BlockCache}.
+	 * @param codec
+	 * @param blockSize
+	 */
+	public void setBlockCompression(BlockCodec codec, int blockSize) {
+		this.blockCodec = codec;
+		this.blockSize = blockSize;
+		if (codec!=null)
+			this.compression = false;
+	}
+	
+	public boolean isBlockCompressed() {
+		return blockCodec!=null;
+	}
+	
+	public BlockCodec getBlockCodec() {
+		return blockCodec;
+	}
+	
+	private String getWriteMagic() {
+		return blockCodec==null?EXT_MAGIC:BLOCK_MAGIC;
+	}
+	
+	private DynamicObject getCompressionInfo() {
+		if (blockCodec==null)
+			return DynamicObject.from("compress", compression);
+		return DynamicObject.from("compress", compression)
+				.merge(DynamicObject.from("blockCodec", blockCodec.getName()))
+				.merge(DynamicObject.from("blockSize", blockSize));
+	}
+	
+	/**
+	 * Builds the tree and writes it to out (block compressed, if requested)
+	 */
+	private void buildTree(InternalCenteredDiskIntervalTreeBuilder<D> builder, PageFileWriter out) throws IOException {
+		if (blockCodec==null) {
+			builder.build(out);
+			return;
+		}
+		PageFileWriter tmp = out.createTempWriter(".tree");
+		builder.build(tmp);
+		PageFile tree = tmp.read(true);
+		CenteredDiskIntervalTreeBlockCompressor.compress(tree, out, blockCodec, blockSize);
+		tree.close();
+		new File(tree.getPath()).delete();
+	}
+	
 	/**
 	 * Equivalent to the constructor, but IOExceptions are wrapped into a RuntimeException
 	 * @param file
@@ -109,10 +174,10 @@ public class CenteredDiskIntervalTreeStorage<D>  implements GenomicRegionStorage
 		pages = new LinkedHashMap<ReferenceSequence, CenteredDiskIntervalTree<D>>();
 		file.position(0);
 		String mag = file.getAsciiChars(5);
-		if (!mag.equals(MAGIC) && !mag.equals(EXT_MAGIC)) 
+		if (!mag.equals(MAGIC) && !mag.equals(EXT_MAGIC) && !mag.equals(BLOCK_MAGIC)) 
 			throw new RuntimeException("Wrong file format!");
 		
-		boolean extended = mag.equals(EXT_MAGIC);
+		boolean extended = mag.equals(EXT_MAGIC) || mag.equals(BLOCK_MAGIC);
 		
 		int refs = file.getInt();
 		long minStart = Long.MAX_VALUE;
@@ -143,15 +208,25 @@ public class CenteredDiskIntervalTreeStorage<D>  implements GenomicRegionStorage
 			if (extendedJson.length()>0) {
 				file.getContext().setGlobalInfo(DynamicObject.parseJson(extendedJson));
 				compression = file.getContext().getGlobalInfo().get("compress").asBoolean();
+				if (mag.equals(BLOCK_MAGIC)) {
+					blockCodec = BlockCodec.forName(file.getContext().getGlobalInfo().get("blockCodec").asString());
+					blockSize = file.getContext().getGlobalInfo().get("blockSize").asInt();
+				}
 			}
 			
 		}
+		if (mag.equals(BLOCK_MAGIC) && blockCodec==null)
+			throw new IOException("Block compressed CIT without codec!");
 		
-		for (CenteredDiskIntervalTree<D> tree : pages.values())
+		for (CenteredDiskIntervalTree<D> tree : pages.values()) {
 			tree.setSupplier(getSupplier());
+			tree.setReuseData(reuseData);
+			tree.setBlockCodec(blockCodec);
+		}
 	}
 
 	private Supplier<D> supplier;
+	private boolean reuseData = false;
 	private Class<D> dataClass;
 	
 	
@@ -190,6 +265,32 @@ public class CenteredDiskIntervalTreeStorage<D>  implements GenomicRegionStorage
 	
 	public void setSupplier(Supplier<D> supplier) {
 		this.supplier = supplier;
+		if (pages!=null)
+			for (CenteredDiskIntervalTree<D> tree : pages.values())
+				tree.setSupplier(supplier);
+	}
+	
+	/**
+	 * If set, iterating over the regions of a reference deserializes all records into a single data object (obtained from the supplier) and
+	 * reuses the same {@link MutableReferenceGenomicRegion}, i.e. records must be copied if they are kept after advancing (this also applies to
+	 * the immutable regions returned by {@link #ei()}, as they share the data object). Together with
+	 * a flyweight supplier such as {@link gedi.core.data.reads.PackedAlignedReadsData}, full scans allocate almost nothing per record.
+	 * 
+	 * <pre>
+	 * cit.setSupplier((Supplier)PackedAlignedReadsData::new);
+	 * cit.setReuseData(true);
+	 * </pre>
+	 * @param reuseData
+	 */
+	public void setReuseData(boolean reuseData) {
+		this.reuseData = reuseData;
+		if (pages!=null)
+			for (CenteredDiskIntervalTree<D> tree : pages.values())
+				tree.setReuseData(reuseData);
+	}
+	
+	public boolean isReuseData() {
+		return reuseData;
 	}
 	
 	public Supplier<D> getSupplier() {
@@ -205,6 +306,8 @@ public class CenteredDiskIntervalTreeStorage<D>  implements GenomicRegionStorage
 	}
 	
 	public void close() throws IOException {
+		if (blockCodec!=null)
+			BlockCache.getInstance().remove(file);
 		file.close();
 	}
 	
@@ -213,11 +316,27 @@ public class CenteredDiskIntervalTreeStorage<D>  implements GenomicRegionStorage
 		this.forceUnsortedFilling = forceUnsortedFilling;
 	}
 	
+	private int buildThreads = 1;
+	private long buildMemory = Runtime.getRuntime().maxMemory()/2;
+	
+	/**
+	 * If nthreads>1, {@link #fill(Iterator, Progress)} first partitions all regions into per reference spill files and then builds
+	 * the tree of each reference on its own worker thread. Workers are only started as long as the estimated memory of all
+	 * running builds fits into memoryBudget (in bytes); a single reference exceeding the budget is built alone. The same holds for 
+	 * {@link #fillByReference(Collection, Function, ToLongFunction, Progress)}, if an estimate is given.
+	 * @param nthreads
+	 * @param memoryBudget
+	 */
+	public void setParallelBuild(int nthreads, long memoryBudget) {
+		this.buildThreads = nthreads;
+		this.buildMemory = memoryBudget;
+	}
+	
 	
 	public void mapChromosomes(Function<ReferenceSequence,ReferenceSequence> mapping) throws IOException {
 		PageFileWriter out = new PageFileWriter(file.getPath()+".rename");
 		
-		out.putAsciiChars(EXT_MAGIC);
+		out.putAsciiChars(getWriteMagic());
 		out.putInt(pages.size());
 		long minCurrentStart = Long.MAX_VALUE;
 		for (ReferenceSequence ref : pages.keySet()) {
@@ -237,7 +356,7 @@ public class CenteredDiskIntervalTreeStorage<D>  implements GenomicRegionStorage
 		long offset = out.position()-minCurrentStart;
 		
 		out.position(0);
-		out.putAsciiChars(EXT_MAGIC);
+		out.putAsciiChars(getWriteMagic());
 		out.putInt(pages.size());
 		for (ReferenceSequence ref : pages.keySet()) {
 			ReferenceSequence refm = mapping.apply(ref);
@@ -274,6 +393,10 @@ public class CenteredDiskIntervalTreeStorage<D>  implements GenomicRegionStorage
 	@Override
 	public void fill(Iterator<? extends ReferenceGenomicRegion<D>> it, final Progress progress)  {
 		if (file!=null) throw new RuntimeException("File "+file+" already exists!");
+		if (buildThreads>1) {
+			fillParallel(it, progress);
+			return;
+		}
 		
 		DynamicObject globalInfo = null;
 		
@@ -294,7 +417,7 @@ public class CenteredDiskIntervalTreeStorage<D>  implements GenomicRegionStorage
 						globalInfo = ((GlobalInfoProvider)rgr.getData()).getGlobalInfo();
 					else 
 						globalInfo = DynamicObject.getEmpty();
-					globalInfo = globalInfo.merge(DynamicObject.from("compress", compression));
+					globalInfo = globalInfo.merge(getCompressionInfo());
 				}
 				
 				long ts = System.nanoTime();
@@ -336,7 +459,7 @@ public class CenteredDiskIntervalTreeStorage<D>  implements GenomicRegionStorage
 			Arrays.sort(refs);
 			
 			PageFileWriter out = new PageFileWriter(path);
-			out.putAsciiChars(EXT_MAGIC);
+			out.putAsciiChars(getWriteMagic());
 			out.putInt(refs.length);
 			for (int i=0; i<refs.length; i++) {
 				Chromosome.write(Chromosome.obtain(refs[i].getName(),refs[i].getStrand()),out);
@@ -345,7 +468,7 @@ public class CenteredDiskIntervalTreeStorage<D>  implements GenomicRegionStorage
 			}
 			out.putString(dataClass.getName()); // new!
 			if (globalInfo==null)
-				globalInfo = DynamicObject.getEmpty();
+				globalInfo = DynamicObject.getEmpty().merge(getCompressionInfo());
 			out.putString(globalInfo.toJson()); // newnew!
 			
 			if (progress!=null)
@@ -360,7 +483,7 @@ public class CenteredDiskIntervalTreeStorage<D>  implements GenomicRegionStorage
 				
 				offset[i] = out.position();
 				InternalCenteredDiskIntervalTreeBuilder<D> builder = references.get(refs[i]);
-				builder.build(out);
+				buildTree(builder,out);
 //				System.out.println("Finished "+refs[i]+" @"+out.position());
 			}
 			offset[refs.length] = out.position();
@@ -385,17 +508,339 @@ public class CenteredDiskIntervalTreeStorage<D>  implements GenomicRegionStorage
 		}
 	}
 	
+	private void fillParallel(Iterator<? extends ReferenceGenomicRegion<D>> it, final Progress progress)  {
+		String tmpFolder = new File(path).getAbsoluteFile().getParent();
+		String name = new File(path).getName();
+		DynamicObject globalInfo = null;
+		
+		ExecutorService pool = Executors.newFixedThreadPool(buildThreads);
+		HashMap<ReferenceSequence,CenteredDiskIntervalTreeSpill<D>> spills = new HashMap<ReferenceSequence,CenteredDiskIntervalTreeSpill<D>>();
+		ConcurrentLinkedQueue<String> tmpFiles = new ConcurrentLinkedQueue<String>();
+		boolean success = false;
+		try {
+			
+			if (progress!=null)
+				progress.init().setDescription("Partitioning regions");
+			
+			while (it.hasNext()) {
+				ReferenceGenomicRegion<D> rgr = it.next();
+				if (globalInfo==null) {
+					if (rgr.getData() instanceof GlobalInfoProvider)
+						globalInfo = ((GlobalInfoProvider)rgr.getData()).getGlobalInfo();
+					else 
+						globalInfo = DynamicObject.getEmpty();
+					globalInfo = globalInfo.merge(getCompressionInfo());
+				}
+				
+				CenteredDiskIntervalTreeSpill<D> spill = spills.get(rgr.getReference());
+				if (spill==null) spills.put(rgr.getReference(), spill = new CenteredDiskIntervalTreeSpill<D>(tmpFolder,name+"."+rgr.getReference().toPlusMinusString(),globalInfo));
+				spill.add(rgr.getRegion(), rgr.getData());
+			}
+			if (globalInfo==null)
+				globalInfo = DynamicObject.getEmpty().merge(getCompressionInfo());
+			
+			ReferenceSequence[] refs = spills.keySet().toArray(new ReferenceSequence[0]);
+			Arrays.sort(refs);
+			
+			// submit the largest references first, they are on the critical path
+			Integer[] submitOrder = new Integer[refs.length];
+			for (int i=0; i<refs.length; i++) submitOrder[i] = i;
+			Arrays.sort(submitOrder, (a,b)->Long.compare(spills.get(refs[b]).estimateMemory(), spills.get(refs[a]).estimateMemory()));
+			
+			int totalPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, buildMemory>>20));
+			Semaphore memory = new Semaphore(totalPermits);
+			DynamicObject ugi = globalInfo;
+			
+			@SuppressWarnings("unchecked")
+			Future<String>[] segments = new Future[refs.length];
+			for (int i : submitOrder) {
+				CenteredDiskIntervalTreeSpill<D> spill = spills.get(refs[i]);
+				String prefix = name+"."+refs[i].toPlusMinusString();
+				int permits = (int) Math.max(1, Math.min(totalPermits, spill.estimateMemory()>>20));
+				segments[i] = pool.submit(()->{
+					memory.acquire(permits);
+					try {
+						InternalCenteredDiskIntervalTreeBuilder<D> builder = new InternalCenteredDiskIntervalTreeBuilder<D>(tmpFolder,prefix,ugi);
+						spill.feed(builder);
+						String segPath = File.createTempFile(prefix+".SEGMENT", ".data", new File(tmpFolder)).getPath();
+						tmpFiles.add(segPath);
+						PageFileWriter seg = new PageFileWriter(segPath);
+						buildTree(builder,seg);
+						seg.close();
+						return segPath;
+					} finally {
+						memory.release(permits);
+					}
+				});
+			}
+			
+			tmpFiles.add(path); // only removed if incomplete
+			PageFileWriter out = new PageFileWriter(path);
+			out.putAsciiChars(getWriteMagic());
+			out.putInt(refs.length);
+			for (int i=0; i<refs.length; i++) {
+				Chromosome.write(Chromosome.obtain(refs[i].getName(),refs[i].getStrand()),out);
+				out.putLong(0);
+				out.putLong(0);// placeholder
+			}
+			out.putString(dataClass.getName());
+			out.putString(globalInfo.toJson());
+			
+			if (progress!=null)
+				progress.init().setCount(refs.length);
+			
+			long[] offset = new long[refs.length+1];
+			byte[] buff = new byte[1<<20];
+			for (int i=0; i<refs.length; i++) {
+				ReferenceSequence rr = refs[i];
+				if (progress!=null)
+					progress.setDescription(()->"Writing "+rr);
+				
+				offset[i] = out.position();
+				String segPath = segments[i].get();
+				PageFile seg = new PageFile(segPath);
+				while (!seg.eof()) {
+					int l = (int) Math.min(buff.length, seg.size()-seg.position());
+					seg.get(buff, 0, l);
+					out.put(buff, 0, l);
+				}
+				seg.close();
+				new File(segPath).delete();
+				
+				if (progress!=null)
+					progress.incrementProgress();
+			}
+			offset[refs.length] = out.position();
+			
+			if (progress!=null)
+				progress.finish();
+			
+			out.position(EXT_MAGIC.length()+Integer.BYTES);
+			for (int i=0; i<refs.length; i++) {
+				Chromosome.write(Chromosome.obtain(refs[i].getName(),refs[i].getStrand()),out);
+				out.putLong(offset[i]);
+				out.putLong(offset[i+1]);
+			}
+			out.close();
+			
+			file = new ConcurrentPageFile(path);
+			readHeader();
+			success = true;
+			
+		} catch (IOException | ExecutionException e) {
+			throw new RuntimeException("Could not write storage!",e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while writing storage!",e);
+		} finally {
+			pool.shutdownNow();
+			if (!success) {
+				awaitWorkers(pool);
+				for (CenteredDiskIntervalTreeSpill<D> spill : spills.values())
+					spill.delete();
+				for (String f : tmpFiles)
+					new File(f).delete();
+			}
+		}
+	}
+	
+	/**
+	 * Waits for the (cancelled) workers of a failed build, such that they do not create temporary files after cleaning up.
+	 * @param pool
+	 */
+	private static void awaitWorkers(ExecutorService pool) {
+		try {
+			pool.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Streams the regions of each reference directly into the tree builder of that reference, i.e. neither a whole reference has to be
+	 * materialized nor are regions partitioned into spill files. source is called on a worker thread for each reference and must return its regions
+	 * (or null); the trees of up to nthreads references (see {@link #setParallelBuild(int, long)}) are built concurrently. References without 
+	 * any region are omitted, the others are written in sorted order. All data must have the same global info.
+	 * 
+	 * The memory budget (see {@link #setParallelBuild(int, long)}) is not applied, use {@link #fillByReference(Collection, Function, ToLongFunction, Progress)}
+	 * for that.
+	 * @param references
+	 * @param source
+	 * @param progress
+	 */
+	public void fillByReference(Collection<? extends ReferenceSequence> references, Function<ReferenceSequence,Iterator<? extends ReferenceGenomicRegion<D>>> source, final Progress progress)  {
+		fillByReference(references, source, null, progress);
+	}
+	
+	/**
+	 * Same as {@link #fillByReference(Collection, Function, Progress)}, but the tree of a reference is only built if its estimated number of regions
+	 * (times {@link CenteredDiskIntervalTreeSpill#BYTES_PER_PART}) fits into the memory budget together with the running builds 
+	 * (see {@link #setParallelBuild(int, long)}); the largest references are built first.
+	 * @param references
+	 * @param source
+	 * @param estimate estimated number of regions of a reference (or null to ignore the budget)
+	 * @param progress
+	 */
+	public void fillByReference(Collection<? extends ReferenceSequence> references, Function<ReferenceSequence,Iterator<? extends ReferenceGenomicRegion<D>>> source, ToLongFunction<ReferenceSequence> estimate, final Progress progress)  {
+		if (file!=null) throw new RuntimeException("File "+file+" already exists!");
+		String tmpFolder = new File(path).getAbsoluteFile().getParent();
+		String name = new File(path).getName();
+		
+		ReferenceSequence[] refs = references.toArray(new ReferenceSequence[0]);
+		Arrays.sort(refs);
+		
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, buildThreads));
+		ConcurrentLinkedQueue<String> tmpFiles = new ConcurrentLinkedQueue<String>();
+		boolean success = false;
+		try {
+			
+			if (progress!=null)
+				progress.init().setCount(refs.length).setDescription("Building trees");
+			
+			// submit the largest references first, they are on the critical path
+			long[] sizes = new long[refs.length];
+			Integer[] submitOrder = new Integer[refs.length];
+			for (int i=0; i<refs.length; i++) {
+				sizes[i] = estimate==null?0:estimate.applyAsLong(refs[i])*CenteredDiskIntervalTreeSpill.BYTES_PER_PART;
+				submitOrder[i] = i;
+			}
+			Arrays.sort(submitOrder, (a,b)->Long.compare(sizes[b], sizes[a]));
+			
+			int totalPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, buildMemory>>20));
+			Semaphore memory = new Semaphore(totalPermits);
+			
+			@SuppressWarnings("unchecked")
+			Future<Object[]>[] segments = new Future[refs.length];
+			for (int i : submitOrder) {
+				ReferenceSequence ref = refs[i];
+				String prefix = name+"."+ref.toPlusMinusString();
+				int permits = estimate==null?0:(int) Math.max(1, Math.min(totalPermits, sizes[i]>>20));
+				segments[i] = pool.submit(()->{
+					memory.acquire(permits);
+					try {
+						return buildReference(ref, source, tmpFolder, prefix, tmpFiles, progress);
+					} finally {
+						memory.release(permits);
+					}
+				});
+			}
+			
+			// the global info is part of the header, so wait for all trees
+			Object[][] done = new Object[refs.length][];
+			DynamicObject globalInfo = null;
+			int n = 0;
+			for (int i=0; i<refs.length; i++) {
+				done[i] = segments[i].get();
+				if (done[i]!=null) {
+					n++;
+					if (globalInfo==null) 
+						globalInfo = (DynamicObject) done[i][1];
+					else if (!globalInfo.toJson().equals(((DynamicObject) done[i][1]).toJson()))
+						throw new RuntimeException("Inconsistent global info for "+refs[i]+": "+globalInfo.toJson()+" != "+((DynamicObject) done[i][1]).toJson());
+				}
+			}
+			if (globalInfo==null)
+				globalInfo = DynamicObject.getEmpty().merge(getCompressionInfo());
+			
+			tmpFiles.add(path); // only removed if incomplete
+			PageFileWriter out = new PageFileWriter(path);
+			out.putAsciiChars(getWriteMagic());
+			out.putInt(n);
+			for (int i=0; i<refs.length; i++) {
+				if (done[i]==null) continue;
+				Chromosome.write(Chromosome.obtain(refs[i].getName(),refs[i].getStrand()),out);
+				out.putLong(0);
+				out.putLong(0);// placeholder
+			}
+			out.putString(dataClass.getName());
+			out.putString(globalInfo.toJson());
+			
+			long[] offset = new long[refs.length+1];
+			byte[] buff = new byte[1<<20];
+			for (int i=0; i<refs.length; i++) {
+				offset[i] = out.position();
+				if (done[i]==null) continue;
+				String segPath = (String) done[i][0];
+				PageFile seg = new PageFile(segPath);
+				while (!seg.eof()) {
+					int l = (int) Math.min(buff.length, seg.size()-seg.position());
+					seg.get(buff, 0, l);
+					out.put(buff, 0, l);
+				}
+				seg.close();
+				new File(segPath).delete();
+			}
+			offset[refs.length] = out.position();
+			
+			if (progress!=null)
+				progress.finish();
+			
+			out.position(EXT_MAGIC.length()+Integer.BYTES);
+			for (int i=0; i<refs.length; i++) {
+				if (done[i]==null) continue;
+				Chromosome.write(Chromosome.obtain(refs[i].getName(),refs[i].getStrand()),out);
+				out.putLong(offset[i]);
+				out.putLong(offset[i+1]);
+			}
+			out.close();
+			
+			file = new ConcurrentPageFile(path);
+			readHeader();
+			success = true;
+			
+		} catch (IOException | ExecutionException e) {
+			throw new RuntimeException("Could not write storage!",e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while writing storage!",e);
+		} finally {
+			pool.shutdownNow();
+			if (!success) {
+				awaitWorkers(pool);
+				for (String f : tmpFiles)
+					new File(f).delete();
+			}
+		}
+	}
+	
+	private Object[] buildReference(ReferenceSequence ref, Function<ReferenceSequence,Iterator<? extends ReferenceGenomicRegion<D>>> source, String tmpFolder, String prefix, ConcurrentLinkedQueue<String> tmpFiles, Progress progress) throws IOException {
+		Iterator<? extends ReferenceGenomicRegion<D>> it = source.apply(ref);
+		if (it==null || !it.hasNext()) {
+			if (progress!=null) progress.incrementProgress();
+			return null;
+		}
+		
+		ReferenceGenomicRegion<D> rgr = it.next();
+		DynamicObject globalInfo = rgr.getData() instanceof GlobalInfoProvider?((GlobalInfoProvider)rgr.getData()).getGlobalInfo():DynamicObject.getEmpty();
+		globalInfo = globalInfo.merge(getCompressionInfo());
+		
+		InternalCenteredDiskIntervalTreeBuilder<D> builder = new InternalCenteredDiskIntervalTreeBuilder<D>(tmpFolder,prefix,globalInfo);
+		builder.add(rgr.getRegion(), rgr.getData());
+		while (it.hasNext()) {
+			rgr = it.next();
+			builder.add(rgr.getRegion(), rgr.getData());
+		}
+		
+		String segPath = File.createTempFile(prefix+".SEGMENT", ".data", new File(tmpFolder)).getPath();
+		tmpFiles.add(segPath);
+		PageFileWriter seg = new PageFileWriter(segPath);
+		buildTree(builder,seg);
+		seg.close();
+		if (progress!=null) progress.incrementProgress();
+		return new Object[] {segPath,globalInfo};
+	}
+	
 	@Override
 	public <O> void fill(GenomicRegionStorage<O> storage, Function<MutableReferenceGenomicRegion<O>,MutableReferenceGenomicRegion<D>> mapper, final Progress progress)  {
 		if (file!=null) throw new RuntimeException("File "+file+" already exists!");
 		
 		DynamicObject globalInfo = storage.getRandomRecord() instanceof GlobalInfoProvider ? ((GlobalInfoProvider)storage.getRandomRecord()).getGlobalInfo(): DynamicObject.getEmpty();
-		globalInfo = globalInfo.merge(DynamicObject.from("compress", compression));
+		globalInfo = globalInfo.merge(getCompressionInfo());
 		
 		try {
 		
 			PageFileWriter out = new PageFileWriter(path);
-			out.putAsciiChars(EXT_MAGIC);
+			out.putAsciiChars(getWriteMagic());
 			ReferenceSequence[] refs = storage.getReferenceSequences().toArray(new ReferenceSequence[0]);
 			ReferenceSequence[] mappedRefs = new ReferenceSequence[refs.length];
 			out.putInt(refs.length);
@@ -445,7 +890,7 @@ public class CenteredDiskIntervalTreeStorage<D>  implements GenomicRegionStorage
 //				}
 				
 //				pr.out.printf("Writing CIT for %s\n", mappedRefs[i]);
-				builder.build(out);
+				buildTree(builder,out);
 //				System.out.println("Finished "+refs[i]+" @"+re[0]);
 			}
 			if (progress!=null)
@@ -59,16 +59,42 @@ public class InternalCenteredDiskIntervalTreeBuilder<D> extends CenteredDiskInte
 		if (region.getBoundary(0)>Integer.MAX_VALUE/2 || region.getBoundary(0)<0)
 			return;
 		
+		putRegion(region);
+		FileUtils.serialize(data,this.data);
+		
+//		data.serialize(this.data);
+		add(region,ptr);
+	}
+	
+	/**
+	 * Adds already serialized data (as written by {@link FileUtils#serialize(Object, gedi.util.io.randomaccess.BinaryWriter)} with the same global info)
+	 * @param region
+	 * @param serialized
+	 * @param off
+	 * @param len
+	 * @throws IOException
+	 */
+	public void add(GenomicRegion region, byte[] serialized, int off, int len) throws IOException {
+		if (this.data==null)
+			this.data = dataer.get();
+		
+		long ptr = this.data.position()+offset;
+		if (region.getBoundary(0)>Integer.MAX_VALUE/2 || region.getBoundary(0)<0)
+			return;
+		
+		putRegion(region);
+		if (len>0)
+			this.data.put(serialized, off, len);
+		
+		add(region,ptr);
+	}
+	
+	private void putRegion(GenomicRegion region) throws IOException {
 		this.data.putCInt(region.getNumParts());
 		int start = region.getBoundary(0);
 		this.data.putCInt(start);
 		for (int i=1; i<region.getNumBoundaries(); i++)
 			this.data.putCInt(region.getBoundary(i)-start);
-		
-		FileUtils.serialize(data,this.data);
-		
-//		data.serialize(this.data);
-		add(region,ptr);
 	}
 	
 	public InternalCenteredDiskIntervalTreeBuilder<D> build(PageFileWriter out) throws IOException {
@@ -113,7 +113,7 @@ public class NumericSource implements GenomicRegionDataSource<PixelBlockToValues
 				for (int r=0; r<ps.provider.getNumDataRows(); r++) {
 									
 					for (ReferenceSequence ref : refs)
-						vals.setDouble(index, addNaNSave(vals.getDouble(index),ps.agg.getAggregatedValue(ps.provider,ref, reg, r)));
+						vals.setDouble(index, addNaNSave(vals.getDouble(index),ps.provider.getAggregatedValue(ref, reg, r, ps.agg, reg.getTotalLength())));
 					index++;
 				}
 			}
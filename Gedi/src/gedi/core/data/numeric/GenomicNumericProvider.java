@@ -111,6 +111,20 @@ public interface GenomicNumericProvider extends ReferenceSequenceLengthProvider
 	
 	PositionNumericIterator iterateValues(ReferenceSequence reference, GenomicRegion region);
 	
+	/**
+	 * Aggregated value over region, where a single value covers resolution bp (e.g. bp per pixel); providers having precomputed summaries
+	 * may use them if they are fine enough; by default, the value is computed exactly.
+	 * @param reference
+	 * @param region
+	 * @param row
+	 * @param agg
+	 * @param resolution
+	 * @return
+	 */
+	default double getAggregatedValue(ReferenceSequence reference, GenomicRegion region, int row, SpecialAggregators agg, int resolution) {
+		return agg.getAggregatedValue(this, reference, region, row);
+	}
+	
 	default PositionNumericIterator iterateValues(ReferenceGenomicRegion<?> rgr) {
 		return iterateValues(rgr.getReference(),rgr.getRegion());
 	}
@@ -5,6 +5,7 @@ import gedi.core.data.reads.ReadCountMode;
 import gedi.core.reference.Chromosome;
 import gedi.core.reference.ReferenceSequence;
 import gedi.core.region.GenomicRegion;
+import gedi.core.region.GenomicRegionStorage;
 import gedi.core.region.ReferenceGenomicRegion;
 import gedi.util.FunctorUtils;
 import gedi.util.FunctorUtils.MergeIterator;
@@ -17,8 +18,10 @@ import gedi.util.io.randomaccess.BinaryWriter;
 import gedi.util.io.randomaccess.PageFile;
 import gedi.util.io.randomaccess.PageFileWriter;
 import gedi.util.io.randomaccess.serialization.BinarySerializable;
+import gedi.util.userInteraction.progress.Progress;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -28,10 +31,23 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
 
 public class DiskGenomicNumericBuilder {
 
 	public static final String MAGIC = "DGN";
+	public static final String ZOOM_MAGIC = "DGNZ";
+	
+	/**
+	 * If set, each built file is reopened and its zoom levels are checked against the base level (see {@link DiskGenomicNumericProvider#checkZoomLevels(int, long)})
+	 */
+	private static boolean checkZoom = Boolean.parseBoolean(System.getProperty("gedi.rmq.checkzoom", "false"));
 	
 	private String file;
 	private PageFileWriter writer;
@@ -42,6 +58,7 @@ public class DiskGenomicNumericBuilder {
 	private HashMap<ReferenceSequence,WriterInfo> perCh = new HashMap<ReferenceSequence, WriterInfo>();
 
 	private boolean indexSum; 
+	private boolean zoom = true;
 	
 	public DiskGenomicNumericBuilder(String file) throws IOException {
 		this(file,true);
@@ -313,14 +330,37 @@ public class DiskGenomicNumericBuilder {
 	}
 
 
+	/**
+	 * Whether to write zoom levels (see {@link DiskGenomicNumericZoom}; default: true)
+	 * @param zoom
+	 */
+	public void setZoomLevels(boolean zoom) {
+		this.zoom = zoom;
+	}
+
 	private boolean referenceSorted = false;
 	
 	public void setReferenceSorted(boolean referenceSorted) {
 		this.referenceSorted = referenceSorted;
 	}
 
+	private int buildThreads = 1;
+	private long buildMemory = Runtime.getRuntime().maxMemory()/2;
+
+	/**
+	 * Used by {@link #buildCoverage(GenomicRegionStorage, UnaryOperator, Progress)}: references are processed by nthreads workers, and the coverage
+	 * events of all workers together are buffered in at most memoryBudget bytes (the remaining events are spilled to sorted run files).
+	 * @param nthreads
+	 * @param memoryBudget
+	 */
+	public void setParallelBuild(int nthreads, long memoryBudget) {
+		if (nthreads<1 || memoryBudget<1) throw new IllegalArgumentException("Number of threads and memory budget must be positive!");
+		this.buildThreads = nthreads;
+		this.buildMemory = memoryBudget;
+	}
+
 	private WriterInfo lastInfo = null;
-	
+
 	private WriterInfo getInfo(ReferenceSequence reference) throws IOException {
 		WriterInfo w = perCh.get(reference);
 		if (w==null) perCh.put(reference, w = new WriterInfo(file+"."+reference.toString()));
@@ -360,17 +400,389 @@ public class DiskGenomicNumericBuilder {
 			perCh.get(r).write(writer, coverageMode, dense);
 		}
 		
-		writer.close();
+		if (zoom) {
+			// trailer: zoom offsets for all references in header order, position of the trailer and magic
+			long trailer = writer.position();
+			for (ReferenceSequence r : refs)
+				writer.putLong(perCh.get(r).zoomOffset);
+			writer.putLong(trailer);
+			writer.putAsciiChars(ZOOM_MAGIC);
+		}
 		
+		writer.close();
+		checkZoomLevels();
 	}
 	
-	
+	private void checkZoomLevels() throws IOException {
+		if (!zoom || !checkZoom) return;
+		DiskGenomicNumericProvider p = new DiskGenomicNumericProvider(file);
+		try {
+			p.checkZoomLevels(100, 42);
+		} finally {
+			try {
+				p.close();
+			} catch (Exception e) {
+				throw new IOException("Could not close "+file,e);
+			}
+		}
+	}
+
+	/**
+	 * Builds the coverage file of all reads in storage, i.e. the same as calling {@link #addCoverage(ReferenceSequence, GenomicRegion, AlignedReadsData)}
+	 * for all reads (that are not discarded by filter) and {@link #build(boolean)} in coverage mode.
+	 *
+	 * The references are processed in parallel (see {@link #setParallelBuild(int, long)}): Each worker collects the start and end events of its reference
+	 * into primitive buffers; full buffers are sorted, combined and spilled as runs, which are then k-way merged, and the coverage and rmq indices of the
+	 * reference are written into a section file that is finally appended to the output. All temporary files are deleted, also if the build fails.
+	 * 
+	 * An empty storage results in a file without references (as {@link #build(boolean)} without any value).
+	 *
+	 * Cannot be mixed with the addValue/addCoverage methods.
+	 *
+	 * @param storage
+	 * @param filter may be null
+	 * @param progress may be null
+	 * @throws IOException
+	 */
+	public <A extends AlignedReadsData> void buildCoverage(GenomicRegionStorage<A> storage, UnaryOperator<ReferenceGenomicRegion<A>> filter, Progress progress) throws IOException {
+		if (!perCh.isEmpty()) throw new RuntimeException("Do not mix buildCoverage with addValue or addCoverage!");
+
+		ReferenceSequence[] refs;
+		A random = storage.getRandomRecord();
+		if (random!=null) {
+			check(random.getNumConditions(),Integer.TYPE);
+			refs = storage.getReferenceSequences().toArray(new ReferenceSequence[0]);
+			Arrays.sort(refs);
+		} else {
+			// empty storage: the number of conditions is unknown, but not needed as no reference is written
+			refs = new ReferenceSequence[0];
+		}
+
+		long perWorker = Math.max(1<<20, buildMemory/Math.max(1, buildThreads));
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, buildThreads));
+		boolean success = false;
+		try {
+			@SuppressWarnings("unchecked")
+			Future<WriterInfo>[] sections = new Future[refs.length];
+			for (int i=0; i<refs.length; i++) {
+				ReferenceSequence ref = refs[i];
+				sections[i] = pool.submit(()->buildSection(storage, filter, ref, perWorker));
+			}
+
+			if (progress!=null)
+				progress.init().setCount(refs.length);
+
+			// references without any (unfiltered) read are omitted, as in build(true)
+			ArrayList<ReferenceSequence> nonEmpty = new ArrayList<ReferenceSequence>();
+			ArrayList<WriterInfo> infos = new ArrayList<WriterInfo>();
+			for (int i=0; i<refs.length; i++) {
+				WriterInfo inf;
+				try {
+					inf = sections[i].get();
+				} catch (InterruptedException | ExecutionException e) {
+					throw new IOException("Could not build coverage for "+refs[i]+"!",e);
+				}
+				if (inf!=null) {
+					nonEmpty.add(refs[i]);
+					infos.add(inf);
+				}
+				if (progress!=null)
+					progress.setDescription(refs[i].toString()).incrementProgress();
+			}
+			if (progress!=null)
+				progress.finish();
+
+			// header as in build(true), with the sections of all references appended in order
+			writer.putAsciiChars(MAGIC);
+			writer.putInt(nonEmpty.size());
+			long[] pos = new long[nonEmpty.size()];
+			for (int i=0; i<pos.length; i++) {
+				Chromosome.write(Chromosome.obtain(nonEmpty.get(i).getName(),nonEmpty.get(i).getStrand()), writer);
+				pos[i] = writer.position();
+				writer.putLong(0); // filled in in the end!
+			}
+
+			long[] zoomOffsets = new long[pos.length];
+			byte[] buffer = new byte[1<<16];
+			for (int i=0; i<pos.length; i++) {
+				long curpos = writer.position();
+				writer.position(pos[i]);
+				writer.putLong(curpos);
+				writer.position(curpos);
+
+				File section = getSectionFile(nonEmpty.get(i));
+				try (FileInputStream in = new FileInputStream(section)) {
+					int n;
+					while ((n=in.read(buffer))>0)
+						writer.put(buffer, 0, n);
+				}
+				section.delete();
+				zoomOffsets[i] = infos.get(i).zoomOffset<0?-1:curpos+infos.get(i).zoomOffset;
+			}
+
+			if (zoom) {
+				long trailer = writer.position();
+				for (long o : zoomOffsets)
+					writer.putLong(o);
+				writer.putLong(trailer);
+				writer.putAsciiChars(ZOOM_MAGIC);
+			}
+
+			writer.close();
+			success = true;
+			checkZoomLevels();
+		} finally {
+			pool.shutdownNow();
+			if (!success) {
+				// workers clean up their own temporary files, wait for them before removing the remaining sections
+				try {
+					while (!pool.awaitTermination(1, TimeUnit.MINUTES));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				for (ReferenceSequence ref : refs)
+					getSectionFile(ref).delete();
+			}
+		}
+	}
+
+	private File getSectionFile(ReferenceSequence ref) {
+		return new File(file+"."+ref.toString()+".section");
+	}
+
+	/**
+	 * Collects, merges and writes the coverage of a single reference into its section file; all other temporary files are deleted, and the section
+	 * file as well if this fails.
+	 * @return the info of the written section or null if there is no (unfiltered) read
+	 */
+	private <A extends AlignedReadsData> WriterInfo buildSection(GenomicRegionStorage<A> storage, UnaryOperator<ReferenceGenomicRegion<A>> filter, ReferenceSequence ref, long memory) throws IOException {
+		CoverageEvents events = new CoverageEvents(file+"."+ref.toString(), memory);
+		WriterInfo inf = null;
+		boolean success = false;
+		try {
+			storage.iterateMutableReferenceGenomicRegions(ref).forEachRemaining(mrgr->{
+				if (Thread.currentThread().isInterrupted()) throw new RuntimeException("Building coverage for "+ref+" has been canceled!");
+				ReferenceGenomicRegion<A> rgr = filter==null?mrgr:filter.apply(mrgr);
+				if (rgr==null) return;
+				try {
+					events.add(rgr.getRegion(),rgr.getData());
+				} catch (IOException e) {
+					throw new RuntimeException("Could not write coverage events!",e);
+				}
+			});
+
+			if (events.isEmpty()) {
+				success = true;
+				return null;
+			}
+
+			inf = new WriterInfo(file+"."+ref.toString());
+			events.merge(inf);
+			inf.close();
+
+			PageFileWriter section = new PageFileWriter(getSectionFile(ref).getPath());
+			try {
+				inf.write(section, true, false);
+			} finally {
+				section.close();
+			}
+			success = true;
+			return inf;
+		} finally {
+			events.discard();
+			if (!success) {
+				if (inf!=null)
+					inf.discard();
+				getSectionFile(ref).delete();
+			}
+		}
+	}
+
+
+	/**
+	 * Start (+count) and end (-count) events of a single reference; the events are kept as long keys (position in the upper, index in the lower
+	 * 32 bits) and an int array of counts per index. Full buffers are spilled as sorted and combined run files.
+	 *
+	 * @author erhard
+	 *
+	 */
+	private class CoverageEvents {
+		private String prefix;
+		private int capacity;
+		private long[] keys = new long[1024];
+		private int[] values;
+		private int n = 0;
+		private ArrayList<String> runs = new ArrayList<String>();
+		private ArrayList<CoverageRun> open = new ArrayList<CoverageRun>();
+
+		private int[] cpos;
+		private int[] cval;
+
+		CoverageEvents(String prefix, long memory) {
+			this.prefix = prefix;
+			// buffer (key+counts) and the combined arrays (position+counts)
+			this.capacity = (int) Math.max(1024, Math.min(Integer.MAX_VALUE-8, memory/(3L*Integer.BYTES+2L*Integer.BYTES*numCond)));
+			this.values = new int[keys.length*numCond];
+		}
+
+		boolean isEmpty() {
+			return n==0 && runs.isEmpty();
+		}
+
+		void add(GenomicRegion region, AlignedReadsData read) throws IOException {
+			if (read.getNumConditions()!=numCond) throw new RuntimeException("Do not mix different conditions counts!");
+			int[] count = read.getTotalCountsForConditionsInt(ReadCountMode.All);
+			for (int p=0; p<region.getNumParts(); p++) {
+				add(region.getStart(p), count, 1);
+				add(region.getEnd(p), count, -1);
+			}
+		}
+
+		private void add(int position, int[] count, int sign) throws IOException {
+			if (n==keys.length) {
+				if (n>=capacity)
+					spill();
+				else {
+					int len = (int) Math.min(capacity, keys.length*2L);
+					keys = Arrays.copyOf(keys, len);
+					values = Arrays.copyOf(values, len*numCond);
+				}
+			}
+			keys[n] = ((long)position<<32)|n;
+			for (int i=0; i<numCond; i++)
+				values[n*numCond+i] = sign*count[i];
+			n++;
+		}
+
+		/**
+		 * Sorts the buffer and combines events at the same position into cpos/cval
+		 * @return the number of distinct positions
+		 */
+		private int combine() {
+			Arrays.sort(keys, 0, n);
+			if (cpos==null || cpos.length<n) {
+				cpos = new int[keys.length];
+				cval = new int[keys.length*numCond];
+			}
+			int m = -1;
+			for (int j=0; j<n; j++) {
+				int p = (int) (keys[j]>>>32);
+				int index = (int) keys[j];
+				if (m<0 || cpos[m]!=p) {
+					cpos[++m] = p;
+					System.arraycopy(values, index*numCond, cval, m*numCond, numCond);
+				} else
+					for (int i=0; i<numCond; i++)
+						cval[m*numCond+i]+=values[index*numCond+i];
+			}
+			n = 0;
+			return m+1;
+		}
+
+		private void spill() throws IOException {
+			int m = combine();
+			PageFileWriter run = new PageFileWriter(prefix+".run"+runs.size());
+			for (int j=0; j<m; j++) {
+				run.putInt(cpos[j]);
+				for (int i=0; i<numCond; i++)
+					run.putInt(cval[j*numCond+i]);
+			}
+			run.close();
+			runs.add(run.getPath());
+		}
+
+		/**
+		 * Merges all runs and adds the combined events in order of their positions to inf
+		 * @param inf
+		 * @throws IOException
+		 */
+		void merge(WriterInfo inf) throws IOException {
+			// all positions are emitted in ascending order without duplicates
+			inf.lastPos = Integer.MIN_VALUE;
+
+			if (runs.isEmpty()) {
+				int m = combine();
+				keys = null;
+				values = null;
+				int[] v = new int[numCond];
+				for (int j=0; j<m; j++) {
+					System.arraycopy(cval, j*numCond, v, 0, numCond);
+					inf.addValue(cpos[j], v);
+				}
+				return;
+			}
+
+			if (n>0) spill();
+			keys = null;
+			values = null;
+			cpos = null;
+			cval = null;
+
+			PriorityQueue<CoverageRun> heap = new PriorityQueue<CoverageRun>((a,b)->Integer.compare(a.pos, b.pos));
+			for (String path : runs) {
+				CoverageRun r = new CoverageRun(path);
+				open.add(r);
+				if (r.next()) heap.add(r);
+			}
+			int[] v = new int[numCond];
+			while (!heap.isEmpty()) {
+				int p = heap.peek().pos;
+				Arrays.fill(v, 0);
+				while (!heap.isEmpty() && heap.peek().pos==p) {
+					CoverageRun r = heap.poll();
+					for (int i=0; i<numCond; i++)
+						v[i]+=r.val[i];
+					if (r.next()) heap.add(r);
+				}
+				inf.addValue(p, v);
+			}
+		}
+
+		/**
+		 * Closes and deletes all run files (that have not been consumed completely by {@link #merge(WriterInfo)})
+		 * @throws IOException
+		 */
+		void discard() throws IOException {
+			for (CoverageRun r : open)
+				r.in.close();
+			open.clear();
+			for (String path : runs)
+				new File(path).delete();
+			runs.clear();
+		}
+	}
+
+	private class CoverageRun {
+		private PageFile in;
+		int pos;
+		int[] val = new int[numCond];
+
+		CoverageRun(String path) throws IOException {
+			in = new PageFile(path);
+		}
+
+		boolean next() throws IOException {
+			if (in.eof()) {
+				in.close();
+				new File(in.getPath()).delete();
+				return false;
+			}
+			pos = in.getInt();
+			for (int i=0; i<numCond; i++)
+				val[i] = in.getInt();
+			return true;
+		}
+	}
+
+
 	private class WriterInfo {
 		PageFileWriter writer;
 		int lastPos;
 		boolean sorted = true;
 		int size = 0;
 		int maxPos = 0;
+		long zoomOffset = -1;
 		
 		long[] maxValue = new long[numCond];
 		long[] minValue = new long[numCond];
@@ -526,6 +938,16 @@ public class DiskGenomicNumericBuilder {
 			if (!this.writer.isClosed())
 				this.writer.close();
 		}
+
+		/**
+		 * Closes and deletes the temporary files
+		 * @throws IOException
+		 */
+		public void discard() throws IOException {
+			close();
+			new File(this.writer.getPath()).delete();
+			new File(this.writer.getPath()+".cumsum").delete();
+		}
 		
 		public void write(PageFileWriter writer, boolean coverageMode, boolean dense) throws IOException {
 			
@@ -542,6 +964,8 @@ public class DiskGenomicNumericBuilder {
 			
 			long start = read.position();
 		
+			int[] positions = zoom && !dense?new int[size]:null;
+			DiskGenomicNumericZoom[] zooms = zoom?new DiskGenomicNumericZoom[numCond]:null;
 			
 			for (int i=0; i<numCond; i++) {
 				NumericArray a = NumericArray.createMemory(dense?maxPos+1:size, NumericArrayType.fromType(cls));
@@ -554,6 +978,8 @@ public class DiskGenomicNumericBuilder {
 						
 						if (!dense)
 							writer.putInt(p);
+						if (positions!=null)
+							positions[index] = p;
 						
 						index++;
 						if (index<size)
@@ -590,6 +1016,15 @@ public class DiskGenomicNumericBuilder {
 				dataBytes+=after-ind;
 //				System.out.printf("%s\t%d\t%d\t%d\n",read.getPath(),size*Integer.BYTES,dataBytes,indexBytes);
 				
+				if (zoom)
+					zooms[i] = DiskGenomicNumericZoom.compute(a.length(), dense?n->n:n->positions[n], a, coverageMode);
+			}
+			
+			if (zoom) {
+				zoomOffset = writer.position();
+				writer.putInt(numCond);
+				for (DiskGenomicNumericZoom z : zooms)
+					z.serialize(writer);
 			}
 			read.close();
 			new File(this.writer.getPath()).delete();
@@ -6,8 +6,11 @@ import java.io.Writer;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Iterator;
 import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.DoubleBinaryOperator;
 
@@ -32,91 +35,236 @@ import gedi.util.io.randomaccess.PageFile;
 import gedi.util.io.randomaccess.PageFileView;
 import gedi.util.io.randomaccess.diskarray.IntDiskArray;
 
+/**
+ * Reads rmq files (see {@link DiskGenomicNumericBuilder}). Only the list of references is read when opening the file, the headers, positions and
+ * range query indices of a reference are loaded on first access.
+ * 
+ * If the file has zoom levels (see {@link DiskGenomicNumericZoom}), {@link #getAggregatedValue(ReferenceSequence, GenomicRegion, int, SpecialAggregators, int)}
+ * answers queries at a given resolution from the coarsest sufficient level.
+ * 
+ * For coverage files, aggregates are computed over the values of all positions in the region and of the last position before it (whose value covers
+ * the start of the region), the same as for the zoom levels. The available mean of a region without any value is 0.
+ * 
+ * @author erhard
+ *
+ */
 public class DiskGenomicNumericProvider implements GenomicNumericProvider, AutoCloseable {
 
-	private HashMap<ReferenceSequence,IntegerArray> positions;
-	private HashMap<ReferenceSequence,DiskMinMaxSumIndex[]> rmqs;
+	private LinkedHashMap<ReferenceSequence,Long> offsets;
+	private HashMap<ReferenceSequence,Integer> refIndex;
+	private ConcurrentHashMap<ReferenceSequence,ReferenceData> data;
 	private BinaryReader file;
 	private int rows = -1;
+	private long zoomTrailer = -1;
 	
 	private boolean coverageMode = false;
 	private boolean dense = false;
 	
 	
 	public DiskGenomicNumericProvider(String file) throws IOException {
-		positions = new HashMap<ReferenceSequence, IntegerArray>();
-		rmqs = new HashMap<ReferenceSequence, DiskMinMaxSumIndex[]>();
-		
+		offsets = new LinkedHashMap<ReferenceSequence, Long>();
+		refIndex = new HashMap<ReferenceSequence, Integer>();
+		data = new ConcurrentHashMap<ReferenceSequence, ReferenceData>();
 		
 		this.file = new ConcurrentPageFile(file);
 		if (!this.file.getAsciiChars(DiskGenomicNumericBuilder.MAGIC.length()).equals(DiskGenomicNumericBuilder.MAGIC))
 			throw new RuntimeException("Not a valid file!");
 
-		System.err.print("Loading "+file+"... ");
-
 		int refs = this.file.getInt();
 		for (int i=0; i<refs; i++) {
 			Chromosome chr = Chromosome.read(this.file);
-			long pos = this.file.getLong();
-			long cur = this.file.position();
-			
-			this.file.position(pos);
+			refIndex.put(chr, i);
+			offsets.put(chr, this.file.getLong());
+		}
+		
+		if (refs>0) {
+			// all references have the same type and number of rows
+			this.file.position(offsets.values().iterator().next());
 			char type = this.file.getAsciiChar();
 			if (type!='S' && type!='C' && type!='W' && type!='D') throw new RuntimeException("Not a valid file!");
 			coverageMode = type=='C' || type=='W';
 			dense = type=='W' || type=='D';
-			
-			int size = this.file.getInt();
-			int numCond = this.file.getInt();
-			
-			if (rows==-1) rows = numCond;
-			else if(rows!=numCond) throw new RuntimeException("Inconsistent number of conditions!");
-			
-			if (!dense) {
-				BinaryReader view = this.file.view(this.file.position(), this.file.position()+size*Integer.BYTES);
-				DiskIntegerArray ida = new DiskIntegerArray();
-				ida.deserialize(view, size);
-				positions.put(chr, ida);
-				this.file.position(view.getEnd());
-			} else {
-				positions.put(chr, new ComputedIntegerArray(n->n,size));
-			}
-			
-			long rmqPos = this.file.position();
-			DiskMinMaxSumIndex[] ind = new DiskMinMaxSumIndex[numCond];
-			for (int j=0; j<numCond; j++) {
-				BinaryReader pfv = this.file.view(rmqPos,this.file.size());
-				ind[j] = new DiskMinMaxSumIndex(pfv);
-				rmqPos = pfv.position()+pfv.getStart();
-			}
-			rmqs.put(chr, ind);
-			
-			
-			this.file.position(cur);
-			
-//			if (chr.getName().equals())
-			
+			this.file.getInt();
+			rows = this.file.getInt();
 		}
 		
-		System.err.println("done!");
+		int ml = DiskGenomicNumericBuilder.ZOOM_MAGIC.length();
+		long trailer = this.file.size()-ml-Long.BYTES;
+		if (trailer>0) {
+			this.file.position(this.file.size()-ml);
+			if (this.file.getAsciiChars(ml).equals(DiskGenomicNumericBuilder.ZOOM_MAGIC))
+				zoomTrailer = this.file.getLong(trailer);
+		}
 		
 	}
 	
+	private static class ReferenceData {
+		IntegerArray positions;
+		DiskMinMaxSumIndex[] rmqs;
+		DiskGenomicNumericZoom[] zoom;
+	}
+	
+	private ReferenceData getData(ReferenceSequence reference) {
+		ReferenceData re = data.get(reference);
+		if (re==null && offsets.containsKey(reference)) 
+			re = data.computeIfAbsent(reference, r->{
+				try {
+					return load(r);
+				} catch (IOException e) {
+					throw new RuntimeException("Could not read "+r+" from "+getPath(),e);
+				}
+			});
+		return re;
+	}
+	
+	private synchronized ReferenceData load(ReferenceSequence chr) throws IOException {
+		ReferenceData re = new ReferenceData();
+		
+		this.file.position(offsets.get(chr));
+		char type = this.file.getAsciiChar();
+		if (type!='S' && type!='C' && type!='W' && type!='D') throw new RuntimeException("Not a valid file!");
+		
+		int size = this.file.getInt();
+		int numCond = this.file.getInt();
+		
+		if(rows!=numCond) throw new RuntimeException("Inconsistent number of conditions!");
+		
+		if (!dense) {
+			BinaryReader view = this.file.view(this.file.position(), this.file.position()+size*Integer.BYTES);
+			DiskIntegerArray ida = new DiskIntegerArray();
+			ida.deserialize(view, size);
+			re.positions = ida;
+			this.file.position(view.getEnd());
+		} else {
+			re.positions = new ComputedIntegerArray(n->n,size);
+		}
+		
+		long rmqPos = this.file.position();
+		re.rmqs = new DiskMinMaxSumIndex[numCond];
+		for (int j=0; j<numCond; j++) {
+			BinaryReader pfv = this.file.view(rmqPos,this.file.size());
+			re.rmqs[j] = new DiskMinMaxSumIndex(pfv);
+			rmqPos = pfv.position()+pfv.getStart();
+		}
+		
+		if (zoomTrailer>=0) {
+			long zoomPos = this.file.getLong(zoomTrailer+refIndex.get(chr)*(long)Long.BYTES);
+			if (zoomPos>=0) {
+				this.file.position(zoomPos);
+				if (this.file.getInt()!=numCond) throw new RuntimeException("Inconsistent number of conditions!");
+				re.zoom = new DiskGenomicNumericZoom[numCond];
+				for (int j=0; j<numCond; j++)
+					re.zoom[j] = DiskGenomicNumericZoom.read(this.file, this.file, coverageMode);
+			}
+		}
+		
+		return re;
+	}
+	
+	private IntegerArray getPositions(ReferenceSequence reference) {
+		ReferenceData re = getData(reference);
+		return re==null?null:re.positions;
+	}
+	
+	private DiskMinMaxSumIndex[] getRmqs(ReferenceSequence reference) {
+		ReferenceData re = getData(reference);
+		return re==null?null:re.rmqs;
+	}
+	
+	public String getPath() {
+		return ((ConcurrentPageFile)file).getPath();
+	}
+	
+	public boolean hasZoomLevels() {
+		return zoomTrailer>=0;
+	}
+	
+	/**
+	 * Aggregated value over region, where a single value covers resolution bp (e.g. the number of bp per pixel in a genome browser). If the file has zoom levels,
+	 * the coarsest level with bins not larger than resolution is used (the region is then extended to the boundaries of its bins, i.e. the result
+	 * may be off by less than resolution bp at each end), otherwise (or if resolution is smaller than all bins) the value is computed exactly from the base level.
+	 * 
+	 * @param reference
+	 * @param region
+	 * @param row
+	 * @param agg
+	 * @param resolution
+	 * @return
+	 */
+	@Override
+	public double getAggregatedValue(ReferenceSequence reference, GenomicRegion region, int row, SpecialAggregators agg, int resolution) {
+		ReferenceData d = getData(reference);
+		if (d!=null && d.zoom!=null) {
+			DiskGenomicNumericZoom z = d.zoom[row];
+			int level = z.getLevel(resolution);
+			if (level>=0)
+				try {
+					return z.getAggregatedValue(level, region, agg);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+		}
+		return agg.getAggregatedValue(this, reference, region, row);
+	}
+	
+	/**
+	 * Checks that aggregates computed from the zoom levels agree with the base level for random regions aligned to the bins of each level
+	 * (within the range covered by the values of each reference), and throws an exception if not.
+	 * @param regionsPerLevel
+	 * @param seed
+	 */
+	public void checkZoomLevels(int regionsPerLevel, long seed) {
+		Random rnd = new Random(seed);
+		for (ReferenceSequence reference : getReferenceSequences()) {
+			ReferenceData d = getData(reference);
+			if (d==null || d.zoom==null) continue;
+			IntegerArray pos = getPositions(reference);
+			int first = pos.getInt(0);
+			int last = pos.getInt(pos.length()-1);
+			for (int row=0; row<d.zoom.length; row++) {
+				DiskGenomicNumericZoom z = d.zoom[row];
+				for (int level=0; level<z.getNumLevels(); level++) {
+					int binSize = z.getBinSize(level);
+					int b1 = (first+binSize-1)/binSize;
+					int b2 = last/binSize;
+					if (b1>=b2) continue;
+					for (int i=0; i<regionsPerLevel; i++) {
+						int start = b1+rnd.nextInt(b2-b1);
+						int end = Math.min(b2, start+1+rnd.nextInt(4));
+						GenomicRegion region = new ArrayGenomicRegion(start*binSize,end*binSize);
+						for (SpecialAggregators agg : SpecialAggregators.values()) {
+							double zoomed;
+							try {
+								zoomed = z.getAggregatedValue(level, region, agg);
+							} catch (IOException e) {
+								throw new RuntimeException(e);
+							}
+							double base = agg.getAggregatedValue(this, reference, region, row);
+							if (!(Double.isNaN(zoomed) && Double.isNaN(base)) && Math.abs(zoomed-base)>1E-6*Math.max(1, Math.abs(base)))
+								throw new RuntimeException("Zoom level "+level+" ("+binSize+"bp) of "+getPath()+" does not agree with base level for "
+										+agg+" in row "+row+" of "+reference+":"+region+": "+zoomed+"!="+base);
+						}
+					}
+				}
+			}
+		}
+	}
+	
 	public boolean hasSum() {
-		return rmqs.values().iterator().next()[0].hasSum();
+		return getRmqs(offsets.keySet().iterator().next())[0].hasSum();
 	}
 	
 	@Override
 	public int getLength(String name) {
 		Chromosome reference = Chromosome.obtain(name);
-		IntegerArray dia = positions.get(reference);
+		IntegerArray dia = getPositions(reference);
 		if (dia==null) {
 			// test all three strands
-			dia = positions.get(reference.toStrandIndependent());
+			dia = getPositions(reference.toStrandIndependent());
 			if (dia==null)
-				dia = positions.get(reference.toPlusStrand());
+				dia = getPositions(reference.toPlusStrand());
 			if (dia==null)
-				dia = positions.get(reference.toMinusStrand());
+				dia = getPositions(reference.toMinusStrand());
 			if (dia==null)
 				return -1;
 		}
@@ -124,7 +272,7 @@ public class DiskGenomicNumericProvider implements GenomicNumericProvider, AutoC
 	}
 	
 	public Collection<ReferenceSequence> getReferenceSequences() {
-		return positions.keySet();
+		return offsets.keySet();
 	}
 	
 	/**
@@ -137,16 +285,16 @@ public class DiskGenomicNumericProvider implements GenomicNumericProvider, AutoC
 		dump(reference, null, output);
 	}
 	public void dump(ReferenceSequence reference, GenomicRegion region, Consumer<String> output) {
-		if (!positions.containsKey(reference)) 
+		if (!offsets.containsKey(reference)) 
 			return;
 		
-		IntegerArray arr = positions.get(reference);
-		DiskMinMaxSumIndex[] vals = rmqs.get(reference);
+		IntegerArray arr = getPositions(reference);
+		DiskMinMaxSumIndex[] vals = getRmqs(reference);
 		
 		if (region!=null) {
 			for (int p=0; p<region.getNumParts(); p++) {
-				int idx1 = positions.get(reference).binarySearch(region.getStart(p));
-				int idx2 = positions.get(reference).binarySearch(region.getStop(p));
+				int idx1 = getPositions(reference).binarySearch(region.getStart(p));
+				int idx2 = getPositions(reference).binarySearch(region.getStop(p));
 				if (idx1==idx2 && idx1<0) continue;
 				if (idx1<0) idx1 = -idx1-1;
 				if (idx2<0) idx2 = -idx2-2;
@@ -205,7 +353,7 @@ public class DiskGenomicNumericProvider implements GenomicNumericProvider, AutoC
 	}
 	
 	public PositionNumericIterator iterateValues(ReferenceSequence reference) {
-		IntegerArray a = positions.get(reference);
+		IntegerArray a = getPositions(reference);
 		int l = a.getInt(a.length()-1)+1;
 		return iterateValues(reference, new ArrayGenomicRegion(0,l));
 	}
@@ -214,7 +362,7 @@ public class DiskGenomicNumericProvider implements GenomicNumericProvider, AutoC
 			GenomicRegion region) {
 		
 		if (coverageMode) {
-			IntegerArray ind = positions.get(reference);
+			IntegerArray ind = getPositions(reference);
 			
 			if(ind==null) return GenomicNumericProvider.empty();
 			
@@ -238,10 +386,10 @@ public class DiskGenomicNumericProvider implements GenomicNumericProvider, AutoC
 			
 			ArrayGenomicRegion idxRegion = new ArrayGenomicRegion(idxs);
 			
-			rmqs.get(reference);
+			getRmqs(reference);
 			double[] currValue = new double[getNumDataRows()];
 			for (int i=0; i<currValue.length; i++)
-				currValue[i] = leftZero?0:rmqs.get(reference)[i].getValue(idxRegion.getStart());
+				currValue[i] = leftZero?0:getRmqs(reference)[i].getValue(idxRegion.getStart());
 			
 			if(idxRegion.isEmpty()) return GenomicNumericProvider.empty();
 			
@@ -263,7 +411,7 @@ public class DiskGenomicNumericProvider implements GenomicNumericProvider, AutoC
 						int pp=idxRegion.map(++currIdx);
 						nextPos = currIdx+1>=idxRegion.getTotalLength()?Integer.MAX_VALUE:ind.getInt(idxRegion.map(currIdx+1));
 						for (int i=0; i<currValue.length; i++)
-							currValue[i] = rmqs.get(reference)[i].getValue(pp);
+							currValue[i] = getRmqs(reference)[i].getValue(pp);
 					}
 					
 					return re;
@@ -286,7 +434,7 @@ public class DiskGenomicNumericProvider implements GenomicNumericProvider, AutoC
 			
 		}
 		
-		IntegerArray ind = positions.get(reference);
+		IntegerArray ind = getPositions(reference);
 
 		IntArrayList idxs = new IntArrayList();
 		for (int p=0; p<region.getNumParts(); p++) {
@@ -314,17 +462,17 @@ public class DiskGenomicNumericProvider implements GenomicNumericProvider, AutoC
 			
 			@Override
 			public int nextInt() {
-				return positions.get(reference).getInt(idxRegion.map(p++));
+				return getPositions(reference).getInt(idxRegion.map(p++));
 			}
 			
 			@Override
 			public double getValue(int row) {
-				return rmqs.get(reference)[row].getValue(idxRegion.map(p-1));
+				return getRmqs(reference)[row].getValue(idxRegion.map(p-1));
 			}
 			
 			@Override
 			public double[] getValues(double[] re) {
-				DiskMinMaxSumIndex[] r = rmqs.get(reference);
+				DiskMinMaxSumIndex[] r = getRmqs(reference);
 				if (re==null || re.length!=getNumDataRows()) 
 					re = new double[getNumDataRows()];
 				for (int row=0; row<re.length; row++)
@@ -347,10 +495,10 @@ public class DiskGenomicNumericProvider implements GenomicNumericProvider, AutoC
 
 	@Override
 	public double getValue(ReferenceSequence reference, int pos, int row) {
-		IntegerArray ind = positions.get(reference);
+		IntegerArray ind = getPositions(reference);
 		if (ind==null){
 			reference = reference.toStrandIndependent();
-			ind = positions.get(reference);
+			ind = getPositions(reference);
 		}
 		if (ind==null) return Double.NaN;
 		
@@ -358,16 +506,16 @@ public class DiskGenomicNumericProvider implements GenomicNumericProvider, AutoC
 		idx = adaptIdx(idx);
 		if (idx<0 || idx>=ind.length()) return 0;
 		
-		return rmqs.get(reference)[row].getValue(idx);
+		return getRmqs(reference)[row].getValue(idx);
 	}
 
 	public double[] getValues(ReferenceSequence reference, int pos, double[] re) {
 		if (re==null || re.length!=rows) re = new double[rows];
 		
-		IntegerArray ind = positions.get(reference);
+		IntegerArray ind = getPositions(reference);
 		if (ind==null){
 			reference = reference.toStrandIndependent();
-			ind = positions.get(reference);
+			ind = getPositions(reference);
 		}
 		if (ind==null) {
 			Arrays.fill(re,Double.NaN);
@@ -380,7 +528,7 @@ public class DiskGenomicNumericProvider implements GenomicNumericProvider, AutoC
 			Arrays.fill(re,0);
 			return re;
 		}
-		DiskMinMaxSumIndex[] rm = rmqs.get(reference);
+		DiskMinMaxSumIndex[] rm = getRmqs(reference);
 		for (int i=0; i<rows; i++)
 			re[i] = rm[i].getValue(idx);
 		return re;
@@ -393,13 +541,13 @@ public class DiskGenomicNumericProvider implements GenomicNumericProvider, AutoC
 
 	@Override
 	public double getMax(ReferenceSequence reference, GenomicRegion region, int row) {
-		if (!positions.containsKey(reference)) 
+		if (!offsets.containsKey(reference)) 
 			return Double.NaN;
 		try {
 			double re = Double.NEGATIVE_INFINITY;
 			for (int p=0; p<region.getNumParts(); p++) {
-				int idx1 = positions.get(reference).binarySearch(region.getStart(p));
-				int idx2 = positions.get(reference).binarySearch(region.getStop(p));
+				int idx1 = getPositions(reference).binarySearch(region.getStart(p));
+				int idx2 = getPositions(reference).binarySearch(region.getStop(p));
 				
 				idx1=adaptIdx(idx1);
 				idx2=adaptIdx(idx2);
@@ -407,7 +555,7 @@ public class DiskGenomicNumericProvider implements GenomicNumericProvider, AutoC
 				if (idx1==idx2 && idx1<0) continue;
 				if (idx1<0) idx1 = -idx1-1;
 				if (idx2<0) idx2 = -idx2-2;
-				DiskMinMaxSumIndex ind = rmqs.get(reference)[row];
+				DiskMinMaxSumIndex ind = getRmqs(reference)[row];
 				if (idx1<ind.length()) {
 					idx2 = Math.min(idx2,ind.length()-1);
 					re = Math.max(re,ind.getValue(ind.getMaxIndex(idx1, idx2)));
@@ -421,14 +569,14 @@ public class DiskGenomicNumericProvider implements GenomicNumericProvider, AutoC
 	
 	@Override
 	public double getMin(ReferenceSequence reference, GenomicRegion region, int row) {
-		if (!positions.containsKey(reference)) 
+		if (!offsets.containsKey(reference)) 
 			return Double.NaN;
 		try {
 			double re = Double.POSITIVE_INFINITY;
 			
 			for (int p=0; p<region.getNumParts(); p++) {
-				int idx1 = positions.get(reference).binarySearch(region.getStart(p));
-				int idx2 = positions.get(reference).binarySearch(region.getStop(p));
+				int idx1 = getPositions(reference).binarySearch(region.getStart(p));
+				int idx2 = getPositions(reference).binarySearch(region.getStop(p));
 				
 				idx1=adaptIdx(idx1);
 				idx2=adaptIdx(idx2);
@@ -436,7 +584,7 @@ public class DiskGenomicNumericProvider implements GenomicNumericProvider, AutoC
 				if (idx1==idx2 && idx1<0) continue;
 				if (idx1<0) idx1 = -idx1-1;
 				if (idx2<0) idx2 = -idx2-2;
-				DiskMinMaxSumIndex ind = rmqs.get(reference)[row];
+				DiskMinMaxSumIndex ind = getRmqs(reference)[row];
 				
 				if (idx1<ind.length()) {
 					idx2 = Math.min(idx2,ind.length()-1);
@@ -451,14 +599,14 @@ public class DiskGenomicNumericProvider implements GenomicNumericProvider, AutoC
 	
 	@Override
 	public double getSum(ReferenceSequence reference, GenomicRegion region, int row) {
-		if (!positions.containsKey(reference)) 
+		if (!offsets.containsKey(reference)) 
 			return Double.NaN;
 		try {
 			double re = 0;
 			
 			for (int p=0; p<region.getNumParts(); p++) {
-				int idx1 = positions.get(reference).binarySearch(region.getStart(p));
-				int idx2 = positions.get(reference).binarySearch(region.getStop(p));
+				int idx1 = getPositions(reference).binarySearch(region.getStart(p));
+				int idx2 = getPositions(reference).binarySearch(region.getStop(p));
 				
 				idx1=adaptIdx(idx1);
 				idx2=adaptIdx(idx2);
@@ -466,7 +614,7 @@ public class DiskGenomicNumericProvider implements GenomicNumericProvider, AutoC
 				if (idx1==idx2 && idx1<0) continue;
 				if (idx1<0) idx1 = -idx1-1;
 				if (idx2<0) idx2 = -idx2-2;
-				DiskMinMaxSumIndex ind = rmqs.get(reference)[row];
+				DiskMinMaxSumIndex ind = getRmqs(reference)[row];
 				
 				if (idx1<ind.length()) {
 					idx2 = Math.min(idx2,ind.length()-1);
@@ -487,14 +635,14 @@ public class DiskGenomicNumericProvider implements GenomicNumericProvider, AutoC
 	@Override
 	public double getAvailableMean(ReferenceSequence reference,
 			GenomicRegion region, int row) {
-		if (!positions.containsKey(reference)) 
+		if (!offsets.containsKey(reference)) 
 			return Double.NaN;
 		try {
 			double re = 0;
 			int n = 0;
 			for (int p=0; p<region.getNumParts(); p++) {
-				int idx1 = positions.get(reference).binarySearch(region.getStart(p));
-				int idx2 = positions.get(reference).binarySearch(region.getStop(p));
+				int idx1 = getPositions(reference).binarySearch(region.getStart(p));
+				int idx2 = getPositions(reference).binarySearch(region.getStop(p));
 				
 				idx1=adaptIdx(idx1);
 				idx2=adaptIdx(idx2);
@@ -502,7 +650,7 @@ public class DiskGenomicNumericProvider implements GenomicNumericProvider, AutoC
 				if (idx1==idx2 && idx1<0) continue;
 				if (idx1<0) idx1 = -idx1-1;
 				if (idx2<0) idx2 = -idx2-2;
-				DiskMinMaxSumIndex ind = rmqs.get(reference)[row];
+				DiskMinMaxSumIndex ind = getRmqs(reference)[row];
 				
 				if (idx1<ind.length()) {
 					idx2 = Math.min(idx2,ind.length()-1);
@@ -510,11 +658,11 @@ public class DiskGenomicNumericProvider implements GenomicNumericProvider, AutoC
 					n+=idx2-idx1+1;
 				}
 			}
-			return re/n; 
+			return n==0?0:re/n; 
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 	
+	
 }
- 
\ No newline at end of file
@@ -0,0 +1,331 @@
+package gedi.core.data.numeric.diskrmq;
+
+import gedi.core.data.numeric.GenomicNumericProvider.SpecialAggregators;
+import gedi.core.region.GenomicRegion;
+import gedi.util.datastructure.array.NumericArray;
+import gedi.util.io.randomaccess.BinaryReader;
+import gedi.util.io.randomaccess.BinaryWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Precomputed zoom levels (similar to bigWig) for a single row of a single reference of a rmq file: per bin min, max, sum and count
+ * for bins of {@link #FIRST_BIN_SIZE}*{@link #FACTOR}^k bp. Only non-empty bins are stored, and only levels that at least halve the number
+ * of entries compared to the next finer level (or the base level) are kept.
+ *
+ * The count is the number of positions with a value in the bin. For coverage files, the aggregates are the same as the ones of the base level (see 
+ * {@link DiskGenomicNumericProvider}), i.e. they are computed over the positions in the region and the last position before it (whose value
+ * covers the start of the region); the first position and the last value of each bin are stored for that.
+ *
+ * Format: number of levels, and for each level: bin size, number of bins n, bins (int[n]), counts (int[n]), first positions (int[n]), last values (double[n]), 
+ * min (double[n]), max (double[n]), sum (double[n])
+ *
+ * @author erhard
+ *
+ */
+public class DiskGenomicNumericZoom {
+
+	public static final int FIRST_BIN_SIZE = 64;
+	public static final int FACTOR = 4;
+	public static final int MAX_BIN_SIZE = 1<<28;
+
+	private boolean coverageMode;
+	private Level[] levels;
+
+
+	private DiskGenomicNumericZoom(boolean coverageMode, Level[] levels) {
+		this.coverageMode = coverageMode;
+		this.levels = levels;
+	}
+
+	/**
+	 * Computes the zoom levels for the given (sorted) positions and the corresponding values
+	 * @param n number of entries
+	 * @param position position of entry i
+	 * @param values
+	 * @param coverageMode
+	 * @return
+	 */
+	public static DiskGenomicNumericZoom compute(int n, IntUnaryOperator position, NumericArray values, boolean coverageMode) {
+		MemoryLevel l = new MemoryLevel(FIRST_BIN_SIZE);
+		for (int i=0; i<n; i++) {
+			int p = position.applyAsInt(i);
+			double v = values.getDouble(i);
+			l.add(p/FIRST_BIN_SIZE, 1, p, v, v, v, v);
+		}
+
+		ArrayList<Level> re = new ArrayList<Level>();
+		int last = n;
+		for (;;) {
+			if (l.n*2<=last) {
+				re.add(l);
+				last = l.n;
+			}
+			if (l.n<=1 || l.binSize>=MAX_BIN_SIZE) break;
+			l = l.coarsen();
+		}
+		return new DiskGenomicNumericZoom(coverageMode, re.toArray(new Level[0]));
+	}
+
+	public void serialize(BinaryWriter out) throws IOException {
+		out.putInt(levels.length);
+		for (Level ll : levels) {
+			MemoryLevel l = (MemoryLevel) ll;
+			out.putInt(l.binSize);
+			out.putInt(l.n);
+			for (int i=0; i<l.n; i++) out.putInt(l.bins[i]);
+			for (int i=0; i<l.n; i++) out.putInt(l.count[i]);
+			for (int i=0; i<l.n; i++) out.putInt(l.first[i]);
+			for (int i=0; i<l.n; i++) out.putDouble(l.last[i]);
+			for (int i=0; i<l.n; i++) out.putDouble(l.min[i]);
+			for (int i=0; i<l.n; i++) out.putDouble(l.max[i]);
+			for (int i=0; i<l.n; i++) out.putDouble(l.sum[i]);
+		}
+	}
+
+	/**
+	 * Reads the level headers at the current position of in (and skips the bins, which are accessed directly in file when querying)
+	 * @param in
+	 * @param file
+	 * @param coverageMode
+	 * @return
+	 * @throws IOException
+	 */
+	public static DiskGenomicNumericZoom read(BinaryReader in, BinaryReader file, boolean coverageMode) throws IOException {
+		Level[] levels = new Level[in.getInt()];
+		for (int i=0; i<levels.length; i++) {
+			int binSize = in.getInt();
+			int n = in.getInt();
+			levels[i] = new DiskLevel(file, binSize, n, in.position()+in.getStart());
+			in.position(in.position()+n*(3L*Integer.BYTES+4L*Double.BYTES));
+		}
+		return new DiskGenomicNumericZoom(coverageMode, levels);
+	}
+
+	public int getNumLevels() {
+		return levels.length;
+	}
+
+	public int getBinSize(int level) {
+		return levels[level].binSize;
+	}
+
+	/**
+	 * Index of the coarsest level with bins not larger than resolution, or -1 if there is no such level.
+	 * @param resolution
+	 * @return
+	 */
+	public int getLevel(int resolution) {
+		int re = -1;
+		for (int i=0; i<levels.length; i++)
+			if (levels[i].binSize<=resolution)
+				re = i;
+		return re;
+	}
+
+	/**
+	 * Aggregates over all bins of the given level overlapping region (i.e. the region is extended to bin boundaries).
+	 * @param level
+	 * @param region
+	 * @param agg
+	 * @return
+	 * @throws IOException
+	 */
+	public double getAggregatedValue(int level, GenomicRegion region, SpecialAggregators agg) throws IOException {
+		Level l = levels[level];
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		double sum = 0;
+		long count = 0;
+		for (int p=0; p<region.getNumParts(); p++) {
+			int b1 = region.getStart(p)/l.binSize;
+			int b2 = region.getStop(p)/l.binSize;
+			int i1 = l.find(b1);
+			if (coverageMode && i1>0 && !(i1<l.n && l.bin(i1)==b1 && l.first(i1)==b1*l.binSize)) {
+				// the value of the last position before the region covers its start
+				double v = l.last(i1-1);
+				min = Math.min(min, v);
+				max = Math.max(max, v);
+				sum += v;
+				count++;
+			}
+			for (int i=i1; i<l.n && l.bin(i)<=b2; i++) {
+				min = Math.min(min, l.min(i));
+				max = Math.max(max, l.max(i));
+				sum += l.sum(i);
+				count += l.count(i);
+			}
+		}
+
+		switch (agg) {
+		case Min: return Double.isInfinite(min)?Double.NaN:min;
+		case Max: return Double.isInfinite(max)?Double.NaN:max;
+		case Sum: return sum;
+		case Mean: return sum/region.getTotalLength();
+		case AvailableMean: return count==0?0:sum/count;
+		default: throw new IllegalArgumentException("Unknown aggregator: "+agg);
+		}
+	}
+
+
+	private static abstract class Level {
+		int binSize;
+		int n;
+
+		abstract int bin(int i) throws IOException;
+		abstract int count(int i) throws IOException;
+		abstract int first(int i) throws IOException;
+		abstract double last(int i) throws IOException;
+		abstract double min(int i) throws IOException;
+		abstract double max(int i) throws IOException;
+		abstract double sum(int i) throws IOException;
+
+		/**
+		 * Index of the first bin &gt;= bin
+		 */
+		int find(int bin) throws IOException {
+			int l = 0;
+			int r = n;
+			while (l<r) {
+				int m = (l+r)>>>1;
+				if (bin(m)<bin) l = m+1;
+				else r = m;
+			}
+			return l;
+		}
+	}
+
+	private static class MemoryLevel extends Level {
+		int[] bins = new int[16];
+		int[] count = new int[16];
+		int[] first = new int[16];
+		double[] last = new double[16];
+		double[] min = new double[16];
+		double[] max = new double[16];
+		double[] sum = new double[16];
+
+		MemoryLevel(int binSize) {
+			this.binSize = binSize;
+		}
+
+		void add(int bin, int c, int f, double la, double mi, double ma, double s) {
+			if (n>0 && bins[n-1]==bin) {
+				count[n-1]+=c;
+				last[n-1] = la;
+				min[n-1] = Math.min(min[n-1], mi);
+				max[n-1] = Math.max(max[n-1], ma);
+				sum[n-1]+=s;
+				return;
+			}
+			if (n==bins.length) {
+				bins = Arrays.copyOf(bins, n*2);
+				count = Arrays.copyOf(count, n*2);
+				first = Arrays.copyOf(first, n*2);
+				last = Arrays.copyOf(last, n*2);
+				min = Arrays.copyOf(min, n*2);
+				max = Arrays.copyOf(max, n*2);
+				sum = Arrays.copyOf(sum, n*2);
+			}
+			bins[n] = bin;
+			count[n] = c;
+			first[n] = f;
+			last[n] = la;
+			min[n] = mi;
+			max[n] = ma;
+			sum[n++] = s;
+		}
+
+		MemoryLevel coarsen() {
+			MemoryLevel re = new MemoryLevel(binSize*FACTOR);
+			for (int i=0; i<n; i++)
+				re.add(bins[i]/FACTOR, count[i], first[i], last[i], min[i], max[i], sum[i]);
+			return re;
+		}
+
+		@Override
+		int bin(int i) {
+			return bins[i];
+		}
+		@Override
+		int count(int i) {
+			return count[i];
+		}
+		@Override
+		int first(int i) {
+			return first[i];
+		}
+		@Override
+		double last(int i) {
+			return last[i];
+		}
+		@Override
+		double min(int i) {
+			return min[i];
+		}
+		@Override
+		double max(int i) {
+			return max[i];
+		}
+		@Override
+		double sum(int i) {
+			return sum[i];
+		}
+	}
+
+	private static class DiskLevel extends Level {
+		private BinaryReader file;
+		private long bins;
+		private long count;
+		private long first;
+		private long last;
+		private long min;
+		private long max;
+		private long sum;
+
+		DiskLevel(BinaryReader file, int binSize, int n, long offset) {
+			this.file = file;
+			this.binSize = binSize;
+			this.n = n;
+			this.bins = offset;
+			this.count = bins+n*(long)Integer.BYTES;
+			this.first = count+n*(long)Integer.BYTES;
+			this.last = first+n*(long)Integer.BYTES;
+			this.min = last+n*(long)Double.BYTES;
+			this.max = min+n*(long)Double.BYTES;
+			this.sum = max+n*(long)Double.BYTES;
+		}
+
+		@Override
+		int bin(int i) throws IOException {
+			return file.getInt(bins+i*(long)Integer.BYTES);
+		}
+		@Override
+		int count(int i) throws IOException {
+			return file.getInt(count+i*(long)Integer.BYTES);
+		}
+		@Override
+		int first(int i) throws IOException {
+			return file.getInt(first+i*(long)Integer.BYTES);
+		}
+		@Override
+		double last(int i) throws IOException {
+			return file.getDouble(last+i*(long)Double.BYTES);
+		}
+		@Override
+		double min(int i) throws IOException {
+			return file.getDouble(min+i*(long)Double.BYTES);
+		}
+		@Override
+		double max(int i) throws IOException {
+			return file.getDouble(max+i*(long)Double.BYTES);
+		}
+		@Override
+		double sum(int i) throws IOException {
+			return file.getDouble(sum+i*(long)Double.BYTES);
+		}
+	}
+
+}
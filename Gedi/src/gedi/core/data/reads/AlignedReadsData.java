@@ -13,7 +13,6 @@ import gedi.core.region.ArrayGenomicRegion;
 import gedi.core.region.GenomicRegion;
 import gedi.core.region.ImmutableReferenceGenomicRegion;
 import gedi.core.region.ReferenceGenomicRegion;
-import gedi.util.FileUtils;
 import gedi.util.FunctorUtils;
 import gedi.util.StringUtils;
 import gedi.util.datastructure.array.NumericArray;
@@ -28,7 +27,6 @@ import gedi.util.functions.IntDoubleToDoubleFunction;
 import gedi.util.io.randomaccess.BinaryWriter;
 import gedi.util.io.randomaccess.serialization.BinarySerializable;
 import gedi.util.math.stat.Ranking;
-import gedi.util.sequence.DnaSequence;
 
 
 /**
@@ -1593,18 +1591,12 @@ public interface AlignedReadsData extends BinarySerializable, GlobalInfoProvider
 			for (int i=0; i<d; i++) {
 				
 				if (hasNonzeroInformation())
-					for (int j : getNonzeroCountIndicesForDistinct(i)) {
-						DnaSequence[] bcs = bc.getBarcodes(i, j);
-						for (int b=0; b<bcs.length;b++)
-							FileUtils.writeBitVector(bcs[b], out, false);
-					}
+					for (int j : getNonzeroCountIndicesForDistinct(i)) 
+						bc.writeBarcodes(i, j, out);
 				else
 					for (int j=0; j<c; j++) {
-						if (getCount(i,j)>0) {
-							DnaSequence[] bcs = bc.getBarcodes(i, j);
-							for (int b=0; b<bcs.length;b++)
-								FileUtils.writeBitVector(bcs[b], out, false);
-						}
+						if (getCount(i,j)>0) 
+							bc.writeBarcodes(i, j, out);
 					}
 				
 				
@@ -1190,27 +1190,7 @@ public class AlignedReadsDataFactory {
 	}
 	public BarcodedAlignedReadsData createBarcode(BarcodedAlignedReadsData re) {
 		fill(re);
-		
-		if (isSparse()) {
-			re.barcodes  = new DnaSequence[currentDistinct+1][][];
-			for (int d=0; d<re.barcodes.length; d++){
-				re.barcodes[d] = new DnaSequence[re.nonzeros[d].length][];
-				for (int c=0; c<re.getNonzeroCountIndicesForDistinct(d).length; c++) {
-					re.barcodes[d][c] = barcodes.get(d)[c].toArray(new DnaSequence[0]);
-					if (re.barcodes[d][c].length!=re.count[d][c])
-						throw new RuntimeException("Barcodes and counts do not match!");
-				}
-			}
-		} else {
-			re.barcodes  = new DnaSequence[currentDistinct+1][conditions][];
-			for (int d=0; d<re.barcodes.length; d++){
-				for (int c=0; c<re.barcodes[d].length; c++) {
-					re.barcodes[d][c] = barcodes.get(d)[c]==null?new DnaSequence[0]:barcodes.get(d)[c].toArray(new DnaSequence[0]);
-					if (re.barcodes[d][c].length!=re.count[d][c])
-						throw new RuntimeException("Barcodes and counts do not match!");
-				}
-			}
-		}
+		re.setBarcodes(barcodes.toArray(new ArrayList[0][]));
 		return re;
 	}
 	
@@ -12,6 +12,7 @@ import gedi.util.ArrayUtils;
 import gedi.util.FunctorUtils;
 import gedi.util.functions.EI;
 import gedi.util.functions.ExtendedIterator;
+import gedi.util.mutable.MutableInteger;
 
 public class AlignedReadsDataMerger {
 	
@@ -19,7 +20,7 @@ public class AlignedReadsDataMerger {
 	private AlignedReadsDataFactory fac;
 	
 	private IntIntHashMap[] idMapping;
-	private int nextId = 1; // start with 1 as IntIntHashMap does not support 0->0
+	private MutableInteger nextId = new MutableInteger(1); // start with 1 as IntIntHashMap does not support 0->0
 	
 //	public AlignedReadsDataMerger(){
 //	}
@@ -34,6 +35,22 @@ public class AlignedReadsDataMerger {
 			idMapping[i] = new IntIntHashMap();
 		
 	}
+	
+	private AlignedReadsDataMerger(AlignedReadsDataMerger parent) {
+		fac = new AlignedReadsDataFactory(parent.offsets[parent.offsets.length-1]);
+		offsets = parent.offsets;
+		idMapping = parent.idMapping;
+		nextId = parent.nextId;
+	}
+	
+	/**
+	 * Creates a merger that shares the id mapping with this merger (i.e. multimapping reads get the same ids), but can be used
+	 * concurrently with it (e.g. to merge several references in parallel).
+	 * @return
+	 */
+	public AlignedReadsDataMerger spawn() {
+		return new AlignedReadsDataMerger(this);
+	}
 
 
 	public ImmutableReferenceGenomicRegion<DefaultAlignedReadsData> merge(ImmutableReferenceGenomicRegion<? extends AlignedReadsData>... data) {
@@ -217,13 +234,15 @@ public class AlignedReadsDataMerger {
 
 
 	private int getId(int file, int oldId, boolean save) {
-		int id = idMapping[file].get(oldId);
-		if (id==IntIntHashMap.NOT_FOUND) {
-			if (save)
-				idMapping[file].put(oldId, nextId);
-			id = nextId++;
+		synchronized (idMapping) {
+			int id = idMapping[file].get(oldId);
+			if (id==IntIntHashMap.NOT_FOUND) {
+				if (save)
+					idMapping[file].put(oldId, nextId.N);
+				id = nextId.N++;
+			}
+			return id;
 		}
-		return id;
 	}
 	
 }
@@ -2,16 +2,31 @@ package gedi.core.data.reads;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.List;
 
-import gedi.util.FileUtils;
 import gedi.util.dynamic.DynamicObject;
 import gedi.util.io.randomaccess.BinaryReader;
+import gedi.util.io.randomaccess.BinaryWriter;
 import gedi.util.sequence.DnaSequence;
+import gedi.util.sequence.PackedDnaSequence;
 
 
+/**
+ * Barcodes (UMIs) are stored 2-bit packed in a single long array (one long per barcode of up to 32 nt, see {@link PackedDnaSequence}); for each
+ * distinct sequence and condition (or nonzero index, if {@link #hasNonzeroInformation()}), there are as many barcodes as reads.
+ * Use the packed accessors ({@link #getPackedBarcode(int, int, int)}, {@link #getBarcodeCount(int, int)}) to avoid creating {@link DnaSequence} objects.
+ * 
+ * @author erhard
+ *
+ */
 public class BarcodedAlignedReadsData extends DefaultAlignedReadsData implements HasBarcodes {
 
-	DnaSequence[][][] barcodes;
+	private int barcodeLength = -1;
+	private int words = 1;
+	// slot of (distinct d, index i) is slotOffset[d]+i; barcodes of slot s are packed[barcodeOffset[s]*words] to packed[barcodeOffset[s+1]*words]
+	private int[] slotOffset;
+	private int[] barcodeOffset;
+	private long[] packed;
 	
 
 	public BarcodedAlignedReadsData() {}
@@ -19,27 +34,127 @@ public class BarcodedAlignedReadsData extends DefaultAlignedReadsData implements
 	
 	public DnaSequence[] getNonZeroBarcodes(int distinct, int index) {
 		if (!hasNonzeroInformation()) throw new RuntimeException();
-		return barcodes[distinct][index];
+		return unpackSlot(slotOffset[distinct]+index);
 	}
 	
 	public DnaSequence[] getBarcodes(int distinct, int condition) {
+		int slot = getSlot(distinct, condition);
+		if (slot<0) return new DnaSequence[0];
+		return unpackSlot(slot);
+	}
+	
+	/**
+	 * Number of barcodes for the given distinct sequence and condition (this is the count!)
+	 * @param distinct
+	 * @param condition
+	 * @return
+	 */
+	public int getBarcodeCount(int distinct, int condition) {
+		int slot = getSlot(distinct, condition);
+		if (slot<0) return 0;
+		return barcodeOffset[slot+1]-barcodeOffset[slot];
+	}
+	
+	/**
+	 * Gets the 2-bit packed barcode (only for barcodes of at most {@link PackedDnaSequence#MAX_LENGTH})
+	 * @param distinct
+	 * @param condition
+	 * @param index
+	 * @return
+	 */
+	public long getPackedBarcode(int distinct, int condition, int index) {
+		if (words!=1) throw new RuntimeException("Barcodes are longer than "+PackedDnaSequence.MAX_LENGTH+"!");
+		return packed[barcodeOffset[getSlot(distinct, condition)]+index];
+	}
+	
+	/**
+	 * Copies the 2-bit packed barcodes into re (only for barcodes of at most {@link PackedDnaSequence#MAX_LENGTH}), which must be large enough; 
+	 * @param distinct
+	 * @param condition
+	 * @param re
+	 * @param offset
+	 * @return the number of barcodes
+	 */
+	public int getPackedBarcodes(int distinct, int condition, long[] re, int offset) {
+		if (words!=1) throw new RuntimeException("Barcodes are longer than "+PackedDnaSequence.MAX_LENGTH+"!");
+		int slot = getSlot(distinct, condition);
+		if (slot<0) return 0;
+		int n = barcodeOffset[slot+1]-barcodeOffset[slot];
+		System.arraycopy(packed, barcodeOffset[slot], re, offset, n);
+		return n;
+	}
+	
+	private int getSlot(int distinct, int condition) {
 		if (hasNonzeroInformation()) {
-			
 			int ind = Arrays.binarySearch(nonzeros[distinct], condition);
-			if (ind<0) return new DnaSequence[0];
-			return barcodes[distinct][ind];
+			if (ind<0) return -1;
+			return slotOffset[distinct]+ind;
 		}
-		return barcodes[distinct][condition];
+		return slotOffset[distinct]+condition;
+	}
+	
+	private DnaSequence[] unpackSlot(int slot) {
+		DnaSequence[] re = new DnaSequence[barcodeOffset[slot+1]-barcodeOffset[slot]];
+		for (int b=0; b<re.length; b++)
+			re[b] = PackedDnaSequence.unpack(packed, (barcodeOffset[slot]+b)*words, barcodeLength);
+		return re;
 	}
 	
 	
 	public int getBarcodeLength() {
+		if (barcodeLength<0) 
+			throw new RuntimeException("No barcode!");
+		return barcodeLength;
+	}
+	
+	@Override
+	public void writeBarcodes(int distinct, int condition, BinaryWriter out) throws IOException {
+		int slot = getSlot(distinct, condition);
+		if (slot<0) return;
+		for (int b=barcodeOffset[slot]; b<barcodeOffset[slot+1]; b++)
+			PackedDnaSequence.write(packed, b*words, barcodeLength, out);
+	}
+	
+	/**
+	 * Creates the slots according to the counts (must have been set before)
+	 */
+	private void createSlots() {
+		int d = getDistinctSequences();
+		slotOffset = new int[d+1];
+		for (int i=0; i<d; i++)
+			slotOffset[i+1] = slotOffset[i]+count[i].length;
+		barcodeOffset = new int[slotOffset[d]+1];
+		for (int i=0; i<d; i++)
+			for (int j=0; j<count[i].length; j++)
+				barcodeOffset[slotOffset[i]+j+1] = barcodeOffset[slotOffset[i]+j]+count[i][j];
+	}
+	
+	/**
+	 * Sets the barcodes (indexed by distinct and condition or nonzero index); used by the {@link AlignedReadsDataFactory}. 
+	 * @param barcodes
+	 */
+	void setBarcodes(List<DnaSequence>[][] barcodes) {
+		createSlots();
+		barcodeLength = -1;
+		for (int d=0; d<getDistinctSequences() && barcodeLength<0; d++)
+			for (int c=0; c<count[d].length && barcodeLength<0; c++)
+				if (barcodes[d][c]!=null && barcodes[d][c].size()>0)
+					barcodeLength = barcodes[d][c].get(0).length();
+		words = PackedDnaSequence.words(barcodeLength);
+		packed = new long[barcodeOffset[barcodeOffset.length-1]*words];
+		
 		for (int d=0; d<getDistinctSequences(); d++)
-			for (int c=0; c<getNumConditions(); c++)
-					if (barcodes[d][c].length>0) {
-						return barcodes[d][c][0].length();
-					}
-		throw new RuntimeException("No barcode!");
+			for (int c=0; c<count[d].length; c++) {
+				int slot = slotOffset[d]+c;
+				int n = barcodes[d][c]==null?0:barcodes[d][c].size();
+				if (n!=barcodeOffset[slot+1]-barcodeOffset[slot])
+					throw new RuntimeException("Barcodes and counts do not match!");
+				for (int b=0; b<n; b++) {
+					DnaSequence bc = barcodes[d][c].get(b);
+					if (bc.length()!=barcodeLength) throw new RuntimeException("Barcodes must have equal length!");
+					PackedDnaSequence.pack(bc, packed, (barcodeOffset[slot]+b)*words);
+				}
+			}
 	}
 	
 	@Override
@@ -52,34 +167,12 @@ public class BarcodedAlignedReadsData extends DefaultAlignedReadsData implements
 		else
 			bl = gi.getEntry(BARCODEATTRIBUTE).asInt();
 		
-		if (hasNonzeroInformation()) {
-			barcodes = new DnaSequence[getDistinctSequences()][][];
-			
-			for (int d=0; d<getDistinctSequences(); d++){
-				barcodes[d] = new DnaSequence[count[d].length][];
-				
-				for (int i=0; i<count[d].length; i++) {
-					barcodes[d][i] = new DnaSequence[count[d][i]];
-					for (int b=0; b<count[d][i]; b++) {
-						barcodes[d][i][b] = new DnaSequence(bl);
-						FileUtils.readBitVector(barcodes[d][i][b], in,bl*2);
-					}
-				}
-				
-			}
-			
-		}
-		else {
-			barcodes = new DnaSequence[getDistinctSequences()][getNumConditions()][];
-			for (int d=0; d<getDistinctSequences(); d++)
-				for (int c=0; c<getNumConditions(); c++) {
-					barcodes[d][c] = new DnaSequence[getCount(d, c)];
-					for (int b=0; b<barcodes[d][c].length;b++) {
-						barcodes[d][c][b] = new DnaSequence(bl);
-						FileUtils.readBitVector(barcodes[d][c][b], in,bl*2);
-					}
-				}
-		}
+		barcodeLength = bl;
+		words = PackedDnaSequence.words(bl);
+		createSlots();
+		packed = new long[barcodeOffset[barcodeOffset.length-1]*words];
+		for (int b=0; b<barcodeOffset[barcodeOffset.length-1]; b++)
+			PackedDnaSequence.read(in, packed, b*words, bl);
 	}
 	
 	@Override
@@ -1,5 +1,9 @@
 package gedi.core.data.reads;
 
+import java.io.IOException;
+
+import gedi.util.FileUtils;
+import gedi.util.io.randomaccess.BinaryWriter;
 import gedi.util.sequence.DnaSequence;
 
 public interface HasBarcodes {
@@ -8,4 +12,10 @@ public interface HasBarcodes {
 	 DnaSequence[] getBarcodes(int distinct, int condition);
 	 int getBarcodeLength();
 	 
+	 default void writeBarcodes(int distinct, int condition, BinaryWriter out) throws IOException {
+		 DnaSequence[] bcs = getBarcodes(distinct, condition);
+		 for (int b=0; b<bcs.length;b++)
+			 FileUtils.writeBitVector(bcs[b], out, false);
+	 }
+	 
 }
@@ -0,0 +1,380 @@
+package gedi.core.data.reads;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import gedi.util.dynamic.DynamicObject;
+import gedi.util.io.randomaccess.BinaryReader;
+import gedi.util.io.randomaccess.serialization.BinarySerializable;
+
+/**
+ * Flyweight implementation of {@link AlignedReadsData} for scanning large files: Everything is stored column-wise in flat primitive arrays
+ * (counts, nonzero indices, variations, multiplicities, ids, weights, geometry; each indexed by per distinct offsets), and the indel/softclip
+ * sequences are kept as raw ascii bytes in a single {@link ByteBuffer} and only decoded when accessed. All buffers are reused by subsequent calls
+ * to {@link #deserialize(BinaryReader)}, i.e. reading a record does not allocate anything (once the buffers are large enough).
+ *
+ * <p>
+ * This is only safe, if the object is not kept after the next record has been read! Use it together with
+ * {@link gedi.centeredDiskIntervalTree.CenteredDiskIntervalTreeStorage#setReuseData(boolean)} (where a single {@link gedi.core.region.MutableReferenceGenomicRegion}
+ * and a single instance of this class are used for a whole scan), and call {@link #toDefault()} for records that must be kept.
+ * </p>
+ *
+ * The binary format is the same as for {@link DefaultAlignedReadsData} (without barcodes).
+ *
+ * @author erhard
+ *
+ */
+public class PackedAlignedReadsData implements AlignedReadsData, BinarySerializable {
+
+	private static final String[] SINGLE = new String[128];
+	static {
+		for (int i=0; i<SINGLE.length; i++)
+			SINGLE[i] = String.valueOf((char)i);
+	}
+
+	private int distinct;
+	private int conditions;
+	private boolean sparse;
+
+	// per distinct d: columns from off[d] to off[d+1]
+	private int[] countOffset = new int[2];
+	private int[] count = new int[16];
+	private int[] nonzeros = new int[16];
+
+	private int[] varOffset = new int[2];
+	private int[] var = new int[16];
+	// per variation: position of the sequence in seq; length is given by the next entry
+	private int[] seqOffset = new int[17];
+	private ByteBuffer seq = ByteBuffer.allocate(256);
+
+	private int[] multiplicity = new int[1];
+	private int[] ids = new int[1];
+	private float[] weights = new float[1];
+	private int[] geometry = new int[1];
+	private boolean hasIds;
+	private boolean hasWeights;
+	private boolean hasGeometry;
+
+
+	@Override
+	public void deserialize(BinaryReader in) throws IOException {
+		DynamicObject gi = in.getContext().getGlobalInfo();
+		if (gi.hasProperty(BARCODEATTRIBUTE))
+			throw new IOException("Barcoded reads cannot be read into "+getClass().getSimpleName()+"!");
+
+		int d = distinct = in.getCInt();
+		int c = conditions = gi.hasProperty(CONDITIONSATTRIBUTE)?gi.getEntry(CONDITIONSATTRIBUTE).asInt():in.getCInt();
+		int mode = gi.hasProperty(SPARSEATTRIBUTE)?gi.getEntry(SPARSEATTRIBUTE).asInt():0;
+		sparse = mode!=0;
+
+		countOffset = ensure(countOffset, d+1);
+		countOffset[0] = 0;
+
+		if (mode==0) {
+			count = ensure(count, d*c);
+			for (int i=0; i<d*c; i++)
+				count[i] = in.getCInt();
+			for (int i=0; i<d; i++)
+				countOffset[i+1] = countOffset[i]+c;
+		}
+		else if (mode==1) {
+			int co = in.getCInt();
+			count = ensure(count, co);
+			nonzeros = ensure(nonzeros, co);
+			Arrays.fill(countOffset, 1, d+1, 0);
+			for (int i=0; i<co; i++) {
+				int pos = in.getCInt();
+				countOffset[pos/c+1]++;
+				nonzeros[i] = pos%c;
+				count[i] = in.getCInt();
+			}
+			for (int i=0; i<d; i++)
+				countOffset[i+1]+=countOffset[i];
+		}
+		else {
+			int n = 0;
+			for (int i=0; i<d; i++) {
+				int co = in.getCInt();
+				count = ensure(count, n+co);
+				nonzeros = ensure(nonzeros, n+co);
+				for (int ci=0; ci<co; ci++) {
+					nonzeros[n] = in.getCInt();
+					count[n++] = in.getCInt();
+				}
+				countOffset[i+1] = n;
+			}
+		}
+
+		boolean bpos = gi.getEntry(BETTERPOSATTRIBUTE).asInt()==1;
+		varOffset = ensure(varOffset, d+1);
+		varOffset[0] = 0;
+		seq.clear();
+		int n = 0;
+		for (int i=0; i<d; i++) {
+			int v = in.getCInt();
+			var = ensure(var, n+v);
+			seqOffset = ensure(seqOffset, n+v+1);
+			for (int j=0; j<v; j++) {
+				int l;
+				if (bpos) {
+					var[n] = in.getCInt();
+					l = DefaultAlignedReadsData.type(var[n])==DefaultAlignedReadsData.TYPE_MISMATCH?2:in.getCInt();
+				} else {
+					// see DefaultAlignedReadsData
+					short dd = in.getCShort();
+					var[n] = ((dd & ((1<<12)-1))<<3) | ((dd & 0xFFFF)>>>12);
+					l = in.getCInt();
+				}
+				seqOffset[n++] = seq.position();
+				if (seq.remaining()<l) {
+					ByteBuffer nseq = ByteBuffer.allocate(Math.max(seq.capacity()*2, seq.position()+l));
+					seq.flip();
+					nseq.put(seq);
+					seq = nseq;
+				}
+				for (int cr=0; cr<l; cr++)
+					seq.put((byte) in.getAsciiChar());
+			}
+			varOffset[i+1] = n;
+		}
+		seqOffset[n] = seq.position();
+
+		multiplicity = ensure(multiplicity, d);
+		for (int i=0; i<d; i++)
+			multiplicity[i] = in.getCInt();
+
+		hasIds = gi.getEntry(HASIDATTRIBUTE).asInt()==1;
+		if (hasIds) {
+			ids = ensure(ids, d);
+			for (int i=0; i<d; i++)
+				ids[i] = in.getCInt();
+		}
+
+		hasWeights = gi.getEntry(HASWEIGHTATTRIBUTE).asInt()==1;
+		if (hasWeights) {
+			if (weights.length<d) weights = new float[Math.max(d, weights.length*2)];
+			for (int i=0; i<d; i++)
+				weights[i] = in.getFloat();
+		}
+
+		hasGeometry = gi.getEntry(HASGEOMETRYATTRIBUTE).asInt()==1;
+		if (hasGeometry) {
+			geometry = ensure(geometry, d);
+			for (int i=0; i<d; i++)
+				geometry[i] = in.getCInt();
+		}
+	}
+
+	private static int[] ensure(int[] a, int size) {
+		if (a.length>=size) return a;
+		return Arrays.copyOf(a, Math.max(size, a.length*2));
+	}
+
+	/**
+	 * Creates a (non-reused) copy of this object.
+	 * @return
+	 */
+	public DefaultAlignedReadsData toDefault() {
+		return new DefaultAlignedReadsData(this);
+	}
+
+	@Override
+	public int getDistinctSequences() {
+		return distinct;
+	}
+
+	@Override
+	public int getNumConditions() {
+		return conditions;
+	}
+
+	@Override
+	public boolean hasNonzeroInformation() {
+		return sparse;
+	}
+
+	@Override
+	public int[] getNonzeroCountIndicesForDistinct(int distinct) {
+		return Arrays.copyOfRange(nonzeros, countOffset[distinct], countOffset[distinct+1]);
+	}
+
+	@Override
+	public int getNonzeroCountValueForDistinct(int distinct, int index) {
+		return count[countOffset[distinct]+index];
+	}
+
+	@Override
+	public int getCount(int distinct, int condition) {
+		if (sparse) {
+			int ind = Arrays.binarySearch(nonzeros, countOffset[distinct], countOffset[distinct+1], condition);
+			if (ind<0) return 0;
+			return count[ind];
+		}
+		if (distinct>=this.distinct || condition>=conditions)
+			return 0;
+		return count[countOffset[distinct]+condition];
+	}
+
+	@Override
+	public int getVariationCount(int distinct) {
+		return varOffset[distinct+1]-varOffset[distinct];
+	}
+
+	private int var(int distinct, int index) {
+		return var[varOffset[distinct]+index];
+	}
+
+	private CharSequence seq(int distinct, int index) {
+		int i = varOffset[distinct]+index;
+		return new String(seq.array(), seqOffset[i], seqOffset[i+1]-seqOffset[i], StandardCharsets.US_ASCII);
+	}
+
+	private CharSequence seqChar(int distinct, int index, int c) {
+		return SINGLE[seq.get(seqOffset[varOffset[distinct]+index]+c) & 0x7F];
+	}
+
+	@Override
+	public boolean isVariationFromSecondRead(int distinct, int index) {
+		return DefaultAlignedReadsData.isSecondRead(var(distinct,index));
+	}
+
+	@Override
+	public boolean isMismatch(int distinct, int index) {
+		return DefaultAlignedReadsData.type(var(distinct,index))==DefaultAlignedReadsData.TYPE_MISMATCH;
+	}
+
+	@Override
+	public int getMismatchPos(int distinct, int index) {
+		return DefaultAlignedReadsData.pos(var(distinct,index));
+	}
+
+	@Override
+	public CharSequence getMismatchGenomic(int distinct, int index) {
+		return seqChar(distinct, index, 0);
+	}
+
+	@Override
+	public CharSequence getMismatchRead(int distinct, int index) {
+		return seqChar(distinct, index, 1);
+	}
+
+	@Override
+	public boolean isSoftclip(int distinct, int index) {
+		return DefaultAlignedReadsData.type(var(distinct,index))==DefaultAlignedReadsData.TYPE_SOFTCLIP;
+	}
+
+	@Override
+	public boolean isSoftclip5p(int distinct, int index) {
+		return DefaultAlignedReadsData.pos(var(distinct,index))==0;
+	}
+
+	@Override
+	public CharSequence getSoftclip(int distinct, int index) {
+		return seq(distinct, index);
+	}
+
+	@Override
+	public boolean isInsertion(int distinct, int index) {
+		return DefaultAlignedReadsData.type(var(distinct,index))==DefaultAlignedReadsData.TYPE_INSERTION;
+	}
+
+	@Override
+	public int getInsertionPos(int distinct, int index) {
+		return DefaultAlignedReadsData.pos(var(distinct,index));
+	}
+
+	@Override
+	public CharSequence getInsertion(int distinct, int index) {
+		return seq(distinct, index);
+	}
+
+	@Override
+	public boolean isDeletion(int distinct, int index) {
+		return DefaultAlignedReadsData.type(var(distinct,index))==DefaultAlignedReadsData.TYPE_DELETION;
+	}
+
+	@Override
+	public int getDeletionPos(int distinct, int index) {
+		return DefaultAlignedReadsData.pos(var(distinct,index));
+	}
+
+	@Override
+	public CharSequence getDeletion(int distinct, int index) {
+		return seq(distinct, index);
+	}
+
+	@Override
+	public int getMultiplicity(int distinct) {
+		return multiplicity[distinct];
+	}
+
+	@Override
+	public boolean hasId() {
+		return hasIds;
+	}
+
+	@Override
+	public int getId(int distinct) {
+		return hasIds?ids[distinct]:-1;
+	}
+
+	@Override
+	public boolean hasWeights() {
+		return hasWeights;
+	}
+
+	@Override
+	public float getWeight(int distinct) {
+		if (hasWeights)
+			return weights[distinct];
+		int m = getMultiplicity(distinct);
+		if (m==0) return 1;
+		return 1.0f/m;
+	}
+
+	@Override
+	public boolean hasGeometry() {
+		return hasGeometry;
+	}
+
+	@Override
+	public int getGeometryBeforeOverlap(int distinct) {
+		if (!hasGeometry) throw new RuntimeException("Read geometry information not available!");
+		return DefaultAlignedReadsData.beforeGeom(geometry[distinct]);
+	}
+
+	@Override
+	public int getGeometryOverlap(int distinct) {
+		if (!hasGeometry) throw new RuntimeException("Read geometry information not available!");
+		return DefaultAlignedReadsData.overlapGeom(geometry[distinct]);
+	}
+
+	@Override
+	public int getGeometryAfterOverlap(int distinct) {
+		if (!hasGeometry) throw new RuntimeException("Read geometry information not available!");
+		return DefaultAlignedReadsData.afterGeom(geometry[distinct]);
+	}
+
+	@Override
+	public int getRawGeometry(int distinct) {
+		return hasGeometry?geometry[distinct]:-1;
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode2();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return equals(obj,true,true);
+	}
+
+	@Override
+	public String toString() {
+		return toString2();
+	}
+
+}
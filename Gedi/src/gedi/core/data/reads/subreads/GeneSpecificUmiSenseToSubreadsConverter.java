@@ -24,12 +24,14 @@ import gedi.core.region.ImmutableReferenceGenomicRegion;
 import gedi.util.ArrayUtils;
 import gedi.util.StringUtils;
 import gedi.util.datastructure.collections.intcollections.IntArrayList;
+import gedi.util.datastructure.collections.longcollections.LongArrayList;
 import gedi.util.functions.BiIntConsumer;
 import gedi.util.functions.EI;
 import gedi.util.functions.ExtendedIterator;
 import gedi.util.functions.IntToBooleanFunction;
 import gedi.util.mutable.MutableInteger;
 import gedi.util.sequence.DnaSequence;
+import gedi.util.sequence.PackedDnaSequence;
 
 /**
  * Deletions are all kept, and mismatches (and insertions) within them are discarded!
@@ -127,9 +129,14 @@ public class GeneSpecificUmiSenseToSubreadsConverter implements ToSubreadsConver
 		ArrayList<GenomicRegion> regions = new ArrayList<GenomicRegion>();
 		ArrayList<SubreadsAlignedReadsData> subreads = new ArrayList<SubreadsAlignedReadsData>();
 		
-		HashMap<DnaSequence,ArrayList<ImmutableReferenceGenomicRegion<SingleUmiAlignedReadsData>>>[] map = new HashMap[numCond];
-		for (int i=0; i<numCond; i++)
-			map[i] = new HashMap<DnaSequence, ArrayList<ImmutableReferenceGenomicRegion<SingleUmiAlignedReadsData>>>();
+		// packed barcodes (of at most 32nt) and their reads for each condition, grouped by sorting instead of a map of DnaSequences
+		int barcodeLength = cluster.get(0).getData().getBarcodeLength();
+		LongArrayList[] umis = new LongArrayList[numCond];
+		ArrayList<ImmutableReferenceGenomicRegion<SingleUmiAlignedReadsData>>[] umiReads = new ArrayList[numCond];
+		for (int i=0; i<numCond; i++) {
+			umis[i] = new LongArrayList();
+			umiReads[i] = new ArrayList<ImmutableReferenceGenomicRegion<SingleUmiAlignedReadsData>>();
+		}
 
 		
 		// index the barcodes
@@ -137,21 +144,15 @@ public class GeneSpecificUmiSenseToSubreadsConverter implements ToSubreadsConver
 		
 			for (int d=0; d<r.getData().getDistinctSequences(); d++) {
 				if (r.getData().getMultiplicity(d)<=1) {
-					if (r.getData().hasNonzeroInformation()) {
-						int[] conds = r.getData().getNonzeroCountIndicesForDistinct(d);
-						for (int ci=0; ci<conds.length; ci++) {
-							int cond=conds[ci];
-							ImmutableReferenceGenomicRegion<SingleUmiAlignedReadsData> rread = new ImmutableReferenceGenomicRegion<>(r.getReference(), r.getRegion(), new SingleUmiAlignedReadsData(r.getData(), d,cond));
-							for (DnaSequence dna : r.getData().getNonZeroBarcodes(d, ci)) {
-								map[cond].computeIfAbsent(dna,x->new ArrayList<>()).add(rread);
-							}
-						}
-					} else {
-						for (int cond=0; cond<numCond; cond++) {
-							ImmutableReferenceGenomicRegion<SingleUmiAlignedReadsData> rread = new ImmutableReferenceGenomicRegion<>(r.getReference(), r.getRegion(), new SingleUmiAlignedReadsData(r.getData(), d,cond));
-							for (DnaSequence dna : r.getData().getBarcodes(d, cond)) {
-								map[cond].computeIfAbsent(dna,x->new ArrayList<>()).add(rread);
-							}
+					int[] conds = r.getData().hasNonzeroInformation()?r.getData().getNonzeroCountIndicesForDistinct(d):null;
+					int n = conds!=null?conds.length:numCond;
+					for (int ci=0; ci<n; ci++) {
+						int cond=conds!=null?conds[ci]:ci;
+						ImmutableReferenceGenomicRegion<SingleUmiAlignedReadsData> rread = new ImmutableReferenceGenomicRegion<>(r.getReference(), r.getRegion(), new SingleUmiAlignedReadsData(r.getData(), d,cond));
+						int bn = r.getData().getBarcodeCount(d, cond);
+						for (int b=0; b<bn; b++) {
+							umis[cond].add(r.getData().getPackedBarcode(d, cond, b));
+							umiReads[cond].add(rread);
 						}
 					}
 				}
@@ -160,29 +161,43 @@ public class GeneSpecificUmiSenseToSubreadsConverter implements ToSubreadsConver
 		int used = 0;
 		int total = 0;
 		for (int cond=0; cond<numCond; cond++) {
-			for (DnaSequence barcode : map[cond].keySet()) {
+			LongArrayList cumis = umis[cond];
+			// stable, i.e. the reads of a barcode are in the order they have been added
+			int[] umiOrder = ArrayUtils.order(cumis.size(), (a,b)->{
+				int ret = Long.compare(cumis.getLong(a), cumis.getLong(b));
+				return ret!=0?ret:Integer.compare(a, b);
+			});
+			for (int us=0; us<umiOrder.length; ) {
+				long barcode = cumis.getLong(umiOrder[us]);
+				int ue = us+1;
+				while (ue<umiOrder.length && cumis.getLong(umiOrder[ue])==barcode) ue++;
+				ArrayList<ImmutableReferenceGenomicRegion<SingleUmiAlignedReadsData>> reads = new ArrayList<>(ue-us);
+				for (int i=us; i<ue; i++)
+					reads.add(umiReads[cond].get(umiOrder[i]));
+				us = ue;
+				
 				total++;
-				String cb = barcode.substring(0, cellBarcodeLength);
+				String cb = PackedDnaSequence.toString(barcode, cellBarcodeLength);
 				Integer ccond = cellIndex[cond].get(cb);
 				int[][] histo = readsPerNonUmi;
 				if (ccond!=null) {
 					used++;
-					GenomicRegion region = EI.wrap(map[cond].get(barcode)).map(r->r.getRegion()).reduce(new GenomicRegionArithmetic(),(r,a)->a.union(r)).toRegion();
+					GenomicRegion region = EI.wrap(reads).map(r->r.getRegion()).reduce(new GenomicRegionArithmetic(),(r,a)->a.union(r)).toRegion();
 	//					GenomicRegion region = EI.wrap(map.get(barcode)).map(r->r.getRegion()).reduce((r,a)->a.union(r));
 	//					AlignedReadsDataFactory fac = factories.computeIfAbsent(region, x->new AlignedReadsDataFactory(cells.length).start());
 //					factories.computeIfAbsent(region, x->new MutableInteger()).N++;
-					SubreadsAlignedReadsData sr = createSubread(cells.length,new ImmutableReferenceGenomicRegion<>(reference, region),map[cond].get(barcode),ccond,reporter);
+					SubreadsAlignedReadsData sr = createSubread(cells.length,new ImmutableReferenceGenomicRegion<>(reference, region),reads,ccond,reporter);
 					
 					regions.add(region);
 					subreads.add(sr);
 					if (debug)
-						barcodes.add(barcode);
+						barcodes.add(PackedDnaSequence.unpack(barcode, barcodeLength));
 					expectedReads++;
 					
 					histo = readsPerUmi;
 				} 
 				
-				histo[cond][Math.min(map[cond].get(barcode).size(),histo[cond].length-1)]++;
+				histo[cond][Math.min(reads.size(),histo[cond].length-1)]++;
 			}
 			
 			if (reporter!=null) 
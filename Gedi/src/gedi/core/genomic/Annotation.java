@@ -1,5 +1,7 @@
 package gedi.core.genomic;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.function.Predicate;
@@ -54,6 +56,9 @@ public class Annotation<T> {
 	}
 	
 	public MemoryIntervalTreeStorage<T> get() {
+		if (mem==null && storages.size()==1 && pred==null)
+			mem = readIndex(storages.getFirst());
+		
 		if (mem==null) {
 			Iterator<GenomicRegionStorage<T>> it = storages.iterator();
 			while (it.hasNext()) {
@@ -61,10 +66,29 @@ public class Annotation<T> {
 				if (mem==null) mem = new MemoryIntervalTreeStorage<T>(o.getType());
 				addToMem(o);
 			}
+			if (mem!=null)
+				mem.freeze();
 		}
 		return mem;
 	}
 
+	/**
+	 * Loads the frozen index written next to the storage file (see {@link MemoryIntervalTreeStorage#writeIndex(String)}), if it is present and up to date.
+	 * @param storage
+	 * @return the storage or null
+	 */
+	private MemoryIntervalTreeStorage<T> readIndex(GenomicRegionStorage<T> storage) {
+		String path = storage.getPath();
+		if (path==null) return null;
+		File index = new File(path+MemoryIntervalTreeStorage.INDEX_EXTENSION);
+		if (!index.exists() || index.lastModified()<new File(path).lastModified()) return null;
+		try {
+			return MemoryIntervalTreeStorage.readIndex(index.getPath());
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
 
 	private void addToMem(MemoryIntervalTreeStorage<T> o) {
 		long before = mem.size();
@@ -23,6 +23,7 @@ import gedi.core.reference.Chromosome;
 import gedi.core.reference.ReferenceSequence;
 import gedi.core.reference.Strand;
 import gedi.core.region.intervalTree.MemoryIntervalTreeStorage;
+import gedi.core.region.utils.GenomicRegionOverlapJoin;
 import gedi.core.workspace.loader.WorkspaceItemLoaderExtensionPoint;
 import gedi.util.StringUtils;
 import gedi.util.datastructure.array.NumericArray;
@@ -241,6 +242,15 @@ public interface GenomicRegionStorage<D> extends ReferenceSequencesProvider {
 		return re;
 	}
 	
+	/**
+	 * Sorted sweep-line join with the overlapping elements of the other storage (e.g. annotations for reads), see {@link GenomicRegionOverlapJoin}
+	 * @param other
+	 * @return
+	 */
+	default <B> GenomicRegionOverlapJoin<D,B> join(GenomicRegionStorage<B> other) {
+		return new GenomicRegionOverlapJoin<D,B>(this, other);
+	}
+	
 	default ExtendedIterator<ImmutableReferenceGenomicRegion<D>> ei(ReferenceSequence reference, GenomicRegion region) {
 		return EI.wrap(immut(iterateIntersectingMutableReferenceGenomicRegions(reference, region)));
 	}
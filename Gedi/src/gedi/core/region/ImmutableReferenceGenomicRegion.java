@@ -141,7 +141,7 @@ public class ImmutableReferenceGenomicRegion<D> implements ReferenceGenomicRegio
 						pos = rgr.toLocationString();
 					} else {
 						ReferenceSequence ref = pos==null?g.getTranscripts().getReferenceSequences().iterator().next():Chromosome.obtain(pos);
-						GenomicRegion reg = g.getTranscripts().getTree(ref).getRoot().getKey().removeIntrons();
+						GenomicRegion reg = g.getTranscripts().getReadOnlyTree(ref).getRoot().getKey().removeIntrons();
 						reg = reg.extendAll(reg.getTotalLength()/3, reg.getTotalLength()/3);
 						pos = ref.toPlusMinusString()+":"+reg.toRegionString();
 					}
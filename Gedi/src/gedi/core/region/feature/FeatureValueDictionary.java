@@ -0,0 +1,34 @@
+package gedi.core.region.feature;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns the values of a feature to consecutive int codes (starting at 0). Can be shared by the copies of a feature that are run
+ * concurrently, such that codes are comparable among them.
+ *
+ * @author erhard
+ *
+ */
+public class FeatureValueDictionary {
+
+	private static final Object NULL = new Object();
+
+	private ConcurrentHashMap<Object,Integer> codes = new ConcurrentHashMap<Object, Integer>();
+
+	public int intern(Object value) {
+		if (value==null) value = NULL;
+		Integer re = codes.get(value);
+		if (re!=null) return re;
+		synchronized (this) {
+			re = codes.get(value);
+			if (re==null)
+				codes.put(value, re = codes.size());
+			return re;
+		}
+	}
+
+	public int size() {
+		return codes.size();
+	}
+
+}
@@ -11,11 +11,13 @@ import gedi.util.datastructure.array.NumericArray;
 import gedi.util.datastructure.array.NumericArray.NumericArrayType;
 import gedi.util.functions.EI;
 import gedi.util.functions.ExtendedIterator;
+import gedi.util.functions.ParallelizedIterator;
 import gedi.util.io.text.LineOrientedFile;
 import gedi.util.userInteraction.results.ResultProducer;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
@@ -29,8 +31,6 @@ import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
 
-import cern.colt.bitvector.BitVector;
-
 @SuppressWarnings({"rawtypes","unchecked"})
 public class GenomicRegionFeatureProgram<D> implements Consumer<ReferenceGenomicRegion<D>> {
 
@@ -106,7 +106,8 @@ public class GenomicRegionFeatureProgram<D> implements Consumer<ReferenceGenomic
 		Integer index = idMap.get(id);
 		if (index==null) return null;
 		
-		ArrayList<Set> data = threads==0?this.data:((Runner)Thread.currentThread()).data;
+		Lane l = lane.get();
+		ArrayList<Set> data = l==null?this.data:l.data;
 		 
 		return data.get(index);
 	}
@@ -118,15 +119,14 @@ public class GenomicRegionFeatureProgram<D> implements Consumer<ReferenceGenomic
 	}
 	
 	/**
-	 * Gets either the parental feature object, or the thread specific, if called from a Runner thread.
+	 * Gets either the parental feature object, or the thread specific, if called while processing a batch.
 	 * @param index
 	 * @return
 	 */
 	public <T> GenomicRegionFeature<T> getFeature(int index) {
-		if (Thread.currentThread() instanceof Runner) {
-			Runner r = (Runner) Thread.currentThread();
-			return (GenomicRegionFeature<T>)r.features.get(index);
-		}
+		Lane l = lane.get();
+		if (l!=null) 
+			return (GenomicRegionFeature<T>)l.features.get(index);
 		return (GenomicRegionFeature<T>) features.get(index);
 	}
 	
@@ -176,89 +176,75 @@ public class GenomicRegionFeatureProgram<D> implements Consumer<ReferenceGenomic
 	
 	private boolean running = false;
 	
-	private static class Runner extends Thread{
-		private BitVector newSet;
+	/**
+	 * The feature DAG compiled for execution: inputs are resolved to indices and everything that does not change per region 
+	 * is evaluated once in {@link #begin()}.
+	 * @author erhard
+	 *
+	 */
+	private static class Plan {
+		private int[][] inputs;
+		private boolean[] dependsOnData;
+		private boolean[] always;
+		private boolean[] predicate;
+		
+		public Plan(ArrayList<GenomicRegionFeature<?>> features, ArrayList<int[]> inputs) {
+			int n = features.size();
+			this.inputs = inputs.toArray(new int[0][]);
+			this.dependsOnData = new boolean[n];
+			this.always = new boolean[n];
+			this.predicate = new boolean[n];
+			for (int i=0; i<n; i++) {
+				GenomicRegionFeature<?> f = features.get(i);
+				dependsOnData[i] = f.dependsOnData();
+				always[i] = dependsOnData[i] || f.hasCondition();
+				predicate[i] = f instanceof ProcessRegionPredicate;
+			}
+		}
+		
+		public int size() {
+			return always.length;
+		}
+	}
+	
+	/**
+	 * Thread specific copies of all features and their value sets; a lane is used by a single batch at a time.
+	 * @author erhard
+	 *
+	 */
+	private static class Lane {
+		private boolean[] newSet;
 		private ArrayList<Set> data = new ArrayList<Set>();
 		private ArrayList<GenomicRegionFeature<?>> features = new ArrayList<GenomicRegionFeature<?>>();
-		private ArrayList<int[]> inputs;
-		private Throwable exception;
-		
-		private ReferenceGenomicRegion[] buffer = new ReferenceGenomicRegion[0];
-		private ReferenceGenomicRegion[] tasks;
-		private LinkedBlockingQueue<Runner> freeRunner;
 		private Benchmark benchmark;
 		
-		public Runner(int n, Benchmark benchmark, LinkedBlockingQueue<Runner> freeRunner, ArrayList<GenomicRegionFeature<?>> features, ArrayList<int[]> inputs) {
-			super("RunnerThread"+n);
-			this.freeRunner = freeRunner;
-			this.inputs = inputs;
+		public Lane(Benchmark benchmark, ArrayList<GenomicRegionFeature<?>> features) {
 			this.benchmark = benchmark;
-			setDaemon(true);
+			this.newSet = new boolean[features.size()];
 			for (GenomicRegionFeature<?> f : features) {
 				this.features.add(f.copy());
 				this.data.add(new HashSet());
 			}
 		}
 		
-		@Override
-		public void run() {
-			try {
-				for (GenomicRegionFeature<?> f : features)
-					f.begin();
-				
-				synchronized (this) {
-					while (!isInterrupted()) {
-						
-						try {
-							freeRunner.add(this);
-							wait();
-						} catch (InterruptedException e) {
-							break;
-						}
-						if (tasks == null) break;
-						
-							for (ReferenceGenomicRegion rgr : tasks) {
-								if (rgr==null) break;
-								process(benchmark,features, inputs, newSet, data, rgr);
-							}
-	
-							tasks = null;
-					}
-				}
-				
-				
-				for (GenomicRegionFeature<?> f : features)
-					f.end();
-			} catch (Throwable e) {
-				this.exception = e;
-				freeRunner.add(this);
-			}
-		}
-		
-		public synchronized void shutdown() {
-			if (this.tasks!=null) throw new RuntimeException("Concurrency problem!");
-			notify();
-		}
-		
-		
-		public synchronized void setTasks(ArrayList<ReferenceGenomicRegion<?>> tasks) {
-			if (this.tasks!=null) throw new RuntimeException("Concurrency problem!");
-			this.buffer = this.tasks = tasks.toArray(this.buffer);
-			notify();
-		}
-
-		
 	}
 
-	private Runner[] runners;
+	private Plan plan;
+	private Lane[] lanes;
+	private LinkedBlockingQueue<Lane> freeLanes;
+	private ThreadLocal<Lane> lane = new ThreadLocal<Lane>();
+	private volatile Throwable exception;
 	private GenomicRegionFeature[][] runnerFeatures;
 	
-	private BitVector newSet;
+	private boolean[] newSet;
 	private ArrayList<Set> data = new ArrayList<Set>();
 	public void begin() {
 		lastIntermediate = System.currentTimeMillis();
 		running = true;
 		last = null;
+		plan = new Plan(features, inputs);
+		newSet = new boolean[features.size()];
+		exception = null;
 		
 		if (threads==0) {
 //			log.info("Executing program in single-thread mode.");
@@ -266,21 +252,62 @@ public class GenomicRegionFeatureProgram<D> implements Consumer<ReferenceGenomic
 				f.begin();
 		} else {
 //			log.info("Executing program in multi-thread mode with "+threads+" threads");
-			runners = new Runner[threads];
-			for (int i=0; i<runners.length; i++) 
-				runners[i] = new Runner(i,benchmark==null?null:benchmark.sub(), freeRunner,features, inputs);
+			lanes = new Lane[threads];
+			freeLanes = new LinkedBlockingQueue<Lane>();
+			for (int i=0; i<lanes.length; i++) {
+				lanes[i] = new Lane(benchmark==null?null:benchmark.sub(), features);
+				int li = i;
+				inLane(lanes[i], ()->{
+					for (GenomicRegionFeature<?> f : lanes[li].features)
+						f.begin();
+				});
+				freeLanes.add(lanes[i]);
+			}
 			
 			runnerFeatures = new GenomicRegionFeature[features.size()][threads];
 			for (int i = 0; i < runnerFeatures.length; i++) 
 				for (int j = 0; j < runnerFeatures[i].length; j++) 
-					runnerFeatures[i][j] = runners[j].features.get(i);
-			
-			for (int i=0; i<runners.length; i++)
-				runners[i].start();
-			
+					runnerFeatures[i][j] = lanes[j].features.get(i);
+		}
+	}
+	
+	private void inLane(Lane l, Runnable r) {
+		lane.set(l);
+		try {
+			r.run();
+		} finally {
+			lane.remove();
 		}
 	}
 	
+	/**
+	 * Hands the current block to the next free lane (waits if all lanes are busy) and runs it on the shared executor of 
+	 * {@link ParallelizedIterator}; lanes receive their blocks in order.
+	 */
+	private void submitBlock() {
+		if (exception!=null) throw new RuntimeException("Exception occurred during processing!",exception);
+		Lane l;
+		try {
+			l = freeLanes.take();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+		ReferenceGenomicRegion[] tasks = block.toArray(new ReferenceGenomicRegion[block.size()]);
+		block.clear();
+		ParallelizedIterator.getDefaultExecutor().execute(()->{
+			try {
+				inLane(l, ()->{
+					for (ReferenceGenomicRegion rgr : tasks) 
+						process(plan,l.benchmark,l.features, l.newSet, l.data, rgr);
+				});
+			} catch (Throwable e) {
+				exception = e;
+			} finally {
+				freeLanes.add(l);
+			}
+		});
+	}
+	
 	/**
 	 * Gets the current data for the given id
 	 * @param id
@@ -330,43 +357,24 @@ public class GenomicRegionFeatureProgram<D> implements Consumer<ReferenceGenomic
 			produceResults();
 		} else {
 			
+			if (block.size()>0)
+				submitBlock();
+			
+			// all lanes are free after all batches are done
 			try {
-				Runner runner = freeRunner.take();
-				runner.setTasks(block);
-				block.clear();
-				
-				boolean done = false;
-				while (!done) {
-					done = true;
-					for (Runner r : runners) {
-						if (r.tasks!=null)
-							done = false;
-					}
-					Thread.yield();
-				}
-
+				for (int i=0; i<lanes.length; i++)
+					freeLanes.take();
 			} catch (InterruptedException e) {
 				throw new RuntimeException(e);
 			}
 			
-			for (int i=0; i<runners.length; i++) {
-				runners[i].shutdown();
-			}
-			
-			// wait until all threads die
-			int alives;
-			do {
-				alives = 0;
-				for (int i=0; i<runners.length; i++) {
-					if (runners[i].isAlive())
-						alives++;
-				}
-				Thread.yield();
-			} while (alives>0);
-			
-			for (int i=0; i<runners.length; i++) 
-				if (runners[i].exception!=null) throw new RuntimeException("Exception occurred during processing!",runners[i].exception);
+			if (exception!=null) throw new RuntimeException("Exception occurred during processing!",exception);
 			
+			for (Lane l : lanes)
+				inLane(l, ()->{
+					for (GenomicRegionFeature<?> f : l.features)
+						f.end();
+				});
 			
 			running = false;
 			produceResults();
@@ -402,7 +410,6 @@ public class GenomicRegionFeatureProgram<D> implements Consumer<ReferenceGenomic
 	
 	private int blockSize = 1024;
 	private ArrayList<ReferenceGenomicRegion<?>> block = new ArrayList<ReferenceGenomicRegion<?>>();
-	private LinkedBlockingQueue<Runner> freeRunner = new LinkedBlockingQueue<Runner>();
 	
 	private ReferenceGenomicRegion<D> last = null;
 	
@@ -426,20 +433,10 @@ public class GenomicRegionFeatureProgram<D> implements Consumer<ReferenceGenomic
 		}
 		
 		if (threads==0) {
-			process(benchmark,features,inputs,newSet,data,rgr);
+			process(plan,benchmark,features,newSet,data,rgr);
 		} else {
-			if (block.size()==blockSize) { 
-				try {
-//					long start = System.nanoTime();
-					Runner runner = freeRunner.take();
-					if (runner.exception!=null) throw new RuntimeException("Exception occurred during processing!",runner.exception);
-					runner.setTasks(block);
-					block.clear();
-
-				} catch (InterruptedException e) {
-					throw new RuntimeException(e);
-				}
-			}
+			if (block.size()==blockSize) 
+				submitBlock();
 			block.add(rgr.toImmutable());
 		}
 		
@@ -459,44 +456,43 @@ public class GenomicRegionFeatureProgram<D> implements Consumer<ReferenceGenomic
 
 	private Benchmark benchmark;
 
-	private static void process(Benchmark benchmark, ArrayList<GenomicRegionFeature<?>> features, ArrayList<int[]> inputs, BitVector newSet, ArrayList<Set> data, ReferenceGenomicRegion<?> rgr) {
-		
-		
-		if (newSet==null || newSet.size()!=features.size()) newSet = new BitVector(features.size());
-		newSet.clear();
+	private static void process(Plan plan, Benchmark benchmark, ArrayList<GenomicRegionFeature<?>> features, boolean[] newSet, ArrayList<Set> data, ReferenceGenomicRegion<?> rgr) {
 		
+		Arrays.fill(newSet, false);
 		
 		if (benchmark!=null) {
 			if (benchmark.duration==null) benchmark.duration = new long[features.size()][3];
 			if (benchmark.counter==null) benchmark.counter = new long[features.size()][2];
 			long start = 0;
 			
-			for (int i=0; i<features.size(); i++) {
+			for (int i=0; i<plan.size(); i++) {
 				start = System.nanoTime();
 				GenomicRegionFeature<?> f = features.get(i);
 				
 				boolean changed = f.setGenomicRegion(rgr.getReference(), rgr.getRegion());
-				if (changed || f.dependsOnData() || isAnySet(newSet,inputs.get(i))) { 
+				// as before, conditions are not considered in benchmark mode
+				if (changed || plan.dependsOnData[i] || isAnySet(newSet,plan.inputs[i])) { 
 					f.setData(rgr.getData());
 					
-					int[] inp = inputs.get(i);
+					int[] inp = plan.inputs[i];
 					for (int j = 0; j < inp.length; j++) 
 						f.setInput(j, data.get(inp[j]));
 					benchmark.duration[i][0]+=System.nanoTime()-start;
 					
 					start = System.nanoTime();
-					data.get(i).clear();
-					f.accept(data.get(i));
+					Set d = data.get(i);
+					d.clear();
+					f.accept(d);
 					benchmark.duration[i][1]+=System.nanoTime()-start;
 					
 					start = System.nanoTime();
-					if (!data.get(i).isEmpty())
-						f.applyCommands(data.get(i));
+					if (!d.isEmpty())
+						f.applyCommands(d);
 					benchmark.duration[i][2]+=System.nanoTime()-start;
 					benchmark.counter[i][0]++;
-					newSet.putQuick(i, true);
+					newSet[i] = true;
 					
-					if (f instanceof ProcessRegionPredicate && !(Boolean)data.get(i).iterator().next())
+					if (plan.predicate[i] && !(Boolean)d.iterator().next())
 						return;
 				} else {
 					benchmark.duration[i][0]+=System.nanoTime()-start;
@@ -505,38 +501,39 @@ public class GenomicRegionFeatureProgram<D> implements Consumer<ReferenceGenomic
 			}
 			return;
 		} 
-		for (int i=0; i<features.size(); i++) {
+		for (int i=0; i<plan.size(); i++) {
 			
 			GenomicRegionFeature<?> f = features.get(i);
 			
 			boolean changed = f.setGenomicRegion(rgr.getReference(), rgr.getRegion());
 			
-			if (changed || f.dependsOnData() || f.hasCondition() || isAnySet(newSet,inputs.get(i))) { 
+			if (changed || plan.always[i] || isAnySet(newSet,plan.inputs[i])) { 
 				f.setData(rgr.getData());
 				
-				int[] inp = inputs.get(i);
+				int[] inp = plan.inputs[i];
 				for (int j = 0; j < inp.length; j++) 
 					f.setInput(j, data.get(inp[j]));
 				
-				data.get(i).clear();
+				Set d = data.get(i);
+				d.clear();
 				
-				f.accept(data.get(i));
+				f.accept(d);
 				
-				if (!data.get(i).isEmpty())
-					f.applyCommands(data.get(i));
+				if (!d.isEmpty())
+					f.applyCommands(d);
 				
-				newSet.putQuick(i, true);
+				newSet[i] = true;
 				
-				if (f instanceof ProcessRegionPredicate && !(Boolean)data.get(i).iterator().next())
+				if (plan.predicate[i] && !(Boolean)d.iterator().next())
 					return;
 			}
 		}
 	}
 	
 
-	private final static boolean isAnySet(BitVector bv, int[] ind) {
+	private final static boolean isAnySet(boolean[] bv, int[] ind) {
 		for (int i : ind)
-			if (bv.getQuick(i)) return true;
+			if (bv[i]) return true;
 		return false;
 	}
 
@@ -2,6 +2,7 @@ package gedi.core.region.feature.output;
 
 import gedi.core.region.feature.GenomicRegionFeature;
 import gedi.core.region.feature.GenomicRegionFeatureDescription;
+import gedi.core.region.feature.FeatureValueDictionary;
 import gedi.core.region.feature.features.AbstractFeature;
 import gedi.core.region.feature.special.UnfoldGenomicRegionStatistics;
 import gedi.util.FunctorUtils;
@@ -67,6 +68,15 @@ public class FeatureStatisticOutput extends OutputFeature {
 		FeatureStatisticOutput f = (FeatureStatisticOutput) from;
 		this.countAdapter = f.countAdapter;
 		this.countAdapterIndex = f.countAdapterIndex;
+		this.dictionaries = f.dictionaries;
+	}
+	
+	@Override
+	public void setInputNames(String[] inputs) {
+		super.setInputNames(inputs);
+		dictionaries = new FeatureValueDictionary[inputs.length];
+		for (int i=0; i<inputs.length; i++)
+			dictionaries[i] = new FeatureValueDictionary();
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -123,6 +133,11 @@ public class FeatureStatisticOutput extends OutputFeature {
 	private HashMap<MutableTuple,NumericArray> counter = new HashMap<MutableTuple, NumericArray>();
 	private NumericArray buffer;
 	
+	// the same counts as in counter, but indexed by the interned codes of the key (no hashing of sets per region)
+	private FeatureValueDictionary[] dictionaries;
+	private HashMap<IntArrayList,NumericArray> coded = new HashMap<IntArrayList, NumericArray>();
+	private IntArrayList code = new IntArrayList();
+	
 	public void setDecimals(int decimals) {
 		this.decimals = decimals;
 	}
@@ -174,11 +189,35 @@ public class FeatureStatisticOutput extends OutputFeature {
 	}
 	
 	private void doCount(MutableTuple key) {
-		NumericArray mi = counter.get(key);
-		if (mi==null) 
+		encode(key);
+		NumericArray mi = coded.get(code);
+		if (mi==null) {
 			counter.put(newKey(key),mi = NumericArray.createMemory(buffer.length(), buffer.getType()));
+			coded.put(code.clone(), mi);
+		}
 		mi.add(buffer);		
 	}
+	
+	/**
+	 * Writes the size and the sorted codes of each component of key into code
+	 * @param key
+	 */
+	private void encode(MutableTuple key) {
+		code.clear();
+		for (int i=0; i<key.size(); i++) {
+			Set<?> s = key.get(i);
+			int from = code.size()+1;
+			code.add(s.size());
+			for (Object o : s) {
+				int c = dictionaries[i].intern(o);
+				int j = code.size();
+				code.add(c);
+				for (; j>from && code.getInt(j-1)>c; j--)
+					code.set(j, code.getInt(j-1));
+				code.set(j, c);
+			}
+		}
+	}
 
 	public boolean dependsOnData() {
 		return true;
@@ -210,6 +249,7 @@ public class FeatureStatisticOutput extends OutputFeature {
 	public void produceResults(GenomicRegionFeature<Void>[] o){
 		if (o!=null) {
 			counter.clear();
+			coded.clear();
 			if (total!=null) total.clear();
 			
 			for (GenomicRegionFeature<Void> a : o) {
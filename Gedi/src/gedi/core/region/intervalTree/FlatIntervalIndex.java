@@ -0,0 +1,368 @@
+package gedi.core.region.intervalTree;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map.Entry;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+import gedi.core.reference.ReferenceSequence;
+import gedi.core.region.ArrayGenomicRegion;
+import gedi.core.region.GenomicRegion;
+import gedi.core.region.MutableReferenceGenomicRegion;
+import gedi.util.FileUtils;
+import gedi.util.datastructure.tree.redblacktree.IntervalTree;
+import gedi.util.io.randomaccess.BinaryReader;
+import gedi.util.io.randomaccess.BinaryWriter;
+
+/**
+ * Immutable interval index of a single reference: the regions are stored in their natural order (as in an {@link IntervalTree}) in primitive
+ * start/end arrays, and the array itself is interpreted as an implicit balanced binary tree (the node at index i is at the level given by
+ * the number of trailing one bits of i) that is augmented by the maximal end in each subtree. Overlap queries do not allocate.
+ *
+ * Regions and data are either given (when built from a tree) or deserialized lazily from the file written by {@link #serialize(BinaryWriter)}
+ * (see {@link MemoryIntervalTreeStorage#readIndex(String)}).
+ *
+ * @author erhard
+ *
+ */
+public class FlatIntervalIndex<D> {
+
+	private int n;
+	private int maxLevel;
+	private int[] start;
+	private int[] end;
+	private int[] maxEnd;
+	private int stop = -1;
+
+	private GenomicRegion[] regions;
+	private Object[] data;
+
+	// for lazily loaded indices
+	private int[] partOffset;
+	private int[] coords;
+	private long[] dataOffset;
+	private BinaryReader dataFile;
+	private Supplier<D> supplier;
+
+	public FlatIntervalIndex(IntervalTree<GenomicRegion,D> tree) {
+		n = tree.size();
+		start = new int[n];
+		end = new int[n];
+		regions = new GenomicRegion[n];
+		data = new Object[n];
+		int index = 0;
+		for (Entry<GenomicRegion,D> e : tree.entrySet()) {
+			regions[index] = e.getKey();
+			data[index] = e.getValue();
+			start[index] = e.getKey().getStart();
+			end[index] = e.getKey().getEnd();
+			index++;
+		}
+		index();
+	}
+
+	private FlatIntervalIndex() {
+	}
+
+	/**
+	 * Computes the maximal end of each subtree (for nodes beyond the last index, the maximal end of the present part of their subtree is used)
+	 */
+	private void index() {
+		maxEnd = new int[n];
+		maxLevel = 0;
+		if (n==0) return;
+
+		int lastIndex = 0;
+		int last = 0;
+		for (int i=0; i<n; i+=2) {
+			lastIndex = i;
+			last = maxEnd[i] = end[i];
+		}
+		int k;
+		for (k=1; 1L<<k<=n; k++) {
+			int x = 1<<(k-1);
+			long step = ((long)x)<<2;
+			for (long i=(x<<1)-1; i<n; i+=step) {
+				int e = Math.max(end[(int)i], maxEnd[(int)i-x]);
+				maxEnd[(int)i] = Math.max(e, i+x<n?maxEnd[(int)i+x]:last);
+			}
+			lastIndex = ((lastIndex>>k)&1)!=0?lastIndex-x:lastIndex+x;
+			if (lastIndex<n && maxEnd[lastIndex]>last)
+				last = maxEnd[lastIndex];
+		}
+		maxLevel = k-1;
+		for (int i=0; i<n; i++)
+			stop = Math.max(stop, end[i]-1);
+	}
+
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * Maximal stop position of all regions (-1 if empty)
+	 * @return
+	 */
+	public int getStop() {
+		return stop;
+	}
+
+	public GenomicRegion getRegion(int index) {
+		GenomicRegion re = regions[index];
+		if (re==null)
+			regions[index] = re = new ArrayGenomicRegion(Arrays.copyOfRange(coords, partOffset[index], partOffset[index+1]));
+		return re;
+	}
+
+	@SuppressWarnings("unchecked")
+	public D getData(int index) {
+		Object re = data[index];
+		if (re==null) {
+			try {
+				dataFile.position(dataOffset[index]);
+				data[index] = re = FileUtils.deserialize(supplier.get(), dataFile);
+			} catch (IOException e) {
+				throw new RuntimeException("Could not read data!",e);
+			}
+		}
+		return (D) re;
+	}
+
+	/**
+	 * Index of the given region (or -1 if it is not present)
+	 * @param region
+	 * @return
+	 */
+	public int indexOf(GenomicRegion region) {
+		int l = 0;
+		int r = n-1;
+		int s = region.getStart();
+		// first index with start>=s
+		while (l<=r) {
+			int m = (l+r)>>>1;
+			if (start[m]<s) l = m+1;
+			else r = m-1;
+		}
+		for (int i=l; i<n && start[i]==s; i++)
+			if (getRegion(i).equals(region))
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Calls the consumer for the indices of all regions intersecting [start,end) (i.e. whose start and end overlap the given interval) in ascending order.
+	 * @param start
+	 * @param end
+	 * @param consumer
+	 */
+	public void forEachIntersecting(int start, int end, IntConsumer consumer) {
+		if (n>0)
+			forEachIntersecting((1<<maxLevel)-1, maxLevel, start, end, consumer);
+	}
+
+	private void forEachIntersecting(int x, int k, int st, int en, IntConsumer consumer) {
+		if (k<=3) {
+			int i0 = x>>k<<k;
+			int i1 = (int) Math.min(i0+(1L<<(k+1))-1, n);
+			for (int i=i0; i<i1 && start[i]<en; i++)
+				if (st<end[i])
+					consumer.accept(i);
+			return;
+		}
+		int y = x-(1<<(k-1));
+		if (y>=n || maxEnd[y]>st)
+			forEachIntersecting(y, k-1, st, en, consumer);
+		if (x<n && start[x]<en) {
+			if (st<end[x])
+				consumer.accept(x);
+			forEachIntersecting(x+(1<<(k-1)), k-1, st, en, consumer);
+		}
+	}
+
+	/**
+	 * The smallest index &gt;=from of a region intersecting [start,end), or -1
+	 * @param start
+	 * @param end
+	 * @param from
+	 * @return
+	 */
+	public int nextIntersecting(int start, int end, int from) {
+		if (n==0 || from>=n) return -1;
+		return nextIntersecting((1<<maxLevel)-1, maxLevel, start, end, from);
+	}
+
+	private int nextIntersecting(int x, int k, int st, int en, int from) {
+		if (x+(1L<<k)-1<from) return -1;
+		if (k<=3) {
+			int i0 = x>>k<<k;
+			int i1 = (int) Math.min(i0+(1L<<(k+1))-1, n);
+			for (int i=Math.max(i0, from); i<i1 && start[i]<en; i++)
+				if (st<end[i])
+					return i;
+			return -1;
+		}
+		int y = x-(1<<(k-1));
+		if (y>=n || maxEnd[y]>st) {
+			int re = nextIntersecting(y, k-1, st, en, from);
+			if (re>=0) return re;
+		}
+		if (x<n && start[x]<en) {
+			if (x>=from && st<end[x])
+				return x;
+			return nextIntersecting(x+(1<<(k-1)), k-1, st, en, from);
+		}
+		return -1;
+	}
+
+	public Spliterator<MutableReferenceGenomicRegion<D>> iterate(ReferenceSequence reference) {
+		return new IndexSpliterator(reference, 0, n, null);
+	}
+
+	/**
+	 * Regions intersecting (see {@link GenomicRegion#intersects(GenomicRegion)}) the given region, in ascending order.
+	 * @param reference
+	 * @param region
+	 * @return
+	 */
+	public Spliterator<MutableReferenceGenomicRegion<D>> iterateIntersecting(ReferenceSequence reference, GenomicRegion region) {
+		return new IndexSpliterator(reference, 0, n, region);
+	}
+
+	private class IndexSpliterator implements Spliterator<MutableReferenceGenomicRegion<D>> {
+		private MutableReferenceGenomicRegion<D> mut = new MutableReferenceGenomicRegion<D>();
+		private ReferenceSequence reference;
+		private GenomicRegion region;
+		private int index;
+		private int to;
+
+		IndexSpliterator(ReferenceSequence reference, int from, int to, GenomicRegion region) {
+			this.reference = reference;
+			this.index = from;
+			this.to = to;
+			this.region = region;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super MutableReferenceGenomicRegion<D>> action) {
+			for (;;) {
+				if (region!=null)
+					index = nextIntersecting(region.getStart(), region.getEnd(), index);
+				if (index<0 || index>=to) {
+					index = to;
+					return false;
+				}
+				int i = index++;
+				GenomicRegion r = getRegion(i);
+				if (region==null || region.intersects(r)) {
+					action.accept(mut.set(reference, r, getData(i)));
+					return true;
+				}
+			}
+		}
+
+		@Override
+		public Spliterator<MutableReferenceGenomicRegion<D>> trySplit() {
+			if (to-index<=16) return null;
+			int m = (index+to)>>>1;
+			IndexSpliterator re = new IndexSpliterator(reference, index, m, region);
+			index = m;
+			return re;
+		}
+
+		@Override
+		public long estimateSize() {
+			return region==null?to-index:Long.MAX_VALUE;
+		}
+
+		@Override
+		public int characteristics() {
+			return IMMUTABLE|DISTINCT|NONNULL|ORDERED|SORTED|(region==null?SIZED|SUBSIZED:0);
+		}
+
+		@Override
+		public Comparator<? super MutableReferenceGenomicRegion<D>> getComparator() {
+			return null;
+		}
+	}
+
+
+	/**
+	 * Format: n, maximal level, start (int[n]), end (int[n]), max end (int[n]), part offsets (int[n+1]), number of coordinates m, coordinates (int[m]),
+	 * data offsets relative to the start of the data block (long[n]), and the serialized data.
+	 * @param out
+	 * @throws IOException
+	 */
+	public void serialize(BinaryWriter out) throws IOException {
+		out.putInt(n);
+		out.putInt(maxLevel);
+		for (int i=0; i<n; i++) out.putInt(start[i]);
+		for (int i=0; i<n; i++) out.putInt(end[i]);
+		for (int i=0; i<n; i++) out.putInt(maxEnd[i]);
+		int m = 0;
+		out.putInt(0);
+		for (int i=0; i<n; i++) {
+			m+=getRegion(i).getNumParts()*2;
+			out.putInt(m);
+		}
+		out.putInt(m);
+		for (int i=0; i<n; i++) {
+			GenomicRegion r = getRegion(i);
+			for (int p=0; p<r.getNumParts(); p++) {
+				out.putInt(r.getStart(p));
+				out.putInt(r.getEnd(p));
+			}
+		}
+		long offsets = out.position();
+		for (int i=0; i<n; i++) out.putLong(0);
+		long dataStart = out.position();
+		for (int i=0; i<n; i++) {
+			long pos = out.position();
+			out.position(offsets+i*(long)Long.BYTES);
+			out.putLong(pos-dataStart);
+			out.position(pos);
+			FileUtils.serialize(getData(i), out);
+		}
+	}
+
+	/**
+	 * Reads the primitive arrays from the current position of in; regions and data are read lazily from file (which must allow
+	 * concurrent access).
+	 * @param in
+	 * @param file
+	 * @param supplier
+	 * @return
+	 * @throws IOException
+	 */
+	public static <D> FlatIntervalIndex<D> deserialize(BinaryReader in, BinaryReader file, Supplier<D> supplier) throws IOException {
+		FlatIntervalIndex<D> re = new FlatIntervalIndex<D>();
+		re.n = in.getInt();
+		re.maxLevel = in.getInt();
+		re.start = readInts(in, re.n);
+		re.end = readInts(in, re.n);
+		re.maxEnd = readInts(in, re.n);
+		re.partOffset = readInts(in, re.n+1);
+		re.coords = readInts(in, in.getInt());
+		re.dataOffset = new long[re.n];
+		for (int i=0; i<re.n; i++) re.dataOffset[i] = in.getLong();
+		long dataStart = in.position()+in.getStart()-file.getStart();
+		for (int i=0; i<re.n; i++) re.dataOffset[i]+=dataStart;
+		re.regions = new GenomicRegion[re.n];
+		re.data = new Object[re.n];
+		re.dataFile = file;
+		re.supplier = supplier;
+		for (int i=0; i<re.n; i++)
+			re.stop = Math.max(re.stop, re.end[i]-1);
+		return re;
+	}
+
+	private static int[] readInts(BinaryReader in, int n) throws IOException {
+		int[] re = new int[n];
+		for (int i=0; i<n; i++) re[i] = in.getInt();
+		return re;
+	}
+
+}
@@ -1,6 +1,10 @@
 package gedi.core.region.intervalTree;
 
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Spliterator;
@@ -14,13 +18,34 @@ import gedi.core.reference.ReferenceSequence;
 import gedi.core.region.GenomicRegion;
 import gedi.core.region.GenomicRegionStorage;
 import gedi.core.region.MutableReferenceGenomicRegion;
+import gedi.util.FunctorUtils;
 import gedi.util.datastructure.tree.redblacktree.IntervalTree;
 import gedi.util.dynamic.DynamicObject;
 import gedi.util.functions.MappedSpliterator;
+import gedi.util.io.randomaccess.ConcurrentPageFile;
+import gedi.util.io.randomaccess.ConcurrentPageFileView;
+import gedi.util.io.randomaccess.PageFileWriter;
 
+/**
+ * Red-black interval trees per reference. References can be frozen (see {@link #freeze()}) into immutable {@link FlatIntervalIndex}es
+ * for fast lookups; modifying a frozen reference (or obtaining its tree via {@link #getTree(ReferenceSequence)}) transparently turns it
+ * back into a tree; read-only callers that need the tree API use {@link #getReadOnlyTree(ReferenceSequence)} instead.
+ * 
+ * All accesses to the trees and indices of the references are synchronized on this storage (iterators are not, i.e. do not modify
+ * a reference while it is iterated).
+ * 
+ * @author erhard
+ *
+ */
 public class MemoryIntervalTreeStorage<D> implements GenomicRegionStorage<D>, ReferenceSequenceLengthProvider {
 
+	public static final String INDEX_MAGIC = "FII";
+	public static final String INDEX_EXTENSION = ".fidx";
+	
 	private LinkedHashMap<ReferenceSequence, IntervalTree<GenomicRegion,D>> map = new LinkedHashMap<>();
+	private LinkedHashMap<ReferenceSequence, FlatIntervalIndex<D>> frozen = new LinkedHashMap<>();
+	private HashMap<ReferenceSequence, SoftReference<IntervalTree<GenomicRegion,D>>> readOnly = new HashMap<>();
+	private ConcurrentPageFile indexFile;
 	private DynamicObject meta;
 	private Class<D> type;
 	
@@ -29,13 +54,121 @@ public class MemoryIntervalTreeStorage<D> implements GenomicRegionStorage<D>, Re
 	}
 	
 
-	private IntervalTree<GenomicRegion, D> ensureMap(ReferenceSequence reference) {
-		IntervalTree<GenomicRegion, D> re = map.get(reference);
+	private synchronized IntervalTree<GenomicRegion, D> ensureMap(ReferenceSequence reference) {
+		IntervalTree<GenomicRegion, D> re = thaw(reference);
 		if (re==null) 
 			map.put(reference, re = new IntervalTree<GenomicRegion, D>(reference));
 		return re;
 	}
 	
+	/**
+	 * Gets the tree for the given reference (and turns its frozen index back into a tree if necessary; the tree is registered before the index
+	 * is removed, i.e. concurrent readers always find one of them)
+	 * @param reference
+	 * @return
+	 */
+	private synchronized IntervalTree<GenomicRegion, D> thaw(ReferenceSequence reference) {
+		FlatIntervalIndex<D> index = frozen.get(reference);
+		if (index!=null) {
+			IntervalTree<GenomicRegion, D> tree = new IntervalTree<GenomicRegion, D>(reference);
+			for (int i=0; i<index.size(); i++)
+				tree.put(index.getRegion(i), index.getData(i));
+			map.put(reference, tree);
+			frozen.remove(reference);
+			readOnly.remove(reference);
+		}
+		return map.get(reference);
+	}
+	
+	/**
+	 * Replaces the trees of all references by immutable {@link FlatIntervalIndex}es.
+	 * @return this
+	 */
+	public synchronized MemoryIntervalTreeStorage<D> freeze() {
+		for (Entry<ReferenceSequence, IntervalTree<GenomicRegion, D>> e : map.entrySet())
+			frozen.put(e.getKey(), new FlatIntervalIndex<D>(e.getValue()));
+		map.clear();
+		return this;
+	}
+	
+	/**
+	 * Freezes this storage and writes all indices into the given file, which can be loaded by {@link #readIndex(String)}
+	 * @param path
+	 * @throws IOException
+	 */
+	public synchronized void writeIndex(String path) throws IOException {
+		freeze();
+		PageFileWriter out = new PageFileWriter(path);
+		out.putAsciiChars(INDEX_MAGIC);
+		out.putString(type.getName());
+		out.putString(getMetaData().toJson());
+		out.putInt(frozen.size());
+		long[] pos = new long[frozen.size()];
+		int i = 0;
+		for (ReferenceSequence r : frozen.keySet()) {
+			Chromosome.write(Chromosome.obtain(r.getName(),r.getStrand()), out);
+			pos[i++] = out.position();
+			out.putLong(0); // filled in in the end!
+		}
+		i = 0;
+		for (FlatIntervalIndex<D> index : frozen.values()) {
+			long curpos = out.position();
+			out.position(pos[i++]);
+			out.putLong(curpos);
+			out.position(curpos);
+			index.serialize(out);
+		}
+		out.close();
+	}
+	
+	/**
+	 * Loads a frozen storage written by {@link #writeIndex(String)}; regions and data are deserialized lazily from the (memory mapped) file,
+	 * which is kept open until {@link #clear()} or {@link #close()}.
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static <D> MemoryIntervalTreeStorage<D> readIndex(String path) throws IOException {
+		ConcurrentPageFile file = new ConcurrentPageFile(path);
+		try {
+			MemoryIntervalTreeStorage<D> re = readIndex(path, new ConcurrentPageFileView(file));
+			re.indexFile = file;
+			return re;
+		} catch (IOException | RuntimeException e) {
+			file.close();
+			throw e;
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static <D> MemoryIntervalTreeStorage<D> readIndex(String path, ConcurrentPageFileView in) throws IOException {
+		if (!in.getAsciiChars(INDEX_MAGIC.length()).equals(INDEX_MAGIC))
+			throw new IOException("Not a valid index file: "+path);
+		Class<D> type;
+		try {
+			type = (Class<D>) Class.forName(in.getString());
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Unknown data class in "+path,e);
+		}
+		MemoryIntervalTreeStorage<D> re = new MemoryIntervalTreeStorage<D>(type);
+		re.setMetaData(DynamicObject.parseJson(in.getString()));
+		
+		int n = in.getInt();
+		ReferenceSequence[] refs = new ReferenceSequence[n];
+		long[] pos = new long[n];
+		for (int i=0; i<n; i++) {
+			refs[i] = Chromosome.read(in);
+			pos[i] = in.getLong();
+		}
+		
+		Supplier<D> supplier = FunctorUtils.newInstanceSupplier(type);
+		for (int i=0; i<n; i++) {
+			in.position(pos[i]);
+			re.frozen.put(refs[i], FlatIntervalIndex.deserialize(in, in, supplier));
+		}
+		return re;
+	}
+	
 	@Override
 	public MemoryIntervalTreeStorage<D> toMemory() {
 		return this;
@@ -72,24 +205,23 @@ public class MemoryIntervalTreeStorage<D> implements GenomicRegionStorage<D>, Re
 	}
 	
 	@Override
-	public int getLength(String name) {
+	public synchronized int getLength(String name) {
 		Chromosome reference = Chromosome.obtain(name);
-		IntervalTree<GenomicRegion, D> it = map.get(reference);
-		if (it==null) {
-			// test all three strands
-			it = map.get(reference.toStrandIndependent());
-			if (it==null)
-				it = map.get(reference.toPlusStrand());
-			if (it==null)
-				it = map.get(reference.toMinusStrand());
-			if (it==null)
-				return -1;
+		// test all three strands
+		for (ReferenceSequence r : new ReferenceSequence[] {reference, reference.toStrandIndependent(), reference.toPlusStrand(), reference.toMinusStrand()}) {
+			FlatIntervalIndex<D> index = frozen.get(r);
+			if (index!=null)
+				return index.size()==0?-1:-index.getStop()-1;
+			IntervalTree<GenomicRegion, D> it = map.get(r);
+			if (it!=null)
+				return it.isEmpty()?-1:-it.getStop()-1;
 		}
-		return it.isEmpty()?-1:-it.getStop()-1;
+		return -1;
 	}
 	
 	/**
-	 * If reference not present here, is is added and an empty tree is returned.
+	 * If reference not present here, is is added and an empty tree is returned. A frozen reference is turned back into a tree, use
+	 * {@link #getReadOnlyTree(ReferenceSequence)} if the tree is not modified.
 	 * @param reference
 	 * @return
 	 */
@@ -98,13 +230,42 @@ public class MemoryIntervalTreeStorage<D> implements GenomicRegionStorage<D>, Re
 		return ensureMap(reference);
 	}
 	
+	/**
+	 * Gets the tree for the given reference without thawing it (for a frozen reference, a copy of its index is built and cached as long as
+	 * memory permits; if the reference is not present, an empty tree is returned). The tree must not be modified!
+	 * @param reference
+	 * @return
+	 */
+	public synchronized IntervalTree<GenomicRegion, D> getReadOnlyTree(ReferenceSequence reference) {
+		IntervalTree<GenomicRegion, D> re = map.get(reference);
+		if (re!=null) return re;
+		
+		SoftReference<IntervalTree<GenomicRegion, D>> cached = readOnly.get(reference);
+		re = cached==null?null:cached.get();
+		if (re!=null) return re;
+		
+		re = new IntervalTree<GenomicRegion, D>(reference);
+		FlatIntervalIndex<D> index = frozen.get(reference);
+		if (index!=null) {
+			for (int i=0; i<index.size(); i++)
+				re.put(index.getRegion(i), index.getData(i));
+			readOnly.put(reference, new SoftReference<IntervalTree<GenomicRegion,D>>(re));
+		}
+		return re;
+	}
+	
 	@Override
-	public Set<ReferenceSequence> getReferenceSequences() {
-		return map.keySet();
+	public synchronized Set<ReferenceSequence> getReferenceSequences() {
+		LinkedHashSet<ReferenceSequence> re = new LinkedHashSet<ReferenceSequence>(frozen.keySet());
+		re.addAll(map.keySet());
+		return re;
 	}
 
 	@Override
-	public Spliterator<MutableReferenceGenomicRegion<D>> iterateMutableReferenceGenomicRegions(ReferenceSequence reference) {
+	public synchronized Spliterator<MutableReferenceGenomicRegion<D>> iterateMutableReferenceGenomicRegions(ReferenceSequence reference) {
+		FlatIntervalIndex<D> index = frozen.get(reference);
+		if (index!=null) return index.iterate(reference);
+		
 		IntervalTree<GenomicRegion,D> tree = map.get(reference);
 		if (tree==null) return Spliterators.emptySpliterator();
 		
@@ -118,8 +279,11 @@ public class MemoryIntervalTreeStorage<D> implements GenomicRegionStorage<D>, Re
 	}
 	
 	@Override
-	public Spliterator<MutableReferenceGenomicRegion<D>> iterateIntersectingMutableReferenceGenomicRegions(
+	public synchronized Spliterator<MutableReferenceGenomicRegion<D>> iterateIntersectingMutableReferenceGenomicRegions(
 			ReferenceSequence reference, GenomicRegion region) {
+		FlatIntervalIndex<D> index = frozen.get(reference);
+		if (index!=null) return index.iterateIntersecting(reference, region);
+		
 		IntervalTree<GenomicRegion,D> tree = map.get(reference);
 		if (tree==null) return Spliterators.emptySpliterator();
 		
@@ -134,7 +298,7 @@ public class MemoryIntervalTreeStorage<D> implements GenomicRegionStorage<D>, Re
 
 
 	@Override
-	public boolean add(ReferenceSequence reference, GenomicRegion region, D data) {
+	public synchronized boolean add(ReferenceSequence reference, GenomicRegion region, D data) {
 		IntervalTree<GenomicRegion,D> tree = ensureMap(reference);
 		boolean present = tree.containsKey(region);
 		tree.put(region, data);
@@ -144,21 +308,30 @@ public class MemoryIntervalTreeStorage<D> implements GenomicRegionStorage<D>, Re
 	
 
 	@Override
-	public boolean remove(ReferenceSequence reference, GenomicRegion region) {
-		IntervalTree<GenomicRegion,D> tree = map.get(reference);
+	public synchronized boolean remove(ReferenceSequence reference, GenomicRegion region) {
+		FlatIntervalIndex<D> index = frozen.get(reference);
+		if (index!=null && index.indexOf(region)<0) return false;
+		IntervalTree<GenomicRegion,D> tree = thaw(reference);
 		if (tree==null || !tree.containsKey(region)) return false;
 		tree.remove(region);
 		return true;
 	}
 
 	@Override
-	public boolean contains(ReferenceSequence reference, GenomicRegion region) {
+	public synchronized boolean contains(ReferenceSequence reference, GenomicRegion region) {
+		FlatIntervalIndex<D> index = frozen.get(reference);
+		if (index!=null) return index.indexOf(region)>=0;
 		IntervalTree<GenomicRegion,D> tree = map.get(reference);
 		return tree!=null && tree.containsKey(region);
 	}
 
 	@Override
-	public D getData(ReferenceSequence reference,GenomicRegion region) {
+	public synchronized D getData(ReferenceSequence reference,GenomicRegion region) {
+		FlatIntervalIndex<D> index = frozen.get(reference);
+		if (index!=null) {
+			int i = index.indexOf(region);
+			return i<0?null:index.getData(i);
+		}
 		IntervalTree<GenomicRegion,D> tree = map.get(reference);
 		if (tree==null) return null;
 		return tree.get(region);
@@ -166,15 +339,30 @@ public class MemoryIntervalTreeStorage<D> implements GenomicRegionStorage<D>, Re
 
 	
 	@Override
-	public long size(ReferenceSequence reference) {
+	public synchronized long size(ReferenceSequence reference) {
+		FlatIntervalIndex<D> index = frozen.get(reference);
+		if (index!=null) return index.size();
 		IntervalTree<GenomicRegion,D> tree = map.get(reference);
 		if (tree==null) return 0;
 		return tree.size();
 	}
 
 	@Override
-	public void clear() {
+	public synchronized void clear() {
 		map.clear();
+		frozen.clear();
+		readOnly.clear();
+		close();
+	}
+	
+	/**
+	 * Closes the index file (if loaded by {@link #readIndex(String)}); only call this if no frozen reference is accessed anymore.
+	 */
+	public synchronized void close() {
+		if (indexFile!=null) {
+			indexFile.close();
+			indexFile = null;
+		}
 	}
 
 	@Override
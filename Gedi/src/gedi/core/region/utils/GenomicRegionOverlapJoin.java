@@ -0,0 +1,314 @@
+package gedi.core.region.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+
+import gedi.core.reference.ReferenceSequence;
+import gedi.core.reference.Strand;
+import gedi.core.reference.Strandness;
+import gedi.core.region.ArrayGenomicRegion;
+import gedi.core.region.GenomicRegion;
+import gedi.core.region.GenomicRegionStorage;
+import gedi.core.region.ImmutableReferenceGenomicRegion;
+import gedi.core.region.ReferenceGenomicRegion;
+import gedi.util.functions.ExtendedIterator;
+import gedi.util.mutable.MutablePair;
+
+
+/**
+ * Streaming merge join of two storages (e.g. reads and annotations): For each element of the left storage, all overlapping elements
+ * of the right storage (that fulfill the predicate) are reported. Both storages are iterated once per reference, sorted by start, and
+ * right elements are kept in an active set as long as they may overlap subsequent left elements (i.e. no interval tree queries).
+ *
+ * Storages are not necessarily sorted by start (e.g. paired-end reads), so both inputs are reordered within a window
+ * ({@link #setReorderWindow(int)}). If the left input is out of order beyond this window, the remaining left elements of the reference
+ * are joined by querying the right storage for each of them. The right input (usually the annotation) must be sorted up to the window.
+ *
+ * The join can be split by reference ({@link #parallelized(int, Function)}).
+ *
+ * @author erhard
+ *
+ * @param <A>
+ * @param <B>
+ */
+public class GenomicRegionOverlapJoin<A,B> {
+
+	/**
+	 * Exons of left and right intersect
+	 * @return
+	 */
+	public static <A,B> BiPredicate<ReferenceGenomicRegion<A>,ReferenceGenomicRegion<B>> intersecting() {
+		return (a,b)->a.getRegion().intersects(b.getRegion());
+	}
+
+	/**
+	 * The left region is contained in the exons of the right region
+	 * @return
+	 */
+	public static <A,B> BiPredicate<ReferenceGenomicRegion<A>,ReferenceGenomicRegion<B>> contained() {
+		return (a,b)->b.getRegion().contains(a.getRegion());
+	}
+
+	/**
+	 * The left region is within start and end of the right region
+	 * @return
+	 */
+	public static <A,B> BiPredicate<ReferenceGenomicRegion<A>,ReferenceGenomicRegion<B>> containedUnspliced() {
+		return (a,b)->b.getRegion().getStart()<=a.getRegion().getStart() && a.getRegion().getEnd()<=b.getRegion().getEnd();
+	}
+
+	/**
+	 * The regions intersect and no base of one of them is in an intron of the other
+	 * @return
+	 */
+	public static <A,B> BiPredicate<ReferenceGenomicRegion<A>,ReferenceGenomicRegion<B>> consistent() {
+		return (a,b)->a.getRegion().intersects(b.getRegion()) && a.getRegion().isIntronConsistent(b.getRegion());
+	}
+
+	private GenomicRegionStorage<A> left;
+	private GenomicRegionStorage<B> right;
+	private Strandness strandness = Strandness.Sense;
+	private BiPredicate<? super ImmutableReferenceGenomicRegion<A>,? super ImmutableReferenceGenomicRegion<B>> predicate = intersecting();
+	private int reorderWindow = DEFAULT_REORDER_WINDOW;
+
+	public static final int DEFAULT_REORDER_WINDOW = 8192;
+
+	public GenomicRegionOverlapJoin(GenomicRegionStorage<A> left, GenomicRegionStorage<B> right) {
+		this.left = left;
+		this.right = right;
+	}
+
+	/**
+	 * Which strand of the right storage is joined to a left reference (Unspecific: both, the same strand first).
+	 * @param strandness
+	 * @return
+	 */
+	public GenomicRegionOverlapJoin<A,B> setStrandness(Strandness strandness) {
+		if (strandness==Strandness.AutoDetect)
+			throw new RuntimeException("Illegal Strandness!");
+		this.strandness = strandness;
+		return this;
+	}
+
+	/**
+	 * Only pairs of overlapping (i.e. start-end intervals intersect) elements are tested (default: {@link #intersecting()}).
+	 * @param predicate
+	 * @return
+	 */
+	public GenomicRegionOverlapJoin<A,B> setPredicate(BiPredicate<? super ImmutableReferenceGenomicRegion<A>,? super ImmutableReferenceGenomicRegion<B>> predicate) {
+		this.predicate = predicate;
+		return this;
+	}
+
+	/**
+	 * Number of elements that are buffered to restore the order by start (default: {@link #DEFAULT_REORDER_WINDOW}).
+	 * @param reorderWindow
+	 * @return
+	 */
+	public GenomicRegionOverlapJoin<A,B> setReorderWindow(int reorderWindow) {
+		if (reorderWindow<0)
+			throw new RuntimeException("Reorder window must not be negative!");
+		this.reorderWindow = reorderWindow;
+		return this;
+	}
+
+	/**
+	 * The references of the left storage in the order of {@link GenomicRegionStorage#ei()}
+	 * @return
+	 */
+	public ExtendedIterator<ReferenceSequence> iterateReferenceSequences() {
+		return left.iterateReferenceSequences().sort();
+	}
+
+	public ExtendedIterator<MutablePair<ImmutableReferenceGenomicRegion<A>,ArrayList<ImmutableReferenceGenomicRegion<B>>>> ei() {
+		return iterateReferenceSequences().unfold(this::ei);
+	}
+
+	/**
+	 * The lists of right elements are in the order in which they were encountered by the sweep.
+	 * @param reference
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public ExtendedIterator<MutablePair<ImmutableReferenceGenomicRegion<A>,ArrayList<ImmutableReferenceGenomicRegion<B>>>> ei(ReferenceSequence reference) {
+		ReferenceSequence[] refs;
+		switch (strandness) {
+		case Sense: refs = new ReferenceSequence[] {reference}; break;
+		case Antisense: refs = new ReferenceSequence[] {reference.toOppositeStrand()}; break;
+		default:
+			if (reference.getStrand()==Strand.Independent)
+				refs = new ReferenceSequence[] {reference};
+			else
+				refs = new ReferenceSequence[] {reference,reference.toOppositeStrand()};
+		}
+		ExtendedIterator<ImmutableReferenceGenomicRegion<B>>[] r = new ExtendedIterator[refs.length];
+		for (int i=0; i<refs.length; i++)
+			r[i] = right.ei(refs[i]);
+		Function<ImmutableReferenceGenomicRegion<A>,ArrayList<ImmutableReferenceGenomicRegion<B>>> query = l->{
+			ArrayList<ImmutableReferenceGenomicRegion<B>> re = new ArrayList<>();
+			ArrayGenomicRegion span = new ArrayGenomicRegion(l.getRegion().getStart(),l.getRegion().getEnd());
+			for (ReferenceSequence ref : refs)
+				right.ei(ref,span).filter(b->predicate.test(l, b)).toCollection(re);
+			return re;
+		};
+		return join(left.ei(reference), predicate, reorderWindow, query, r);
+	}
+
+	/**
+	 * References are processed by nthreads threads (the output is in the order of {@link #ei()}).
+	 * @param nthreads
+	 * @param sub applied to the join of each reference
+	 * @return
+	 */
+	public <O> ExtendedIterator<O> parallelized(int nthreads, Function<ExtendedIterator<MutablePair<ImmutableReferenceGenomicRegion<A>,ArrayList<ImmutableReferenceGenomicRegion<B>>>>,ExtendedIterator<O>> sub) {
+		return iterateReferenceSequences().parallelized(nthreads, 1, ei->ei.unfold(ref->sub.apply(ei(ref))));
+	}
+
+	/**
+	 * Joins iterators of a single reference; all of them must be sorted by start (up to {@link #DEFAULT_REORDER_WINDOW} elements).
+	 * @param left
+	 * @param predicate
+	 * @param right
+	 * @return
+	 */
+	@SafeVarargs
+	public static <A,B,LA extends ReferenceGenomicRegion<A>,RB extends ReferenceGenomicRegion<B>> ExtendedIterator<MutablePair<LA,ArrayList<RB>>> join(
+			Iterator<LA> left,
+			BiPredicate<? super LA,? super RB> predicate,
+			Iterator<RB>... right) {
+		return join(left, predicate, DEFAULT_REORDER_WINDOW, null, right);
+	}
+
+	/**
+	 * Joins iterators of a single reference; they are reordered by start within the given window. If the left iterator is out of order
+	 * beyond the window, all remaining left elements are joined using the fallback (if it is null, an exception is thrown); if the right
+	 * iterators are, an exception is thrown.
+	 * @param left
+	 * @param predicate
+	 * @param reorderWindow
+	 * @param fallback all right elements for a left element (that fulfill the predicate)
+	 * @param right
+	 * @return
+	 */
+	@SafeVarargs
+	public static <A,B,LA extends ReferenceGenomicRegion<A>,RB extends ReferenceGenomicRegion<B>> ExtendedIterator<MutablePair<LA,ArrayList<RB>>> join(
+			Iterator<LA> left,
+			BiPredicate<? super LA,? super RB> predicate,
+			int reorderWindow,
+			Function<? super LA,ArrayList<RB>> fallback,
+			Iterator<RB>... right) {
+		return new SweepIterator<A,B,LA,RB>(left, predicate, reorderWindow, fallback, right);
+	}
+
+	private static class SweepIterator<A,B,LA extends ReferenceGenomicRegion<A>,RB extends ReferenceGenomicRegion<B>> implements ExtendedIterator<MutablePair<LA,ArrayList<RB>>> {
+
+		private Iterator<LA> left;
+		private BiPredicate<? super LA,? super RB> predicate;
+		private int window;
+		private Function<? super LA,ArrayList<RB>> fallback;
+		private boolean useFallback = false;
+		private PriorityQueue<LA> leftBuffer;
+		private Iterator<RB>[] right;
+		private PriorityQueue<RB>[] rightBuffer;
+		private ArrayList<RB> active = new ArrayList<RB>();
+		private int lastStart = Integer.MIN_VALUE;
+		private int maxEnd = Integer.MIN_VALUE;
+		private int[] lastRightStart;
+
+		@SuppressWarnings("unchecked")
+		public SweepIterator(Iterator<LA> left, BiPredicate<? super LA,? super RB> predicate, int window, Function<? super LA,ArrayList<RB>> fallback, Iterator<RB>[] right) {
+			Comparator<ReferenceGenomicRegion<?>> byStart = (a,b)->Integer.compare(a.getRegion().getStart(), b.getRegion().getStart());
+			this.left = left;
+			this.predicate = predicate;
+			this.window = window;
+			this.fallback = fallback;
+			this.leftBuffer = new PriorityQueue<LA>(byStart);
+			this.right = right;
+			this.rightBuffer = new PriorityQueue[right.length];
+			this.lastRightStart = new int[right.length];
+			for (int i=0; i<right.length; i++) {
+				rightBuffer[i] = new PriorityQueue<RB>(byStart);
+				lastRightStart[i] = Integer.MIN_VALUE;
+			}
+		}
+
+		private LA nextLeft() {
+			while (!useFallback && leftBuffer.size()<=window && left.hasNext()) {
+				LA l = left.next();
+				if (l.getRegion().getStart()<lastStart) {
+					if (fallback==null)
+						throw new RuntimeException("Left input is not sorted (within a window of "+window+"): "+l.toLocationString());
+					useFallback = true;
+				}
+				leftBuffer.add(l);
+			}
+			if (!leftBuffer.isEmpty())
+				return leftBuffer.poll();
+			return left.next();
+		}
+
+		/**
+		 * Moves all right elements starting before end into the active set; afterwards, at least window elements (if available) are buffered
+		 * for each right input (i.e. elements that are out of order by less than window are encountered before they are needed).
+		 * @param end
+		 */
+		private void activate(int end) {
+			for (int i=0; i<right.length; i++) {
+				PriorityQueue<RB> buf = rightBuffer[i];
+				while (right[i].hasNext() && (buf.size()<=window || buf.peek().getRegion().getStart()<end)) {
+					RB r = right[i].next();
+					if (r.getRegion().getStart()<lastRightStart[i] && r.getRegion().getStart()<maxEnd)
+						throw new RuntimeException("Right input is not sorted (within a window of "+window+"): "+r.toLocationString());
+					buf.add(r);
+				}
+				while (!buf.isEmpty() && buf.peek().getRegion().getStart()<end) {
+					RB r = buf.poll();
+					lastRightStart[i] = Math.max(lastRightStart[i], r.getRegion().getStart());
+					active.add(r);
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !leftBuffer.isEmpty() || left.hasNext();
+		}
+
+		@Override
+		public MutablePair<LA, ArrayList<RB>> next() {
+			LA l = nextLeft();
+			if (useFallback)
+				return new MutablePair<LA, ArrayList<RB>>(l, fallback.apply(l));
+
+			GenomicRegion reg = l.getRegion();
+			int start = reg.getStart();
+			int end = reg.getEnd();
+			lastStart = start;
+
+			activate(end);
+
+			// remove elements that cannot overlap this or any subsequent left element
+			int n = 0;
+			for (int i=0; i<active.size(); i++)
+				if (active.get(i).getRegion().getEnd()>start)
+					active.set(n++, active.get(i));
+			while (active.size()>n)
+				active.remove(active.size()-1);
+
+			ArrayList<RB> re = new ArrayList<RB>();
+			for (int i=0; i<active.size(); i++) {
+				RB r = active.get(i);
+				if (r.getRegion().getStart()<end && predicate.test(l, r))
+					re.add(r);
+			}
+			maxEnd = Math.max(maxEnd, end);
+			return new MutablePair<LA, ArrayList<RB>>(l, re);
+		}
+
+	}
+
+}
@@ -6,6 +6,8 @@ import gedi.util.SequenceUtils;
 import gedi.util.StringUtils;
 import gedi.util.io.text.fasta.index.FastaIndexFile;
 import gedi.util.io.text.fasta.index.FastaIndexFile.FastaIndexEntry;
+import gedi.util.io.text.fasta.index.PackedSequenceFile;
+import gedi.util.io.text.fasta.index.PackedSequenceFile.PackedEntry;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -13,12 +15,24 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+/**
+ * Sequences from indexed fasta files. If there is an up-to-date {@link PackedSequenceFile} next to an index, sequences are served from the memory mapped
+ * 2-bit representation instead (which is much faster for many small lookups); call {@link #usePacked()} to create missing packed files.
+ * 
+ * @author erhard
+ *
+ */
 public class FastaIndexSequenceProvider implements SequenceProvider {
 
+	private static final Logger log = Logger.getLogger( FastaIndexSequenceProvider.class.getName() );
 	
 	private HashMap<String,FastaIndexEntry> index = new HashMap<String, FastaIndexEntry>();
 	private ArrayList<FastaIndexFile> files = new ArrayList<FastaIndexFile>();
+	private HashMap<String,PackedEntry> packedIndex = new HashMap<String, PackedEntry>();
+	private HashMap<FastaIndexFile,PackedSequenceFile> packed = new HashMap<FastaIndexFile, PackedSequenceFile>();
 	
 	
 	public FastaIndexSequenceProvider(String... paths) throws IOException {
@@ -40,6 +54,35 @@ public class FastaIndexSequenceProvider implements SequenceProvider {
 //			System.out.println(n+"\t"+f.getEntry(n).length());
 			index.put(Chromosome.obtain(n).getName(), f.getEntry(n));
 		}
+		try {
+			addPacked(f, PackedSequenceFile.open(f));
+		} catch (IOException e) {
+			// the packed file exists, but is corrupt: use the fasta file
+			log.log(Level.WARNING, "Could not read packed sequence file "+PackedSequenceFile.getPath(f)+", using "+f.getFastaFile()+"!", e);
+		}
+	}
+	
+	/**
+	 * Creates the packed 2-bit files for all fasta indices, where they do not exist or are outdated, and uses them from now on.
+	 * @return
+	 * @throws IOException
+	 */
+	public FastaIndexSequenceProvider usePacked() throws IOException {
+		for (FastaIndexFile f : files)
+			if (!packed.containsKey(f))
+				addPacked(f, PackedSequenceFile.obtain(f));
+		return this;
+	}
+	
+	public boolean isPacked(String name) {
+		return getPackedEntry(name)!=null;
+	}
+	
+	private void addPacked(FastaIndexFile f, PackedSequenceFile p) {
+		if (p==null) return;
+		packed.put(f, p);
+		for (String n : p.getEntryNames()) 
+			packedIndex.put(Chromosome.obtain(n).getName(), p.getEntry(n));
 	}
 	
 	public Collection<FastaIndexFile> getFiles() {
@@ -58,9 +101,18 @@ public class FastaIndexSequenceProvider implements SequenceProvider {
 		return re;
 	}
 	
+	private PackedEntry getPackedEntry(String name) {
+		if (packedIndex.isEmpty()) return null;
+		return packedIndex.get(Chromosome.obtain(name).getName());
+	}
+	
 	public void close() throws IOException {
 		for (FastaIndexFile f : files)
 			f.close();
+		for (PackedSequenceFile p : packed.values())
+			p.close();
+		packed.clear();
+		packedIndex.clear();
 	}
 
 	@Override
@@ -78,6 +130,10 @@ public class FastaIndexSequenceProvider implements SequenceProvider {
 		if (region.getStart()<0 || region.getEnd()>entry.length()) 
 			throw new IndexOutOfBoundsException(name+" sequence length: "+entry.length()+" - "+region.toRegionString());
 		
+		PackedEntry pe = getPackedEntry(name);
+		if (pe!=null) 
+			return new String(getPlusSequence(pe, region, new char[region.getTotalLength()]));
+		
 		try {
 			return SequenceUtils.extractSequence(region, entry);
 		} catch (IOException e) {
@@ -91,6 +147,10 @@ public class FastaIndexSequenceProvider implements SequenceProvider {
 		if (entry==null) return '\0';
 		if (pos<0 || pos+1>entry.length()) throw new IndexOutOfBoundsException();
 		
+		PackedEntry pe = getPackedEntry(name);
+		if (pe!=null)
+			return pe.charAt(pos);
+		
 		try {
 			return entry.getSequence(pos, pos+1).charAt(0);
 		} catch (IOException e) {
@@ -99,6 +159,46 @@ public class FastaIndexSequenceProvider implements SequenceProvider {
 	}
 	
 	
+	/**
+	 * Writes the sequence into re (which is allocated, if null or too short; re is returned); does not allocate anything for packed sequences.
+	 * Returns null if the sequence is unknown.
+	 * @param name
+	 * @param region
+	 * @param re
+	 * @return
+	 */
+	public char[] getPlusSequence(String name, GenomicRegion region, char[] re) {
+		FastaIndexEntry entry = getEntry(name);
+		if (entry==null) return null;
+		if (re==null || re.length<region.getTotalLength()) re = new char[region.getTotalLength()];
+		if (region.getTotalLength()==0) return re;
+		if (region.getStart()<0 || region.getEnd()>entry.length()) 
+			throw new IndexOutOfBoundsException(name+" sequence length: "+entry.length()+" - "+region.toRegionString());
+		
+		PackedEntry pe = getPackedEntry(name);
+		if (pe!=null) 
+			return getPlusSequence(pe, region, re);
+		
+		try {
+			int off = 0;
+			for (int i=0; i<region.getNumParts(); i++) {
+				String part = entry.getSequence(region.getStart(i), region.getEnd(i));
+				part.getChars(0, part.length(), re, off);
+				off+=part.length();
+			}
+			return re;
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read sequence from file "+entry.getFile()+"!",e);
+		}
+	}
+	
+	private static char[] getPlusSequence(PackedEntry pe, GenomicRegion region, char[] re) {
+		int off = 0;
+		for (int i=0; i<region.getNumParts(); i++)
+			off+=pe.getSequence(region.getStart(i), region.getEnd(i), re, off);
+		return re;
+	}
+	
 	@Override
 	public Set<String> getSequenceNames() {
 		return Collections.unmodifiableSet(index.keySet());
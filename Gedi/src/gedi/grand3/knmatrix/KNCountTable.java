@@ -0,0 +1,210 @@
+package gedi.grand3.knmatrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Primitive (k,n,condition)-&gt;count accumulator, i.e. the same information as in a {@link KNMatrix} without any boxing or tree lookups.
+ *
+ * The three indices are packed into a long key (condition in the highest bits, then n, then k, such that the natural order of keys
+ * is condition,n,k; see {@link #sortedKeys()}), and stored in open addressing hash tables (linear probing). The keys are distributed
+ * onto {@link #STRIPES} independent tables by their hash, i.e. when integrating the table of another thread, each stripe can be merged
+ * by a different thread without any locking.
+ *
+ * Not thread safe (use one table per thread, see {@link SubreadCounterKNMatrices#spawn(int)}).
+ *
+ * @author erhard
+ *
+ */
+public class KNCountTable {
+
+	public static final int MAX_KN = (1<<20)-1;
+	public static final int MAX_CONDITIONS = 1<<23;
+
+	private static final int STRIPE_BITS = 4;
+	public static final int STRIPES = 1<<STRIPE_BITS;
+
+	private static final long EMPTY = -1;
+	private static final int PARALLEL_MERGE = 1<<16;
+
+	private int numCond;
+	private long[][] keys = new long[STRIPES][];
+	private double[][] values = new double[STRIPES][];
+	private int[] size = new int[STRIPES];
+
+
+	public KNCountTable(int numCond) {
+		if (numCond>MAX_CONDITIONS) throw new IllegalArgumentException("Too many conditions: "+numCond);
+		this.numCond = numCond;
+		for (int s=0; s<STRIPES; s++) {
+			keys[s] = new long[16];
+			Arrays.fill(keys[s], EMPTY);
+			values[s] = new double[16];
+		}
+	}
+
+	public int getNumConditions() {
+		return numCond;
+	}
+
+	public static long key(int k, int n, int condition) {
+		return ((long)condition<<40) | ((long)n<<20) | k;
+	}
+
+	public static int k(long key) {
+		return (int) (key&MAX_KN);
+	}
+
+	public static int n(long key) {
+		return (int) ((key>>>20)&MAX_KN);
+	}
+
+	public static int condition(long key) {
+		return (int) (key>>>40);
+	}
+
+	private static int hash(long key) {
+		key ^= key>>>33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key>>>33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key>>>33;
+		return (int) key;
+	}
+
+	private static int stripe(int hash) {
+		return hash>>>(32-STRIPE_BITS);
+	}
+
+	public void add(int k, int n, int condition, double count) {
+		if (condition<0 || condition>=numCond) throw new ArrayIndexOutOfBoundsException(condition);
+		if (k<0 || n<0 || k>MAX_KN || n>MAX_KN) throw new IllegalArgumentException("k/n out of range: "+k+"/"+n);
+		if (count==0) return;
+		add(key(k,n,condition),count);
+	}
+
+	public void add(long key, double count) {
+		int h = hash(key);
+		add(stripe(h),h,key,count);
+	}
+
+	private void add(int s, int h, long key, double count) {
+		long[] ks = keys[s];
+		int mask = ks.length-1;
+		for (int i=h&mask; ; i=(i+1)&mask) {
+			if (ks[i]==key) {
+				values[s][i]+=count;
+				return;
+			}
+			if (ks[i]==EMPTY) {
+				ks[i] = key;
+				values[s][i] = count;
+				if (++size[s]*2>ks.length)
+					rehash(s);
+				return;
+			}
+		}
+	}
+
+	private void rehash(int s) {
+		long[] oks = keys[s];
+		double[] ovs = values[s];
+		long[] ks = new long[oks.length*2];
+		double[] vs = new double[ovs.length*2];
+		Arrays.fill(ks, EMPTY);
+		int mask = ks.length-1;
+		for (int j=0; j<oks.length; j++) {
+			if (oks[j]==EMPTY) continue;
+			int i = hash(oks[j])&mask;
+			while (ks[i]!=EMPTY)
+				i = (i+1)&mask;
+			ks[i] = oks[j];
+			vs[i] = ovs[j];
+		}
+		keys[s] = ks;
+		values[s] = vs;
+	}
+
+	public double get(int k, int n, int condition) {
+		return get(key(k,n,condition));
+	}
+
+	public double get(long key) {
+		int h = hash(key);
+		int s = stripe(h);
+		long[] ks = keys[s];
+		int mask = ks.length-1;
+		for (int i=h&mask; ks[i]!=EMPTY; i=(i+1)&mask)
+			if (ks[i]==key)
+				return values[s][i];
+		return 0;
+	}
+
+	public int size() {
+		int re = 0;
+		for (int s=0; s<STRIPES; s++)
+			re+=size[s];
+		return re;
+	}
+
+	/**
+	 * Adds all counts from other (which must not be used concurrently); for large tables, the stripes are merged in parallel.
+	 * @param other
+	 */
+	public void integrate(KNCountTable other) {
+		if (other.numCond!=numCond) throw new IllegalArgumentException("Incompatible number of conditions!");
+
+		if (other.size()<PARALLEL_MERGE) {
+			for (int s=0; s<STRIPES; s++)
+				integrate(other,s);
+			return;
+		}
+
+		ArrayList<RecursiveAction> tasks = new ArrayList<>(STRIPES);
+		for (int s=0; s<STRIPES; s++) {
+			int us = s;
+			tasks.add(new RecursiveAction() {
+				@Override
+				protected void compute() {
+					integrate(other, us);
+				}
+			});
+		}
+		ForkJoinTask.invokeAll(tasks);
+	}
+
+	private void integrate(KNCountTable other, int s) {
+		long[] oks = other.keys[s];
+		double[] ovs = other.values[s];
+		for (int i=0; i<oks.length; i++)
+			if (oks[i]!=EMPTY)
+				add(s,hash(oks[i]),oks[i],ovs[i]);
+	}
+
+	/**
+	 * All keys in ascending order, i.e. ordered by condition, then n, then k.
+	 * @return
+	 */
+	public long[] sortedKeys() {
+		long[] re = new long[size()];
+		int index = 0;
+		for (int s=0; s<STRIPES; s++)
+			for (long key : keys[s])
+				if (key!=EMPTY)
+					re[index++] = key;
+		Arrays.sort(re);
+		return re;
+	}
+
+	public KNMatrix toKNMatrix() {
+		KNMatrix re = new KNMatrix(numCond);
+		for (int s=0; s<STRIPES; s++)
+			for (int i=0; i<keys[s].length; i++)
+				if (keys[s][i]!=EMPTY)
+					re.get(k(keys[s][i]), n(keys[s][i])).add(condition(keys[s][i]), values[s][i]);
+		return re;
+	}
+
+}
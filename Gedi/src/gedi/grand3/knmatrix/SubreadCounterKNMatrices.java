@@ -33,13 +33,23 @@ public class SubreadCounterKNMatrices implements SubreadCounter<SubreadCounterKN
 				counter[c][s].integrate(other.counter[c][s]);
 	}
 	
+	/**
+	 * Creates a {@link KNMatrix} containing the counts for the given subread and label
+	 * @param subread
+	 * @param label
+	 * @return
+	 */
 	public KNMatrix getMatrix(int subread, int label) {
+		return counter[subread][label].toKNMatrix();
+	}
+	
+	public KNCountTable getTable(int subread, int label) {
 		return counter[subread][label];
 	}
 	
 	
 	// subread,label
-	private KNMatrix[][] counter;
+	private KNCountTable[][] counter;
 	private MetabolicLabelType[] labels;
 	private Predicate<CompatibilityCategory> categories; 
 	private int[] reindex;
@@ -48,10 +58,10 @@ public class SubreadCounterKNMatrices implements SubreadCounter<SubreadCounterKN
 	public SubreadCounterKNMatrices(Predicate<CompatibilityCategory> categories, int numCond, int[] reindex, int numSubreads, MetabolicLabelType[] labels) {
 		this.categories = categories;
 		this.labels = labels;
-		counter = new KNMatrix[numSubreads][this.labels.length];
+		counter = new KNCountTable[numSubreads][this.labels.length];
 		for (int i=0; i<numSubreads; i++)
 			for (int j=0; j<labels.length; j++)
-				counter[i][j] = new KNMatrix(numCond);
+				counter[i][j] = new KNCountTable(numCond);
 		this.reindex = reindex;
 	}
 
@@ -69,7 +79,7 @@ public class SubreadCounterKNMatrices implements SubreadCounter<SubreadCounterKN
 					if (k>n) 
 						throw new RuntimeException("Cannot be: "+buffer.getRead());
 					if (n>0) {
-						buffer.count(counter[s][l].get(k, n),reindex);
+						buffer.count(counter[s][l],k,n,reindex);
 						if (debug) {
 							System.out.println("Binom: "+labels[l]+" s="+s+" k="+k+" n="+n);
 						}
@@ -79,16 +89,37 @@ public class SubreadCounterKNMatrices implements SubreadCounter<SubreadCounterKN
 		}
 	}
 	
+	/**
+	 * Streams all counts to the binom table (ordered by condition, subread, label, n and k); only the (sorted) keys of each table are
+	 * held in memory additionally.
+	 * @param out
+	 * @param design
+	 * @throws IOException
+	 */
 	public void write(File out, ExperimentalDesign design) throws IOException {
+		long[][][] keys = new long[counter.length][labels.length][];
+		int[][] pos = new int[counter.length][labels.length];
+		for (int s=0; s<counter.length; s++)
+			for (int l=0; l<labels.length; l++) 
+				keys[s][l] = counter[s][l].sortedKeys();
+		
 		LineWriter wr = new LineOrientedFile(out.getPath()).write();
 		wr.writeLine("Condition\tSubread\tLabel\tk\tn\tCount");
 		for (int cond=0; cond<counter[0][0].getNumConditions(); cond++)
 			for (int s=0; s<counter.length; s++)
 				for (int l=0; l<labels.length; l++) {
-					String prefix = String.format("%s\t%d\t%s\t", 
-							design.getSampleNameForSampleIndex(cond),
-							s,labels[l]);
-					counter[s][l].write(prefix,cond,wr);
+					long[] k = keys[s][l];
+					String prefix = null;
+					for (; pos[s][l]<k.length && KNCountTable.condition(k[pos[s][l]])==cond; pos[s][l]++) {
+						double count = counter[s][l].get(k[pos[s][l]]);
+						if (count>0) {
+							if (prefix==null)
+								prefix = String.format("%s\t%d\t%s\t", 
+										design.getSampleNameForSampleIndex(cond),
+										s,labels[l]);
+							wr.writef("%s%d\t%d\t%.0f\n", prefix,KNCountTable.k(k[pos[s][l]]),KNCountTable.n(k[pos[s][l]]),count);
+						}
+					}
 				}
 		
 		wr.close();
@@ -10,6 +10,7 @@ import gedi.core.data.reads.ReadCountMode;
 import gedi.core.data.reads.SubreadsAlignedReadsData;
 import gedi.core.region.ImmutableReferenceGenomicRegion;
 import gedi.grand3.experiment.MetabolicLabel.MetabolicLabelType;
+import gedi.grand3.knmatrix.KNCountTable;
 import gedi.grand3.targets.CompatibilityCategory;
 import gedi.grand3.targets.Grand3ReadClassified;
 import gedi.util.ArrayUtils;
@@ -126,6 +127,27 @@ public class SubreadProcessorMismatchBuffer implements Grand3ReadClassified, Par
 	public double[] count(double[] re, int[] reindex) {
 		return read.getData().addCountsForDistinct(distinct, re, reindex, mode);
 	}
+	
+	/**
+	 * Adds the counts (for condition index i to condition reindex[i]) to the given table at k,n
+	 * @param re
+	 * @param k
+	 * @param n
+	 * @param reindex
+	 */
+	public void count(KNCountTable re, int k, int n, int[] reindex) {
+		SubreadsAlignedReadsData d = read.getData();
+		int mult = d.getMultiplicity(distinct);
+		float weight = d.getWeight(distinct);
+		if (d.hasNonzeroInformation()) {
+			int[] inds = d.getNonzeroCountIndicesForDistinct(distinct);
+			for (int i=0; i<inds.length; i++)
+				re.add(k,n,reindex[inds[i]],mode.computeCount(d.getNonzeroCountValueForDistinct(distinct, i),mult,weight));
+		}
+		else
+			for (int c=0; c<re.getNumConditions(); c++)
+				re.add(k,n,reindex[c],mode.computeCount(d.getCount(distinct, c),mult,weight));
+	}
 
 	@Override
 	public SubreadProcessorMismatchBuffer spawn(int index) {
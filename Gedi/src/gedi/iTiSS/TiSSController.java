@@ -47,6 +47,7 @@ public class TiSSController extends GediProgram {
         addInput(params.useUpAndDownstream);
         addInput(params.minReadNum);
         addInput(params.addSoftclips);
+        addInput(params.nthreads);
 
         addInput(params.prefix);
 
@@ -79,8 +80,9 @@ public class TiSSController extends GediProgram {
         boolean useUpAndDownstream = getParameter(17);
         int minReadNum = getParameter(18);
         boolean addSoftclip = getParameter(19);
+        int nthreads = getIntParameter(20);
 
-        String prefix = getParameter(20);
+        String prefix = getParameter(21);
 
         final boolean useMultiCourse = timecourses != null && !timecourses.isEmpty();
 
@@ -153,7 +155,7 @@ public class TiSSController extends GediProgram {
             }
         }
 
-        analyzer.startAnalyzing(dataWrapper, genomic);
+        analyzer.startAnalyzing(dataWrapper, genomic, nthreads);
 
         context.getLog().info("Analyzation modules finished");
         context.getLog().info("Writing final file(s)");
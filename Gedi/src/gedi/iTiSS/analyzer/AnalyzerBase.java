@@ -15,31 +15,47 @@ import gedi.util.r.RRunner;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public abstract class AnalyzerBase{
     protected List<ModuleBase> modules = new ArrayList<>();
 
     public final void startAnalyzing(DataWrapper dataWrapper, Genomic genomic) {
-        //TODO: Make nice
+        startAnalyzing(dataWrapper, genomic, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Runs all modules using at most nthreads threads (plus one thread prefetching data). Modules wait for their data within these
+     * threads if the memory budget of the {@link DataWrapper} is exhausted (see {@link ModuleScheduler}).
+     */
+    public final void startAnalyzing(DataWrapper dataWrapper, Genomic genomic, int nthreads) {
         Map<Integer, Set<ModuleBase>> pooledModules = modulePooling();
-        List<ModuleScheduler> schedulers = new ArrayList<>();
-        for (Integer key : pooledModules.keySet()) {
-            schedulers.add(new ModuleScheduler(pooledModules.get(key), genomic, dataWrapper));
-        }
-        System.err.println("Number of schedulers: " + schedulers.size());
-        List<Thread> threads = new ArrayList<>();
-        for (ModuleScheduler scheduler : schedulers) {
-            threads.add(new Thread(scheduler::run));
-        }
-        for(Thread thread : threads) {
-            thread.start();
-        }
-        for (Thread thread : threads) {
-            try {
-                thread.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, nthreads));
+        ExecutorService prefetcher = Executors.newSingleThreadExecutor();
+        try {
+            List<ModuleScheduler> schedulers = new ArrayList<>();
+            for (Integer key : pooledModules.keySet()) {
+                schedulers.add(new ModuleScheduler(pooledModules.get(key), genomic, dataWrapper, pool, prefetcher));
+            }
+            System.err.println("Number of schedulers: " + schedulers.size());
+            for (ModuleScheduler scheduler : schedulers) {
+                // the first failure stops all schedulers
+                scheduler.setOnFailure(e -> {
+                    for (ModuleScheduler other : schedulers) {
+                        other.cancel(e);
+                    }
+                });
+            }
+            for (ModuleScheduler scheduler : schedulers) {
+                scheduler.start();
+            }
+            for (ModuleScheduler scheduler : schedulers) {
+                scheduler.await();
             }
+        } finally {
+            pool.shutdownNow();
+            prefetcher.shutdownNow();
         }
     }
 
@@ -39,6 +39,19 @@ public class ModuleAccessionListManager {
         return next;
     }
 
+    /**
+     * The index {@link #accessNextFree(ModuleBase)} would return next, without accessing it (-1 if none)
+     */
+    public synchronized int peekNextFree(ModuleBase module) {
+        AccessionList list = moduleAccessList.get(module);
+        for (int i = 0; i < list.size(); i++) {
+            if (list.isNeeded(i) && !isUsed(module, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     public synchronized void finishAccess(ModuleBase module, int index) {
         moduleAccessList.get(module).stopAccess(index);
     }
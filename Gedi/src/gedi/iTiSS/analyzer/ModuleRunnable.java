@@ -13,6 +13,8 @@ public class ModuleRunnable extends NotifyOnFinishedRunnable {
     private int access;
     private DataWrapper dataWrapper;
     private int refLength;
+    private Runnable onDataAvailable;
+    private Throwable exception;
 
     public ModuleRunnable(ModuleBase module) {
         this.module = module;
@@ -25,22 +27,30 @@ public class ModuleRunnable extends NotifyOnFinishedRunnable {
         this.ref = ref;
     }
 
+    /**
+     * Called after the data has been obtained, before the module starts (e.g. to prefetch the next chromosome)
+     * @param onDataAvailable
+     */
+    public void setOnDataAvailable(Runnable onDataAvailable) {
+        this.onDataAvailable = onDataAvailable;
+    }
+
     @Override
     public void doRun() {
-//        System.err.println("[" + Thread.currentThread().getName() + "] " + module.getModuleName() + "-module starts searching for TiSS in: " + ref.toPlusMinusString());
-        NumericArray[] data;
-        do {
-            data = dataWrapper.startAccessingData2(module.getLane(), ref, refLength);
-            if (data == null) {
-                try {
-//                    System.err.println(Thread.currentThread().getName() + " is sleeping");
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+        try {
+            // blocks until the data fits into the memory budget
+            NumericArray[] data = dataWrapper.startAccessingData(module.getLane(), ref, refLength);
+            try {
+                if (onDataAvailable != null) {
+                    onDataAvailable.run();
                 }
+                module.findTiSS(data, ref);
+            } finally {
+                dataWrapper.finishAccessingData(module.getLane(), ref);
             }
-        } while (data == null);
-        module.findTiSS(data, ref);
+        } catch (Throwable e) {
+            exception = e;
+        }
     }
 
     public ModuleBase getModule() {
@@ -50,4 +60,15 @@ public class ModuleRunnable extends NotifyOnFinishedRunnable {
     public int getAccess() {
         return access;
     }
+
+    public ReferenceSequence getReference() {
+        return ref;
+    }
+
+    /**
+     * @return the exception thrown by the module (or while loading its data), or null
+     */
+    public Throwable getException() {
+        return exception;
+    }
 }
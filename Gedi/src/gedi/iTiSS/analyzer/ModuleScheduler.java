@@ -2,101 +2,187 @@ package gedi.iTiSS.analyzer;
 
 import gedi.core.genomic.Genomic;
 import gedi.core.reference.ReferenceSequence;
-import gedi.iTiSS.data.Data;
 import gedi.iTiSS.data.DataWrapper;
 import gedi.iTiSS.modules.ModuleBase;
 import gedi.iTiSS.utils.multithreading.RunnableFinishedListener;
-import gedi.util.datastructure.array.NumericArray;
 import gedi.util.functions.EI;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
 
+/**
+ * Runs the modules (of a single lane pool) on all chromosomes using a shared, bounded pool.
+ *
+ * Each module analyzes one chromosome at a time, and a chromosome is analyzed by one module at a time (modules may modify the data
+ * in place). Everything is triggered by events: When a module finishes a chromosome, it is immediately scheduled for its next one,
+ * and modules that were waiting for a chromosome in use are rescheduled. Data is loaded under the memory budget of the
+ * {@link DataWrapper}, and the next chromosome of a module is prefetched while the current one is analyzed.
+ *
+ * Note that a module waits for its data within its pool thread (in {@link DataWrapper#startAccessingData}), i.e. if the budget is
+ * exhausted, pool threads are blocked. This cannot deadlock: memory is only held by chromosomes that are accessed by running modules,
+ * that are loading, or that are not accessed anymore (and can be evicted by the waiting thread), and a chromosome is loaded anyway
+ * if nothing else is in memory.
+ *
+ * If a module fails, no further chromosomes are scheduled, {@link #await()} throws, and the failure listener is called (e.g. to
+ * cancel the schedulers of other lanes).
+ */
 public class ModuleScheduler implements RunnableFinishedListener {
-//    private Data moduleLanes;
-    private Map<ModuleBase, Data> moduleLanes;
     private ModuleAccessionListManager moduleAccessionListManager;
-    private Map<ModuleBase, ModuleRunnable> moduleRunnables;
+    private Set<ModuleBase> modules;
+    private Set<ModuleBase> waiting = new HashSet<>();
     private ReferenceSequence[] refs;
     private Genomic genomic;
     private DataWrapper dataWrapper;
+    private ExecutorService pool;
+    private ExecutorService prefetcher;
+    private int unfinished;
+    private Throwable exception;
+    private Consumer<Throwable> onFailure;
 
-    public ModuleScheduler(Set<ModuleBase> modules, Genomic genomic, DataWrapper dataWrapper) {
-//        System.err.println("ModuleScheduler created with " + modules.size() + " modules.");
+    public ModuleScheduler(Set<ModuleBase> modules, Genomic genomic, DataWrapper dataWrapper, ExecutorService pool, ExecutorService prefetcher) {
         this.dataWrapper = dataWrapper;
         this.genomic = genomic;
+        this.modules = modules;
+        this.pool = pool;
+        this.prefetcher = prefetcher;
         this.refs = EI.wrap(dataWrapper.getLoadedChromosomes()).toArray(new ReferenceSequence[0]);
-//        this.moduleLanes = EI.wrap(modules).next().getLane();
-        this.moduleLanes = EI.wrap(modules).toMap(new HashMap<ModuleBase, Data>(), m -> m, ModuleBase::getLane);
         this.moduleAccessionListManager = new ModuleAccessionListManager(modules, refs.length);
-        init(modules);
     }
 
-    private void init(Set<ModuleBase> modules) {
-        moduleRunnables = new HashMap<>();
+    /**
+     * Schedules the first chromosome of each module and returns immediately.
+     */
+    public synchronized void start() {
+        unfinished = modules.size();
+        if (exception != null) {
+            return;
+        }
         for (ModuleBase module : modules) {
-            ModuleRunnable moduleRunnable = new ModuleRunnable(module);
-            moduleRunnables.put(module, moduleRunnable);
-            moduleRunnable.addListener(this);
+            schedule(module);
         }
     }
 
-    public void run() {
-        for (ModuleBase module : moduleRunnables.keySet()) {
-            run(module);
-        }
-        while (!allModulesFinished()) {
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+    /**
+     * Blocks until all modules have finished all chromosomes.
+     */
+    public void await() {
+        synchronized (this) {
+            while (unfinished > 0 && exception == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException("Interrupted while waiting for modules!", e);
+                }
             }
         }
+        if (exception != null) {
+            throw new RuntimeException("Module failed!", exception);
+        }
     }
 
-    private boolean allModulesFinished() {
-        for (ModuleBase module : moduleRunnables.keySet()) {
-            if (!moduleAccessionListManager.allFinished(module)) {
-                return false;
-            }
+    /**
+     * Called (once, outside of the lock of this scheduler) with the first exception of a module.
+     * @param onFailure
+     */
+    public void setOnFailure(Consumer<Throwable> onFailure) {
+        this.onFailure = onFailure;
+    }
+
+    /**
+     * Stops scheduling chromosomes (running modules are not interrupted); {@link #await()} throws the given cause.
+     * @param cause
+     */
+    public synchronized void cancel(Throwable cause) {
+        if (exception == null) {
+            exception = cause;
+            notifyAll();
         }
-        return true;
     }
 
-    private void run(ModuleBase module) {
+    public void run() {
+        start();
+        await();
+    }
+
+    private int getLength(int access) {
+        return genomic.getLength(refs[access].toPlusMinusString());
+    }
+
+    private void schedule(ModuleBase module) {
         if (moduleAccessionListManager.allFinished(module)) {
             System.err.println(module.getModuleName() + " finished all its analysis.");
+            unfinished--;
+            notifyAll();
             return;
         }
         int nextAccess = moduleAccessionListManager.accessNextFree(module);
         if (nextAccess < 0) {
-            ModuleWaiting moduleWaiting = new ModuleWaiting(module, 1000);
-            moduleWaiting.addListener(this);
-            new Thread(moduleWaiting).start();
+            // all remaining chromosomes are in use by other modules
+            waiting.add(module);
             return;
         }
-        ModuleRunnable moduleRunnable = moduleRunnables.get(module);
-        moduleRunnable.init(dataWrapper, nextAccess, genomic.getLength(refs[nextAccess].toPlusMinusString()), refs[nextAccess]);
-        Thread thread = new Thread(moduleRunnable);
-        thread.start();
+        ModuleRunnable moduleRunnable = new ModuleRunnable(module);
+        moduleRunnable.init(dataWrapper, nextAccess, getLength(nextAccess), refs[nextAccess]);
+        moduleRunnable.setOnDataAvailable(() -> prefetchNext(module));
+        moduleRunnable.addListener(this);
+        pool.execute(moduleRunnable);
+    }
+
+    private void prefetchNext(ModuleBase module) {
+        int next = moduleAccessionListManager.peekNextFree(module);
+        if (next < 0) {
+            return;
+        }
+        prefetcher.execute(() -> {
+            try {
+                dataWrapper.prefetchData(module.getLane(), refs[next], getLength(next));
+            } catch (RuntimeException e) {
+                // will be reported when the chromosome is accessed
+                System.err.println("Prefetching " + refs[next].toPlusMinusString() + " failed: " + e.getMessage());
+            }
+        });
     }
 
     @Override
     public void notifyRunnableFinished(Runnable runnable) {
+        Throwable failure = finished(runnable);
+        if (failure != null && onFailure != null) {
+            // not synchronized, the listener may cancel other schedulers that fail at the same time
+            onFailure.accept(failure);
+        }
+    }
+
+    /**
+     * @return the exception of the runnable, if it is the first one of this scheduler
+     */
+    private synchronized Throwable finished(Runnable runnable) {
         if (runnable instanceof ModuleRunnable) {
             ModuleRunnable moduleRunnable = (ModuleRunnable) runnable;
-            System.err.println("[" + Thread.currentThread().getName() + "] " + moduleRunnable.getModule().getModuleName() + " finished for: " + refs[moduleRunnable.getAccess()].toPlusMinusString());
-            dataWrapper.finishAccessingData(moduleLanes.get(moduleRunnable.getModule()), refs[moduleRunnable.getAccess()]);
-            System.err.println("[" + Thread.currentThread().getName() + "] " + moduleRunnable.getModule().getModuleName() + " released data for: " + refs[moduleRunnable.getAccess()].toPlusMinusString());
             moduleAccessionListManager.finishAccess(moduleRunnable.getModule(), moduleRunnable.getAccess());
-            run(moduleRunnable.getModule());
-        } else if (runnable instanceof ModuleWaiting) {
-            ModuleWaiting moduleWaiting = (ModuleWaiting) runnable;
-            System.err.print("[" + Thread.currentThread().getName() + "] " + moduleWaiting.getModule().getModuleName() + ": Waiting thread finished waiting.\r");
-            ModuleBase module = moduleWaiting.getModule();
-            run(module);
-         } else {
+            if (moduleRunnable.getException() != null) {
+                boolean first = exception == null;
+                if (first) {
+                    exception = moduleRunnable.getException();
+                }
+                notifyAll();
+                return first ? exception : null;
+            }
+            System.err.println("[" + Thread.currentThread().getName() + "] " + moduleRunnable.getModule().getModuleName() + " finished for: " + moduleRunnable.getReference().toPlusMinusString());
+            if (exception != null) {
+                return null;
+            }
+            schedule(moduleRunnable.getModule());
+            // the chromosome is free for the other modules now
+            ArrayList<ModuleBase> wakeUp = new ArrayList<>(waiting);
+            waiting.clear();
+            for (ModuleBase module : wakeUp) {
+                schedule(module);
+            }
+            return null;
+        } else {
             System.err.println("We should never arrive here.");
             throw new IllegalStateException("Unsafe territory. Did you forget to implement a runnable-subclass catch?");
         }
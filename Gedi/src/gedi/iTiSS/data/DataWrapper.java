@@ -41,10 +41,16 @@ public class DataWrapper {
 
     private Map<Set<Integer>, Map<ReferenceSequence, MemoryReadCount>> memoryMap;
 
-    private List<MemoryReadCount> memoryReadCountAccessionOrder = new ArrayList<>();
-
     private long vmMemory = Runtime.getRuntime().maxMemory();
-    private long currentlyUsedVmMemory = GB;
+    private long memoryBudget = Math.max(vmMemory - GB, vmMemory / 2);
+    /**
+     * Bytes of all read counts in memory or currently loading
+     */
+    private long reservedMemory = 0;
+    /**
+     * Read counts in memory, least recently used first
+     */
+    private LinkedHashMap<MemoryReadCount, Boolean> resident = new LinkedHashMap<>(16, 0.75f, true);
 
     private Set<ReferenceSequence> loadedChromosomes;
 
@@ -61,6 +67,10 @@ public class DataWrapper {
     }
 
     public void initData(Genomic genomic, List<Data> lanes) {
+        initData(genomic.iterateReferenceSequences().list(), lanes);
+    }
+
+    public void initData(Collection<ReferenceSequence> references, List<Data> lanes) {
         memoryMap = new HashMap<>();
         Map<Set<Integer>, Integer> accessCounts = calculateAccessCounts(lanes);
         loadedChromosomes = new HashSet<>();
@@ -68,7 +78,7 @@ public class DataWrapper {
         for (Set<Integer> key : accessCounts.keySet()) {
             Map<ReferenceSequence, MemoryReadCount> refMemoryMap = new HashMap<>();
             boolean multi = hasMulti(lanes, key);
-            genomic.iterateReferenceSequences().forEachRemaining(r -> {
+            references.forEach(r -> {
                 if (testChr != null && !testChr.contains(r)) {
                     return;
                 }
@@ -102,111 +112,151 @@ public class DataWrapper {
         return accessCounts;
     }
 
-    private synchronized long getFreeMemoryIn() {
-        return (vmMemory-Runtime.getRuntime().totalMemory())+Runtime.getRuntime().freeMemory();
+    /**
+     * Read counts are loaded as long as they fit into this number of bytes; if not, read counts that are currently not accessed
+     * are evicted (least recently used first). If this is still not enough, loading is deferred until other accesses finished
+     * (a single chromosome that is bigger than the budget is loaded anyway if nothing else is in memory).
+     * @param memoryBudget
+     */
+    public synchronized void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        notifyAll();
     }
 
-    private boolean freeMemory(long neededMemory) {
-//        System.err.println("[" + Thread.currentThread().getName() + "] " + "Starting force-delete. list size: " + memoryReadCountAccessionOrder.size());
-        for (int i = memoryReadCountAccessionOrder.size()-1; i >= 0; i--) {
-            if (memoryReadCountAccessionOrder.get(i).getByteSize() > 0) {
-//                System.err.println("[" + Thread.currentThread().getName() + "] " + i + ": access: " + memoryReadCountAccessionOrder.get(i).currentAccessCount + ", size: " + (memoryReadCountAccessionOrder.get(i).getByteSize() / (double) GB) + ", memory: " + (memoryReadCountAccessionOrder.get(i).isInMemory() ? "Y" : "N"));
-            }
-            long byteSize = memoryReadCountAccessionOrder.get(i).getByteSize();
-            if (byteSize > 0 && memoryReadCountAccessionOrder.get(i).forceDelete()) {
-                currentlyUsedVmMemory -= byteSize;
-            }
-//            if (currentlyUsedVmMemory + neededMemory < vmMemory && getFreeMemoryIn() > 0) {
-            if (neededMemory < getFreeMemoryIn() && getFreeMemoryIn() > vmMemory/2) {
-                return true;
+    public synchronized long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Evicts unaccessed read counts (if evict) until neededMemory fits into the budget and reserves it.
+     */
+    private boolean reserveMemory(long neededMemory, boolean evict, boolean force) {
+        if (evict) {
+            Iterator<MemoryReadCount> it = resident.keySet().iterator();
+            while (reservedMemory + neededMemory > memoryBudget && it.hasNext()) {
+                MemoryReadCount m = it.next();
+                if (m.isEvictable()) {
+                    reservedMemory -= m.evict();
+                    it.remove();
+                }
             }
         }
+        if (reservedMemory + neededMemory <= memoryBudget || (force && reservedMemory == 0)) {
+            reservedMemory += neededMemory;
+            return true;
+        }
         return false;
     }
 
-    private void printMemoryUsage(long neededMemory) {
-        System.err.println(String.format("[" + Thread.currentThread().getName() + "] " + "**** c: %.2f Gb, m: %.2f Gb, n: %.2f Gb, f: %.2f Gb, t: %.2f Gb",
-                ((double)currentlyUsedVmMemory/(double)GB),
-                ((double)vmMemory/(double)GB),
-                ((double)neededMemory/(double)GB),
-                ((double)getFreeMemoryIn()/(double)GB),
-                ((double)Runtime.getRuntime().totalMemory()/(double)GB)));
+    private long estimateByteSize(MemoryReadCount memoryReadCount, Data data, int refLength) {
+        return MemoryReadCount.estimateByteSize(refLength, memoryReadCount.isMulti() ? data.getLane().length : 1);
     }
 
-    private synchronized boolean checkAndFreeMemory(long neededMemory) {
-        neededMemory *= 1.1;
-//        printMemoryUsage(neededMemory);
-        if ((double)neededMemory> vmMemory) {
-            throw new OutOfMemoryError("Your data is too big for your VMs memory capacity. Either run JavaVM with more memory or totalize your data before.");
-        }
-        if (currentlyUsedVmMemory+neededMemory > vmMemory) {
-//            System.err.println("[" + Thread.currentThread().getName() + "] " + "*** Freeing memory ***");
-        } else {
-            return true;
+    /**
+     * Blocks until the read counts of the given chromosome are in memory (loading them if necessary) and returns them. Each
+     * call must be followed by {@link #finishAccessingData(Data, ReferenceSequence)}.
+     * @param data
+     * @param ref
+     * @param refLength
+     * @return
+     */
+    public NumericArray[] startAccessingData(Data data, ReferenceSequence ref, int refLength) {
+        MemoryReadCount memoryReadCount = getMemoryReadCount(data, ref);
+        long neededMemory = estimateByteSize(memoryReadCount, data, refLength);
+        synchronized (this) {
+            for (;;) {
+                if (memoryReadCount.isInMemory()) {
+                    resident.get(memoryReadCount);
+                    return memoryReadCount.startAccess(data.isMulti());
+                }
+                if (!memoryReadCount.isLoading() && reserveMemory(neededMemory, true, true)) {
+                    memoryReadCount.setLoading(true);
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException("Interrupted while waiting for memory!", e);
+                }
+            }
         }
-        if (freeMemory(neededMemory)) {
-//            System.err.println("[" + Thread.currentThread().getName() + "] " + "Memory successfully freed.");
-            return true;
+        NumericArray[] readCounts = load(memoryReadCount, data, ref, refLength, neededMemory);
+        synchronized (this) {
+            loaded(memoryReadCount, readCounts, neededMemory);
+            return memoryReadCount.startAccess(data.isMulti());
         }
-        return false;
     }
 
-    private synchronized void addUsedMemory(long byteSizeNeeded) {
-        currentlyUsedVmMemory += byteSizeNeeded;
-    }
-
-    public synchronized NumericArray[] startAccessingData(Data data, ReferenceSequence ref, int refLength) {
-        Set<Integer> laneList = EI.wrap(data.getLane()).set();
-        MemoryReadCount memoryReadCount = memoryMap.get(laneList).get(ref);
-        if (!memoryReadCount.isInMemory()) {
-            long neededMemory = SINGLE_VALUE_BYTE_SIZE * refLength * data.getLane().length;
-//            System.err.println(Thread.currentThread().getName() + " askes for memory");
-            boolean freedSuccessfully = checkAndFreeMemory(neededMemory);
-            if (!freedSuccessfully) {
-                return null;
+    /**
+     * Loads the read counts of the given chromosome if they are not in memory and fit into the budget without evicting anything.
+     * @param data
+     * @param ref
+     * @param refLength
+     * @return whether the read counts are in memory now
+     */
+    public boolean prefetchData(Data data, ReferenceSequence ref, int refLength) {
+        MemoryReadCount memoryReadCount = getMemoryReadCount(data, ref);
+        long neededMemory = estimateByteSize(memoryReadCount, data, refLength);
+        synchronized (this) {
+            if (memoryReadCount.isInMemory()) {
+                return true;
             }
-            if (memoryReadCount.isMulti()) {
-                memoryReadCount.setReadCount(loadMultiReadCountToMemory(data.getLane(), ref, refLength));
-            } else {
-                memoryReadCount.setReadCount(new NumericArray[] {totalizeReadCounts(loadMultiReadCountToMemory(data.getLane(), ref, refLength))});
+            if (memoryReadCount.isLoading() || memoryReadCount.isFinished() || !reserveMemory(neededMemory, false, false)) {
+                return false;
             }
-            memoryReadCountAccessionOrder.add(memoryReadCount);
-            addUsedMemory(memoryReadCount.getByteSize());
+            memoryReadCount.setLoading(true);
+        }
+        NumericArray[] readCounts = load(memoryReadCount, data, ref, refLength, neededMemory);
+        synchronized (this) {
+            loaded(memoryReadCount, readCounts, neededMemory);
         }
-        return memoryReadCount.startAccess(data.isMulti());
+        return true;
     }
 
-    public synchronized NumericArray[] startAccessingData2(Data data, ReferenceSequence ref, int refLength) {
-        Set<Integer> laneList = EI.wrap(data.getLane()).set();
-        MemoryReadCount memoryReadCount = memoryMap.get(laneList).get(ref);
-        if (!memoryReadCount.isInMemory()) {
+    private NumericArray[] load(MemoryReadCount memoryReadCount, Data data, ReferenceSequence ref, int refLength, long reserved) {
+        try {
             if (readType == ReadType.DENSITY) {
                 if (memoryReadCount.isMulti()) {
                     throw new RuntimeException();
-                } else {
-                    memoryReadCount.setReadCount(new NumericArray[] {TiSSUtils.extractReadDensities(rawData, data.getLane(), ref, refLength, strandness)});
-                }
-            } else {
-                if (memoryReadCount.isMulti()) {
-                    memoryReadCount.setReadCount(loadMultiReadCountToMemory(data.getLane(), ref, refLength));
-                } else {
-                    memoryReadCount.setReadCount(new NumericArray[]{TiSSUtils.extractCounts(rawData, data.getLane(), ref, refLength, strandness, readType,addSoftclip)});
                 }
+                return new NumericArray[] {TiSSUtils.extractReadDensities(rawData, data.getLane(), ref, refLength, strandness)};
+            }
+            if (memoryReadCount.isMulti()) {
+                return loadMultiReadCountToMemory(data.getLane(), ref, refLength);
             }
-            memoryReadCountAccessionOrder.add(memoryReadCount);
-            addUsedMemory(memoryReadCount.getByteSize());
+            return new NumericArray[]{TiSSUtils.extractCounts(rawData, data.getLane(), ref, refLength, strandness, readType,addSoftclip)};
+        } catch (RuntimeException | Error e) {
+            synchronized (this) {
+                memoryReadCount.setLoading(false);
+                reservedMemory -= reserved;
+                notifyAll();
+            }
+            throw e;
         }
-        return memoryReadCount.startAccess(data.isMulti());
+    }
+
+    private void loaded(MemoryReadCount memoryReadCount, NumericArray[] readCounts, long reserved) {
+        memoryReadCount.setReadCount(readCounts);
+        reservedMemory += memoryReadCount.getByteSize() - reserved;
+        resident.put(memoryReadCount, true);
+        notifyAll();
     }
 
     public synchronized void finishAccessingData(Data lane, ReferenceSequence ref) {
-        MemoryReadCount memoryReadCount = memoryMap.get(EI.wrap(lane.getLane()).set()).get(ref);
-        long byteSize = memoryReadCount.getByteSize();
-        memoryReadCount.finishAccess();
-        if (memoryReadCount.getByteSize() == 0) {
-            printMemoryUsage(-byteSize);
-            currentlyUsedVmMemory -= byteSize;
+        MemoryReadCount memoryReadCount = getMemoryReadCount(lane, ref);
+        long released = memoryReadCount.finishAccess();
+        if (released > 0) {
+            reservedMemory -= released;
+            resident.remove(memoryReadCount);
         }
+        if (memoryReadCount.getCurrentAccessCount() == 0) {
+            // either released or evictable now, waiting accesses may proceed
+            notifyAll();
+        }
+    }
+
+    private MemoryReadCount getMemoryReadCount(Data data, ReferenceSequence ref) {
+        return memoryMap.get(EI.wrap(data.getLane()).set()).get(ref);
     }
 
     private NumericArray[] loadMultiReadCountToMemory(int[] lane, ReferenceSequence ref, int refLength) {
@@ -276,14 +326,6 @@ public class DataWrapper {
         return false;
     }
 
-    private NumericArray totalizeReadCounts(NumericArray[] readCounts) {
-        NumericArray totalizedReadCounts = readCounts[0].copy();
-        for (int i = 1; i < readCounts.length; i++) {
-            totalizedReadCounts.add(readCounts[i]);
-        }
-        return totalizedReadCounts;
-    }
-
     private CitAccessInfo getCitIndexAccessListNew(int[] lane) {
         CitAccessInfo citAccessInfo = new CitAccessInfo();
         for (int l : lane) {
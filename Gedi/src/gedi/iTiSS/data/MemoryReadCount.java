@@ -2,15 +2,19 @@ package gedi.iTiSS.data;
 
 import gedi.util.datastructure.array.NumericArray;
 
+/**
+ * The read counts of a single chromosome for a set of lanes.
+ *
+ * The counts are held in memory while any module accesses them and are removed as soon as all accesses are finished. In between,
+ * the {@link DataWrapper} may evict them (if it needs the memory) and load them again later.
+ * Not thread safe, all calls are synchronized by the {@link DataWrapper}.
+ */
 public class MemoryReadCount {
     private NumericArray[] readCounts;
     private int finishedAccesses;
     private int maxAccessCount;
-    private boolean safeToDelete;
-    private boolean forceDeleted;
-    public int currentAccessCount;
+    private int currentAccessCount;
     private boolean multi;
-    private boolean inMemory;
     private boolean loading;
     private long byteSize;
 
@@ -20,6 +24,10 @@ public class MemoryReadCount {
         finishedAccesses = 0;
     }
 
+    public static long estimateByteSize(int refLength, int numArrays) {
+        return DataWrapper.SINGLE_VALUE_BYTE_SIZE * refLength * numArrays + numArrays;
+    }
+
     public NumericArray[] startAccess(boolean multi) {
         if (!isInMemory()) {
             throw new IllegalArgumentException("Read counts not in memory. Wrongly accessed.");
@@ -35,40 +43,42 @@ public class MemoryReadCount {
         return readCounts;
     }
 
-    public void finishAccess() {
+    /**
+     * @return the number of bytes that were released (if this was the last access)
+     */
+    public long finishAccess() {
         finishedAccesses++;
         currentAccessCount--;
-        if (finishedAccesses >= maxAccessCount) {
-            safeToDelete = true;
-            removeFromMemory();
+        if (isFinished() && currentAccessCount == 0) {
+            return removeFromMemory();
         }
+        return 0;
     }
 
-    public boolean forceDelete() {
-        if (!isInMemory()) {
-            return false;
-        }
-        if (currentAccessCount == 0) {
-            removeFromMemory();
-            forceDeleted = true;
-            return true;
-        }
-        return false;
+    public boolean isEvictable() {
+        return isInMemory() && currentAccessCount == 0;
     }
 
-    private void removeFromMemory() {
-        inMemory = false;
-        for (int i = 0; i < readCounts.length; i++) {
-            readCounts[i] = null;
+    /**
+     * @return the number of bytes that were released
+     */
+    public long evict() {
+        if (!isEvictable()) {
+            return 0;
         }
+        return removeFromMemory();
+    }
+
+    private long removeFromMemory() {
+        long re = byteSize;
         readCounts = null;
         byteSize = 0;
+        return re;
     }
 
     public void setReadCount(NumericArray[] readCounts) {
         this.readCounts = readCounts;
-        this.byteSize = DataWrapper.SINGLE_VALUE_BYTE_SIZE * readCounts[0].length() * readCounts.length + readCounts.length;
-        inMemory = true;
+        this.byteSize = estimateByteSize(readCounts[0].length(), readCounts.length);
         loading = false;
     }
 
@@ -76,24 +86,12 @@ public class MemoryReadCount {
         this.loading = loading;
     }
 
-//    public boolean isInMemory() {
-//        if (readCounts == null) {
-//            return false;
-//        }
-//        for (NumericArray ary : readCounts) {
-//            if (ary == null) {
-//                return false;
-//            }
-//        }
-//        return true;
-//    }
-
     public boolean isInMemory() {
-        return inMemory;
+        return readCounts != null;
     }
 
-    public boolean isSafeToDelete() {
-        return safeToDelete;
+    public boolean isFinished() {
+        return finishedAccesses >= maxAccessCount;
     }
 
     public boolean isMulti() {
@@ -104,6 +102,10 @@ public class MemoryReadCount {
         return loading;
     }
 
+    public int getCurrentAccessCount() {
+        return currentAccessCount;
+    }
+
     public long getByteSize() {
         return byteSize;
     }
@@ -0,0 +1,82 @@
+package gedi.iTiSS.test;
+
+import gedi.core.reference.Chromosome;
+import gedi.core.reference.ReferenceSequence;
+import gedi.core.reference.Strandness;
+import gedi.iTiSS.data.Data;
+import gedi.iTiSS.data.DataWrapper;
+import gedi.iTiSS.data.MemoryReadCount;
+import gedi.util.datastructure.array.NumericArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that accesses waiting for memory proceed as soon as the read counts in memory become evictable, using a memory budget
+ * that only fits a single chromosome. Two modules (i.e. two accesses of the same lanes) are simulated, such that the read counts are
+ * not released after the first module is finished with them.
+ */
+public class DataWrapperMemoryBudgetTest {
+
+    private static final int LENGTH = 1000;
+    private static final long TIMEOUT = 10000;
+
+    public static void main(String[] args) throws InterruptedException {
+        ReferenceSequence a = Chromosome.obtain("A", true);
+        ReferenceSequence b = Chromosome.obtain("B", true);
+        Data first = new Data(new int[0], false);
+        Data second = new Data(new int[0], false);
+
+        DataWrapper dataWrapper = new DataWrapper(new ArrayList<>(), Strandness.Sense, false);
+        dataWrapper.initData(Arrays.asList(a, b), Arrays.asList(first, second));
+        dataWrapper.setMemoryBudget(MemoryReadCount.estimateByteSize(LENGTH, 1));
+
+        check(dataWrapper.startAccessingData(first, a, LENGTH));
+
+        List<Throwable> failed = new ArrayList<>();
+        Thread waiting = new Thread(() -> {
+            try {
+                // does not fit until a is evictable
+                check(dataWrapper.startAccessingData(first, b, LENGTH));
+                dataWrapper.finishAccessingData(first, b);
+            } catch (Throwable e) {
+                failed.add(e);
+            }
+        });
+        waiting.setDaemon(true);
+        waiting.start();
+
+        long start = System.currentTimeMillis();
+        while (waiting.getState() != Thread.State.WAITING && waiting.isAlive()) {
+            if (System.currentTimeMillis() - start > TIMEOUT) {
+                throw new RuntimeException("Second access does not wait for memory!");
+            }
+            Thread.sleep(10);
+        }
+
+        // a is not released (the second module still needs it), but evictable
+        dataWrapper.finishAccessingData(first, a);
+        waiting.join(TIMEOUT);
+        if (waiting.isAlive()) {
+            throw new RuntimeException("Deadlock: waiting access is not notified when the read counts become evictable!");
+        }
+        if (!failed.isEmpty()) {
+            throw new RuntimeException("Second access failed!", failed.get(0));
+        }
+
+        // both chromosomes have to be loaded again for the second module
+        check(dataWrapper.startAccessingData(second, a, LENGTH));
+        dataWrapper.finishAccessingData(second, a);
+        check(dataWrapper.startAccessingData(second, b, LENGTH));
+        dataWrapper.finishAccessingData(second, b);
+
+        System.out.println("OK");
+    }
+
+    private static void check(NumericArray[] data) {
+        if (data.length != 1 || data[0].length() != LENGTH) {
+            throw new RuntimeException("Unexpected read counts!");
+        }
+    }
+}
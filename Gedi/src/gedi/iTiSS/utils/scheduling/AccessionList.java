@@ -58,6 +58,14 @@ public class AccessionList {
         accession[index] = AccessionStatus.CURRENTLY_ACCESSED;
     }
 
+    public boolean isNeeded(int index) {
+        return accession[index] == AccessionStatus.NOT_ACCESSED;
+    }
+
+    public int size() {
+        return accession.length;
+    }
+
     public boolean isFree(int index) {
         return accession[index] != AccessionStatus.CURRENTLY_ACCESSED;
     }
@@ -4,7 +4,6 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.function.Function;
 
 import gedi.core.data.annotation.NameProvider;
 import gedi.core.data.annotation.Transcript;
@@ -15,6 +14,7 @@ import gedi.core.reference.Strandness;
 import gedi.core.region.GenomicRegion;
 import gedi.core.region.GenomicRegionStorage;
 import gedi.core.region.ImmutableReferenceGenomicRegion;
+import gedi.core.region.utils.GenomicRegionOverlapJoin;
 import gedi.core.region.feature.special.Downsampling;
 import gedi.core.region.intervalTree.MemoryIntervalTreeStorage;
 import gedi.util.datastructure.array.NumericArray;
@@ -22,11 +22,11 @@ import gedi.util.datastructure.array.NumericArray.NumericArrayType;
 import gedi.util.datastructure.collections.doublecollections.DoubleArrayList;
 import gedi.util.datastructure.collections.intcollections.IntArrayList;
 import gedi.util.functions.EI;
-import gedi.util.functions.ExtendedIterator;
 import gedi.util.functions.ParallelizedIterator;
 import gedi.util.io.text.LineOrientedFile;
 import gedi.util.io.text.LineWriter;
 import gedi.util.math.stat.RandomNumbers;
+import gedi.util.mutable.MutablePair;
 import gedi.util.mutable.MutableTriple;
 import gedi.util.program.GediProgram;
 import gedi.util.program.GediProgramContext;
@@ -76,31 +76,19 @@ public class CountEquivalenceClasses extends GediProgram {
 		for (String s : map.keySet())
 			rmap[map.get(s)] = s;
 		
-		Function<ImmutableReferenceGenomicRegion<AlignedReadsData>,ExtendedIterator<ImmutableReferenceGenomicRegion<Transcript>>> transSupp;
-		
-		switch (strand) {
-		case Unspecific:
-			transSupp= read->trans.ei(read).chain(trans.ei(read.toMutable().toOppositeStrand()));
-			break;
-		case Sense:
-			transSupp= read->trans.ei(read);
-			break;
-		case Antisense:
-			transSupp= read->trans.ei(read.toMutable().toOppositeStrand());
-			break;
-		default:
-			throw new RuntimeException("Illegal Strandness!");
-		}
+		// sweep over reads and transcripts instead of querying the transcripts of each read
+		GenomicRegionOverlapJoin<AlignedReadsData, Transcript> join = reads.join(trans).setStrandness(strand);
 		
 		context.getLog().info("Counting reads for equivalence classes (first pass)...");
 		
 		// first pass: count potentially wrong ecs (internal exon not sequenced in between read pair)
-		ParallelizedIterator<ImmutableReferenceGenomicRegion<AlignedReadsData>, Integer, EquivalenceClassCounter> para = reads.ei()
-					.progress(context.getProgress(), (int)reads.size(), r->r.toLocationString())
+		ParallelizedIterator<MutablePair<ImmutableReferenceGenomicRegion<AlignedReadsData>, ArrayList<ImmutableReferenceGenomicRegion<Transcript>>>, Integer, EquivalenceClassCounter> para = join.ei()
+					.progress(context.getProgress(), (int)reads.size(), r->r.Item1.toLocationString())
 					.parallelized(nthreads, 1024, 
-							()->new EquivalenceClassCounter(map),(ei,count)->ei.map(read->{
+							()->new EquivalenceClassCounter(map),(ei,count)->ei.map(pair->{
+			ImmutableReferenceGenomicRegion<AlignedReadsData> read = pair.Item1;
 			for (int d=0; d<read.getData().getDistinctSequences(); d++) {
-				for (ImmutableReferenceGenomicRegion<Transcript> tr : transSupp.apply(read).loop()) {
+				for (ImmutableReferenceGenomicRegion<Transcript> tr : pair.Item2) {
 			
 					if (read.getData().isConsistentlyContained(read, tr, d)) {
 						count.found(tr);
@@ -121,15 +109,16 @@ public class CountEquivalenceClasses extends GediProgram {
 		context.getLog().info("Counting reads for equivalence classes (second pass)...");
 		
 		// second pass: assign each read to a random transcript (according to implied length and expression value)
-		ParallelizedIterator<ImmutableReferenceGenomicRegion<AlignedReadsData>, Integer, MutableTriple<EquivalenceClassCounter, RandomNumbers, DoubleArrayList>> para2 = reads.ei()
-				.progress(context.getProgress(), (int)reads.size(), r->r.toLocationString())
+		ParallelizedIterator<MutablePair<ImmutableReferenceGenomicRegion<AlignedReadsData>, ArrayList<ImmutableReferenceGenomicRegion<Transcript>>>, Integer, MutableTriple<EquivalenceClassCounter, RandomNumbers, DoubleArrayList>> para2 = join.ei()
+				.progress(context.getProgress(), (int)reads.size(), r->r.Item1.toLocationString())
 				.parallelized(nthreads, 1024, 
 						(index)->new MutableTriple<>(
 								new EquivalenceClassCounter(map),
 								null,
 								new DoubleArrayList(1000)),
 						(b,triple)->{triple.Item2=new RandomNumbers(b*13+seed);},
-						(ei,triple)->ei.map(read->{
+						(ei,triple)->ei.map(pair->{
+			ImmutableReferenceGenomicRegion<AlignedReadsData> read = pair.Item1;
 			EquivalenceClassCounter count = triple.Item1;
 			RandomNumbers rnd = triple.Item2;
 			DoubleArrayList buffer = triple.Item3;
@@ -140,7 +129,7 @@ public class CountEquivalenceClasses extends GediProgram {
 					na = down.downsample(na);
 					
 					// probabilistically select transcript
-					for (ImmutableReferenceGenomicRegion<Transcript> tr : transSupp.apply(read).loop()) {
+					for (ImmutableReferenceGenomicRegion<Transcript> tr : pair.Item2) {
 						if (read.getData().isConsistentlyContained(read, tr, 0)) {
 							double lp = firstpass.getLengthFreq(Math.abs(tr.induce(read.getRegion().getStart())-tr.induce(read.getRegion().getStop()))+1,c);
 							double ep = firstpass.getExpression(tr,c);
@@ -151,14 +140,14 @@ public class CountEquivalenceClasses extends GediProgram {
 						buffer.cumSum(1);
 						int selected = rnd.getCategorial(buffer);
 						GenomicRegion selReg = null;
-						for (ImmutableReferenceGenomicRegion<Transcript> tr : transSupp.apply(read).loop()) {
+						for (ImmutableReferenceGenomicRegion<Transcript> tr : pair.Item2) {
 							if (read.getData().isConsistentlyContained(read, tr, 0) && selected--==0) {
 								selReg = tr.getRegion().intersect(read.getRegion().removeIntrons());
 								break;							
 							}
 						}
 						count.length(selReg.getTotalLength(),na);							
-						for (ImmutableReferenceGenomicRegion<Transcript> tr : transSupp.apply(read).loop()) {
+						for (ImmutableReferenceGenomicRegion<Transcript> tr : pair.Item2) {
 							if (tr.getRegion().containsUnspliced(selReg)) {
 								count.found(tr);
 							}
@@ -7,11 +7,14 @@ import gedi.core.data.annotation.Transcript;
 import gedi.core.genomic.Genomic;
 import gedi.core.reference.Strandness;
 import gedi.core.region.intervalTree.MemoryIntervalTreeStorage;
-import gedi.util.math.stat.inference.isoforms.EquivalenceClassCountEM;
+import gedi.util.math.stat.inference.isoforms.CompiledEquivalenceClassCountEM;
 import gedi.util.program.GediProgramContext;
 
 public class EquivalenceClassesMaximumLikelihood extends EstimateTpm {
 
+	// the classes are the same for all conditions, only counts and effective lengths differ
+	private String[][] compiledE;
+	private CompiledEquivalenceClassCountEM<String> algo;
 
 
 	public EquivalenceClassesMaximumLikelihood(MacocoParameterSet params) {
@@ -26,10 +29,17 @@ public class EquivalenceClassesMaximumLikelihood extends EstimateTpm {
 		
 		HashMap<String, Double> traToEffl = trans.ei().index(r->r.getData().getTranscriptId(), r->eff[r.getRegion().getTotalLength()]);
 
-		EquivalenceClassCountEM<String> algo = new EquivalenceClassCountEM<String>(E, counts, traToEffl::get);
-		algo.compute(2000, 10000, (t,a)->{
+		if (compiledE!=E) {
+			algo = new CompiledEquivalenceClassCountEM<String>(E, traToEffl::get);
+			compiledE = E;
+		}
+		double[] l = new double[algo.getNumObjects()];
+		for (int i=0; i<l.length; i++)
+			l[i] = traToEffl.get(algo.getObject(i));
+		
+		algo.compute(10000, counts, l, (t,a)->{
 			transUnnorm.accept(t, a/traToEffl.get(t));
-		});
+		}, null);
 		
 	}
 }
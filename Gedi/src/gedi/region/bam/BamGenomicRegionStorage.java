@@ -1,5 +1,6 @@
 package gedi.region.bam;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -13,9 +14,11 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.Spliterator;
 import java.util.Spliterators;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
@@ -47,6 +50,7 @@ import gedi.util.FunctorUtils.PeekIterator;
 import gedi.util.StringUtils;
 import gedi.util.dynamic.DynamicObject;
 import gedi.util.functions.EI;
+import gedi.util.functions.ExtendedIterator;
 import gedi.util.functions.FilteredSpliterator;
 import gedi.util.functions.MappedSpliterator;
 import gedi.util.io.text.LineWriter;
@@ -121,6 +125,11 @@ public class BamGenomicRegionStorage implements GenomicRegionStorage<AlignedRead
 	private BamChecker bamChecker = null;
 	private Predicate<SAMRecord> cbFilter;
 	
+	private int shardSize = DEFAULT_SHARD_SIZE;
+	public static final int DEFAULT_SHARD_SIZE = 1<<22;
+	private static final int BAI_WINDOW = 1<<14;
+	private static final int SHARD_HALO = 1<<16;
+	
 	public BamGenomicRegionStorage(boolean strandspecific, BamMerge merge) {
 		this(merge);
 		setStrandness(strandspecific?Strandness.Sense:Strandness.Unspecific);
@@ -476,6 +485,20 @@ public class BamGenomicRegionStorage implements GenomicRegionStorage<AlignedRead
 		return this;
 	}
 	
+	/**
+	 * Size of the shards for {@link #eiParallel(int, ReferenceSequence...)}; rounded up to the size of the linear BAI windows (16kb).
+	 * @param shardSize
+	 * @return
+	 */
+	public BamGenomicRegionStorage setShardSize(int shardSize) {
+		this.shardSize = (int) Math.min(Integer.MAX_VALUE-BAI_WINDOW+1, ((long)Math.max(1, shardSize)+BAI_WINDOW-1)/BAI_WINDOW*BAI_WINDOW);
+		return this;
+	}
+	
+	public int getShardSize() {
+		return shardSize;
+	}
+	
 	
 	public BamGenomicRegionStorage setJoinMates(boolean join) {
 //		this.joinMates = join;
@@ -596,6 +619,186 @@ public class BamGenomicRegionStorage implements GenomicRegionStorage<AlignedRead
 //		return convert?new ConvertedGenomicRegionSpliterator(ref, start, end):new GenomicRegionSpliterator(ref, start, end);
 	}
 
+	/**
+	 * Same regions in the same order as {@link #ei(ReferenceSequence...)} (or {@link #ei()}, if no reference is given), but the references are 
+	 * split into shards (see {@link #setShardSize(int)}) that are read from the bam files and converted into {@link AlignedReadsData} in nthreads worker threads. 
+	 * 
+	 * Shards are streamed, i.e. each worker only buffers a few chunks of regions (see {@link #SHARD_CHUNK} and {@link #SHARD_QUEUE}) until they are taken, and 
+	 * each worker keeps its readers of the bam files for all its shards. If it is not consumed completely, the returned iterator must be closed 
+	 * (it is {@link Closeable} in this case) to stop the workers.
+	 * 
+	 * Mates from a preceding shard are recovered by reading a halo before each shard (and mates starting before the halo are queried directly). 
+	 * If mates without partner are not dropped (see {@link #setPairedEndNoMateInRegionHandling(PairedEndNoMateInRegionHandling)}), 
+	 * whole references are processed in parallel, and if {@link #check(Genomic, LineWriter)} is used, nothing is done in parallel.
+	 * @param nthreads
+	 * @param references
+	 * @return
+	 */
+	public ExtendedIterator<ImmutableReferenceGenomicRegion<AlignedReadsData>> eiParallel(int nthreads, ReferenceSequence... references) {
+		if (references.length==0) {
+			references = getReferenceSequences().toArray(new ReferenceSequence[0]);
+			Arrays.sort(references);
+		}
+		if (nthreads<=1 || bamChecker!=null)
+			return ei(references);
+		
+		boolean split = pairedEndNoMateInRegionHandling==PairedEndNoMateInRegionHandling.Drop;
+		ArrayList<Shard> shards = new ArrayList<Shard>();
+		for (ReferenceSequence ref : references) {
+			int len = getSequenceLength(ref);
+			if (!split || len<=shardSize)
+				shards.add(new Shard(ref, -1, len));
+			else
+				for (int start=0; start<len; start+=Math.min(shardSize, len-start))
+					shards.add(new Shard(ref, start, (int) Math.min(len, (long)start+shardSize)));
+		}
+		return new ShardIterator(shards, nthreads);
+	}
+	
+	public static final int SHARD_CHUNK = 1024;
+	public static final int SHARD_QUEUE = 16;
+	
+	private static class Shard {
+		ReferenceSequence ref;
+		int start; // -1 for the whole reference
+		int end;
+		public Shard(ReferenceSequence ref, int start, int end) {
+			this.ref = ref;
+			this.start = start;
+			this.end = end;
+		}
+	}
+	
+	/**
+	 * Worker i processes the shards i, i+nthreads, ... in order and puts chunks of their regions into its bounded queue, followed by a marker for
+	 * the end of the shard. Shards are taken from the queues of the workers in turn, such that the order of the shards is kept.
+	 * 
+	 * If the iterator is not consumed completely, it must be closed to stop the workers and close their readers.
+	 * 
+	 * @author erhard
+	 *
+	 */
+	private class ShardIterator implements ExtendedIterator<ImmutableReferenceGenomicRegion<AlignedReadsData>>, Closeable {
+		private final Object endOfShard = new Object();
+		private ArrayList<Shard> shards;
+		private LinkedBlockingQueue<Object>[] queues;
+		private Thread[] workers;
+		private volatile boolean closed = false;
+		
+		private int current = 0;
+		private Object[] chunk = new Object[0];
+		private int index = 0;
+		
+		@SuppressWarnings("unchecked")
+		public ShardIterator(ArrayList<Shard> shards, int nthreads) {
+			this.shards = shards;
+			queues = new LinkedBlockingQueue[Math.min(nthreads, shards.size())];
+			workers = new Thread[queues.length];
+			for (int w=0; w<queues.length; w++) 
+				queues[w] = new LinkedBlockingQueue<Object>(SHARD_QUEUE);
+			for (int w=0; w<queues.length; w++) {
+				int worker = w;
+				workers[w] = new Thread(()->work(worker));
+				workers[w].setDaemon(true);
+				workers[w].setName("BamShard-"+w);
+				workers[w].start();
+			}
+		}
+		
+		private void work(int worker) {
+			LinkedBlockingQueue<Object> queue = queues[worker];
+			SamReader[] readers = new SamReader[files.length];
+			SamReader[] mateReaders = new SamReader[files.length];
+			try {
+				for (int i=worker; i<shards.size() && !closed; i+=queues.length) {
+					Shard shard = shards.get(i);
+					BufferingGenomicRegionSpliterator spl = shard.start<0?
+							new BufferingGenomicRegionSpliterator(shard.ref, readers):
+							new BufferingGenomicRegionSpliterator(shard.ref, shard.start, shard.end, Math.max(0, shard.start-SHARD_HALO), readers, mateReaders);
+					
+					ArrayList<Object> buffer = new ArrayList<Object>(SHARD_CHUNK);
+					spl.forEachRemaining(r->{
+						buffer.add(new ImmutableReferenceGenomicRegion<AlignedReadsData>(shard.ref, r, getAlignedReadsData(shard.ref, r)));
+						if (buffer.size()==SHARD_CHUNK) {
+							put(queue, buffer.toArray());
+							buffer.clear();
+						}
+					});
+					if (!buffer.isEmpty())
+						put(queue, buffer.toArray());
+					put(queue, endOfShard);
+				}
+			} catch (Throwable e) {
+				try {
+					if (!closed)
+						queue.put(e);
+				} catch (InterruptedException ie) {
+				}
+			} finally {
+				for (int i=0; i<files.length; i++) {
+					if (readers[i]!=null) returnReader(i, readers[i]);
+					if (mateReaders[i]!=null) returnReader(i, mateReaders[i]);
+				}
+			}
+		}
+		
+		private void put(LinkedBlockingQueue<Object> queue, Object o) {
+			if (closed) throw new RuntimeException("Iterator has been closed!");
+			try {
+				queue.put(o);
+			} catch (InterruptedException e) {
+				throw new RuntimeException("Interrupted while reading bam files!",e);
+			}
+		}
+		
+		@Override
+		public boolean hasNext() {
+			while (index==chunk.length) {
+				if (current==shards.size()) return false;
+				Object o;
+				try {
+					o = queues[current%queues.length].take();
+				} catch (InterruptedException e) {
+					throw new RuntimeException("Interrupted while reading bam files!",e);
+				}
+				if (o instanceof Throwable) {
+					close();
+					throw new RuntimeException("Could not read "+shards.get(current).ref+"!",(Throwable)o);
+				}
+				if (o==endOfShard) 
+					current++;
+				else {
+					chunk = (Object[]) o;
+					index = 0;
+				}
+			}
+			return true;
+		}
+		
+		@SuppressWarnings("unchecked")
+		@Override
+		public ImmutableReferenceGenomicRegion<AlignedReadsData> next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			return (ImmutableReferenceGenomicRegion<AlignedReadsData>) chunk[index++];
+		}
+		
+		/**
+		 * Stops all workers (their readers are closed when they terminate) and discards the buffered regions.
+		 */
+		@Override
+		public void close() {
+			if (closed) return;
+			closed = true;
+			for (Thread t : workers)
+				t.interrupt();
+			for (LinkedBlockingQueue<Object> q : queues)
+				q.clear();
+			current = shards.size();
+			chunk = new Object[0];
+			index = 0;
+		}
+	}
+	
 	public AlignedReadsData getAlignedReadsData(ReferenceSequence ref, GenomicRegion region) {
 		return getAlignedReadsData(ref, region, null);
 	}
@@ -1114,6 +1317,14 @@ public class BamGenomicRegionStorage implements GenomicRegionStorage<AlignedRead
 		
 		private LinkedList<FactoryGenomicRegion> queue = new LinkedList<FactoryGenomicRegion>();
 
+		// shards (see eiParallel): records starting before haloStart are skipped, records starting before shardStart only fill the mate buffer, 
+		// mates starting before haloStart are queried using the mate readers
+		private boolean shard = false;
+		private int shardStart;
+		private int haloStart;
+		private boolean externalReaders = false;
+		private SamReader[] mateReaders;
+		private String[] names;
 
 		public BufferingGenomicRegionSpliterator(ReferenceSequence ref) {
 			this(ref,0,getSequenceLength(ref));
@@ -1125,6 +1336,29 @@ public class BamGenomicRegionStorage implements GenomicRegionStorage<AlignedRead
 			this.end = end;
 			files = new SamReader[BamGenomicRegionStorage.this.files.length];
 			raw = new SAMRecordIterator[BamGenomicRegionStorage.this.files.length];
+			names = new String[BamGenomicRegionStorage.this.files.length];
+		}
+		
+		/**
+		 * Uses the given readers (opened if null) and does not close them
+		 */
+		public BufferingGenomicRegionSpliterator(ReferenceSequence ref, SamReader[] readers) {
+			this(ref);
+			this.files = readers;
+			this.externalReaders = true;
+		}
+		
+		/**
+		 * A shard; uses the given readers (opened if null) and does not close them
+		 */
+		public BufferingGenomicRegionSpliterator(ReferenceSequence ref, int start, int end, int haloStart, SamReader[] readers, SamReader[] mateReaders) {
+			this(ref,start,end);
+			this.shard = true;
+			this.shardStart = start;
+			this.haloStart = haloStart;
+			this.files = readers;
+			this.mateReaders = mateReaders;
+			this.externalReaders = true;
 		}
 
 
@@ -1133,7 +1367,8 @@ public class BamGenomicRegionStorage implements GenomicRegionStorage<AlignedRead
 			if (defIterator==null) {
 				Iterator<SAMRecord>[] its = new Iterator[files.length];
 				for (int i=0; i<its.length; i++) {
-					files[i] = obtainReader(i);
+					if (!externalReaders || files[i]==null)
+						files[i] = obtainReader(i);
 					
 					//				files[i]= BamGenomicRegionStorage.this.files[i];
 					String name = ref.getName();
@@ -1152,32 +1387,9 @@ public class BamGenomicRegionStorage implements GenomicRegionStorage<AlignedRead
 						its[i] = EI.empty();
 					}
 					else {
+						names[i] = name;
 						raw[i] = files[i].query(name, start, end, false);
-					
-					
-						Iterator<SAMRecord> filtered = raw[i];
-	//							strandSpecific?FunctorUtils.filteredIterator(raw[i],
-	//							a -> BamUtils.isValidStrand(ref.getStrand(),a)):raw[i];
-						// for pairedEnd: handle that differently!
-						
-						if (barcodeChecker!=null)
-							filtered = FunctorUtils.filteredIterator(filtered, barcodeChecker);
-						
-						if (minaqual>0)
-							filtered = FunctorUtils.filteredIterator(filtered,
-								a -> a.getMappingQuality()>=minaqual);
-						if (removeMultiMapping)
-							filtered = FunctorUtils.filteredIterator(filtered,
-									a -> a.getIntegerAttribute("NH")==null || a.getIntegerAttribute("NH")==1);
-						
-						if (cbFilter!=null)
-							filtered = FunctorUtils.filteredIterator(filtered, cbFilter);
-	
-						filtered = FunctorUtils.filteredIterator(filtered,
-								a -> !a.getReadUnmappedFlag());
-	
-					
-						its[i] = filtered;
+						its[i] = filter(raw[i]);
 					}
 				}
 				defIterator = FunctorUtils.peekIterator( 
@@ -1189,6 +1401,29 @@ public class BamGenomicRegionStorage implements GenomicRegionStorage<AlignedRead
 			return defIterator;
 		}
 
+		private Iterator<SAMRecord> filter(Iterator<SAMRecord> filtered) {
+//					strandSpecific?FunctorUtils.filteredIterator(raw[i],
+//					a -> BamUtils.isValidStrand(ref.getStrand(),a)):raw[i];
+			// for pairedEnd: handle that differently!
+			
+			if (barcodeChecker!=null)
+				filtered = FunctorUtils.filteredIterator(filtered, barcodeChecker);
+			
+			if (minaqual>0)
+				filtered = FunctorUtils.filteredIterator(filtered,
+					a -> a.getMappingQuality()>=minaqual);
+			if (removeMultiMapping)
+				filtered = FunctorUtils.filteredIterator(filtered,
+						a -> a.getIntegerAttribute("NH")==null || a.getIntegerAttribute("NH")==1);
+			
+			if (cbFilter!=null)
+				filtered = FunctorUtils.filteredIterator(filtered, cbFilter);
+
+			filtered = FunctorUtils.filteredIterator(filtered,
+					a -> !a.getReadUnmappedFlag());
+			return filtered;
+		}
+
 		@Override
 		public Comparator<? super GenomicRegion> getComparator() {
 			return (GenomicRegion a, GenomicRegion b) -> a.compareTo(b);
@@ -1204,10 +1439,19 @@ public class BamGenomicRegionStorage implements GenomicRegionStorage<AlignedRead
 					return true;
 				}
 				if (!done) {
-					PeekIterator<SAMRecord> iterator = iterator(pos+1, end);
+					PeekIterator<SAMRecord> iterator = iterator((shard?haloStart:pos)+1, end);
 					while (iterator.hasNext()) {
 						SAMRecord rec = iterator.peek();
 						
+						if (shard && rec.getAlignmentStart()-1<shardStart) {
+							rec = iterator.next();
+							if (rec.getAlignmentStart()-1>=haloStart)
+								bufferHaloMate(rec, iterator);
+							continue;
+						}
+						if (shard && rec.getAlignmentStart()-1>=end) 
+							break;
+						
 						basesCovered+=rec.getAlignmentStart()-1-pos;
 						regionsReturned++;
 		
@@ -1234,7 +1478,8 @@ public class BamGenomicRegionStorage implements GenomicRegionStorage<AlignedRead
 					done = true;
 				}
 				for (int i=0; i<files.length; i++) {
-					returnReader(i,files[i]);
+					if (!externalReaders)
+						returnReader(i,files[i]);
 					if (raw[i]!=null)
 						raw[i].close();
 	//				files[i].close();
@@ -1289,7 +1534,8 @@ public class BamGenomicRegionStorage implements GenomicRegionStorage<AlignedRead
 					map.clear();
 				}
 				for (int i=0; i<files.length; i++) {
-					returnReader(i,files[i]);
+					if (!externalReaders)
+						returnReader(i,files[i]);
 					if (raw[i]!=null)
 						raw[i].close();
 //					files[i].close();
@@ -1342,6 +1588,54 @@ public class BamGenomicRegionStorage implements GenomicRegionStorage<AlignedRead
 
 
 
+		/**
+		 * Puts a record preceding the shard into the mate buffer, if the serial iteration would have it there at the start of the shard (i.e. if its mate 
+		 * starts within or after the shard; as mates must point to each other, it cannot have been removed before)
+		 */
+		private void bufferHaloMate(SAMRecord rec, PeekIterator<SAMRecord> iterator) {
+			if (!isHaloMate(rec)) return;
+			
+			int file = ((MergeIterator<SAMRecord>)iterator.getParent()).getIteratorIndex();
+			String id = BamUtils.getPairId(rec);
+			mateBuffer.put(id, new SAMRecordList(rec,mateBuffer.get(id),file));
+		}
+		
+		private boolean isHaloMate(SAMRecord rec) {
+			if (rec.getNotPrimaryAlignmentFlag() && onlyPrimary) return false;
+			if (!rec.getReadPairedFlag() || pairedEndHandling==PairedEndHandling.DropSecondRead || pairedEndHandling==PairedEndHandling.DropFirstRead || pairedEndHandling==PairedEndHandling.IgnorePairedEnd) return false;
+			if (!ignoreProperPair && !rec.getProperPairFlag()) return false;
+			return rec.getMateAlignmentStart()-1>=shardStart;
+		}
+		
+		/**
+		 * Queries the mate of a record in the shard that starts before the halo, and puts it into the mate buffer (as the serial iteration would
+		 * have it there)
+		 */
+		private void queryHaloMate(SAMRecord rec, int file) {
+			String id = BamUtils.getPairId(rec);
+			for (SAMRecordList l = mateBuffer.get(id); l!=null; l=l.next)
+				if (l.file==file && BamUtils.checkMates(l.r, rec)) 
+					return;
+			
+			if (mateReaders[file]==null)
+				mateReaders[file] = obtainReader(file);
+			SAMRecordIterator it = mateReaders[file].queryAlignmentStart(names[file], rec.getMateAlignmentStart());
+			try {
+				Iterator<SAMRecord> filtered = filter(it);
+				while (filtered.hasNext()) {
+					SAMRecord mate = filtered.next();
+					if (mate.getAlignmentStart()!=rec.getMateAlignmentStart()) 
+						break;
+					if (isHaloMate(mate) && id.equals(BamUtils.getPairId(mate)) && BamUtils.checkMates(mate, rec)) {
+						mateBuffer.put(id, new SAMRecordList(mate,mateBuffer.get(id),file));
+						return;
+					}
+				}
+			} finally {
+				it.close();
+			}
+		}
+
 		private void processRecord(boolean fillMateBuffer, SAMRecord rec, PeekIterator<SAMRecord> iterator, HashMap<FactoryGenomicRegion, FactoryGenomicRegion> map) {
 //			System.out.print(rec.getSAMString());
 			if (rec.getNotPrimaryAlignmentFlag() && onlyPrimary)
@@ -1398,6 +1692,9 @@ public class BamGenomicRegionStorage implements GenomicRegionStorage<AlignedRead
 			
 			int file = ((MergeIterator<SAMRecord>)iterator.getParent()).getIteratorIndex();
 			
+			if (shard && rec.getMateAlignmentStart()>0 && rec.getMateAlignmentStart()-1<haloStart && rec.getMateReferenceIndex().equals(rec.getReferenceIndex()))
+				queryHaloMate(rec, file);
+			
 			SAMRecordList ll = mateBuffer.get(BamUtils.getPairId(rec));
 			SAMRecord mate = findAndRemoveMate(rec, file,mateBuffer,ll);
 			if (mate==null) {
@@ -45,6 +45,7 @@ public class CodonInference {
 	private double lastDifference;
 	private SequenceProvider sequence;
 	private double lambda = 1;
+	private boolean sparseEngine = false;
 	private Predicate<ReferenceGenomicRegion<AlignedReadsData>> filter;
 //	private double rho;
 	
@@ -86,6 +87,17 @@ public class CodonInference {
 		this.neighborFactor = neighborFactor;
 	}
 	
+	/**
+	 * Use the flat {@link SparseReadsXCodonMatrix} instead of the hash map based {@link ReadsXCodonMatrix} for the EM (results are identical).
+	 * Only affects inference with a single model.
+	 * @param sparseEngine
+	 * @return
+	 */
+	public CodonInference setSparseEngine(boolean sparseEngine) {
+		this.sparseEngine = sparseEngine;
+		return this;
+	}
+	
 	/**
 	 * Infers codons and reports all that are contained, splice consistent and in-frame in/with part, in the 5' to 3' coordinate system of part
 	 * 
@@ -215,12 +227,14 @@ public class CodonInference {
 			return inferSimple(reads, model.getSimple());
 		}
 		
-		ReadsXCodonMatrix m = new ReadsXCodonMatrix(model, condition);
-		int readcount = m.addAll(reads);
-		m.finishReads();
+		ReadsXCodonMatrix rm = new ReadsXCodonMatrix(model, condition);
+		int readcount = rm.addAll(reads);
+		rm.finishReads();
 		
 		if (readcount==0) return Collections.emptySet();
 		
+		ReadsXCodonEM m = sparseEngine?rm.compile():rm;
+		
 		int cond = m.checkConditions();
 		if (cond==-2) // no reads at all
 			return new HashSet<Codon>();
@@ -359,7 +373,7 @@ public class CodonInference {
 		MultiConditionReadsXCodonMatrix m;
 		if (allowedOrfs!=null) {
 			m = new MultiConditionReadsXCodonMatrix(model,ReadCountMode.Weight,1E-3,allowedProbCutoff);
-			m.setAllowed(allowedOrfs.getTree(reference));
+			m.setAllowed(allowedOrfs.getReadOnlyTree(reference));
 		} else {
 			m = new MultiConditionReadsXCodonMatrix(model,ReadCountMode.Weight,1E-3,allowedProbCutoff);
 		}
@@ -0,0 +1,72 @@
+package gedi.riboseq.inference.codon;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * The operations of the reads x codons EM as used by {@link CodonInference}. Slots: 0 contains the normalized probabilities, 1 the current
+ * expected values and 2 is used as backup of slot 1.
+ *
+ * Implemented by the hash map based {@link ReadsXCodonMatrix} and the flat {@link SparseReadsXCodonMatrix} (see {@link ReadsXCodonMatrix#compile()}).
+ *
+ * @author erhard
+ *
+ */
+public interface ReadsXCodonEM {
+
+	/**
+	 * Checks whether all reads have the same number of conditions (and returns this number); returns -1 otherwise;
+	 * Returns -2, if no reads were added
+	 * @return
+	 */
+	int checkConditions();
+
+	void copySlots(int from, int to);
+	void copySlotsReads(Codon fromCodon, int from, int to);
+
+	/**
+	 * multiply the current codon activity with the probs in slot 0 and store in slot 1
+	 */
+	void computeExpectedReadsPerCodon();
+	/**
+	 * normalize slot 1 s.t. sums are 1 for each read
+	 */
+	void computePriorReadProbabilities();
+	/**
+	 * multiply slot 1 by the corresponding read count
+	 */
+	void computeExpectedCodonPerRead();
+	/**
+	 * multiply slot 1 by the corresponding read count from condition index; overwrites slot 1
+	 */
+	void computeExpectedCodonPerRead(int index);
+
+	/**
+	 * sum slot 1 for each codon and store in the codon activity vector
+	 * returns the maximal absolute differences to the previous vector
+	 * @return
+	 */
+	double computeExpectedCodons();
+	/**
+	 * sum slot 1 for each codon and store in the codon activity vector at index index
+	 * returns the sum of the absolute differences to the previous vector
+	 * @return
+	 */
+	double computeExpectedCodons(int index);
+	/**
+	 * Recomputes the activities of all codons sharing a read with the given codon
+	 * @param codon
+	 */
+	void computeExpectedCodons(Codon codon);
+
+	double regularize3(Codon codon);
+	void removeZeroCodons();
+	void resetCodons();
+
+	void computeGoodnessOfFit();
+	void prepareGoodnessOfFit();
+	double computeGoodnessOfFit(Collection<Codon> codons);
+
+	Set<Codon> getCodons();
+
+}
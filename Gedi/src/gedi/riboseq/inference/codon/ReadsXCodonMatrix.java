@@ -20,6 +20,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.Locale;
 import java.util.Set;
@@ -34,7 +35,7 @@ import java.util.Set;
  * @author erhard
  *
  */
-public class ReadsXCodonMatrix {
+public class ReadsXCodonMatrix implements ReadsXCodonEM {
 
 	
 	private HashMap<Codon,HashMap<Read,double[]>> M = new HashMap<Codon, HashMap<Read,double[]>>();
@@ -231,6 +232,58 @@ public class ReadsXCodonMatrix {
 		
 	}
 	
+	/**
+	 * Creates the flat {@link SparseReadsXCodonMatrix} for the reads added so far (call after {@link #finishReads()}). Codons, reads and the entries of each
+	 * codon and read are in the iteration order of the hash maps of this object, i.e. both produce identical results.
+	 * The codon objects are shared, this object should not be used anymore afterwards.
+	 * @return
+	 */
+	public SparseReadsXCodonMatrix compile() {
+		Codon[] codons = codonProto.keySet().toArray(new Codon[0]);
+		Read[] reads = readProto.keySet().toArray(new Read[0]);
+		HashMap<Read,Integer> readIndex = new HashMap<Read, Integer>(reads.length*2);
+		for (int r=0; r<reads.length; r++)
+			readIndex.put(reads[r], r);
+
+		int nnz = 0;
+		for (Codon c : codons)
+			nnz+=M.get(c).size();
+
+		int[] codonPtr = new int[codons.length+1];
+		int[] entryRead = new int[nnz];
+		int[] entryHash = new int[nnz];
+		double[][] slots = new double[3][nnz];
+		IdentityHashMap<double[],Integer> entryIndex = new IdentityHashMap<double[], Integer>(nnz);
+		int e = 0;
+		for (int c=0; c<codons.length; c++) {
+			for (Read r : M.get(codons[c]).keySet()) {
+				double[] s = M.get(codons[c]).get(r);
+				entryRead[e] = readIndex.get(r);
+				int p = plusStrand?r.region.induce(codons[c].getStart()):(r.region.getTotalLength()-1-r.region.induce(codons[c].getStop()));
+				entryHash[e] = computeHash(r.leadingMismatch?1:0, r.region.getTotalLength(), p);
+				for (int i=0; i<slots.length; i++)
+					slots[i][e] = s[i];
+				entryIndex.put(s, e++);
+			}
+			codonPtr[c+1] = e;
+		}
+
+		int[] readPtr = new int[reads.length+1];
+		int[] readEntry = new int[nnz];
+		double[] readTotal = new double[reads.length];
+		double[][] readCount = new double[reads.length][];
+		e = 0;
+		for (int r=0; r<reads.length; r++) {
+			for (double[] s : I.get(reads[r]).values())
+				readEntry[e++] = entryIndex.get(s);
+			readPtr[r+1] = e;
+			readTotal[r] = reads[r].totalCount;
+			readCount[r] = reads[r].count;
+		}
+
+		return new SparseReadsXCodonMatrix(codons, codonPtr, entryRead, entryHash, slots, readPtr, readEntry, readTotal, readCount, posteriorHashed);
+	}
+
 	/**
 	 * Checks whether all reads have the same number of conditions (and returns this number); returns -1 otherwise;
 	 * Returns -2, if no reads were added
@@ -0,0 +1,417 @@
+package gedi.riboseq.inference.codon;
+
+import gedi.util.ArrayUtils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+
+/**
+ * Flat version of the sparse reads x codons matrix (created by {@link ReadsXCodonMatrix#compile()}): The entries are stored in compressed sparse rows
+ * (one row per codon, in the same order as the entries of the hash maps of the {@link ReadsXCodonMatrix}), the three slots are primitive double arrays
+ * indexed by entry, and the entries of each read are given by an index into the rows. All EM steps are plain loops over these arrays that do not allocate anything.
+ *
+ * All summations are done in exactly the same order as in {@link ReadsXCodonMatrix}, i.e. the results are identical.
+ *
+ * An instance is not thread-safe, but independent instances (e.g. for different clusters) can be used in parallel.
+ *
+ * @author erhard
+ *
+ */
+public class SparseReadsXCodonMatrix implements ReadsXCodonEM {
+
+	// codons
+	private Codon[] codons;
+	private double[] activity;
+	private HashMap<Codon,Integer> codonIndex;
+	private Set<Codon> codonSet;
+
+	// codon rows: entries codonPtr[c] to codonPtr[c+1]
+	private int[] codonPtr;
+	private int[] entryRead;
+	private int[] entryCodon;
+	private int[] entryHash;
+	private double[][] slots;
+
+	// reads: entries readEntry[readPtr[r]] to readEntry[readPtr[r+1]-1]
+	private int[] readPtr;
+	private int[] readEntry;
+	private double[] readTotal;
+	private double[][] readCount;
+
+	private double[] posteriorHashed;
+
+	// buffers for regularize3 and computeExpectedCodons(Codon)
+	private double[] ntotal;
+	private int[] mark;
+	private int epoch = 0;
+
+
+	SparseReadsXCodonMatrix(Codon[] codons, int[] codonPtr, int[] entryRead, int[] entryHash, double[][] slots,
+			int[] readPtr, int[] readEntry, double[] readTotal, double[][] readCount, double[] posteriorHashed) {
+		this.readPtr = readPtr;
+		this.readEntry = readEntry;
+		this.readTotal = readTotal;
+		this.readCount = readCount;
+		this.posteriorHashed = posteriorHashed;
+		setCodons(codons, codonPtr, entryRead, entryHash, slots);
+	}
+
+	private void setCodons(Codon[] codons, int[] codonPtr, int[] entryRead, int[] entryHash, double[][] slots) {
+		this.codons = codons;
+		this.codonPtr = codonPtr;
+		this.entryRead = entryRead;
+		this.entryHash = entryHash;
+		this.slots = slots;
+
+		activity = new double[codons.length];
+		codonIndex = new HashMap<Codon, Integer>(codons.length*2);
+		codonSet = null;
+		entryCodon = new int[entryRead.length];
+		for (int c=0; c<codons.length; c++) {
+			activity[c] = codons[c].totalActivity;
+			codonIndex.put(codons[c], c);
+			for (int e=codonPtr[c]; e<codonPtr[c+1]; e++)
+				entryCodon[e] = c;
+		}
+		ntotal = new double[codons.length];
+		mark = new int[codons.length];
+		epoch = 0;
+	}
+
+	private void setActivity(int c, double a) {
+		activity[c] = a;
+		codons[c].totalActivity = a;
+	}
+
+	private int nextEpoch() {
+		if (++epoch==Integer.MAX_VALUE) {
+			Arrays.fill(mark, 0);
+			epoch = 1;
+		}
+		return epoch;
+	}
+
+	public int getNumCodons() {
+		return codons.length;
+	}
+
+	public int getNumReads() {
+		return readTotal.length;
+	}
+
+	public int getNumEntries() {
+		return entryRead.length;
+	}
+
+	@Override
+	public int checkConditions() {
+		int re = -2;
+		for (int r=0; r<readCount.length; r++) {
+			if (re==-2)
+				re = readCount[r].length;
+			else if (re>=0 && re!=readCount[r].length)
+				re = -1;
+		}
+
+		if (re>=0)
+			for (Codon c : codons)
+				c.activity = new double[re];
+		return re;
+	}
+
+	@Override
+	public void copySlots(int from, int to) {
+		System.arraycopy(slots[from], 0, slots[to], 0, entryRead.length);
+	}
+
+	@Override
+	public void copySlotsReads(Codon fromCodon, int from, int to) {
+		double[] f = slots[from];
+		double[] t = slots[to];
+		int c = codonIndex.get(fromCodon);
+		for (int e=codonPtr[c]; e<codonPtr[c+1]; e++) {
+			int r = entryRead[e];
+			for (int i=readPtr[r]; i<readPtr[r+1]; i++)
+				t[readEntry[i]] = f[readEntry[i]];
+		}
+	}
+
+	@Override
+	public void computeExpectedReadsPerCodon() {
+		double[] s0 = slots[0];
+		double[] s1 = slots[1];
+		for (int c=0; c<codons.length; c++) {
+			double a = activity[c];
+			for (int e=codonPtr[c]; e<codonPtr[c+1]; e++)
+				s1[e] = s0[e]*a;
+		}
+	}
+
+	@Override
+	public void computePriorReadProbabilities() {
+		double[] s1 = slots[1];
+		for (int r=0; r<readTotal.length; r++) {
+			double sum = 0;
+			for (int i=readPtr[r]; i<readPtr[r+1]; i++)
+				sum+=s1[readEntry[i]];
+			if (sum>0)
+				for (int i=readPtr[r]; i<readPtr[r+1]; i++)
+					s1[readEntry[i]]/=sum;
+		}
+	}
+
+	@Override
+	public void computeExpectedCodonPerRead() {
+		double[] s1 = slots[1];
+		for (int r=0; r<readTotal.length; r++) {
+			double t = readTotal[r];
+			for (int i=readPtr[r]; i<readPtr[r+1]; i++)
+				s1[readEntry[i]]*=t;
+		}
+	}
+
+	@Override
+	public void computeExpectedCodonPerRead(int index) {
+		double[] s1 = slots[1];
+		for (int r=0; r<readTotal.length; r++) {
+			double t = readCount[r][index];
+			for (int i=readPtr[r]; i<readPtr[r+1]; i++)
+				s1[readEntry[i]]*=t;
+		}
+	}
+
+	private double sumSlot1(int c) {
+		double[] s1 = slots[1];
+		double re = 0;
+		for (int e=codonPtr[c]; e<codonPtr[c+1]; e++)
+			re+=s1[e];
+		return re;
+	}
+
+	@Override
+	public double computeExpectedCodons() {
+		double re = 0;
+		for (int c=0; c<codons.length; c++) {
+			double prev = activity[c];
+			setActivity(c, sumSlot1(c));
+			re=Math.max(re,Math.abs(prev-activity[c]));
+		}
+		return re;
+	}
+
+	@Override
+	public double computeExpectedCodons(int index) {
+		double re = 0;
+		for (int c=0; c<codons.length; c++) {
+			double[] act = codons[c].activity;
+			double prev = act[index];
+			act[index] = sumSlot1(c);
+			re+=Math.abs(prev-act[index]);
+		}
+		return re;
+	}
+
+	@Override
+	public void computeExpectedCodons(Codon codon) {
+		int ep = nextEpoch();
+		int c = codonIndex.get(codon);
+		for (int e=codonPtr[c]; e<codonPtr[c+1]; e++) {
+			int r = entryRead[e];
+			for (int i=readPtr[r]; i<readPtr[r+1]; i++) {
+				int c2 = entryCodon[readEntry[i]];
+				if (mark[c2]!=ep) {
+					mark[c2] = ep;
+					setActivity(c2, sumSlot1(c2));
+				}
+			}
+		}
+	}
+
+	@Override
+	public double regularize3(Codon codon) {
+		double[] s0 = slots[0];
+		double[] s1 = slots[1];
+		int ep = nextEpoch();
+		int c = codonIndex.get(codon);
+
+		double deltaLL = 0;
+		for (int e=codonPtr[c]; e<codonPtr[c+1]; e++) {
+			if (s1[e]==0) continue;
+			int r = entryRead[e];
+
+			// try to redistribute s1[e] to other codons
+			double s = 0;
+			for (int i=readPtr[r]; i<readPtr[r+1]; i++) {
+				int e2 = readEntry[i];
+				if (e2!=e)
+					s+=s1[e2];
+			}
+			if (s==0)
+				return Double.NEGATIVE_INFINITY; // cannot distribute read to another codon!
+
+			double beforesum = 0;
+			for (int i=readPtr[r]; i<readPtr[r+1]; i++) {
+				int e2 = readEntry[i];
+				int c2 = entryCodon[e2];
+				beforesum+=activity[c2]*s0[e2];
+				if (e2!=e) {
+					if (mark[c2]!=ep) {
+						mark[c2] = ep;
+						ntotal[c2] = activity[c2];
+					}
+					ntotal[c2]+=s1[e]*s1[e2]/s;
+					s1[e2]+=s1[e]*s1[e2]/s;
+				}
+			}
+			deltaLL+=readTotal[r]*(-Math.log(beforesum));
+		}
+		for (int e=codonPtr[c]; e<codonPtr[c+1]; e++) {
+			if (s1[e]==0) continue;
+			int r = entryRead[e];
+
+			double aftersum = 0;
+			for (int i=readPtr[r]; i<readPtr[r+1]; i++) {
+				int e2 = readEntry[i];
+				if (e2!=e)
+					aftersum+=ntotal[entryCodon[e2]]*s0[e2];
+			}
+			deltaLL+=readTotal[r]*(Math.log(aftersum));
+
+			s1[e] = 0;
+		}
+		return deltaLL;
+	}
+
+	/**
+	 * Removes all codons with zero activity (and all their entries); this is the only operation that allocates (the compacted arrays)
+	 */
+	@Override
+	public void removeZeroCodons() {
+		int nc = 0;
+		int ne = 0;
+		for (int c=0; c<codons.length; c++)
+			if (activity[c]!=0) {
+				nc++;
+				ne+=codonPtr[c+1]-codonPtr[c];
+			}
+		if (nc==codons.length) return;
+
+		int[] newIndex = new int[entryRead.length];
+		Codon[] ncodons = new Codon[nc];
+		int[] ncodonPtr = new int[nc+1];
+		int[] nentryRead = new int[ne];
+		int[] nentryHash = new int[ne];
+		double[][] nslots = new double[slots.length][ne];
+
+		nc = ne = 0;
+		for (int c=0; c<codons.length; c++) {
+			if (activity[c]==0) {
+				for (int e=codonPtr[c]; e<codonPtr[c+1]; e++)
+					newIndex[e] = -1;
+				continue;
+			}
+			ncodons[nc] = codons[c];
+			for (int e=codonPtr[c]; e<codonPtr[c+1]; e++) {
+				newIndex[e] = ne;
+				nentryRead[ne] = entryRead[e];
+				nentryHash[ne] = entryHash[e];
+				for (int s=0; s<slots.length; s++)
+					nslots[s][ne] = slots[s][e];
+				ne++;
+			}
+			ncodonPtr[++nc] = ne;
+		}
+
+		int n = 0;
+		for (int r=0; r<readTotal.length; r++) {
+			int start = readPtr[r];
+			readPtr[r] = n;
+			for (int i=start; i<readPtr[r+1]; i++)
+				if (newIndex[readEntry[i]]>=0)
+					readEntry[n++] = newIndex[readEntry[i]];
+		}
+		readPtr[readTotal.length] = n;
+
+		setCodons(ncodons, ncodonPtr, nentryRead, nentryHash, nslots);
+	}
+
+	@Override
+	public void resetCodons() {
+		for (int c=0; c<codons.length; c++)
+			setActivity(c, 1);
+	}
+
+	@Override
+	public void prepareGoodnessOfFit() {
+		computePriorReadProbabilities();
+		computeExpectedCodonPerRead();
+	}
+
+	@Override
+	public double computeGoodnessOfFit(Collection<Codon> codons) {
+		double[] s1 = slots[1];
+		double[] obs = new double[posteriorHashed.length];
+
+		for (Codon codon : codons) {
+			Integer c = codonIndex.get(codon);
+			if (c!=null)
+				for (int e=codonPtr[c]; e<codonPtr[c+1]; e++)
+					obs[entryHash[e]]+=s1[e];
+		}
+
+		double corr = ArrayUtils.sum(obs)/ArrayUtils.sum(posteriorHashed);
+		double ss = 0;
+		for (int i=0; i<obs.length; i++) {
+			double e = posteriorHashed[i]*corr;
+			double oe = obs[i]-e;
+			if (e>0) {
+				ss+=oe*oe/e;
+			}
+		}
+
+		return ss;
+	}
+
+	@Override
+	public void computeGoodnessOfFit() {
+		computePriorReadProbabilities();
+		computeExpectedCodonPerRead();
+		double[] s0 = slots[0];
+		double[] s1 = slots[1];
+		for (int c=0; c<codons.length; c++) {
+			double ps = 0; // sum of propensities
+			double cs = 0; // sum of expected counts
+			for (int e=codonPtr[c]; e<codonPtr[c+1]; e++) {
+				ps+=s0[e];
+				cs+=s1[e];
+			}
+			if (ps>1) {
+				// can be, a codon may occur at two reads of same length at the same position due to alternative splicing
+				// underestimate here!
+				ps=1;
+			}
+			double s = (1-ps)*cs;
+			for (int e=codonPtr[c]; e<codonPtr[c+1]; e++) {
+				double ex = s0[e]*cs;
+				double oe = s1[e]-ex;
+				s+=oe*oe/ex;
+			}
+			codons[c].goodness = s;
+		}
+	}
+
+	/**
+	 * The codons in the same order as in the {@link ReadsXCodonMatrix} this was compiled from
+	 */
+	@Override
+	public Set<Codon> getCodons() {
+		if (codonSet==null)
+			codonSet = new LinkedHashSet<Codon>(Arrays.asList(codons));
+		return codonSet;
+	}
+
+}
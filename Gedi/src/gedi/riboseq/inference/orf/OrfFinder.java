@@ -28,7 +28,7 @@ import gedi.util.datastructure.tree.Trie;
 import gedi.util.datastructure.tree.redblacktree.IntervalTreeSet;
 import gedi.util.datastructure.unionFind.UnionFind;
 import gedi.util.functions.EI;
-import gedi.util.math.stat.inference.isoforms.EquivalenceClassCountEM;
+import gedi.util.math.stat.inference.isoforms.CompiledEquivalenceClassCountEM;
 import gedi.util.math.stat.inference.isoforms.EquivalenceClassMinimizeFactors;
 import gedi.util.mutable.MutableMonad;
 import gedi.util.mutable.MutablePair;
@@ -1145,19 +1145,24 @@ public class OrfFinder {
 		double sum = EI.wrap(alpha).sum();
 		
 		// TODO not quite right, divide by effective lengths, then go through all equiv classes and sum the weighted alphas
-		llUnique = new EquivalenceClassCountEM<OrfWithCodons>(E, alpha, orf->orf.getEffectiveLength()).compute(miniter, maxiter, (orf,pi)->orf.setEstimatedTotalActivity(pi*sum,pi));
+		CompiledEquivalenceClassCountEM<OrfWithCodons> em = new CompiledEquivalenceClassCountEM<OrfWithCodons>(E, orf->orf.getEffectiveLength());
+		llUnique = em.compute(maxiter, alpha, (orf,pi)->orf.setEstimatedTotalActivity(pi*sum,pi));
 		
-		for (int c=0; c<numCond; c++) {
-			Arrays.fill(alpha, 0);
-			for (int i=0; i<alpha.length; i++)
+		// all conditions share the same classes and lengths
+		double[][] calpha = new double[numCond][E.length];
+		for (int c=0; c<numCond; c++) 
+			for (int i=0; i<E.length; i++)
 				for (Codon codon : codons[i])
-					alpha[i] += codon.getActivity()[c];
-			int uc = c;
-			
-			double csum = EI.wrap(alpha).sum();
-			double lla = new EquivalenceClassCountEM<OrfWithCodons>(E, alpha, orf->orf.getEffectiveLength()).compute(miniter, maxiter, (orf,pi)->orf.setEstimatedTotalActivity(uc,pi*csum,pi));
-			if (!Double.isNaN(lla))
-				llEach += lla;
+					calpha[c][i] += codon.getActivity()[c];
+		double[] lla = new double[numCond];
+		double[][] cpi = em.computeBatch(maxiter, calpha, null, 1, lla, null);
+		
+		for (int c=0; c<numCond; c++) {
+			double csum = EI.wrap(calpha[c]).sum();
+			for (int i=0; i<cpi[c].length; i++)
+				em.getObject(i).setEstimatedTotalActivity(c,cpi[c][i]*csum,cpi[c][i]);
+			if (!Double.isNaN(lla[c]))
+				llEach += lla[c];
 		}
 	
 		double p = ChiSquare.cumulative(2*llEach-2*llUnique, dfEach-dfUnique, false, false);
@@ -60,7 +60,7 @@ import gedi.util.io.randomaccess.BinaryWriter;
 import gedi.util.io.randomaccess.serialization.BinarySerializable;
 import gedi.util.math.stat.counting.Counter;
 import gedi.util.math.stat.distributions.PoissonBinomial;
-import gedi.util.math.stat.inference.isoforms.EquivalenceClassCountEM;
+import gedi.util.math.stat.inference.isoforms.CompiledEquivalenceClassCountEM;
 import gedi.util.mutable.MutableInteger;
 import gedi.util.mutable.MutableMonad;
 import gedi.util.mutable.MutablePair;
@@ -1650,8 +1650,8 @@ public class OrfInference {
 			}
 			
 			
-			new EquivalenceClassCountEM<ImmutableReferenceGenomicRegion<PriceOrf>>(E, alpha, t->t.getData().getOrfAaLength())
-				.compute(miniter, maxiter, (t,pi)->re.put(t.getData(), pi/t.getData().getOrfAaLength()));
+			new CompiledEquivalenceClassCountEM<ImmutableReferenceGenomicRegion<PriceOrf>>(E, t->t.getData().getOrfAaLength())
+				.compute(maxiter, alpha, (t,pi)->re.put(t.getData(), pi/t.getData().getOrfAaLength()));
 		}
 		else {
 			// equi.size==1 && element size ==1
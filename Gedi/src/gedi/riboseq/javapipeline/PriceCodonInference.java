@@ -39,6 +39,7 @@ public class PriceCodonInference extends GediProgram {
 		addInput(params.clusters);
 		addInput(params.nthreads);
 		addInput(params.orfinference);
+		addInput(params.sparseem);
 		
 		
 		addOutput(params.codons);
@@ -53,6 +54,7 @@ public class PriceCodonInference extends GediProgram {
 		double delta = getDoubleParameter(4);
 		File clusterFile = getParameter(5);
 		int nthreads = getIntParameter(6);
+		boolean sparseem = getBooleanParameter(8);
 		int chunk = 10;
 		
 		RiboModel[] model = RiboModel.fromFile(modelFile.getPath(), false);
@@ -66,7 +68,8 @@ public class PriceCodonInference extends GediProgram {
 		CodonInference ci = new CodonInference(model,g)
 		.setFilter(filter)
 //		.setRho(rho)
-		.setRegularization(delta);
+		.setRegularization(delta)
+		.setSparseEngine(sparseem);
 		
 		context.getLog().log(Level.INFO, "Codon inference");
 		AtomicInteger count = new AtomicInteger(0);
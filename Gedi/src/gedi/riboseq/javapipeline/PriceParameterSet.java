@@ -58,6 +58,7 @@ public class PriceParameterSet extends GediParameterSet {
 	
 	public GediParameter<File> codons = new GediParameter<File>(this,"${prefix}.codons.bin", "Inferred codons.", false, new FileParameterType()).setRemoveFile(true);
 	public GediParameter<Double> delta = new GediParameter<Double>(this,"delta", "Regularization parameter", false, new DoubleParameterType(), 0.0);
+	public GediParameter<Boolean> sparseem = new GediParameter<Boolean>(this,"sparseem", "Use the flat sparse matrix EM engine for codon inference (same results, faster).", false, new BooleanParameterType());
 	
 	public GediParameter<Boolean> inferDelta = new GediParameter<Boolean>(this,"inferDelta", "Automatically select delta (such that a 10% off-frame codon is recognized as such).", false, new BooleanParameterType());
 	
@@ -92,7 +92,7 @@ public class PriceIdentifyMajorIsoform extends GediProgram {
 		for (ReferenceSequence ref : trans.getReferenceSequences()) {//Arrays.asList(Chromosome.obtain("14+"))){//cds.getReferenceSequences()) {
 			progress.setDescription("Processing gene clusters on "+ref.toString()+" found: "+n);
 			
-			IntervalTree<GenomicRegion, Transcript> tree = trans.getTree(ref);
+			IntervalTree<GenomicRegion, Transcript> tree = trans.getReadOnlyTree(ref);
 			IntervalTree<GenomicRegion, Transcript>.GroupIterator git = tree.groupIterator();
 			while (git.hasNext()) {
 				IntervalTree<GenomicRegion,Transcript> group = new IntervalTree<>(ref);
@@ -117,7 +117,7 @@ public class PriceLocalChanges extends GediProgram {
 			
 			progress.setDescription("Processing gene clusters on "+ref.toString()+" found: "+n);
 			
-			IntervalTree<GenomicRegion, Transcript> tree = cds.getTree(ref);
+			IntervalTree<GenomicRegion, Transcript> tree = cds.getReadOnlyTree(ref);
 			IntervalTree<GenomicRegion, Transcript>.GroupIterator git = tree.groupIterator();
 			while (git.hasNext()) {
 				IntervalTree<GenomicRegion,Transcript> group = new IntervalTree<>(git.next(),ref);
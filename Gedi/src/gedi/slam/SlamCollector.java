@@ -6,6 +6,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -22,6 +23,8 @@ import gedi.core.region.GenomicRegionStorage;
 import gedi.core.region.ImmutableReferenceGenomicRegion;
 import gedi.core.region.MutableReferenceGenomicRegion;
 import gedi.core.region.ReferenceGenomicRegion;
+import gedi.core.region.utils.GenomicRegionOverlapJoin;
+import gedi.util.FunctorUtils.PeekIterator;
 import gedi.util.SequenceUtils;
 import gedi.util.StringUtils;
 import gedi.util.datastructure.array.NumericArray;
@@ -30,6 +33,7 @@ import gedi.util.datastructure.array.sparse.AutoSparseDenseDoubleArrayCollector;
 import gedi.util.functions.EI;
 import gedi.util.functions.ExtendedIterator;
 import gedi.util.mutable.MutableDouble;
+import gedi.util.mutable.MutablePair;
 
 public class SlamCollector {
 
@@ -207,15 +211,18 @@ public class SlamCollector {
 		
 		char[] overlapfound = new char[2000]; // reads arent longer than this! read sense base
 		
-		ExtendedIterator<ImmutableReferenceGenomicRegion<AlignedReadsData>> it = EI.empty();
-		if (strandness.equals(Strandness.Unspecific) || strandness.equals(Strandness.Sense)) it = it.chain(reads.ei(gene));
-		if (strandness.equals(Strandness.Unspecific) || strandness.equals(Strandness.Antisense)) it = it.chain(reads.ei(gene.toMutable().toOppositeStrand()));
+		// overlapping transcripts are only needed to resolve reads from multiple genes
+		boolean needOverlapping = overlap!=ReadCountMode.All && overlap!=ReadCountMode.CollapseAll;
+		ExtendedIterator<MutablePair<ImmutableReferenceGenomicRegion<AlignedReadsData>, ArrayList<ImmutableReferenceGenomicRegion<Transcript>>>> it = EI.empty();
+		if (strandness.equals(Strandness.Unspecific) || strandness.equals(Strandness.Sense)) it = it.chain(readsWithTranscripts(gene,needOverlapping));
+		if (strandness.equals(Strandness.Unspecific) || strandness.equals(Strandness.Antisense)) it = it.chain(readsWithTranscripts(gene.toMutable().toOppositeStrand(),needOverlapping));
 		
 		ReadCountMode mode = this.mode;
 		
 		if (highmem) it = EI.wrap(it.list());
 		
-		for (ImmutableReferenceGenomicRegion<AlignedReadsData> read : it.loop()) {
+		for (MutablePair<ImmutableReferenceGenomicRegion<AlignedReadsData>, ArrayList<ImmutableReferenceGenomicRegion<Transcript>>> pair : it.loop()) {
+			ImmutableReferenceGenomicRegion<AlignedReadsData> read = pair.Item1;
 //			if (read.toLocationString().contains("70|28260"))
 //					System.out.println();
 			useCounters.clear();
@@ -231,7 +238,7 @@ public class SlamCollector {
 					mode = this.mode.transformCounts(c->1.0);
 				}
 				else {
-					HashSet<String> gset = genomic.getTranscripts().ei(read).filter(t->isConsistent(t, read)).map(t->t.getData().getGeneId()).set();
+					HashSet<String> gset = EI.wrap(pair.Item2).filter(t->isConsistent(t, read)).map(t->t.getData().getGeneId()).set();
 					if (gset.size()>1) {
 						if (overlap==ReadCountMode.Unique || overlap==ReadCountMode.CollapseUnique) continue;
 						if (overlap==ReadCountMode.Divide || overlap==ReadCountMode.Weight) {
@@ -514,6 +521,26 @@ public class SlamCollector {
 	}
 	
 	
+	/**
+	 * The reads intersecting region, each with all transcripts it overlaps (if withTranscripts; otherwise null). Reads and transcripts
+	 * are swept in parallel (if the reads are not sorted by start, the transcripts are queried for each read).
+	 * @param region
+	 * @param withTranscripts
+	 * @return
+	 */
+	private ExtendedIterator<MutablePair<ImmutableReferenceGenomicRegion<AlignedReadsData>, ArrayList<ImmutableReferenceGenomicRegion<Transcript>>>> readsWithTranscripts(
+			ReferenceGenomicRegion<?> region, boolean withTranscripts) {
+		PeekIterator<ImmutableReferenceGenomicRegion<AlignedReadsData>> it = reads.ei(region).peeking();
+		if (!withTranscripts || !it.hasNext()) 
+			return it.map(r->new MutablePair<>(r,null));
+		
+		// all reads intersect region, so no transcript overlapping one of them ends before the first read starts
+		ExtendedIterator<ImmutableReferenceGenomicRegion<Transcript>> trans = genomic.getTranscripts().ei(region.getReference(), new ArrayGenomicRegion(it.peek().getRegion().getStart(),Integer.MAX_VALUE));
+		BiPredicate<ReferenceGenomicRegion<AlignedReadsData>,ReferenceGenomicRegion<Transcript>> intersecting = GenomicRegionOverlapJoin.intersecting();
+		return GenomicRegionOverlapJoin.join(it, intersecting, GenomicRegionOverlapJoin.DEFAULT_REORDER_WINDOW,
+				read->genomic.getTranscripts().ei(read).filter(t->intersecting.test(read, t)).list(), trans);
+	}
+
 	private boolean isConsistent(ImmutableReferenceGenomicRegion<Transcript> t,
 			ImmutableReferenceGenomicRegion<AlignedReadsData> read) {
 		
@@ -212,6 +212,8 @@ public class FunctorUtils {
 	/**
 	 * Each iterator must yield a strictly increasing list of item (i.e. two succinct elements must compare to a number >1)
 	 * This is for performance reasons not checked!
+	 * 
+	 * The current items of all iterators are kept in a binary heap, i.e. each step takes O(k log N) for k equal items.
 	 * @author erhard
 	 *
 	 * @param <T>
@@ -225,6 +227,11 @@ public class FunctorUtils {
 		private T[] next;
 		private T[] cache;
 		private int N;
+		
+		private int[] heap; // indices of iterators ordered by their cached item
+		private int size = -1;
+		private int[] taken; // indices of the items in next
+		private int ntaken = 0;
 
 		@SuppressWarnings("unchecked")
 		public ParallellIterator(Iterator<T>[] iterators, Comparator<? super T> order, Class<T> cls) {
@@ -261,56 +268,72 @@ public class FunctorUtils {
 
 		private void lookAhead() {
 			if (!ensured) {
-				updateCache();
-				if (determineSmallest()) {
-					// move all smallest from cache to next
+				if (size<0) {
+					heap = new int[N];
+					taken = new int[N];
+					size = 0;
 					for (int i=0; i<N; i++)
-						if(smallest.getQuick(i)) {
-							next[i] = cache[i];
-							cache[i] = null;
-						} else
-							next[i] = null;
-				} else
+						updateCache(i);
+				}
+				else {
+					for (int t=0; t<ntaken; t++) {
+						next[taken[t]] = null;
+						updateCache(taken[t]);
+					}
+				}
+				
+				// move all smallest from cache to next
+				ntaken = 0;
+				smallest.clear();
+				if (size==0)
 					next = null;
-				ensured = true;
-			}
-		}
-
-		private boolean determineSmallest() {
-			T smallest = null;
-			int i;
-			for (i=0; i<N && cache[i]==null; i++);
-			
-			if (i==N)
-				return false;
-			
-			smallest = cache[i];
-
-			this.smallest.clear();
-			this.smallest.putQuick(i, true);
-
-			for (i++; i<N; i++) {
-				if (cache[i]!=null) {
-					int c = order.compare(smallest, cache[i]);
-					if (c>0) 
-						this.smallest.clear();
-					if (c>=0) {
-						this.smallest.putQuick(i, true);
-						smallest = cache[i];
+				else {
+					T min = cache[heap[0]];
+					while (size>0 && order.compare(cache[heap[0]], min)==0) {
+						int i = pop();
+						next[i] = cache[i];
+						cache[i] = null;
+						smallest.putQuick(i, true);
+						taken[ntaken++] = i;
 					}
 				}
+				ensured = true;
 			}
-			return true;
 		}
 
 		/**
-		 * After calling this, cache contains the next elements or null, if an iterator is depleted
+		 * After calling this, cache contains the next element of the iterator (which is put into the heap) or null, if it is depleted
 		 */
-		private void updateCache() {
-			for (int i=0; i<N; i++)
-				if (cache[i]==null && iterators[i].hasNext())
-					cache[i] = iterators[i].next();
-//			System.out.println(Arrays.toString(cache));
+		private void updateCache(int i) {
+			while (cache[i]==null && iterators[i].hasNext())
+				cache[i] = iterators[i].next();
+			if (cache[i]!=null) {
+				int p = size++;
+				while (p>0 && less(i, heap[(p-1)>>1])) {
+					heap[p] = heap[(p-1)>>1];
+					p = (p-1)>>1;
+				}
+				heap[p] = i;
+			}
+		}
+		
+		private int pop() {
+			int re = heap[0];
+			int last = heap[--size];
+			int p = 0;
+			for (int c=1; c<size; c=2*p+1) {
+				if (c+1<size && less(heap[c+1], heap[c])) c++;
+				if (!less(heap[c], last)) break;
+				heap[p] = heap[c];
+				p = c;
+			}
+			heap[p] = last;
+			return re;
+		}
+		
+		private boolean less(int a, int b) {
+			int c = order.compare(cache[a], cache[b]);
+			return c<0 || (c==0 && a<b);
 		}
 
 		@Override
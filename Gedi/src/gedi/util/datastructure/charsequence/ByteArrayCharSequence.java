@@ -0,0 +1,65 @@
+package gedi.util.datastructure.charsequence;
+
+import java.nio.charset.StandardCharsets;
+
+import gedi.util.StringUtils;
+
+/**
+ * View of a range of an ascii encoded byte array; the view can be moved without allocation (see {@link #set(byte[], int, int)}).
+ * 
+ * @author erhard
+ *
+ */
+public class ByteArrayCharSequence implements CharSequence {
+
+	private byte[] seq;
+	private int start;
+	private int end;
+	
+	public ByteArrayCharSequence() {
+		this(new byte[0],0,0);
+	}
+	
+	public ByteArrayCharSequence(byte[] seq, int start, int end) {
+		set(seq,start,end);
+	}
+	
+	public ByteArrayCharSequence set(byte[] seq, int start, int end) {
+		this.seq = seq;
+		this.start = start;
+		this.end = end;
+		return this;
+	}
+
+	@Override
+	public int length() {
+		return end-start;
+	}
+
+	@Override
+	public char charAt(int index) {
+		return (char) (seq[start+index]&0xFF);
+	}
+	
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return new ByteArrayCharSequence(seq, this.start+start, this.start+end);
+	}
+	
+	@Override
+	public String toString() {
+		return new String(seq, start, end-start, StandardCharsets.ISO_8859_1);
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		return StringUtils.equals(this, obj);
+	}
+	
+	@Override
+	public int hashCode() {
+		return StringUtils.hashCode(this);
+	}
+
+	
+}
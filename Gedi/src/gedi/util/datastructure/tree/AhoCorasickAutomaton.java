@@ -0,0 +1,340 @@
+package gedi.util.datastructure.tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import gedi.util.datastructure.tree.Trie.AhoCorasickResult;
+import gedi.util.datastructure.tree.Trie.Node;
+import gedi.util.functions.EI;
+import gedi.util.functions.ExtendedIterator;
+
+/**
+ * Immutable Aho-Corasick automaton compiled from a {@link Trie} (see {@link Trie#compile()}). The goto function is stored as a double array
+ * (the transition from state s by character code c leads to t=base[s]+c, if check[t]==s), failure and output links as well as the
+ * values are stored in flat arrays, i.e. scanning a text does not follow any object pointers.
+ *
+ * The alphabet consists of all characters in the keys of the trie; any other character resets the automaton to the root.
+ *
+ * Thread safe.
+ *
+ * @author erhard
+ *
+ */
+public class AhoCorasickAutomaton<T> {
+
+	@FunctionalInterface
+	public interface MatchConsumer<T> {
+		/**
+		 * Called for each match of a key in [start,end) with the value of the key
+		 */
+		void accept(int start, int end, T value);
+	}
+
+	private static final int ROOT = 0;
+	private static final int FREE = -1;
+
+	private byte[] code = new byte[Character.MAX_VALUE+1];
+	private int alphabetSize;
+
+	private int[] base;
+	private int[] check;
+	private int[] fail;
+	private int[] output; // index into values or -1
+	private int[] outputLink; // next state on the failure chain with an output or -1
+
+	private Object[] values;
+	private int[] length;
+	private int maxLength;
+	private int states;
+
+	AhoCorasickAutomaton(Node root, Object nullValue) {
+		// alphabet and number of nodes/keys
+		boolean[] used = new boolean[Character.MAX_VALUE+1];
+		int nodes = 0;
+		int keys = 0;
+		LinkedList<Node> dfs = new LinkedList<Node>();
+		dfs.push(root);
+		while (!dfs.isEmpty()) {
+			Node n = dfs.pop();
+			nodes++;
+			if (n.value!=null && n!=root) keys++;
+			for (Node ch=n.child; ch!=null; ch=ch.sibling) {
+				used[ch.c] = true;
+				dfs.push(ch);
+			}
+		}
+		for (int c=0; c<used.length; c++)
+			if (used[c]) {
+				if (alphabetSize==Byte.MAX_VALUE) throw new IllegalArgumentException("Alphabet too large!");
+				code[c] = (byte) ++alphabetSize;
+			}
+
+		int capacity = Math.max(16, nodes+nodes/4+alphabetSize+1);
+		base = new int[capacity];
+		check = new int[capacity];
+		fail = new int[capacity];
+		output = new int[capacity];
+		outputLink = new int[capacity];
+		Arrays.fill(check, FREE);
+		values = new Object[keys];
+		length = new int[keys];
+
+		check[ROOT] = ROOT;
+		output[ROOT] = -1;
+		outputLink[ROOT] = -1;
+		states = 1;
+
+		// breadth first: all states of lower depth (i.e. all targets of failure links) are placed before their children
+		Node[] qn = new Node[nodes];
+		int[] qs = new int[nodes];
+		int tail = 0;
+		qn[tail] = root;
+		qs[tail++] = ROOT;
+		int nextCheckPos = 1;
+		int nvalues = 0;
+		int[] codes = new int[alphabetSize];
+		Node[] children = new Node[alphabetSize];
+		for (int qi=0; qi<tail; qi++) {
+			Node n = qn[qi];
+			int s = qs[qi];
+			qn[qi] = null;
+
+			int k = 0;
+			for (Node ch=n.child; ch!=null; ch=ch.sibling) {
+				children[k] = ch;
+				codes[k++] = code[ch.c];
+			}
+			if (k==0) continue;
+			sortByCode(codes, children, k);
+
+			// first fit base
+			int nonfree = 0;
+			boolean first = true;
+			int p = Math.max(codes[0]+1, nextCheckPos);
+			int b;
+			for (;; p++) {
+				ensureCapacity(p+alphabetSize+1);
+				if (check[p]!=FREE) {
+					nonfree++;
+					continue;
+				}
+				if (first) {
+					nextCheckPos = p;
+					first = false;
+				}
+				b = p-codes[0];
+				boolean fits = true;
+				for (int i=1; i<k && fits; i++)
+					fits = check[b+codes[i]]==FREE;
+				if (fits) break;
+			}
+			if (nonfree>=0.95*(p-nextCheckPos+1))
+				nextCheckPos = p;
+
+			base[s] = b;
+			for (int i=0; i<k; i++)
+				check[b+codes[i]] = s;
+
+			for (int i=0; i<k; i++) {
+				int t = b+codes[i];
+				states++;
+
+				if (s==ROOT)
+					fail[t] = ROOT;
+				else {
+					int f = fail[s];
+					int g;
+					while ((g=transition(f, codes[i]))<0 && f!=ROOT)
+						f = fail[f];
+					fail[t] = g<0?ROOT:g;
+				}
+
+				if (children[i].value!=null) {
+					values[nvalues] = children[i].value==nullValue?null:children[i].value;
+					length[nvalues] = children[i].nodeLevel;
+					maxLength = Math.max(maxLength, children[i].nodeLevel);
+					output[t] = nvalues++;
+				} else
+					output[t] = -1;
+				int f = fail[t];
+				outputLink[t] = output[f]>=0?f:outputLink[f];
+
+				qn[tail] = children[i];
+				qs[tail++] = t;
+			}
+		}
+	}
+
+	private static void sortByCode(int[] codes, Node[] children, int k) {
+		for (int i=1; i<k; i++)
+			for (int j=i; j>0 && codes[j-1]>codes[j]; j--) {
+				int tc = codes[j]; codes[j] = codes[j-1]; codes[j-1] = tc;
+				Node tn = children[j]; children[j] = children[j-1]; children[j-1] = tn;
+			}
+	}
+
+	private void ensureCapacity(int size) {
+		if (size<=check.length) return;
+		int len = Math.max(size, check.length+(check.length>>1));
+		int old = check.length;
+		base = Arrays.copyOf(base, len);
+		check = Arrays.copyOf(check, len);
+		fail = Arrays.copyOf(fail, len);
+		output = Arrays.copyOf(output, len);
+		outputLink = Arrays.copyOf(outputLink, len);
+		Arrays.fill(check, old, len, FREE);
+	}
+
+	private int transition(int s, int c) {
+		int t = base[s]+c;
+		return t<check.length && check[t]==s?t:-1;
+	}
+
+	private int next(int s, char ch) {
+		int c = code[ch];
+		if (c==0) return ROOT;
+		int t;
+		while ((t=transition(s, c))<0 && s!=ROOT)
+			s = fail[s];
+		return t<0?ROOT:t;
+	}
+
+	public int getNumStates() {
+		return states;
+	}
+
+	/**
+	 * Number of slots of the double array
+	 * @return
+	 */
+	public int getCapacity() {
+		return check.length;
+	}
+
+	public int getNumKeys() {
+		return values.length;
+	}
+
+	/**
+	 * Length of the longest key
+	 * @return
+	 */
+	public int getMaxLength() {
+		return maxLength;
+	}
+
+	@SuppressWarnings("unchecked")
+	public T getValue(int index) {
+		return (T) values[index];
+	}
+
+	/**
+	 * Reports all matches in text that are completely contained in [from,to)
+	 * @param text
+	 * @param from
+	 * @param to
+	 * @param consumer
+	 */
+	public void scan(CharSequence text, int from, int to, MatchConsumer<T> consumer) {
+		scan(text, from, from, to, consumer);
+	}
+
+	public void scan(CharSequence text, MatchConsumer<T> consumer) {
+		scan(text, 0, 0, text.length(), consumer);
+	}
+
+	/**
+	 * Scans [from,to), but only reports matches ending after report
+	 */
+	@SuppressWarnings("unchecked")
+	private void scan(CharSequence text, int from, int report, int to, MatchConsumer<T> consumer) {
+		int s = ROOT;
+		for (int i=from; i<to; i++) {
+			s = next(s, text.charAt(i));
+			if (i<report) continue;
+			for (int o=output[s]>=0?s:outputLink[s]; o>=0; o=outputLink[o]) {
+				int v = output[o];
+				consumer.accept(i+1-length[v], i+1, (T) values[v]);
+			}
+		}
+	}
+
+	/**
+	 * Scans chunks of text (of size chunkSize) in parallel. Each chunk is extended to the left by the length of the longest key (minus one), and only matches ending in the chunk
+	 * are reported, i.e. each match is reported exactly once (but not in order of their position). The consumer must be thread safe.
+	 * @param text
+	 * @param nthreads
+	 * @param chunkSize
+	 * @param consumer
+	 */
+	public void scanParallel(CharSequence text, int nthreads, int chunkSize, MatchConsumer<T> consumer) {
+		if (nthreads<=1 || text.length()<=chunkSize) {
+			scan(text, consumer);
+			return;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(nthreads);
+		try {
+			ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int start=0; start<text.length(); start+=chunkSize) {
+				int ustart = start;
+				int end = (int) Math.min(text.length(), (long)start+chunkSize);
+				futures.add(pool.submit(()->scan(text, Math.max(0, ustart-maxLength+1), ustart, end, consumer)));
+			}
+			for (Future<?> f : futures)
+				f.get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException("Could not scan text!",e);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Same as {@link Trie#iterateAhoCorasick(CharSequence)}
+	 * @param text
+	 * @return
+	 */
+	public ExtendedIterator<AhoCorasickResult<T>> iterate(final CharSequence text) {
+		if (text==null) return EI.empty();
+
+		return new ExtendedIterator<AhoCorasickResult<T>>() {
+			int s = ROOT;
+			int index = 0;
+			int o = -1;
+
+			@Override
+			public boolean hasNext() {
+				lookAhead();
+				return o>=0;
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public AhoCorasickResult<T> next() {
+				lookAhead();
+				int v = output[o];
+				AhoCorasickResult<T> re = new AhoCorasickResult<T>();
+				re.end = index;
+				re.start = index-length[v];
+				re.object = (T) values[v];
+				re.key = text.subSequence(re.start, re.end);
+				o = outputLink[o];
+				return re;
+			}
+
+			private void lookAhead() {
+				while (o<0 && index<text.length()) {
+					s = AhoCorasickAutomaton.this.next(s, text.charAt(index++));
+					o = output[s]>=0?s:outputLink[s];
+				}
+			}
+		};
+	}
+
+}
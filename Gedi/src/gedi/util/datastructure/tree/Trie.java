@@ -906,6 +906,14 @@ public class Trie<T> implements Map<String,T> {
 		
 	}
 	
+	/**
+	 * Compiles this trie into an immutable {@link AhoCorasickAutomaton} (the values are not copied, i.e. the automaton reports the same value objects)
+	 * @return
+	 */
+	public AhoCorasickAutomaton<T> compile() {
+		return new AhoCorasickAutomaton<T>(root, nullValue);
+	}
+	
 	private Node acGoto(Node q, char a) {
 		Node re = q.findChild(a);
 		if (re==null && q==root) return root;
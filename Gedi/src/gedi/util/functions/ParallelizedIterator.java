@@ -1,11 +1,18 @@
 package gedi.util.functions;
 
-import java.lang.reflect.Array;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Queue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -13,27 +20,26 @@ import java.util.function.IntFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import cern.colt.Arrays;
-
 
 /**
- * n+1 threads are started:
- * 
- * 1. Controller thread: drains the input iterator into a buffer (with given size), retrieves an idle worker thread (if available, otherwise it blocks)
- * and copies the contents of the buffer into the input buffer of the worker. I.e. this thread will block when blockSize*threads elements are 
- * retrieved from the input iterator, and no parallel operation has finished yet.
- * 
- * 2. Worker threads: once notified by the controller, it executes the given actions, filling its output buffer. When finished, it copies it into a ResultBlock object
- * (also containing the block index), and puts it into a blocking priority queue. Then it waits until notified from the drain thread that the result has been taken
- * (otherwise the pq would fill up with all the results).
- * 
- * 3. Drain thread: The thread that calls hasnext and next of this. It will block until one worker thread has put a result into the pq. Then it
- * will retrieve the result (based on the block index) and get its elements for iteration. If there are no more elements, it will again block until
- * a result becomes available.
- * 
- * Once the input iterator has no more elements, the controller thread will notify  a worker to process the last (not full) buffer, will shutdown all workers
- * and put a termination result object into the queue, that is taken by the drain thread as a signal that no more elements are available. 
- * 
+ * Processes the input iterator in blocks on a shared executor (by default a {@link ForkJoinPool} with one thread per core, see {@link #setDefaultExecutor(ExecutorService)}),
+ * i.e. apart from its reader thread, no threads are started for a parallelized iterator, and nested parallelized iterators share the same threads.
+ *
+ * The input iterator is read by a single reader thread (such that iterators that keep state in thread locals, e.g. views of cit files,
+ * can be parallelized). It fills a block, hands it to a free state and submits it to the executor, where it is processed and its result
+ * is published. There are at most threads tasks for this iterator at a time, each owning one of the states. The reader waits as long as
+ * there is no free state or the number of blocks that are processed or have been processed but not taken by the drain thread (the thread
+ * that calls hasNext and next of this) reaches the limit ({@link #setMaxBlocks(int)}, back-pressure).
+ *
+ * By default, results are returned in the order of the input blocks; use {@link #unordered()} to return blocks as soon as they are finished.
+ * If {@link #setAdaptiveBlockSize(int, int)} is used, the block size is adapted such that processing a block takes between
+ * {@link #MIN_BLOCK_NANOS} and {@link #MAX_BLOCK_NANOS}. Throughput is recorded in {@link #getMetrics()}.
+ *
+ * The drain thread waits for results via {@link ForkJoinPool#managedBlock(java.util.concurrent.ForkJoinPool.ManagedBlocker)}, such that a fork join pool
+ * can compensate for a blocked worker (if a parallelized iterator is drained within another one).
+ *
+ * Processing starts with the first call to hasNext or next.
+ *
  * @author erhard
  *
  * @param <I>
@@ -42,41 +48,76 @@ import cern.colt.Arrays;
 public class ParallelizedIterator<I,O,S> implements ExtendedIterator<O>{
 
 	private static final Logger log = Logger.getLogger( ParallelizedIterator.class.getName() );
-	
-	private Worker[] runners;
-	private int blockSize;
-	
-	private ArrayList<I> block = new ArrayList<I>();
-	
-	private LinkedBlockingQueue<Worker> freeRunner = new LinkedBlockingQueue<Worker>();
-	
-	private LinkedBlockingQueue<ResultBlock> output = new LinkedBlockingQueue<>();
-	
-//	private Function<ExtendedIterator<I>,ExtendedIterator<O>> process;
+
+	public static final long MIN_BLOCK_NANOS = 5_000_000L;
+	public static final long MAX_BLOCK_NANOS = 200_000_000L;
+
+	private static ExecutorService defaultExecutor;
+
+	/**
+	 * Sets the executor used for all parallelized iterators created afterwards.
+	 * @param executor
+	 */
+	public static synchronized void setDefaultExecutor(ExecutorService executor) {
+		defaultExecutor = executor;
+	}
+
+	public static synchronized ExecutorService getDefaultExecutor() {
+		if (defaultExecutor==null)
+			defaultExecutor = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+					pool->{
+						ForkJoinWorkerThread re = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+						re.setName("ParallelizedIterator-"+re.getPoolIndex());
+						re.setDaemon(true);
+						return re;
+					},
+					null, false);
+		return defaultExecutor;
+	}
+
+
+	private ExtendedIterator<I> in;
+	private Thread reader;
+	private volatile boolean inputDone = false;
+	private long blockIndex = 0;
+
+	private volatile int blockSize;
+	private int minBlockSize;
+	private int maxBlockSize;
+	private boolean adaptive = false;
+	private boolean ordered = true;
+	private int maxBlocks;
+	private String name = "ParallelizedIterator";
+	private ExecutorService executor = getDefaultExecutor();
+
 	private BiFunction<ExtendedIterator<I>,S,ExtendedIterator<O>> process;
-	private Thread controller;
-	private Thread drainThread;
-	private Object drainLock = new Object();
-	
-	
+	private IntObjectConsumer<S> blockStateMaker;
+	private Consumer<ExtendedIterator<S>> endStateAction;
+	private Object[] states;
+
 	private Queue<O> checkQueue;
 	private BiFunction<O,O,String> checker;
-	
-	private AtomicInteger inputContr = new AtomicInteger();
-	private AtomicInteger inputWork = new AtomicInteger();
-	private AtomicInteger outputWork = new AtomicInteger();
-	private AtomicInteger outputContr = new AtomicInteger();
-	
-	private Object[] states;
-	
-	private IntObjectConsumer<S> blockStateMaker;
 
-	private Consumer<ExtendedIterator<S>> endStateAction;
-	
+	// guarded by lock
+	private ReentrantLock lock = new ReentrantLock();
+	private Condition changed = lock.newCondition();
+	private ArrayDeque<Slot> free = new ArrayDeque<>();
+	private int outstanding = 0;
+	private HashMap<Long,Object[]> orderedResults = new HashMap<>();
+	private ArrayDeque<Object[]> unorderedResults = new ArrayDeque<>();
+	private long nextResult = 0;
+	private boolean started = false;
+	private boolean finished = false;
+
+	private volatile Throwable ex = null;
+
+	private Metrics metrics = new Metrics();
+
+
 	public ParallelizedIterator(ExtendedIterator<I> in, BiFunction<O,O,String> checker, Function<ExtendedIterator<I>,ExtendedIterator<O>> sub) {
 		this(in,Runtime.getRuntime().availableProcessors(),1024, checker, sub);
 	}
-	
+
 	public ParallelizedIterator(ExtendedIterator<I> in, Function<ExtendedIterator<I>,ExtendedIterator<O>> sub) {
 		this(in,Runtime.getRuntime().availableProcessors(),1024, null, sub);
 	}
@@ -87,61 +128,113 @@ public class ParallelizedIterator<I,O,S> implements ExtendedIterator<O>{
 		this(in, threads, blocksize, checker, stateMaker, null, sub);
 	}
 	public ParallelizedIterator(ExtendedIterator<I> in, int threads, int blocksize, BiFunction<O,O,String> checker, IntFunction<S> stateMaker, IntObjectConsumer<S> blockStateMaker, BiFunction<ExtendedIterator<I>,S,ExtendedIterator<O>> sub) {
-		this.blockSize = blocksize;
+		this.blockSize = Math.max(1,blocksize);
+		this.minBlockSize = this.maxBlockSize = this.blockSize;
+		this.maxBlocks = 2*threads;
 		this.process = sub;
 		this.states = new Object[threads];
 		this.blockStateMaker = blockStateMaker;
-		
-		runners = (Worker[]) Array.newInstance(Worker.class, threads);
-		if (log.isLoggable(Level.FINE)) log.fine("Starting "+runners.length+" workers");
-		for (int i=0; i<runners.length; i++)  {
-			runners[i] = new Worker(i,stateMaker.apply(i));
-			states[i]=runners[i].state;
-			runners[i].start();
+
+		for (int i=0; i<threads; i++)  {
+			Slot slot = new Slot(stateMaker.apply(i));
+			states[i]=slot.state;
+			free.add(slot);
 		}
-		while(freeRunner.size()!=threads)
-			Thread.yield();
-		if (log.isLoggable(Level.FINE)) log.fine("done");
-		
+
 		if (checker!=null) {
 			this.checker = checker;
-			checkQueue = new LinkedList<O>();
+			checkQueue = new ConcurrentLinkedQueue<O>();
 			S state = stateMaker.apply(-1);
 			in = in.sideEffect(i->sub.apply(EI.wrap(i),state).toCollection(checkQueue));
 		}
-		
-		ExtendedIterator<I> fin = in;
-		controller = new Thread("ControllerThread") {
-			public void run() {
-				try {
-					while (fin.hasNext()) 
-						if (!consume(fin))
-							return;
-					finish();
-				} catch (Throwable e) {
-					ex=e;
-					synchronized (drainLock) {
-						if (drainThread!=null)
-							drainThread.interrupt();	
-					}
-				}
-			}	
-		};
-		controller.setDaemon(true);
-		controller.start();
-		if (log.isLoggable(Level.FINE)) log.fine("Started controller");
-		
+		this.in = in;
 	}
 
 	public int getNthreads() {
 		return states.length;
 	}
-	
+
+	/**
+	 * Returns blocks as soon as they are finished (i.e. not necessarily in the order of the input). Must be called before iterating.
+	 * @return
+	 */
+	public ParallelizedIterator<I, O, S> unordered() {
+		checkNotStarted();
+		if (checkQueue!=null) throw new IllegalStateException("Cannot check an unordered iterator!");
+		this.ordered = false;
+		return this;
+	}
+
+	/**
+	 * Maximal number of blocks that are processed or waiting to be taken by the drain thread (default: 2*threads). Must be called before iterating.
+	 * @param maxBlocks
+	 * @return
+	 */
+	public ParallelizedIterator<I, O, S> setMaxBlocks(int maxBlocks) {
+		checkNotStarted();
+		this.maxBlocks = Math.max(1, maxBlocks);
+		return this;
+	}
+
+	/**
+	 * Adapts the block size within the given range, such that processing a block takes between {@link #MIN_BLOCK_NANOS} and {@link #MAX_BLOCK_NANOS}.
+	 * Only use this if the block state maker does not rely on the block size! Must be called before iterating.
+	 * @param minBlockSize
+	 * @param maxBlockSize
+	 * @return
+	 */
+	public ParallelizedIterator<I, O, S> setAdaptiveBlockSize(int minBlockSize, int maxBlockSize) {
+		checkNotStarted();
+		this.minBlockSize = Math.max(1, minBlockSize);
+		this.maxBlockSize = Math.max(this.minBlockSize, maxBlockSize);
+		this.blockSize = Math.min(this.maxBlockSize, Math.max(this.minBlockSize, blockSize));
+		this.adaptive = true;
+		return this;
+	}
+
+	/**
+	 * Must be called before iterating.
+	 * @param executor
+	 * @return
+	 */
+	public ParallelizedIterator<I, O, S> setExecutor(ExecutorService executor) {
+		checkNotStarted();
+		this.executor = executor;
+		return this;
+	}
+
+	/**
+	 * Name used when logging the metrics.
+	 * @param name
+	 * @return
+	 */
+	public ParallelizedIterator<I, O, S> setName(String name) {
+		this.name = name;
+		return this;
+	}
+
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	private void checkNotStarted() {
+		lock.lock();
+		try {
+			if (started) throw new IllegalStateException("Already started!");
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	public ExtendedIterator<S> drainStates() {
 		drain();
 		return (ExtendedIterator<S>) EI.wrap(states);
 	}
-	
+
 	/**
 	 * The Consumer is executed in the thread that also calls next and hasNext (i.e. that drains this iterator!)
 	 * @param endStateAction
@@ -151,17 +244,15 @@ public class ParallelizedIterator<I,O,S> implements ExtendedIterator<O>{
 		this.endStateAction = endStateAction;
 		return this;
 	}
-	
+
 	public S getState(int index) {
 		return (S) states[index];
 	}
-	
-	private long resultIndex = 0;
+
 	int nindex = 0;
 	private Object[] next = null;
-	private Throwable ex = null;
-	
-	
+
+
 	@Override
 	public boolean hasNext() {
 		tryNext();
@@ -171,7 +262,7 @@ public class ParallelizedIterator<I,O,S> implements ExtendedIterator<O>{
 		}
 		return nindex>=0;
 	}
-	
+
 	@Override
 	public O next() {
 		tryNext();
@@ -185,222 +276,305 @@ public class ParallelizedIterator<I,O,S> implements ExtendedIterator<O>{
 		}
 		return (O) next[nindex++];
 	}
-	
+
 	private void tryNext() {
 		if (nindex==-1) return;
 		if (next!=null && nindex<next.length)
 			return;
-		
-		synchronized (drainLock) {
-			if (ex!=null) fatal(null,ex);
-			drainThread = Thread.currentThread();
-		}
-		
+
 		while (next==null || nindex>=next.length) {
-			
-			ResultBlock res;
-			try {
-				res = output.take();
-			} catch (InterruptedException e) {
+			Object[] res = take();
+			if (res==null) {
 				nindex = -1;
-				if (ex!=null) fatal(null,ex);
-				return;
-			}
-			if (ex!=null) fatal(res.r,ex);
-			if (res.r==null) {
-				nindex = -1;
-				if (inputContr.get()!=inputWork.get())
+				if (metrics.inputElements.get()!=metrics.processedElements.get())
 					throw new RuntimeException("Fatal error in parallelized iterator: input sizes do not match!");
-				if (outputContr.get()!=outputWork.get())
-					throw new RuntimeException("Fatal error in parallelized iterator: output sizes do not match!");
+				if (log.isLoggable(Level.FINE)) log.fine(name+": "+metrics);
 				if (endStateAction!=null)
 					endStateAction.accept((ExtendedIterator<S>) EI.wrap(states));
 				return;
 			}
-			outputContr.addAndGet(res.r.length);
-			
-			
-			resultIndex++;
+			metrics.outputElements.addAndGet(res.length);
 			nindex = 0;
-			next = res.take();
-				
-		}
-		
-		synchronized (drainLock) {
-			if (ex!=null) fatal(null,ex);
-			drainThread = null;
+			next = res;
 		}
 	}
-	
-	
-	private void fatal(Object[] current, Throwable e) {
-		for (int i=0; i<runners.length; i++) {
-			runners[i].shutdown();
-		}
-		controller.interrupt();
-		if (current==null) throw new RuntimeException("Exception in parallel iterator thread",e);
-		throw new RuntimeException("Exception in parallel iterator thread while processing "+Arrays.toString(current),e);
-	}
-	
-	private int blockIndex = 0;
-	private boolean consume(ExtendedIterator<I> in) {
-		if (block.size()==blockSize) {
-			try {
-				Worker runner = freeRunner.take();
-				if (blockStateMaker!=null)
-					blockStateMaker.accept(blockIndex++, runner.state);
-				runner.setTasks(block);
-				inputContr.addAndGet(block.size());
-				block.clear();
-				if (log.isLoggable(Level.FINE)) log.fine("Put block to worker thread "+runner.getName());
-				
-			} catch (InterruptedException e) {
-				return false;
+
+	/**
+	 * Takes the next result block (or null if there are no more blocks).
+	 * @return
+	 */
+	private Object[] take() {
+		lock.lock();
+		try {
+			if (!started) {
+				started = true;
+				reader = new Thread(this::read, name+"-Reader");
+				reader.setDaemon(true);
+				reader.start();
 			}
+		} finally {
+			lock.unlock();
 		}
-		block.add(in.next());
-		return true;
-	}
 
-	
-	private void finish() {
+		long start = System.nanoTime();
 		try {
-			Worker runner = freeRunner.take();
-			runner.setTasks(block);
-			if (blockStateMaker!=null)
-				blockStateMaker.accept(blockIndex++, runner.state);
-			inputContr.addAndGet(block.size());
-			block.clear();
-			if (log.isLoggable(Level.FINE)) log.fine("Put last block to worker thread "+runner.getName());
-			
+			ForkJoinPool.managedBlock(new ResultBlocker());
 		} catch (InterruptedException e) {
-			throw new RuntimeException(e);
-		}
-		
-		for (int i=0; i<runners.length; i++) {
-			runners[i].shutdown();
+			Thread.currentThread().interrupt();
+			cancel();
+			return null;
 		}
-		
-		waitForFinish();
-		if (log.isLoggable(Level.FINE)) log.fine("Finished processing input");
-		
+		metrics.waitNanos.addAndGet(System.nanoTime()-start);
+
+		if (ex!=null) fatal(null,ex);
+
+		lock.lock();
 		try {
-			output.put(new ResultBlock(null, null));
-		} catch (InterruptedException e) {
-			throw new RuntimeException(e);
+			Object[] re = ordered?orderedResults.remove(nextResult):unorderedResults.poll();
+			if (re==null) {
+				finished = true;
+				return null;
+			}
+			nextResult++;
+			outstanding--;
+			changed.signalAll();
+			return re;
+		} finally {
+			lock.unlock();
 		}
 	}
-	
-	
-	private void waitForFinish() {
-		// wait until all threads finish
-		int alives;
-		do {
-			alives = 0;
-			for (int i=0; i<runners.length; i++) {
-				if (runners[i].isAlive())
-					alives++;
+
+	private boolean isResultAvailable() {
+		if (ex!=null) return true;
+		if (ordered?orderedResults.containsKey(nextResult):!unorderedResults.isEmpty()) return true;
+		return inputDone && outstanding==0;
+	}
+
+	/**
+	 * The body of the reader thread: the only thread that accesses the input iterator.
+	 */
+	private void read() {
+		try {
+			for (;;) {
+				Slot slot;
+				lock.lock();
+				try {
+					while ((free.isEmpty() || outstanding>=maxBlocks) && !inputDone && ex==null)
+						changed.await();
+					if (inputDone || ex!=null) return;
+					slot = free.poll();
+				} finally {
+					lock.unlock();
+				}
+
+				long start = System.nanoTime();
+				int bs = blockSize;
+				while (slot.tasks.size()<bs && in.hasNext())
+					slot.tasks.add(in.next());
+				boolean last = slot.tasks.size()<bs;
+				metrics.inputNanos.addAndGet(System.nanoTime()-start);
+				if (slot.tasks.size()>0) {
+					slot.index = blockIndex++;
+					metrics.inputElements.addAndGet(slot.tasks.size());
+					if (blockStateMaker!=null)
+						blockStateMaker.accept((int)slot.index, slot.state);
+				}
+
+				lock.lock();
+				try {
+					if (slot.tasks.isEmpty())
+						free.add(slot);
+					else {
+						outstanding++;
+						try {
+							executor.execute(slot);
+						} catch (RejectedExecutionException e) {
+							outstanding--;
+							slot.tasks.clear();
+							free.add(slot);
+							throw e;
+						}
+					}
+					if (last)
+						inputDone = true;
+					changed.signalAll();
+					if (last) return;
+				} finally {
+					lock.unlock();
+				}
+			}
+		} catch (Throwable e) {
+			lock.lock();
+			try {
+				ex = e;
+				changed.signalAll();
+			} finally {
+				lock.unlock();
 			}
-			Thread.yield();
-		} while (alives>0);		
+		}
+	}
+
+	private void cancel() {
+		lock.lock();
+		try {
+			inputDone = true;
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 
-	private static class ResultBlock {
-		private ParallelizedIterator.Worker runner;
-		private Object[] r;
-		
-		public ResultBlock(ParallelizedIterator.Worker runner, Object[] r) {
-			this.runner = runner;
-			this.r = r;
+	private void fatal(Object[] current, Throwable e) {
+		cancel();
+		if (current==null) throw new RuntimeException("Exception in parallel iterator thread",e);
+		throw new RuntimeException("Exception in parallel iterator thread while processing "+Arrays.toString(current),e);
+	}
+
+
+	private void adaptBlockSize(int size, long nanos) {
+		if (!adaptive || size<blockSize) return;
+		if (nanos<MIN_BLOCK_NANOS && blockSize<maxBlockSize)
+			blockSize = Math.min(maxBlockSize, blockSize*2);
+		else if (nanos>MAX_BLOCK_NANOS && blockSize>minBlockSize)
+			blockSize = Math.max(minBlockSize, blockSize/2);
+	}
+
+
+	private class ResultBlocker implements ForkJoinPool.ManagedBlocker {
+
+		@Override
+		public boolean block() throws InterruptedException {
+			lock.lock();
+			try {
+				while (!isResultAvailable())
+					changed.await();
+			} finally {
+				lock.unlock();
+			}
+			return true;
 		}
-		
-		public Object[] take() {
-			synchronized (runner) {
-				runner.notify();	
+
+		@Override
+		public boolean isReleasable() {
+			if (!lock.tryLock()) return false;
+			try {
+				return isResultAvailable();
+			} finally {
+				lock.unlock();
 			}
-			return r;
 		}
 
 	}
-	
-	
-	private class Worker extends Thread{
-		
+
+
+	/**
+	 * A task for the executor, owning a state; its block is filled by the reader thread.
+	 * @author erhard
+	 *
+	 */
+	private class Slot implements Runnable {
+
 		private ArrayList<I> tasks = new ArrayList<I>();
 		private ArrayList<O> output = new ArrayList<O>();
-		private boolean shut = false;
+		private long index;
 		private S state;
-		
-		public Worker(int n, S state) {
-			super("RunnerThread"+n);
+
+		public Slot(S state) {
 			this.state = state;
-			setDaemon(true);
 		}
-		
+
 		@Override
 		public void run() {
-			
 			try {
-				synchronized (this) {
-					while (!isInterrupted()) {
-						
-						try {
-							freeRunner.add(this);
-							wait();
-						} catch (InterruptedException e) {
-							break;
-						}
-						if (tasks.size()==0 && shut) break;
-						if (log.isLoggable(Level.FINE)) log.fine(getName()+": processing block");
-						
-						inputWork.addAndGet(tasks.size());
-						
-						try {
-							ExtendedIterator<O> it = process.apply(EI.wrap(tasks),state);
-							it.toCollection(output);
-						} catch (Throwable e) {
-							ex = e;
-						}
-						tasks.clear();
-						
-						outputWork.addAndGet(output.size());
-						
-						try {
-							ParallelizedIterator.this.output.put(new ResultBlock(this,output.toArray()));
-							output.clear();
-							wait();
-						} catch (InterruptedException e) {
-							break;
-						}
-						if (shut) break;
-						if (log.isLoggable(Level.FINE)) log.fine(getName()+": done");
-						
-					}
+				long start = System.nanoTime();
+				process.apply(EI.wrap(tasks),state).toCollection(output);
+				long nanos = System.nanoTime()-start;
+				metrics.processNanos.addAndGet(nanos);
+				metrics.blocks.incrementAndGet();
+				metrics.processedElements.addAndGet(tasks.size());
+				adaptBlockSize(tasks.size(), nanos);
+				if (log.isLoggable(Level.FINEST)) log.finest(name+": processed block "+index+" of size "+tasks.size());
+
+				lock.lock();
+				try {
+					if (ordered)
+						orderedResults.put(index, output.toArray());
+					else
+						unorderedResults.add(output.toArray());
+					tasks.clear();
+					output.clear();
+					free.add(this);
+					changed.signalAll();
+				} finally {
+					lock.unlock();
 				}
 			} catch (Throwable e) {
-				ex = e;
-				
-				synchronized (drainLock) {
-					if (drainThread!=null)
-						drainThread.interrupt();	
+				lock.lock();
+				try {
+					ex = e;
+					tasks.clear();
+					output.clear();
+					free.add(this);
+					changed.signalAll();
+				} finally {
+					lock.unlock();
 				}
-				
 			}
-			
 		}
-		
-		public synchronized void shutdown() {
-			shut = true;
-			notify();
+	}
+
+	/**
+	 * Throughput of a parallelized iterator: input nanos is the time spent in reading from the input iterator (i.e. mostly the time of
+	 * upstream stages), process nanos is the time spent in the parallel operation (summed over all threads), wait nanos is the time the drain
+	 * thread waited for results.
+	 * @author erhard
+	 *
+	 */
+	public static class Metrics {
+		private AtomicLong inputElements = new AtomicLong();
+		private AtomicLong processedElements = new AtomicLong();
+		private AtomicLong outputElements = new AtomicLong();
+		private AtomicLong blocks = new AtomicLong();
+		private AtomicLong inputNanos = new AtomicLong();
+		private AtomicLong processNanos = new AtomicLong();
+		private AtomicLong waitNanos = new AtomicLong();
+
+		public long getInputElements() {
+			return inputElements.get();
+		}
+		public long getOutputElements() {
+			return outputElements.get();
+		}
+		public long getBlocks() {
+			return blocks.get();
 		}
-		
-		
-		public synchronized void setTasks(ArrayList<I> tasks) {
-			this.tasks.addAll(tasks);
-			notify();
+		public long getInputNanos() {
+			return inputNanos.get();
+		}
+		public long getProcessNanos() {
+			return processNanos.get();
+		}
+		public long getWaitNanos() {
+			return waitNanos.get();
 		}
 
-		
+		/**
+		 * Elements per second and thread
+		 * @return
+		 */
+		public double getProcessThroughput() {
+			return processedElements.get()/(processNanos.get()*1E-9);
+		}
+
+		public double getInputThroughput() {
+			return inputElements.get()/(inputNanos.get()*1E-9);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("in=%d (%.0f/s), out=%d, blocks=%d, process=%.0f/s/thread, wait=%.2fs",
+					getInputElements(),getInputThroughput(),getOutputElements(),getBlocks(),getProcessThroughput(),getWaitNanos()*1E-9);
+		}
 	}
 }
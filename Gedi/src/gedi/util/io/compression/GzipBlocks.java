@@ -0,0 +1,208 @@
+package gedi.util.io.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Compression and decompression of independent gzip members. If the uncompressed size is at most {@link #BGZF_BLOCK_SIZE}, members are
+ * written in the BGZF format (i.e. with a BC extra field containing the size of the member), which allows to find member boundaries without
+ * decompressing.
+ *
+ * @author erhard
+ *
+ */
+class GzipBlocks {
+
+	/**
+	 * Maximal uncompressed size of a BGZF block (such that the compressed member is guaranteed to fit into 64k)
+	 */
+	static final int BGZF_BLOCK_SIZE = 0xff00;
+	static final int BGZF_MAX_MEMBER_SIZE = 1<<16;
+	static final int BGZF_HEADER = 18;
+	static final int GZIP_HEADER = 10;
+	static final int TRAILER = 8;
+
+	/**
+	 * Empty BGZF member that marks the end of a BGZF file
+	 */
+	static final byte[] BGZF_EOF = {
+			0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0, 0x1b, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0
+		};
+
+	private static final ThreadLocal<Deflater> deflater = ThreadLocal.withInitial(()->new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+	private static final ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(()->new Inflater(true));
+
+
+	/**
+	 * Compresses len bytes of data into a complete gzip member
+	 * @param data
+	 * @param len
+	 * @return
+	 */
+	static byte[] compress(byte[] data, int len) {
+		boolean bgzf = len<=BGZF_BLOCK_SIZE;
+		Deflater d = deflater.get();
+		byte[] re = deflate(d, data, len, bgzf?BGZF_HEADER:GZIP_HEADER);
+		if (bgzf && re.length>BGZF_MAX_MEMBER_SIZE) {
+			// incompressible: store
+			Deflater store = new Deflater(Deflater.NO_COMPRESSION, true);
+			re = deflate(store, data, len, BGZF_HEADER);
+			store.end();
+		}
+
+		re[0] = 0x1f;
+		re[1] = (byte) 0x8b;
+		re[2] = Deflater.DEFLATED;
+		re[9] = (byte) 0xff;
+		if (bgzf) {
+			re[3] = 4; // FEXTRA
+			re[10] = 6;
+			re[12] = 'B';
+			re[13] = 'C';
+			re[14] = 2;
+			putShort(re, 16, re.length-1);
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, len);
+		putInt(re, re.length-TRAILER, (int) crc.getValue());
+		putInt(re, re.length-TRAILER+4, len);
+		return re;
+	}
+
+	private static byte[] deflate(Deflater d, byte[] data, int len, int header) {
+		d.reset();
+		d.setInput(data, 0, len);
+		d.finish();
+		byte[] re = new byte[header+len+(len>>4)+64+TRAILER];
+		int pos = header;
+		while (!d.finished()) {
+			if (pos==re.length-TRAILER)
+				re = Arrays.copyOf(re, re.length*2);
+			pos+=d.deflate(re, pos, re.length-TRAILER-pos);
+		}
+		return Arrays.copyOf(re, pos+TRAILER);
+	}
+
+	/**
+	 * Checks whether the first {@link #BGZF_HEADER} bytes of h are the header of a BGZF member
+	 * @param h
+	 * @return
+	 */
+	static boolean isBgzfHeader(byte[] h) {
+		return h[0]==0x1f && h[1]==(byte)0x8b && h[2]==Deflater.DEFLATED && (h[3]&4)!=0
+				&& h[10]==6 && h[11]==0 && h[12]=='B' && h[13]=='C' && h[14]==2 && h[15]==0;
+	}
+
+	/**
+	 * Total size of the BGZF member
+	 * @param h
+	 * @return
+	 */
+	static int getBgzfMemberSize(byte[] h) {
+		return ((h[16]&0xFF)|(h[17]&0xFF)<<8)+1;
+	}
+
+	/**
+	 * Decompresses a complete BGZF member
+	 * @param member
+	 * @return
+	 * @throws IOException
+	 */
+	static byte[] decompress(byte[] member) throws IOException {
+		int len = member.length;
+		int isize = getInt(member, len-4);
+		byte[] re = new byte[isize];
+		Inflater inf = inflater.get();
+		inf.reset();
+		inf.setInput(member, BGZF_HEADER, len-BGZF_HEADER-TRAILER);
+		try {
+			int pos = 0;
+			while (pos<isize) {
+				int n = inf.inflate(re, pos, isize-pos);
+				if (n==0 && (inf.finished() || inf.needsInput() || inf.needsDictionary()))
+					throw new ZipException("Corrupt BGZF block!");
+				pos+=n;
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException("Corrupt BGZF block: "+e.getMessage());
+		}
+		CRC32 crc = new CRC32();
+		crc.update(re, 0, isize);
+		if ((int)crc.getValue()!=getInt(member, len-TRAILER))
+			throw new ZipException("CRC mismatch in BGZF block!");
+		return re;
+	}
+
+	/**
+	 * Reads until len bytes are read or the end of the stream is reached.
+	 * @return the number of bytes read
+	 */
+	static int readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+		int re = 0;
+		while (re<len) {
+			int n = in.read(b, off+re, len-re);
+			if (n<0) break;
+			re+=n;
+		}
+		return re;
+	}
+
+	static <T> T get(Future<T> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted!",e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Pool of daemon threads that are terminated when idle (i.e. streams that are not closed do not leak threads).
+	 * @param threads
+	 * @return
+	 */
+	static ExecutorService createPool(int threads) {
+		AtomicInteger number = new AtomicInteger();
+		ThreadPoolExecutor re = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r->{
+			Thread t = new Thread(r, "gzip-"+number.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		re.allowCoreThreadTimeOut(true);
+		return re;
+	}
+
+	private static void putShort(byte[] b, int off, int v) {
+		b[off] = (byte) v;
+		b[off+1] = (byte) (v>>8);
+	}
+
+	private static void putInt(byte[] b, int off, int v) {
+		b[off] = (byte) v;
+		b[off+1] = (byte) (v>>8);
+		b[off+2] = (byte) (v>>16);
+		b[off+3] = (byte) (v>>24);
+	}
+
+	private static int getInt(byte[] b, int off) {
+		return (b[off]&0xFF)|(b[off+1]&0xFF)<<8|(b[off+2]&0xFF)<<16|(b[off+3]&0xFF)<<24;
+	}
+
+}
@@ -0,0 +1,139 @@
+package gedi.util.io.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Gzip input stream that reads ahead in parallel: BGZF members (see {@link ParallelGzipOutputStream}) are located by their header and
+ * decompressed on a pool of threads, any other gzip member (and everything after it) is decompressed sequentially by a {@link GZIPInputStream}
+ * in a background thread.
+ *
+ * @author erhard
+ *
+ */
+public class ParallelGzipInputStream extends InputStream {
+
+	private static final int CHUNK_SIZE = 1<<16;
+
+	private InputStream in;
+	private ExecutorService pool;
+	private int maxPending;
+	private ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+
+	private GZIPInputStream sequential;
+	private boolean eof = false;
+	private boolean closed = false;
+
+	private byte[] block = new byte[0];
+	private int pos = 0;
+
+	public ParallelGzipInputStream(InputStream in) {
+		this(in, Runtime.getRuntime().availableProcessors());
+	}
+
+	public ParallelGzipInputStream(InputStream in, int threads) {
+		if (threads<1) throw new IllegalArgumentException("Number of threads must be positive!");
+		this.in = in;
+		this.pool = GzipBlocks.createPool(threads);
+		this.maxPending = threads*4;
+	}
+
+	/**
+	 * Submits tasks until maxPending are pending.
+	 * @throws IOException
+	 */
+	private void fill() throws IOException {
+		while (!eof && pending.size()<maxPending) {
+			if (sequential!=null) {
+				pending.add(pool.submit(this::readChunk));
+				continue;
+			}
+
+			byte[] h = new byte[GzipBlocks.BGZF_HEADER];
+			int n = GzipBlocks.readFully(in, h, 0, h.length);
+			if (n==0) {
+				eof = true;
+			}
+			else if (n==h.length && GzipBlocks.isBgzfHeader(h)) {
+				byte[] member = Arrays.copyOf(h, GzipBlocks.getBgzfMemberSize(h));
+				if (GzipBlocks.readFully(in, member, h.length, member.length-h.length)!=member.length-h.length)
+					throw new IOException("Truncated BGZF block!");
+				pending.add(pool.submit(()->GzipBlocks.decompress(member)));
+			}
+			else {
+				// not BGZF: the rest is decompressed by a single thread (in order)
+				sequential = new GZIPInputStream(new SequenceInputStream(new ByteArrayInputStream(h, 0, n), in));
+				pool.shutdown();
+				pool = GzipBlocks.createPool(1);
+				maxPending = 4;
+			}
+		}
+	}
+
+	/**
+	 * @return the next chunk from the sequential stream, or null at its end
+	 * @throws IOException
+	 */
+	private byte[] readChunk() throws IOException {
+		byte[] re = new byte[CHUNK_SIZE];
+		int n = GzipBlocks.readFully(sequential, re, 0, re.length);
+		if (n==0) return null;
+		return n==re.length?re:Arrays.copyOf(re, n);
+	}
+
+	private boolean nextBlock() throws IOException {
+		if (closed) throw new IOException("Stream closed!");
+		for (;;) {
+			fill();
+			if (pending.isEmpty()) return false;
+			byte[] b = GzipBlocks.get(pending.poll());
+			if (b==null)
+				eof = true;
+			else if (b.length>0) {
+				block = b;
+				pos = 0;
+				return true;
+			}
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (pos==block.length && !nextBlock()) return -1;
+		return block[pos++]&0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len==0) return 0;
+		if (pos==block.length && !nextBlock()) return -1;
+		int n = Math.min(len, block.length-pos);
+		System.arraycopy(block, pos, b, off, n);
+		pos+=n;
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return block.length-pos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		for (Future<byte[]> f : pending)
+			f.cancel(true);
+		pending.clear();
+		pool.shutdownNow();
+		in.close();
+	}
+
+}
@@ -0,0 +1,123 @@
+package gedi.util.io.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Gzip output stream that compresses independent members of blockSize bytes in parallel. For block sizes up to
+ * {@link #BGZF_BLOCK_SIZE}, the output is BGZF (i.e. can be decompressed in parallel by {@link ParallelGzipInputStream} and is
+ * readable by htsjdk/samtools); in any case it is a valid (multi-member) gzip file.
+ *
+ * As for {@link java.util.zip.GZIPOutputStream}, {@link #flush()} does not flush the incomplete current block.
+ *
+ * @author erhard
+ *
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+	public static final int BGZF_BLOCK_SIZE = GzipBlocks.BGZF_BLOCK_SIZE;
+
+	private OutputStream out;
+	private ExecutorService pool;
+	private int maxPending;
+	private ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+
+	private byte[] buffer;
+	private int count;
+	private boolean finished = false;
+	private boolean closed = false;
+
+	public ParallelGzipOutputStream(OutputStream out) {
+		this(out, Runtime.getRuntime().availableProcessors(), BGZF_BLOCK_SIZE);
+	}
+
+	public ParallelGzipOutputStream(OutputStream out, int threads, int blockSize) {
+		if (threads<1 || blockSize<1) throw new IllegalArgumentException("Number of threads and block size must be positive!");
+		this.out = out;
+		this.pool = GzipBlocks.createPool(threads);
+		this.maxPending = threads*2;
+		this.buffer = new byte[blockSize];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		if (count==buffer.length) submit();
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		while (len>0) {
+			if (count==buffer.length) submit();
+			int n = Math.min(len, buffer.length-count);
+			System.arraycopy(b, off, buffer, count, n);
+			count+=n;
+			off+=n;
+			len-=n;
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) throw new IOException("Stream closed!");
+		if (finished) throw new IOException("Stream finished!");
+	}
+
+	private void submit() throws IOException {
+		if (count==0) return;
+		byte[] block = buffer;
+		int len = count;
+		pending.add(pool.submit(()->GzipBlocks.compress(block, len)));
+		buffer = new byte[buffer.length];
+		count = 0;
+		while (pending.size()>maxPending || (!pending.isEmpty() && pending.peek().isDone()))
+			out.write(GzipBlocks.get(pending.poll()));
+	}
+
+	private void drain() throws IOException {
+		while (!pending.isEmpty())
+			out.write(GzipBlocks.get(pending.poll()));
+	}
+
+	/**
+	 * Writes all completed blocks and flushes the underlying stream.
+	 */
+	@Override
+	public void flush() throws IOException {
+		drain();
+		out.flush();
+	}
+
+	/**
+	 * Compresses and writes all remaining data and the BGZF end of file marker, but does not close the underlying stream.
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		if (finished) return;
+		finished = true;
+		submit();
+		drain();
+		out.write(GzipBlocks.BGZF_EOF);
+		pool.shutdown();
+	}
+
+	/**
+	 * Finishes the stream (if not done yet) and closes the underlying stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		try {
+			finish();
+		} finally {
+			pool.shutdownNow();
+			out.close();
+		}
+	}
+
+}
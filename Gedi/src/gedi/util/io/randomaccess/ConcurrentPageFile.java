@@ -43,6 +43,11 @@ public class ConcurrentPageFile implements BinaryReader, LineReader, AutoCloseab
 	private boolean unmap = true;
 	
 	private ExtensionContext context;
+	
+	private PageCache cache;
+	// -Dgedi.pagecache.window=0 restores mapping whole pages
+	private static long defaultWindowSize = Long.getLong("gedi.pagecache.window", PageCache.DEFAULT_WINDOW_SIZE);
+	private static int defaultMaxWindows = Integer.getInteger("gedi.pagecache.windows", PageCache.DEFAULT_MAX_WINDOWS);
 
 //	public PageFile(PageFile file) throws IOException  {
 //		this(file.getPath(),file.getStart(),file.getEnd());
@@ -68,6 +73,8 @@ public class ConcurrentPageFile implements BinaryReader, LineReader, AutoCloseab
 		locks = new ReentrantLock[buffers.length];
 		for (int i=0; i<working.length; i++)
 			locks[i] = new ReentrantLock();
+		if (defaultWindowSize>0)
+			setPageCache(defaultWindowSize, defaultMaxWindows);
 //		System.err.println("started reading "+getPath());
 	}
 	
@@ -87,6 +94,8 @@ public class ConcurrentPageFile implements BinaryReader, LineReader, AutoCloseab
 		locks = new ReentrantLock[buffers.length];
 		for (int i=0; i<working.length; i++)
 			locks[i] = new ReentrantLock();
+		if (defaultWindowSize>0)
+			setPageCache(defaultWindowSize, defaultMaxWindows);
 //		System.err.println("started reading "+getPath());
 	}
 	
@@ -114,6 +123,43 @@ public class ConcurrentPageFile implements BinaryReader, LineReader, AutoCloseab
 		this.unmap = unmap;
 	}
 	
+	/**
+	 * Uses a bounded cache of small mapped windows instead of mapping whole pages (see {@link PageCache}); must be called
+	 * before anything is read from this file.
+	 * @param windowSize
+	 * @param maxWindows
+	 * @return
+	 */
+	public ConcurrentPageFile setPageCache(long windowSize, int maxWindows) {
+		if (cache!=null) cache.close();
+		cache = new PageCache(channel, size, windowSize, maxWindows);
+		return this;
+	}
+	
+	/**
+	 * The page cache (containing hit/miss/remap counters) or null, if whole pages are mapped.
+	 * @return
+	 */
+	public PageCache getPageCache() {
+		return cache;
+	}
+	
+	/**
+	 * Sets the page cache used for all files opened afterwards; a windowSize of 0 means that whole pages are mapped.
+	 * By default, windows of {@link PageCache#DEFAULT_WINDOW_SIZE} are used (system properties gedi.pagecache.window and gedi.pagecache.windows,
+	 * or the pagecache entry of the config, see {@link gedi.app.Gedi#startup(boolean, gedi.util.LogUtils.LogMode, String)}).
+	 * @param windowSize
+	 * @param maxWindows
+	 */
+	public static void setDefaultPageCache(long windowSize, int maxWindows) {
+		defaultWindowSize = windowSize;
+		defaultMaxWindows = maxWindows;
+	}
+	
+	long getPageSize() {
+		return cache==null?pageSize:cache.getWindowSize();
+	}
+	
 	public String getPath() {
 		return path;
 	}
@@ -186,6 +232,8 @@ public class ConcurrentPageFile implements BinaryReader, LineReader, AutoCloseab
 	}
 	
 	public void close() {
+		if (cache!=null) 
+			cache.close();
 		for (int i=0; i<buffers.length; i++) {
 			if (buffers[i]!=null) {
 				WeakReference<MappedByteBuffer> r = new WeakReference<MappedByteBuffer>((MappedByteBuffer) buffers[i]);
@@ -210,7 +258,7 @@ public class ConcurrentPageFile implements BinaryReader, LineReader, AutoCloseab
 		for (int index=sindex; index<=eindex; index++) {
 			ByteBuffer buffer = getBuffer(index);
 			buffer.position(boffset);
-			int l = Math.min(length, (int)(ConcurrentPageFile.pageSize-boffset));// (int)(buffer.remaining()-PAGE_OVERLAP-offset));
+			int l = Math.min(length, (int)(getPageSize()-boffset));// (int)(buffer.remaining()-PAGE_OVERLAP-offset));
 			buffer.get(dst, offset, l);
 			length-=l;
 			offset+=l;
@@ -451,16 +499,19 @@ public class ConcurrentPageFile implements BinaryReader, LineReader, AutoCloseab
 	private int getOffset(long pos) {
 		if (mem!=null) return (int) pos;
 		if (pos<0||pos>=size) throw new IndexOutOfBoundsException(pos+"<0 or >="+(size));
-		return (int) ((pos) % pageSize);
+		return (int) ((pos) % getPageSize());
 	}
 
 	private int getIndex(long pos) {
 		if (mem!=null) return 0;
-		return (int) ((pos) / (long) pageSize);
+		return (int) ((pos) / getPageSize());
 	}
 
 	ByteBuffer getBuffer(int index)
 			throws IOException {
+		if (cache!=null) 
+			return cache.getBuffer(index);
+		
 //		if(buffers[index]==null) {
 //			long offset = pageSize * index;
 //			buffers[index] = channel.map(MapMode.READ_ONLY,offset,Math.min(size-offset,pageSize+PAGE_OVERLAP));
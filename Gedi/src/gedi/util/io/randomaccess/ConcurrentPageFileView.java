@@ -92,7 +92,7 @@ public class ConcurrentPageFileView implements BinaryReader, LineReader {
 				ByteBuffer buffer = file.getBuffer(index);
 				buffer.position(boffset);
 	//			int l = Math.min(length, buffer.capacity()-offset);
-				int l = Math.min(length, (int)(ConcurrentPageFile.pageSize-boffset));// (int)(buffer.remaining()-PAGE_OVERLAP-offset));
+				int l = Math.min(length, (int)(file.getPageSize()-boffset));// (int)(buffer.remaining()-PAGE_OVERLAP-offset));
 				buffer.get(dst, offset, l);
 				length-=l;
 				offset+=l;
@@ -348,11 +348,11 @@ public class ConcurrentPageFileView implements BinaryReader, LineReader {
 	private int getOffset(long pos) {
 		if (pos<0||pos>=end-start) 
 			throw new IndexOutOfBoundsException(pos+"<0 or >="+(end-start));
-		return (int) ((start+pos) % file.pageSize);
+		return (int) ((start+pos) % file.getPageSize());
 	}
 
 	private int getIndex(long pos) {
-		return (int) ((start+pos) / (long) file.pageSize);
+		return (int) ((start+pos) / file.getPageSize());
 	}
 
 
@@ -0,0 +1,231 @@
+package gedi.util.io.randomaccess;
+
+import gedi.util.FileUtils;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of read-only mapped windows of a file. Each thread pins the window it is currently reading from (reference counted)
+ * until it requests a different one; unpinned windows are kept in LRU order and only unmapped if more than maxWindows are mapped.
+ *
+ * Windows overlap by {@link ConcurrentPageFile#PAGE_OVERLAP} bytes, such that primitives can be read at the end of a window.
+ *
+ * @author erhard
+ *
+ */
+public class PageCache {
+
+	public static final long DEFAULT_WINDOW_SIZE = 1L<<26;
+	public static final int DEFAULT_MAX_WINDOWS = 64;
+
+	private FileChannel channel;
+	private long size;
+	private long windowSize;
+	private int maxWindows;
+
+	private Window[] windows;
+	private int mapped = 0;
+	private LinkedHashMap<Integer,Window> unpinned = new LinkedHashMap<>(16,0.75f,true);
+	private BitSet everMapped = new BitSet();
+	private ArrayList<Pin> pins = new ArrayList<>();
+
+	private ThreadLocal<Pin> pin = new ThreadLocal<>();
+
+	private LongAdder hits = new LongAdder();
+	private LongAdder misses = new LongAdder();
+	private LongAdder remaps = new LongAdder();
+	private LongAdder evictions = new LongAdder();
+
+	public PageCache(FileChannel channel, long size, long windowSize, int maxWindows) {
+		if (windowSize<=0 || windowSize>Integer.MAX_VALUE-ConcurrentPageFile.PAGE_OVERLAP) throw new IllegalArgumentException("Illegal window size: "+windowSize);
+		if (maxWindows<1) throw new IllegalArgumentException("At least one window must be allowed!");
+		this.channel = channel;
+		this.size = size;
+		this.windowSize = windowSize;
+		this.maxWindows = maxWindows;
+		this.windows = new Window[(int) Math.ceil(size/(double)windowSize)];
+	}
+
+	public long getWindowSize() {
+		return windowSize;
+	}
+
+	public int getMaxWindows() {
+		return maxWindows;
+	}
+
+	/**
+	 * Gets the buffer for the given window and pins it for the calling thread (releasing the window pinned before).
+	 * @param index
+	 * @return
+	 * @throws IOException
+	 */
+	public ByteBuffer getBuffer(int index) throws IOException {
+		Pin p = pin.get();
+		if (p!=null && p.window!=null && p.window.index==index) {
+			hits.increment();
+			return p.window.buffer;
+		}
+		return acquire(index, p);
+	}
+
+	private synchronized ByteBuffer acquire(int index, Pin p) throws IOException {
+		if (p==null) {
+			p = new Pin(Thread.currentThread());
+			pin.set(p);
+			pins.add(p);
+		}
+		else if (p.window!=null)
+			unpin(p.window);
+
+		Window w = windows[index];
+		if (w==null) {
+			misses.increment();
+			if (everMapped.get(index)) remaps.increment();
+			long offset = windowSize*index;
+			w = windows[index] = new Window(index, channel.map(MapMode.READ_ONLY,offset,Math.min(size-offset,windowSize+ConcurrentPageFile.PAGE_OVERLAP)));
+			everMapped.set(index);
+			mapped++;
+		} else {
+			hits.increment();
+			if (w.refs==0)
+				unpinned.remove(index);
+		}
+		w.refs++;
+		p.window = w;
+
+		evict();
+		return w.buffer;
+	}
+
+	/**
+	 * Releases the window pinned by the calling thread, i.e. it may be evicted afterwards. Call this when a thread is done reading
+	 * (otherwise this happens when the thread has died and the cache is full).
+	 */
+	public synchronized void release() {
+		Pin p = pin.get();
+		if (p!=null) {
+			if (p.window!=null)
+				unpin(p.window);
+			p.window = null;
+			pins.remove(p);
+			pin.remove();
+			evict();
+		}
+	}
+
+	private void unpin(Window w) {
+		if (--w.refs==0)
+			unpinned.put(w.index, w);
+	}
+
+	private void evict() {
+		if (mapped>maxWindows && unpinned.isEmpty())
+			releaseDeadThreads();
+
+		Iterator<Window> it = unpinned.values().iterator();
+		while (mapped>maxWindows && it.hasNext()) {
+			Window w = it.next();
+			it.remove();
+			windows[w.index] = null;
+			mapped--;
+			evictions.increment();
+			WeakReference<MappedByteBuffer> r = new WeakReference<MappedByteBuffer>(w.buffer);
+			w.buffer = null;
+			FileUtils.unmap(r);
+		}
+	}
+
+	private void releaseDeadThreads() {
+		Iterator<Pin> it = pins.iterator();
+		while (it.hasNext()) {
+			Pin p = it.next();
+			if (!p.thread.isAlive()) {
+				if (p.window!=null)
+					unpin(p.window);
+				p.window = null;
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized void close() {
+		for (int i=0; i<windows.length; i++) {
+			if (windows[i]!=null) {
+				WeakReference<MappedByteBuffer> r = new WeakReference<MappedByteBuffer>(windows[i].buffer);
+				windows[i].buffer = null;
+				windows[i] = null;
+				FileUtils.unmap(r);
+			}
+		}
+		mapped = 0;
+		unpinned.clear();
+		pins.clear();
+	}
+
+	/**
+	 * Number of requests served by an already mapped window
+	 * @return
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Number of requests that needed to map a window
+	 * @return
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Number of misses for windows that have been mapped (and evicted) before; if this is large, increase the number of windows!
+	 * @return
+	 */
+	public long getRemaps() {
+		return remaps.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public synchronized int getMapped() {
+		return mapped;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("PageCache [window=%d, max=%d, mapped=%d, hits=%d, misses=%d, remaps=%d, evictions=%d]", windowSize,maxWindows,getMapped(),getHits(),getMisses(),getRemaps(),getEvictions());
+	}
+
+	private static class Window {
+		private int index;
+		private MappedByteBuffer buffer;
+		private int refs;
+		public Window(int index, MappedByteBuffer buffer) {
+			this.index = index;
+			this.buffer = buffer;
+		}
+	}
+
+	private static class Pin {
+		private Thread thread;
+		private Window window;
+		public Pin(Thread thread) {
+			this.thread = thread;
+		}
+	}
+
+}
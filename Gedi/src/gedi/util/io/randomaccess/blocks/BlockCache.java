@@ -0,0 +1,130 @@
+package gedi.util.io.randomaccess.blocks;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LRU cache of decompressed blocks shared between all threads (and all {@link BlockCompressedView}s), bounded by the number of
+ * decompressed bytes. Blocks are decompressed outside of the lock, i.e. two threads may decompress the same block concurrently.
+ * 
+ * @author erhard
+ *
+ */
+public class BlockCache {
+	
+	public static final long DEFAULT_BUDGET = 256L<<20;
+	
+	private static BlockCache instance;
+	
+	public static synchronized BlockCache getInstance() {
+		if (instance==null) instance = new BlockCache(DEFAULT_BUDGET);
+		return instance;
+	}
+	
+	public static synchronized void setInstance(BlockCache cache) {
+		instance = cache;
+	}
+	
+	
+	private long budget;
+	private long bytes = 0;
+	private LinkedHashMap<BlockKey,byte[]> map = new LinkedHashMap<>(16,0.75f,true);
+	
+	private LongAdder hits = new LongAdder();
+	private LongAdder misses = new LongAdder();
+	
+	public BlockCache(long budget) {
+		this.budget = budget;
+	}
+	
+	public byte[] get(Object source, long offset, BlockLoader loader) throws IOException {
+		BlockKey key = new BlockKey(source, offset);
+		byte[] re;
+		synchronized (this) {
+			re = map.get(key);
+		}
+		if (re!=null) {
+			hits.increment();
+			return re;
+		}
+		
+		misses.increment();
+		re = loader.load();
+		synchronized (this) {
+			byte[] old = map.put(key, re);
+			if (old!=null) bytes-=old.length;
+			bytes+=re.length;
+			Iterator<byte[]> it = map.values().iterator();
+			while (bytes>budget && map.size()>1) {
+				bytes-=it.next().length;
+				it.remove();
+			}
+		}
+		return re;
+	}
+	
+	/**
+	 * Removes all blocks of the given source (e.g. when it is closed)
+	 * @param source
+	 */
+	public synchronized void remove(Object source) {
+		Iterator<Entry<BlockKey,byte[]>> it = map.entrySet().iterator();
+		while (it.hasNext()) {
+			Entry<BlockKey,byte[]> e = it.next();
+			if (e.getKey().source==source) {
+				bytes-=e.getValue().length;
+				it.remove();
+			}
+		}
+	}
+	
+	public synchronized void clear() {
+		map.clear();
+		bytes = 0;
+	}
+	
+	public long getHits() {
+		return hits.sum();
+	}
+	
+	public long getMisses() {
+		return misses.sum();
+	}
+	
+	public synchronized long getBytes() {
+		return bytes;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("BlockCache [budget=%d, bytes=%d, hits=%d, misses=%d]", budget,getBytes(),getHits(),getMisses());
+	}
+	
+	@FunctionalInterface
+	public static interface BlockLoader {
+		byte[] load() throws IOException;
+	}
+	
+	private static class BlockKey {
+		private Object source;
+		private long offset;
+		public BlockKey(Object source, long offset) {
+			this.source = source;
+			this.offset = offset;
+		}
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(source)*31+Long.hashCode(offset);
+		}
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof BlockKey)) return false;
+			BlockKey o = (BlockKey) obj;
+			return o.source==source && o.offset==offset;
+		}
+	}
+	
+}
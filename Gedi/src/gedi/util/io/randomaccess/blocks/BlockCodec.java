@@ -0,0 +1,42 @@
+package gedi.util.io.randomaccess.blocks;
+
+import java.io.IOException;
+
+/**
+ * Compression of independent blocks, as used by {@link BlockCompressedWriter} and {@link BlockCompressedView}. Implementations
+ * must be thread-safe. The name is stored in the file and resolved by {@link #forName(String)} (either a {@link StandardBlockCodec}
+ * or the name of a class having a default constructor).
+ * 
+ * @author erhard
+ *
+ */
+public interface BlockCodec {
+
+	String getName();
+	
+	int maxCompressedLength(int len);
+	
+	/**
+	 * Compresses len bytes from src into dst
+	 * @return the number of bytes written to dst
+	 */
+	int compress(byte[] src, int soff, int len, byte[] dst, int doff) throws IOException;
+	
+	/**
+	 * Decompresses slen bytes from src into dst; the decompressed length dlen is known
+	 */
+	void decompress(byte[] src, int soff, int slen, byte[] dst, int doff, int dlen) throws IOException;
+	
+	
+	public static BlockCodec forName(String name) {
+		for (StandardBlockCodec c : StandardBlockCodec.values())
+			if (c.getName().equalsIgnoreCase(name))
+				return c;
+		try {
+			return (BlockCodec) Class.forName(name).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			throw new RuntimeException("Unknown block codec "+name+"!",e);
+		}
+	}
+	
+}
@@ -0,0 +1,360 @@
+package gedi.util.io.randomaccess.blocks;
+
+import java.io.IOException;
+
+import gedi.app.extension.ExtensionContext;
+import gedi.util.io.randomaccess.BinaryReader;
+
+/**
+ * Random access to a section written by {@link BlockCompressedWriter}. Positions refer to the uncompressed data, only the blocks
+ * that are touched are decompressed (and put into the shared {@link BlockCache}). As for {@link gedi.util.io.randomaccess.ConcurrentPageFileView},
+ * the position is thread local.
+ * 
+ * @author erhard
+ *
+ */
+public class BlockCompressedView implements BinaryReader {
+
+	private BinaryReader raw;
+	private BlockCodec codec;
+	private BlockCache cache;
+	private Object cacheSource;
+	
+	private int blockSize;
+	private long length;
+	private long[] offsets;
+	private long blocksStart;
+	
+	private long start;
+	private long end;
+	
+	private ThreadLocal<State> state = ThreadLocal.withInitial(State::new);
+	
+	
+	/**
+	 * 
+	 * @param raw the compressed section (i.e. position 0 is the beginning of the header written by {@link BlockCompressedWriter})
+	 * @param codec
+	 * @throws IOException
+	 */
+	public BlockCompressedView(BinaryReader raw, BlockCodec codec) throws IOException {
+		this(raw,codec,BlockCache.getInstance());
+	}
+	
+	public BlockCompressedView(BinaryReader raw, BlockCodec codec, BlockCache cache) throws IOException {
+		this(raw,codec,cache,raw);
+	}
+	
+	/**
+	 * Blocks are put into the cache for cacheSource (at their absolute offsets, i.e. relative to the start of raw within its file), such that
+	 * several sections of the same file can be removed from the cache by {@link BlockCache#remove(Object)} with the file.
+	 * @param raw
+	 * @param codec
+	 * @param cache
+	 * @param cacheSource
+	 * @throws IOException
+	 */
+	public BlockCompressedView(BinaryReader raw, BlockCodec codec, BlockCache cache, Object cacheSource) throws IOException {
+		this.raw = raw;
+		this.codec = codec;
+		this.cache = cache;
+		this.cacheSource = cacheSource;
+		
+		blockSize = raw.getInt(0);
+		length = raw.getLong(Integer.BYTES);
+		int n = raw.getInt(Integer.BYTES+Long.BYTES);
+		offsets = new long[n+1];
+		for (int i=0; i<=n; i++)
+			offsets[i] = raw.getLong(BlockCompressedWriter.HEADER_SIZE+i*Long.BYTES);
+		blocksStart = BlockCompressedWriter.HEADER_SIZE+(n+1)*Long.BYTES;
+		
+		this.start = 0;
+		this.end = length;
+	}
+	
+	private BlockCompressedView(BlockCompressedView parent, long start, long end) {
+		this.raw = parent.raw;
+		this.codec = parent.codec;
+		this.cache = parent.cache;
+		this.cacheSource = parent.cacheSource;
+		this.blockSize = parent.blockSize;
+		this.length = parent.length;
+		this.offsets = parent.offsets;
+		this.blocksStart = parent.blocksStart;
+		this.start = start;
+		this.end = end;
+	}
+	
+	@Override
+	public BinaryReader view(long start, long end) {
+		return new BlockCompressedView(this,this.start+start,this.start+end);
+	}
+	
+	@Override
+	public ExtensionContext getContext() {
+		return raw.getContext();
+	}
+	
+	@Override
+	public long getStart() {
+		return start;
+	}
+	
+	@Override
+	public long getEnd() {
+		return end;
+	}
+	
+	@Override
+	public long size() {
+		return end-start;
+	}
+	
+	/**
+	 * Size of the compressed section
+	 * @return
+	 */
+	public long compressedSize() {
+		return blocksStart+offsets[offsets.length-1];
+	}
+	
+	@Override
+	public long position() {
+		return state.get().position;
+	}
+	
+	@Override
+	public long position(long position) {
+		if (position<0||position>end-start) 
+			throw new IndexOutOfBoundsException("0<="+position+"<"+(end-start));
+		state.get().position = position;
+		return position;
+	}
+	
+	@Override
+	public boolean eof() {
+		return position()>=end-start;
+	}
+	
+	/**
+	 * Makes sure that the block containing pos (absolute) is loaded in s and returns the offset within it
+	 */
+	private int load(State s, long pos) throws IOException {
+		if (pos<0||pos>=length) throw new IndexOutOfBoundsException(pos+"<0 or >="+length);
+		int b = (int) (pos/blockSize);
+		if (s.block!=b) {
+			s.buffer = cache.get(cacheSource, raw.getStart()+blocksStart+offsets[b], ()->decompress(b));
+			s.block = b;
+		}
+		return (int) (pos-(long)b*blockSize);
+	}
+	
+	private byte[] decompress(int b) throws IOException {
+		int clen = (int) (offsets[b+1]-offsets[b]);
+		int len = (int) Math.min(blockSize, length-(long)b*blockSize);
+		byte[] cbuff = new byte[clen];
+		raw.get(blocksStart+offsets[b], cbuff, 0, clen);
+		byte[] re = new byte[len];
+		codec.decompress(cbuff, 0, clen, re, 0, len);
+		return re;
+	}
+	
+	/**
+	 * Returns the offset of n bytes at pos in s.buffer (which is a scratch buffer if the bytes span several blocks)
+	 */
+	private int bytes(State s, long pos, int n) throws IOException {
+		int o = load(s,start+pos);
+		if (o+n<=s.buffer.length) return o;
+		get(s, pos, s.scratch, 0, n);
+		s.block = -1;
+		s.buffer = s.scratch;
+		return 0;
+	}
+	
+	private void get(State s, long pos, byte[] dst, int offset, int length) throws IOException {
+		while (length>0) {
+			int o = load(s,start+pos);
+			int l = Math.min(length, s.buffer.length-o);
+			System.arraycopy(s.buffer, o, dst, offset, l);
+			pos+=l;
+			offset+=l;
+			length-=l;
+		}
+	}
+	
+	@Override
+	public BinaryReader get(long pos, byte[] dst, int offset, int length) throws IOException {
+		State s = state.get();
+		get(s,pos,dst,offset,length);
+		return this;
+	}
+	
+	@Override
+	public BinaryReader get(byte[] dst, int offset, int length) throws IOException {
+		State s = state.get();
+		get(s,s.position,dst,offset,length);
+		s.position+=length;
+		return this;
+	}
+
+	@Override
+	public byte get(long pos) throws IOException {
+		State s = state.get();
+		int o = load(s,start+pos);
+		return s.buffer[o];
+	}
+	
+	@Override
+	public byte get() throws IOException {
+		State s = state.get();
+		int o = load(s,start+s.position);
+		s.position++;
+		return s.buffer[o];
+	}
+	
+	@Override
+	public int getByte(long pos) throws IOException {
+		return get(pos)&0xFF;
+	}
+	
+	@Override
+	public int getByte() throws IOException {
+		return get()&0xFF;
+	}
+	
+	@Override
+	public char getAsciiChar(long pos) throws IOException {
+		return (char) get(pos);
+	}
+	
+	@Override
+	public char getAsciiChar() throws IOException {
+		return (char) get();
+	}
+	
+	@Override
+	public short getShort(long pos) throws IOException {
+		State s = state.get();
+		int o = bytes(s,pos,Short.BYTES);
+		byte[] b = s.buffer;
+		return (short) ((b[o]&0xFF)<<8 | (b[o+1]&0xFF));
+	}
+	
+	@Override
+	public short getShort() throws IOException {
+		State s = state.get();
+		short re = getShort(s.position);
+		s.position+=Short.BYTES;
+		return re;
+	}
+	
+	@Override
+	public char getChar(long pos) throws IOException {
+		return (char) getShort(pos);
+	}
+	
+	@Override
+	public char getChar() throws IOException {
+		return (char) getShort();
+	}
+	
+	@Override
+	public int getInt(long pos) throws IOException {
+		State s = state.get();
+		int o = bytes(s,pos,Integer.BYTES);
+		byte[] b = s.buffer;
+		return (b[o]&0xFF)<<24 | (b[o+1]&0xFF)<<16 | (b[o+2]&0xFF)<<8 | (b[o+3]&0xFF);
+	}
+	
+	@Override
+	public int getInt() throws IOException {
+		State s = state.get();
+		int re = getInt(s.position);
+		s.position+=Integer.BYTES;
+		return re;
+	}
+	
+	@Override
+	public long getLong(long pos) throws IOException {
+		State s = state.get();
+		int o = bytes(s,pos,Long.BYTES);
+		byte[] b = s.buffer;
+		long re = 0;
+		for (int i=0; i<Long.BYTES; i++)
+			re = re<<8 | (b[o+i]&0xFF);
+		return re;
+	}
+	
+	@Override
+	public long getLong() throws IOException {
+		State s = state.get();
+		long re = getLong(s.position);
+		s.position+=Long.BYTES;
+		return re;
+	}
+	
+	@Override
+	public float getFloat(long pos) throws IOException {
+		return Float.intBitsToFloat(getInt(pos));
+	}
+	
+	@Override
+	public float getFloat() throws IOException {
+		return Float.intBitsToFloat(getInt());
+	}
+	
+	@Override
+	public double getDouble(long pos) throws IOException {
+		return Double.longBitsToDouble(getLong(pos));
+	}
+	
+	@Override
+	public double getDouble() throws IOException {
+		return Double.longBitsToDouble(getLong());
+	}
+	
+	/**
+	 * as written by {@link gedi.util.io.randomaccess.PageFileWriter#putString(CharSequence)}
+	 */
+	@Override
+	public StringBuilder getString(StringBuilder re) throws IOException {
+		int l = getInt();
+		if (l==-1) return null;
+		for (int i=0; i<l; i++)
+			re.append(getAsciiChar());
+		return re;
+	}
+	
+	@Override
+	public String getString() throws IOException {
+		StringBuilder re = getString(new StringBuilder());
+		if (re==null) return null;
+		return re.toString();
+	}
+	
+	@Override
+	public StringBuilder getString(long pos, StringBuilder re) throws IOException {
+		position(pos);
+		return getString(re);
+	}
+	
+	@Override
+	public String getString(long pos) throws IOException {
+		StringBuilder re = getString(pos,new StringBuilder());
+		if (re==null) return null;
+		return re.toString();
+	}
+	
+	@Override
+	public String toString() {
+		return raw+" ("+codec.getName()+") "+getStart()+"-"+getEnd();
+	}
+	
+	private static class State {
+		private long position;
+		private int block = -1;
+		private byte[] buffer;
+		private byte[] scratch = new byte[Long.BYTES];
+	}
+	
+}
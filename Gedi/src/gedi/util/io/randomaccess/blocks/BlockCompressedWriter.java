@@ -0,0 +1,62 @@
+package gedi.util.io.randomaccess.blocks;
+
+import java.io.IOException;
+
+import gedi.util.io.randomaccess.BinaryReader;
+import gedi.util.io.randomaccess.BinaryWriter;
+
+/**
+ * Writes a block compressed section that can be read by {@link BlockCompressedView}:
+ * 
+ * blockSize,uncompressed length,number of blocks n,offset_0,...,offset_n,blocks
+ * int,long,int,long...,bytes
+ * 
+ * offsets are relative to the beginning of the first block, block i occupies offset_i-offset_{i+1}.
+ * 
+ * @author erhard
+ *
+ */
+public class BlockCompressedWriter {
+
+	public static final int DEFAULT_BLOCK_SIZE = 1<<16;
+	
+	public static final int HEADER_SIZE = Integer.BYTES+Long.BYTES+Integer.BYTES;
+	
+	/**
+	 * Compresses the bytes start-end from in and writes them to out (at its current position)
+	 * @return the number of bytes written
+	 */
+	public static long write(BinaryReader in, long start, long end, BinaryWriter out, BlockCodec codec, int blockSize) throws IOException {
+		long len = end-start;
+		int n = (int) ((len+blockSize-1)/blockSize);
+		
+		long begin = out.position();
+		out.putInt(blockSize);
+		out.putLong(len);
+		out.putInt(n);
+		long index = out.position();
+		for (int i=0; i<=n; i++)
+			out.putLong(0);
+		long blocks = out.position();
+		
+		byte[] buff = new byte[blockSize];
+		byte[] cbuff = new byte[codec.maxCompressedLength(blockSize)];
+		long[] offsets = new long[n+1];
+		for (int i=0; i<n; i++) {
+			int l = (int) Math.min(blockSize, len-(long)i*blockSize);
+			in.get(start+(long)i*blockSize, buff, 0, l);
+			int c = codec.compress(buff, 0, l, cbuff, 0);
+			out.put(cbuff, 0, c);
+			offsets[i+1] = offsets[i]+c;
+		}
+		long cont = out.position();
+		
+		out.position(index);
+		for (int i=0; i<=n; i++)
+			out.putLong(offsets[i]);
+		out.position(cont);
+		
+		return cont-begin;
+	}
+	
+}
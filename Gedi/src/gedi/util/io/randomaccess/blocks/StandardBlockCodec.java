@@ -0,0 +1,91 @@
+package gedi.util.io.randomaccess.blocks;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import gedi.util.ArrayUtils;
+
+public enum StandardBlockCodec implements BlockCodec {
+
+	/**
+	 * Fast, moderate compression
+	 */
+	LZ4 {
+		@Override
+		public int maxCompressedLength(int len) {
+			try {
+				return ArrayUtils.getSaveCompressedSize(len);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public int compress(byte[] src, int soff, int len, byte[] dst, int doff) throws IOException {
+			int re = ArrayUtils.compress(src, soff, len, dst, doff);
+			if (re<0) throw new IOException("Buffer too small for compression!");
+			return re;
+		}
+
+		@Override
+		public void decompress(byte[] src, int soff, int slen, byte[] dst, int doff, int dlen) throws IOException {
+			ArrayUtils.decompress(src, soff, dst, doff, dlen);
+		}
+	},
+	
+	/**
+	 * Slower, but better compression (e.g. for archives)
+	 */
+	Deflate {
+		
+		private ThreadLocal<Deflater> deflater = ThreadLocal.withInitial(()->new Deflater(Deflater.BEST_COMPRESSION,true));
+		private ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(()->new Inflater(true));
+		
+		@Override
+		public int maxCompressedLength(int len) {
+			// zlib's deflateBound for stored blocks plus some slack
+			return len+(len>>12)+(len>>14)+(len>>25)+64;
+		}
+
+		@Override
+		public int compress(byte[] src, int soff, int len, byte[] dst, int doff) throws IOException {
+			Deflater d = deflater.get();
+			d.reset();
+			d.setInput(src, soff, len);
+			d.finish();
+			int re = 0;
+			while (!d.finished()) {
+				int n = d.deflate(dst, doff+re, dst.length-doff-re);
+				if (n==0 && doff+re==dst.length) throw new IOException("Buffer too small for compression!");
+				re+=n;
+			}
+			return re;
+		}
+
+		@Override
+		public void decompress(byte[] src, int soff, int slen, byte[] dst, int doff, int dlen) throws IOException {
+			Inflater i = inflater.get();
+			i.reset();
+			i.setInput(src, soff, slen);
+			try {
+				int re = 0;
+				while (re<dlen) {
+					int n = i.inflate(dst, doff+re, dlen-re);
+					if (n==0 && (i.finished() || i.needsInput())) break;
+					re+=n;
+				}
+				if (re!=dlen) throw new IOException("Corrupt block, expected "+dlen+" bytes, got "+re);
+			} catch (DataFormatException e) {
+				throw new IOException("Corrupt block!",e);
+			}
+		}
+	};
+	
+	@Override
+	public String getName() {
+		return name();
+	}
+	
+}
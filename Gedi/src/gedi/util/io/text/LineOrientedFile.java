@@ -5,6 +5,8 @@ package gedi.util.io.text;
 import gedi.util.FunctorUtils;
 import gedi.util.FunctorUtils.MergeIterator;
 import gedi.util.ReflectionUtils;
+import gedi.util.io.compression.ParallelGzipInputStream;
+import gedi.util.io.compression.ParallelGzipOutputStream;
 
 import java.io.BufferedWriter;
 import java.io.File;
@@ -45,6 +47,35 @@ public class LineOrientedFile extends File {
 	private Boolean bzipped2;
 	protected boolean autoFlush = false;
 	
+	private static int compressionThreads = Integer.getInteger("gedi.gzip.threads", Runtime.getRuntime().availableProcessors());
+	private static int compressionBlockSize = Integer.getInteger("gedi.gzip.blocksize", ParallelGzipOutputStream.BGZF_BLOCK_SIZE);
+	
+	/**
+	 * Number of threads used to (de-)compress gzip files (default: the system property gedi.gzip.threads or the number of processors). 
+	 * For a single thread, the standard {@link GZIPInputStream} and {@link GZIPOutputStream} are used.
+	 * @param threads
+	 */
+	public static void setCompressionThreads(int threads) {
+		compressionThreads = threads;
+	}
+	
+	public static int getCompressionThreads() {
+		return compressionThreads;
+	}
+	
+	/**
+	 * Uncompressed size of independently compressed gzip members (default: the system property gedi.gzip.blocksize or the maximal BGZF block size). 
+	 * Larger blocks compress slightly better, but are not BGZF and cannot be decompressed in parallel.
+	 * @param blockSize
+	 */
+	public static void setCompressionBlockSize(int blockSize) {
+		compressionBlockSize = blockSize;
+	}
+	
+	public static int getCompressionBlockSize() {
+		return compressionBlockSize;
+	}
+	
 	public LineOrientedFile(File dir, String name) {
 		super(dir,name);
 		if (isPipe()) {
@@ -286,18 +317,27 @@ public class LineOrientedFile extends File {
 	 * @throws IOException
 	 */
 	public InputStreamReader createReader() throws IOException {
+		return new InputStreamReader(createDecompressedInputStream());
+	}
+	
+	/**
+	 * Byte stream of the (decompressed) content of this file. Not buffered!
+	 * @return
+	 * @throws IOException
+	 */
+	public InputStream createDecompressedInputStream() throws IOException {
 		if (isGZIP())
-			return new InputStreamReader(new GZIPInputStream(createInputStream()));
+			return compressionThreads>1?new ParallelGzipInputStream(createInputStream(),compressionThreads):new GZIPInputStream(createInputStream());
 		else if (isBZIP2())
 			try {
-				return new InputStreamReader((InputStream) ReflectionUtils.newInstance(Class.forName("org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream"),createInputStream()));
+				return (InputStream) ReflectionUtils.newInstance(Class.forName("org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream"),createInputStream());
 			} catch (NoSuchFieldException | SecurityException
 					| IllegalArgumentException | IllegalAccessException
 					| InstantiationException | InvocationTargetException | ClassNotFoundException e) {
 				throw new RuntimeException("Bzip2 not supported!");
 			}
 		else
-			return new InputStreamReader(createInputStream());
+			return createInputStream();
 	}
 	
 	protected InputStream createInputStream() throws FileNotFoundException {
@@ -312,18 +352,28 @@ public class LineOrientedFile extends File {
 	}
 	
 	public Writer createWriter(boolean append) throws IOException {
+		Writer re = new OutputStreamWriter(createCompressedOutputStream(append),enc);
+		if (isPipe()) return re;
+		return new BufferedWriter(re);
+	}
+	
+	/**
+	 * Byte stream to this file, compressed according to the file name. Not buffered!
+	 * @param append
+	 * @return
+	 * @throws IOException
+	 */
+	public OutputStream createCompressedOutputStream(boolean append) throws IOException {
 		if (exists() && !append)delete();
 		isGZIP();
 		isBZIP2();
 		
 		OutputStream st = createOutputStream(append);
 		if (isGZIP())
-			st = new GZIPOutputStream(st);
+			st = compressionThreads>1?new ParallelGzipOutputStream(st,compressionThreads,compressionBlockSize):new GZIPOutputStream(st);
 		if (isBZIP2())
 			st = new BZip2CompressorOutputStream(st);
-		Writer re = new OutputStreamWriter(st,enc);
-		if (isPipe()) return re;
-		return new BufferedWriter(re);
+		return st;
 	}
 	
 	protected OutputStream createOutputStream(boolean append) throws FileNotFoundException  {
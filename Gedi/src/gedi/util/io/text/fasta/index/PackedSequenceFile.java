@@ -0,0 +1,437 @@
+package gedi.util.io.text.fasta.index;
+
+import gedi.util.FileUtils;
+import gedi.util.io.randomaccess.PageFile;
+import gedi.util.io.randomaccess.PageFileWriter;
+import gedi.util.io.text.fasta.index.FastaIndexFile.FastaIndexEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Set;
+
+
+/**
+ * 2-bit packed, memory mapped version of the sequences of a {@link FastaIndexFile} (stored next to it with the extension .2bit).
+ *
+ * Each sequence is packed 4 bases per byte (A,C,G,T as 0,1,2,3; base i in bits 2*(i%4) and 2*(i%4)+1 of byte i/4). Everything else
+ * (N and other IUPAC codes) is stored as runs of equal characters, and soft masked (lower case) positions as runs as well, i.e. the original
+ * sequence can be reconstructed exactly.
+ *
+ * The packed sequences are mapped read-only, i.e. single base and region lookups neither allocate nor read from disk themselves and the pages are
+ * shared via the OS page cache by all processes using the same file. Lookups are thread safe. Consecutive sequences are mapped together in
+ * windows of up to {@link #WINDOW} bytes (i.e. also assemblies with hundreds of thousands of contigs only need a few mappings).
+ *
+ * Format: magic, version, position of the index, the packed sequences, and the index (size and modification date of the fasta file, then
+ * for each sequence: name, length, position of the packed sequence, the exception runs (start,end,char) and the lower case runs (start,end)).
+ *
+ * @author erhard
+ *
+ */
+public class PackedSequenceFile {
+
+	public static final String EXTENSION = ".2bit";
+
+	private static final String MAGIC = "GEDI2BIT";
+	private static final int VERSION = 1;
+	private static final int CHUNK = 1<<20;
+	/**
+	 * Maximal size of a mapped window (a single packed sequence is at most 512MB)
+	 */
+	public static final long WINDOW = 1L<<30;
+
+	private static final char[] BASES = {'A','C','G','T'};
+	private static final byte[] CODES = new byte[128];
+	static {
+		Arrays.fill(CODES, (byte)-1);
+		for (int i=0; i<BASES.length; i++) {
+			CODES[BASES[i]] = (byte) i;
+			CODES[Character.toLowerCase(BASES[i])] = (byte) i;
+		}
+	}
+
+	private String path;
+	private RandomAccessFile file;
+	private HashMap<String,PackedEntry> index = new HashMap<String, PackedEntry>();
+	private ArrayList<MappedByteBuffer> windows = new ArrayList<MappedByteBuffer>();
+
+
+	private PackedSequenceFile(String path) {
+		this.path = path;
+	}
+
+	public static String getPath(FastaIndexFile fi) {
+		return fi.getAbsolutePath()+EXTENSION;
+	}
+
+	/**
+	 * Opens the packed file for the given (opened) index, or returns null if it does not exist or is outdated (i.e. the fasta file has changed)
+	 * @param fi
+	 * @return
+	 * @throws IOException
+	 */
+	public static PackedSequenceFile open(FastaIndexFile fi) throws IOException {
+		String path = getPath(fi);
+		if (!new File(path).exists()) return null;
+		PackedSequenceFile re = new PackedSequenceFile(path);
+		try {
+			if (!re.readIndex(fi.getFastaFile())) {
+				re.close();
+				return null;
+			}
+		} catch (IOException | RuntimeException | Error e) {
+			re.close();
+			throw e;
+		}
+		return re;
+	}
+
+	/**
+	 * Opens the packed file for the given (opened) index, and creates it first if it does not exist or is outdated.
+	 * @param fi
+	 * @return
+	 * @throws IOException
+	 */
+	public static PackedSequenceFile obtain(FastaIndexFile fi) throws IOException {
+		PackedSequenceFile re = open(fi);
+		if (re==null) {
+			create(fi);
+			re = open(fi);
+			if (re==null) throw new IOException("Could not create packed sequence file "+getPath(fi));
+		}
+		return re;
+	}
+
+	/**
+	 * Converts all sequences of the given (opened) index. The file is written to a temporary file first and then renamed, i.e. other processes
+	 * never see a partially written file.
+	 * @param fi
+	 * @throws IOException
+	 */
+	public static void create(FastaIndexFile fi) throws IOException {
+		File target = new File(getPath(fi));
+		File tmp = File.createTempFile(target.getName(), ".tmp", target.getAbsoluteFile().getParentFile());
+
+		try {
+			write(fi, tmp);
+		} catch (IOException | RuntimeException | Error e) {
+			tmp.delete();
+			throw e;
+		}
+
+		if (!tmp.renameTo(target)) {
+			tmp.delete();
+			throw new IOException("Could not create "+target);
+		}
+	}
+
+	private static void write(FastaIndexFile fi, File tmp) throws IOException {
+		ArrayList<String> names = new ArrayList<String>(fi.getEntryNames());
+		long[] offsets = new long[names.size()];
+		int[][] exceptions = new int[names.size()][];
+		char[][] exceptionChars = new char[names.size()][];
+		int[][] lower = new int[names.size()][];
+
+		PageFileWriter out = new PageFileWriter(tmp.getPath());
+		try {
+			out.putAsciiChars(MAGIC);
+			out.putInt(VERSION);
+			long indexPos = out.position();
+			out.putLong(0);
+
+			byte[] packed = new byte[CHUNK/4];
+			RunBuilder ex = new RunBuilder();
+			RunBuilder lo = new RunBuilder();
+			for (int i=0; i<names.size(); i++) {
+				FastaIndexEntry e = fi.getEntry(names.get(i));
+				offsets[i] = out.position();
+				ex.clear();
+				lo.clear();
+				for (int start=0; start<e.length(); start+=CHUNK) {
+					String seq = e.getSequence(start, Math.min(e.length(), start+CHUNK));
+					Arrays.fill(packed, (byte)0);
+					for (int p=0; p<seq.length(); p++) {
+						char c = seq.charAt(p);
+						int code = c<CODES.length?CODES[c]:-1;
+						if (code<0) {
+							ex.add(start+p, Character.toUpperCase(c));
+							code = 0;
+						}
+						if (Character.isLowerCase(c))
+							lo.add(start+p, 'n');
+						packed[p>>>2] |= code<<((p&3)<<1);
+					}
+					out.put(packed, 0, (seq.length()+3)/4);
+				}
+				exceptions[i] = ex.getRuns();
+				exceptionChars[i] = ex.getChars();
+				lower[i] = lo.getRuns();
+			}
+
+			long pos = out.position();
+			out.position(indexPos);
+			out.putLong(pos);
+			out.position(pos);
+
+			File fasta = fi.getFastaFile();
+			out.putLong(fasta.length());
+			out.putLong(fasta.lastModified());
+			out.putInt(names.size());
+			for (int i=0; i<names.size(); i++) {
+				out.putString(names.get(i));
+				out.putInt(fi.getEntry(names.get(i)).length());
+				out.putLong(offsets[i]);
+				out.putInt(exceptionChars[i].length);
+				for (int r=0; r<exceptionChars[i].length; r++) {
+					out.putInt(exceptions[i][r*2]);
+					out.putInt(exceptions[i][r*2+1]);
+					out.putAsciiChar(exceptionChars[i][r]);
+				}
+				out.putInt(lower[i].length/2);
+				for (int r=0; r<lower[i].length; r++)
+					out.putInt(lower[i][r]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private boolean readIndex(File fasta) throws IOException {
+		PageFile in = new PageFile(path);
+		try {
+			char[] magic = new char[MAGIC.length()];
+			for (int i=0; i<magic.length; i++)
+				magic[i] = in.getAsciiChar();
+			if (!MAGIC.equals(new String(magic)) || in.getInt()!=VERSION)
+				throw new IOException("Not a packed sequence file: "+path);
+			in.position(in.getLong());
+
+			if (in.getLong()!=fasta.length() || in.getLong()!=fasta.lastModified())
+				return false;
+
+			file = new RandomAccessFile(path, "r");
+			FileChannel channel = file.getChannel();
+			int n = in.getInt();
+			// sequences are stored consecutively in the order of the index
+			ArrayList<PackedEntry> window = new ArrayList<PackedEntry>();
+			long windowStart = -1;
+			long windowEnd = -1;
+			for (int i=0; i<n; i++) {
+				String name = in.getString();
+				int length = in.getInt();
+				long offset = in.getLong();
+				int ne = in.getInt();
+				int[] exStart = new int[ne];
+				int[] exEnd = new int[ne];
+				char[] exChar = new char[ne];
+				for (int r=0; r<ne; r++) {
+					exStart[r] = in.getInt();
+					exEnd[r] = in.getInt();
+					exChar[r] = in.getAsciiChar();
+				}
+				int nl = in.getInt();
+				int[] loStart = new int[nl];
+				int[] loEnd = new int[nl];
+				for (int r=0; r<nl; r++) {
+					loStart[r] = in.getInt();
+					loEnd[r] = in.getInt();
+				}
+				long size = (length+3L)/4;
+				if (!window.isEmpty() && (offset<windowEnd || offset+size-windowStart>WINDOW)) {
+					map(channel, window, windowStart, windowEnd);
+					window.clear();
+				}
+				if (window.isEmpty()) 
+					windowStart = offset;
+				windowEnd = offset+size;
+				PackedEntry e = new PackedEntry(name, length, offset, exStart, exEnd, exChar, loStart, loEnd);
+				window.add(e);
+				index.put(name, e);
+			}
+			if (!window.isEmpty())
+				map(channel, window, windowStart, windowEnd);
+			return true;
+		} finally {
+			in.close();
+		}
+	}
+
+	private void map(FileChannel channel, ArrayList<PackedEntry> entries, long start, long end) throws IOException {
+		MappedByteBuffer data = channel.map(MapMode.READ_ONLY, start, end-start);
+		windows.add(data);
+		for (PackedEntry e : entries) 
+			e.setWindow(data, start);
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public Set<String> getEntryNames() {
+		return index.keySet();
+	}
+
+	public PackedEntry getEntry(String name) {
+		return index.get(name);
+	}
+
+	public void close() throws IOException {
+		index.clear();
+		for (MappedByteBuffer w : windows)
+			FileUtils.unmap(new WeakReference<MappedByteBuffer>(w));
+		windows.clear();
+		if (file!=null)
+			file.close();
+		file = null;
+	}
+
+
+	public static class PackedEntry {
+		private String name;
+		private int length;
+		private long offset;
+		private MappedByteBuffer data;
+		private int base;
+		private int[] exStart;
+		private int[] exEnd;
+		private char[] exChar;
+		private int[] loStart;
+		private int[] loEnd;
+
+		private PackedEntry(String name, int length, long offset, int[] exStart, int[] exEnd, char[] exChar, int[] loStart, int[] loEnd) {
+			this.name = name;
+			this.length = length;
+			this.offset = offset;
+			this.exStart = exStart;
+			this.exEnd = exEnd;
+			this.exChar = exChar;
+			this.loStart = loStart;
+			this.loEnd = loEnd;
+		}
+
+		private void setWindow(MappedByteBuffer window, long windowStart) {
+			this.data = window;
+			this.base = (int) (offset-windowStart);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int length() {
+			return length;
+		}
+
+		private char base(int pos) {
+			return BASES[(data.get(base+(pos>>>2))>>>((pos&3)<<1))&3];
+		}
+
+		/**
+		 * Index of the first run with end>pos
+		 */
+		private static int findRun(int[] end, int pos) {
+			int l = 0;
+			int r = end.length;
+			while (l<r) {
+				int m = (l+r)>>>1;
+				if (end[m]<=pos) l = m+1;
+				else r = m;
+			}
+			return l;
+		}
+
+		/**
+		 * zerobased
+		 * @param pos
+		 * @return
+		 */
+		public char charAt(int pos) {
+			if (pos<0 || pos>=length) throw new IndexOutOfBoundsException(name+" sequence length: "+length+" - "+pos);
+			char re;
+			int r = exEnd.length==0?0:findRun(exEnd, pos);
+			if (r<exEnd.length && exStart[r]<=pos)
+				re = exChar[r];
+			else
+				re = base(pos);
+			r = loEnd.length==0?0:findRun(loEnd, pos);
+			if (r<loEnd.length && loStart[r]<=pos)
+				re = Character.toLowerCase(re);
+			return re;
+		}
+
+		/**
+		 * Writes the sequence from start (zerobased inclusive) to end (zerobased exclusive) into re at offset
+		 * @param start
+		 * @param end
+		 * @param re
+		 * @param offset
+		 * @return the number of written characters
+		 */
+		public int getSequence(int start, int end, char[] re, int offset) {
+			if (start<0 || end>length || end<start) throw new IndexOutOfBoundsException(name+" sequence length: "+length+" - "+start+"-"+end);
+			for (int p=start; p<end; p++)
+				re[offset+p-start] = base(p);
+
+			for (int r=findRun(exEnd, start); r<exEnd.length && exStart[r]<end; r++)
+				Arrays.fill(re, offset+Math.max(start, exStart[r])-start, offset+Math.min(end, exEnd[r])-start, exChar[r]);
+
+			for (int r=findRun(loEnd, start); r<loEnd.length && loStart[r]<end; r++)
+				for (int p=Math.max(start, loStart[r]); p<Math.min(end, loEnd[r]); p++)
+					re[offset+p-start] = Character.toLowerCase(re[offset+p-start]);
+
+			return end-start;
+		}
+
+		public String getSequence(int start, int end) {
+			char[] re = new char[end-start];
+			getSequence(start, end, re, 0);
+			return new String(re);
+		}
+
+		@Override
+		public String toString() {
+			return name+" ("+length+")";
+		}
+	}
+
+
+	private static class RunBuilder {
+		private int[] runs = new int[16];
+		private char[] chars = new char[8];
+		private int n = 0;
+
+		void clear() {
+			n = 0;
+		}
+
+		void add(int pos, char c) {
+			if (n>0 && runs[n*2-1]==pos && chars[n-1]==c) {
+				runs[n*2-1]++;
+				return;
+			}
+			if (n==chars.length) {
+				runs = Arrays.copyOf(runs, runs.length*2);
+				chars = Arrays.copyOf(chars, chars.length*2);
+			}
+			runs[n*2] = pos;
+			runs[n*2+1] = pos+1;
+			chars[n++] = c;
+		}
+
+		int[] getRuns() {
+			return Arrays.copyOf(runs, n*2);
+		}
+
+		char[] getChars() {
+			return Arrays.copyOf(chars, n);
+		}
+	}
+
+}
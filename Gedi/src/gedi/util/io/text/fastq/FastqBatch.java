@@ -0,0 +1,104 @@
+package gedi.util.io.text.fastq;
+
+import gedi.util.functions.ExtendedIterator;
+
+/**
+ * A block of consecutive fastq records that share a single byte buffer (as read from the file, see {@link FastqReader#nextBatch(int)}). Records
+ * are accessed by {@link FastqRecord} views, i.e. neither names nor sequences or qualities are copied. Batches are independent of each other and can
+ * be processed in parallel.
+ * 
+ * @author erhard
+ *
+ */
+public class FastqBatch {
+
+	static final int NAME = 0;
+	static final int SEQUENCE = 2;
+	static final int QUALITY = 4;
+	static final int FIELDS = 6;
+	
+	byte[] buffer;
+	// per record: start and end of name (without @), sequence and quality
+	int[] offsets;
+	int size;
+	
+	FastqBatch(byte[] buffer, int capacity) {
+		this.buffer = buffer;
+		this.offsets = new int[capacity*FIELDS];
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public byte[] getBuffer() {
+		return buffer;
+	}
+	
+	/**
+	 * Sets the given view to the record at index
+	 * @param index
+	 * @param re
+	 * @return
+	 */
+	public FastqRecord get(int index, FastqRecord re) {
+		if (index<0 || index>=size) throw new IndexOutOfBoundsException(index+" not in [0,"+size+")");
+		return re.set(this, index);
+	}
+	
+	public FastqRecord get(int index) {
+		return get(index, new FastqRecord());
+	}
+	
+	/**
+	 * Restricts sequence and quality of the record at index to [from,to) (relative to the current sequence)
+	 * @param index
+	 * @param from
+	 * @param to
+	 */
+	public void trim(int index, int from, int to) {
+		int o = index*FIELDS;
+		int len = offsets[o+SEQUENCE+1]-offsets[o+SEQUENCE];
+		if (from<0 || to<from || to>len) throw new IndexOutOfBoundsException("["+from+","+to+") not in [0,"+len+")");
+		offsets[o+SEQUENCE+1] = offsets[o+SEQUENCE]+to;
+		offsets[o+SEQUENCE]+=from;
+		offsets[o+QUALITY+1] = offsets[o+QUALITY]+to;
+		offsets[o+QUALITY]+=from;
+	}
+	
+	/**
+	 * Iterates over all records; the returned view is reused, i.e. it is only valid until the next call to next!
+	 * @return
+	 */
+	public ExtendedIterator<FastqRecord> iterateRecords() {
+		return new ExtendedIterator<FastqRecord>() {
+			FastqRecord re = new FastqRecord();
+			int index = 0;
+			@Override
+			public boolean hasNext() {
+				return index<size;
+			}
+
+			@Override
+			public FastqRecord next() {
+				return re.set(FastqBatch.this, index++);
+			}
+		};
+	}
+	
+	void add(int nameStart, int nameEnd, int seqStart, int seqEnd, int qualStart, int qualEnd) {
+		int o = size++*FIELDS;
+		offsets[o+NAME] = nameStart;
+		offsets[o+NAME+1] = nameEnd;
+		offsets[o+SEQUENCE] = seqStart;
+		offsets[o+SEQUENCE+1] = seqEnd;
+		offsets[o+QUALITY] = qualStart;
+		offsets[o+QUALITY+1] = qualEnd;
+	}
+	
+	@Override
+	public String toString() {
+		return "FastqBatch [size="+size+"]";
+	}
+	
+}
@@ -0,0 +1,241 @@
+package gedi.util.io.text.fastq;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import gedi.util.functions.ExtendedIterator;
+import gedi.util.io.text.LineOrientedFile;
+
+/**
+ * Reads fastq files in batches of records (see {@link FastqBatch}) directly into byte buffers, i.e. without decoding and without allocating strings for 
+ * names, sequences or qualities. Uncompressed files are read via a {@link FileChannel}, compressed files (gzip, bzip2) via the decompressing stream of 
+ * {@link LineOrientedFile}. 
+ * 
+ * The number of records in a batch is only limited by maxRecords (and the end of the file), i.e. batches of two files of paired-end reads 
+ * read with the same maxRecords correspond to each other.
+ * 
+ * Records must consist of exactly four lines (multi-line fastq is not supported), empty lines between records are skipped.
+ * 
+ * Not thread safe.
+ * 
+ * @author erhard
+ *
+ */
+public class FastqReader implements Closeable {
+
+	public static final int DEFAULT_BATCH_SIZE = 4096;
+	private static final int INITIAL_BUFFER_SIZE = 1<<20;
+	
+	private String name;
+	private ReadableByteChannel in;
+	private boolean eof = false;
+	
+	// bytes not consumed by the last batch
+	private byte[] rest;
+	private int restStart;
+	private int restEnd;
+	
+	private int bufferSize = INITIAL_BUFFER_SIZE;
+	private long records = 0;
+	
+	public FastqReader(String path) throws IOException {
+		this(new LineOrientedFile(path));
+	}
+	
+	public FastqReader(LineOrientedFile file) throws IOException {
+		this.name = file.getPath();
+		if (!file.isPipe() && !file.isGZIP() && !file.isBZIP2())
+			in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		else
+			in = Channels.newChannel(file.createDecompressedInputStream());
+	}
+	
+	public FastqReader(InputStream stream) {
+		this.name = stream.toString();
+		this.in = Channels.newChannel(stream);
+	}
+	
+	/**
+	 * Number of records read so far
+	 * @return
+	 */
+	public long getNumRecords() {
+		return records;
+	}
+	
+	/**
+	 * Reads the next maxRecords records (or less, if the end of the file is reached)
+	 * @param maxRecords
+	 * @return the batch or null if there are no more records
+	 * @throws IOException
+	 */
+	public FastqBatch nextBatch(int maxRecords) throws IOException {
+		if (maxRecords<=0) throw new IllegalArgumentException("maxRecords must be positive!");
+		
+		int len = restEnd-restStart;
+		byte[] buf = new byte[Math.max(bufferSize, len*2)];
+		if (len>0) System.arraycopy(rest, restStart, buf, 0, len);
+		rest = null;
+		
+		FastqBatch re = new FastqBatch(buf, maxRecords);
+		int pos = 0;
+		for (;;) {
+			while (len<buf.length && !eof) {
+				int r = in.read(ByteBuffer.wrap(buf, len, buf.length-len));
+				if (r<0) eof = true;
+				else len+=r;
+			}
+			pos = parse(re, buf, pos, len, maxRecords);
+			if (re.size==maxRecords || eof) break;
+			buf = re.buffer = Arrays.copyOf(buf, buf.length*2);
+		}
+		
+		if (eof && re.size<maxRecords) {
+			while (pos<len && (buf[pos]=='\n' || buf[pos]=='\r')) pos++;
+			if (pos<len) throw new IOException("Fastq file "+name+" is truncated after "+(records+re.size)+" records!");
+		}
+		
+		if (re.size==maxRecords) 
+			bufferSize = Math.max(pos+pos/16, 4096);
+		
+		rest = buf;
+		restStart = pos;
+		restEnd = len;
+		records+=re.size;
+		
+		return re.size==0?null:re;
+	}
+	
+	/**
+	 * Parses complete records from [pos,len) of buf, returns the start of the first incomplete record 
+	 */
+	private int parse(FastqBatch re, byte[] buf, int pos, int len, int maxRecords) throws IOException {
+		while (re.size<maxRecords) {
+			while (pos<len && (buf[pos]=='\n' || buf[pos]=='\r')) pos++;
+			int l1 = indexOfNewline(buf, pos, len);
+			if (l1<0) break;
+			int l2 = indexOfNewline(buf, l1+1, len);
+			if (l2<0) break;
+			int l3 = indexOfNewline(buf, l2+1, len);
+			if (l3<0) break;
+			int l4 = indexOfNewline(buf, l3+1, len);
+			if (l4<0) {
+				if (!eof) break;
+				l4 = len;
+			}
+			
+			if (buf[pos]!='@' || buf[l2+1]!='+') 
+				throw new IOException("Invalid fastq record "+(records+re.size+1)+" in "+name+": "+new String(buf,pos,l4-pos,StandardCharsets.ISO_8859_1));
+			int seqEnd = stripCr(buf, l1+1, l2);
+			int qualEnd = stripCr(buf, l3+1, l4);
+			if (seqEnd-l1!=qualEnd-l3)
+				throw new IOException("Sequence and quality of fastq record "+(records+re.size+1)+" in "+name+" differ in length: "+new String(buf,pos,l4-pos,StandardCharsets.ISO_8859_1));
+			
+			re.add(pos+1, stripCr(buf, pos+1, l1), l1+1, seqEnd, l3+1, qualEnd);
+			pos = Math.min(l4+1, len);
+		}
+		return pos;
+	}
+	
+	private static int indexOfNewline(byte[] buf, int from, int to) {
+		for (int i=from; i<to; i++)
+			if (buf[i]=='\n')
+				return i;
+		return -1;
+	}
+	
+	private static int stripCr(byte[] buf, int start, int end) {
+		return end>start && buf[end-1]=='\r'?end-1:end;
+	}
+	
+	/**
+	 * Iterates over all remaining batches (and closes the reader at the end)
+	 * @param maxRecords
+	 * @return
+	 */
+	public ExtendedIterator<FastqBatch> batches(int maxRecords) {
+		return new ExtendedIterator<FastqBatch>() {
+			FastqBatch next;
+			boolean done = false;
+			
+			@Override
+			public boolean hasNext() {
+				lookAhead();
+				return next!=null;
+			}
+
+			@Override
+			public FastqBatch next() {
+				lookAhead();
+				FastqBatch re = next;
+				next = null;
+				return re;
+			}
+			
+			private void lookAhead() {
+				if (next==null && !done) {
+					try {
+						next = nextBatch(maxRecords);
+						if (next==null) {
+							done = true;
+							close();
+						}
+					} catch (IOException e) {
+						throw new RuntimeException("Could not read fastq file "+name+"!",e);
+					}
+				}
+			}
+		};
+	}
+	
+	public ExtendedIterator<FastqBatch> batches() {
+		return batches(DEFAULT_BATCH_SIZE);
+	}
+	
+	/**
+	 * Iterates over all remaining records (and closes the reader at the end); the returned view is reused, i.e. it is only valid until the next call to next!
+	 * @return
+	 */
+	public ExtendedIterator<FastqRecord> records() {
+		ExtendedIterator<FastqBatch> it = batches();
+		return new ExtendedIterator<FastqRecord>() {
+			FastqBatch batch;
+			int index;
+			FastqRecord re = new FastqRecord();
+			
+			@Override
+			public boolean hasNext() {
+				while ((batch==null || index>=batch.size) && it.hasNext()) {
+					batch = it.next();
+					index = 0;
+				}
+				return batch!=null && index<batch.size;
+			}
+
+			@Override
+			public FastqRecord next() {
+				hasNext();
+				return re.set(batch, index++);
+			}
+		};
+	}
+	
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+	
+	@Override
+	public String toString() {
+		return "FastqReader [" + name + "]";
+	}
+	
+}
@@ -0,0 +1,124 @@
+package gedi.util.io.text.fastq;
+
+import java.nio.charset.StandardCharsets;
+
+import gedi.util.datastructure.charsequence.ByteArrayCharSequence;
+
+/**
+ * Reusable view of a single record of a {@link FastqBatch}: name (without the leading @), sequence and quality are ranges of the buffer of the batch. 
+ * Trimming the record (see {@link #trim(int, int)}) changes the batch.
+ * 
+ * @author erhard
+ *
+ */
+public class FastqRecord {
+
+	private FastqBatch batch;
+	private int index;
+	private int o;
+	
+	private ByteArrayCharSequence sequenceView;
+	private ByteArrayCharSequence qualityView;
+	
+	FastqRecord set(FastqBatch batch, int index) {
+		this.batch = batch;
+		this.index = index;
+		this.o = index*FastqBatch.FIELDS;
+		return this;
+	}
+	
+	public FastqBatch getBatch() {
+		return batch;
+	}
+	
+	public int getIndex() {
+		return index;
+	}
+	
+	public byte[] getBuffer() {
+		return batch.buffer;
+	}
+	
+	public int getNameStart() {
+		return batch.offsets[o+FastqBatch.NAME];
+	}
+	
+	public int getNameEnd() {
+		return batch.offsets[o+FastqBatch.NAME+1];
+	}
+	
+	public int getSequenceStart() {
+		return batch.offsets[o+FastqBatch.SEQUENCE];
+	}
+	
+	public int getSequenceEnd() {
+		return batch.offsets[o+FastqBatch.SEQUENCE+1];
+	}
+	
+	public int getQualityStart() {
+		return batch.offsets[o+FastqBatch.QUALITY];
+	}
+	
+	public int getQualityEnd() {
+		return batch.offsets[o+FastqBatch.QUALITY+1];
+	}
+	
+	public int length() {
+		return getSequenceEnd()-getSequenceStart();
+	}
+	
+	public byte sequence(int pos) {
+		return batch.buffer[getSequenceStart()+pos];
+	}
+	
+	public byte quality(int pos) {
+		return batch.buffer[getQualityStart()+pos];
+	}
+	
+	/**
+	 * Restricts sequence and quality to [from,to) (relative to the current sequence)
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public FastqRecord trim(int from, int to) {
+		batch.trim(index, from, to);
+		return this;
+	}
+	
+	/**
+	 * View of the sequence; it is reused, i.e. only valid until this record is moved or trimmed!
+	 * @return
+	 */
+	public CharSequence getSequenceView() {
+		if (sequenceView==null) sequenceView = new ByteArrayCharSequence();
+		return sequenceView.set(batch.buffer, getSequenceStart(), getSequenceEnd());
+	}
+	
+	/**
+	 * View of the quality string; it is reused, i.e. only valid until this record is moved or trimmed!
+	 * @return
+	 */
+	public CharSequence getQualityView() {
+		if (qualityView==null) qualityView = new ByteArrayCharSequence();
+		return qualityView.set(batch.buffer, getQualityStart(), getQualityEnd());
+	}
+	
+	public String getName() {
+		return new String(batch.buffer, getNameStart(), getNameEnd()-getNameStart(), StandardCharsets.ISO_8859_1);
+	}
+	
+	public String getSequence() {
+		return new String(batch.buffer, getSequenceStart(), length(), StandardCharsets.ISO_8859_1);
+	}
+	
+	public String getQuality() {
+		return new String(batch.buffer, getQualityStart(), getQualityEnd()-getQualityStart(), StandardCharsets.ISO_8859_1);
+	}
+	
+	@Override
+	public String toString() {
+		return "@"+getName()+"\n"+getSequence()+"\n+\n"+getQuality();
+	}
+	
+}
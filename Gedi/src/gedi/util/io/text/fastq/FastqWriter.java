@@ -0,0 +1,225 @@
+package gedi.util.io.text.fastq;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import gedi.util.io.text.LineOrientedFile;
+
+/**
+ * Writes fastq records from byte ranges (e.g. {@link FastqRecord}s or whole {@link FastqBatch}es) into a byte buffer that is flushed to the 
+ * underlying (compressed, according to the file name, see {@link LineOrientedFile#createCompressedOutputStream(boolean)}) stream.
+ * 
+ * Not thread safe.
+ * 
+ * @author erhard
+ *
+ */
+public class FastqWriter implements Closeable {
+
+	private static final int BUFFER_SIZE = 1<<20;
+	
+	private OutputStream out;
+	private boolean closeStream;
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	private int len = 0;
+	private long records = 0;
+	
+	public FastqWriter(String path) throws IOException {
+		this(new LineOrientedFile(path));
+	}
+	
+	public FastqWriter(LineOrientedFile file) throws IOException {
+		if (file.getParentFile()!=null && !file.getParentFile().exists())
+			file.getParentFile().mkdirs();
+		this.out = file.createCompressedOutputStream(false);
+		this.closeStream = !file.isPipe();
+	}
+	
+	public FastqWriter(OutputStream out) {
+		this.out = out;
+		this.closeStream = true;
+	}
+	
+	/**
+	 * Number of records written so far
+	 * @return
+	 */
+	public long getNumRecords() {
+		return records;
+	}
+	
+	/**
+	 * Writes the record with its name
+	 * @param r
+	 * @return
+	 * @throws IOException
+	 */
+	public FastqWriter write(FastqRecord r) throws IOException {
+		put('@');
+		put(r.getBuffer(), r.getNameStart(), r.getNameEnd());
+		put('\n');
+		return finish(r.getBuffer(), r.getSequenceStart(), r.getSequenceEnd(), r.getBuffer(), r.getQualityStart(), r.getQualityEnd());
+	}
+	
+	/**
+	 * Writes the record with the given numeric name
+	 * @param id
+	 * @param r
+	 * @return
+	 * @throws IOException
+	 */
+	public FastqWriter write(long id, FastqRecord r) throws IOException {
+		put('@');
+		put(id);
+		put('\n');
+		return finish(r.getBuffer(), r.getSequenceStart(), r.getSequenceEnd(), r.getBuffer(), r.getQualityStart(), r.getQualityEnd());
+	}
+	
+	/**
+	 * Writes the record with the given name
+	 * @param name
+	 * @param r
+	 * @return
+	 * @throws IOException
+	 */
+	public FastqWriter write(CharSequence name, FastqRecord r) throws IOException {
+		put('@');
+		put(name);
+		put('\n');
+		return finish(r.getBuffer(), r.getSequenceStart(), r.getSequenceEnd(), r.getBuffer(), r.getQualityStart(), r.getQualityEnd());
+	}
+	
+	public FastqWriter write(CharSequence name, byte[] seq, int seqStart, int seqEnd, byte[] qual, int qualStart, int qualEnd) throws IOException {
+		put('@');
+		put(name);
+		put('\n');
+		return finish(seq, seqStart, seqEnd, qual, qualStart, qualEnd);
+	}
+	
+	public FastqWriter write(long id, byte[] seq, int seqStart, int seqEnd, byte[] qual, int qualStart, int qualEnd) throws IOException {
+		put('@');
+		put(id);
+		put('\n');
+		return finish(seq, seqStart, seqEnd, qual, qualStart, qualEnd);
+	}
+	
+	public FastqWriter write(long id, CharSequence seq, CharSequence qual) throws IOException {
+		put('@');
+		put(id);
+		put('\n');
+		return finish(seq, qual);
+	}
+	
+	public FastqWriter write(CharSequence name, CharSequence seq, CharSequence qual) throws IOException {
+		put('@');
+		put(name);
+		put('\n');
+		return finish(seq, qual);
+	}
+	
+	private FastqWriter finish(CharSequence seq, CharSequence qual) throws IOException {
+		put(seq);
+		put('\n');
+		put('+');
+		put('\n');
+		put(qual);
+		put('\n');
+		records++;
+		return this;
+	}
+	
+	/**
+	 * Writes all records of the batch with their names
+	 * @param batch
+	 * @return
+	 * @throws IOException
+	 */
+	public FastqWriter write(FastqBatch batch) throws IOException {
+		FastqRecord r = new FastqRecord();
+		for (int i=0; i<batch.size; i++)
+			write(batch.get(i, r));
+		return this;
+	}
+	
+	/**
+	 * Writes all records of the batch with consecutive numeric names starting from firstId
+	 * @param batch
+	 * @param firstId
+	 * @return the id of the next record
+	 * @throws IOException
+	 */
+	public long write(FastqBatch batch, long firstId) throws IOException {
+		FastqRecord r = new FastqRecord();
+		for (int i=0; i<batch.size; i++)
+			write(firstId++, batch.get(i, r));
+		return firstId;
+	}
+	
+	private FastqWriter finish(byte[] seq, int seqStart, int seqEnd, byte[] qual, int qualStart, int qualEnd) throws IOException {
+		put(seq, seqStart, seqEnd);
+		put('\n');
+		put('+');
+		put('\n');
+		put(qual, qualStart, qualEnd);
+		put('\n');
+		records++;
+		return this;
+	}
+	
+	private void put(char c) throws IOException {
+		if (len==buffer.length) flushBuffer();
+		buffer[len++] = (byte) c;
+	}
+	
+	private void put(byte[] a, int start, int end) throws IOException {
+		int n = end-start;
+		if (n>buffer.length-len) {
+			flushBuffer();
+			if (n>buffer.length) {
+				out.write(a, start, n);
+				return;
+			}
+		}
+		System.arraycopy(a, start, buffer, len, n);
+		len+=n;
+	}
+	
+	private void put(CharSequence s) throws IOException {
+		for (int i=0; i<s.length(); i++)
+			put(s.charAt(i));
+	}
+	
+	private void put(long v) throws IOException {
+		if (buffer.length-len<20) flushBuffer();
+		if (v<0) {
+			put(Long.toString(v));
+			return;
+		}
+		int digits = 1;
+		for (long t=v/10; t>0; t/=10) digits++;
+		for (int i=len+digits-1; i>=len; i--) {
+			buffer[i] = (byte) ('0'+v%10);
+			v/=10;
+		}
+		len+=digits;
+	}
+	
+	private void flushBuffer() throws IOException {
+		out.write(buffer, 0, len);
+		len = 0;
+	}
+	
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		flush();
+		if (closeStream)
+			out.close();
+	}
+	
+}
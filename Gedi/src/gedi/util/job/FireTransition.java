@@ -16,6 +16,7 @@ public class FireTransition implements Callable<FireTransition> {
 	private Consumer<FireTransition> callback;
 
 	private Throwable exception;
+	private int threads = -1;
 	
 	public FireTransition(Transition transition, int execId, ExecutionContext context, Consumer<FireTransition> callback) {
 		this.transition = transition;
@@ -24,6 +25,19 @@ public class FireTransition implements Callable<FireTransition> {
 		this.callback = callback;
 	}
 	
+	/**
+	 * Fires the transition with the given number of granted threads
+	 * @param transition
+	 * @param execId
+	 * @param context
+	 * @param threads
+	 * @param callback
+	 */
+	public FireTransition(Transition transition, int execId, ExecutionContext context, int threads, Consumer<FireTransition> callback) {
+		this(transition,execId,context,callback);
+		this.threads = threads;
+	}
+	
 	public boolean isValidExecution() {
 		return execId==context.getExecutionId();
 	}
@@ -34,7 +48,7 @@ public class FireTransition implements Callable<FireTransition> {
 			long start = System.nanoTime();
 			if (!isValidExecution()) return this;
 			MutableTuple in = context.createInput(transition);
-			result = transition.getJob().execute(context, in);
+			result = threads<0?transition.getJob().execute(context, in):transition.getJob().execute(context, in, threads);
 			time = System.nanoTime()-start;
 			callback.accept(this);
 		} catch (Throwable e) {
@@ -53,6 +67,10 @@ public class FireTransition implements Callable<FireTransition> {
 		return result;
 	}
 	
+	public int getThreads() {
+		return threads;
+	}
+	
 	public Throwable getException() {
 		return exception;
 	}
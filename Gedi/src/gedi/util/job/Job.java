@@ -22,6 +22,34 @@ public interface Job<T> {
 	}
 	
 	T execute(ExecutionContext context,MutableTuple input);
+	
+	/**
+	 * Executes the job with the number of threads granted by the scheduler (see {@link gedi.util.job.schedule.DefaultPetriNetScheduler#setResources(int, long)}).
+	 * @param context
+	 * @param input
+	 * @param threads
+	 * @return
+	 */
+	default T execute(ExecutionContext context,MutableTuple input, int threads) {
+		return execute(context, input);
+	}
+	
+	/**
+	 * The number of threads this job can use (0 for jobs that are negligible)
+	 * @return
+	 */
+	default int getRequiredThreads() {
+		return 1;
+	}
+	
+	/**
+	 * The estimated heap memory (in bytes) this job needs
+	 * @return
+	 */
+	default long getRequiredMemory() {
+		return 0;
+	}
+	
 	String getId();
 	default void setInput(int i, Job job) {}
 	default void addOutput(Job job) {}
@@ -3,7 +3,9 @@ package gedi.util.job.schedule;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -18,9 +20,11 @@ import gedi.util.GeneralUtils;
 import gedi.util.StringUtils;
 import gedi.util.job.ExecutionContext;
 import gedi.util.job.FireTransition;
+import gedi.util.job.Job;
 import gedi.util.job.Place;
 import gedi.util.job.Transition;
 import gedi.util.math.stat.RandomNumbers;
+import gedi.util.mutable.MutableInteger;
 import gedi.util.mutable.MutableLong;
 import gedi.util.mutable.MutableMonad;
 
@@ -35,6 +39,9 @@ public class DefaultPetriNetScheduler implements PetriNetScheduler {
 	
 	private boolean rethrowExceptions = false;
 	
+	private int maxThreads = 0;
+	private long maxMemory = 0;
+	
 //	private long hysteresis = 200;
 	
 	private boolean logging = true;
@@ -49,6 +56,19 @@ public class DefaultPetriNetScheduler implements PetriNetScheduler {
 		this.rethrowExceptions = rethrowExceptions;
 	}
 	
+	/**
+	 * Ready transitions are only started as long as the threads and memory required by their jobs (see {@link Job#getRequiredThreads()}
+	 * and {@link Job#getRequiredMemory()}) fit into the given budget; transitions on the longest path to a sink are started first. A job is
+	 * granted at most threads threads (which is passed to {@link Job#execute(ExecutionContext, gedi.util.mutable.MutableTuple, int)}), and if 
+	 * nothing else is running, it is started even if it does not fit. If threads is 0 (the default), all ready transitions are started at once.
+	 * @param threads
+	 * @param memory
+	 */
+	public void setResources(int threads, long memory) {
+		this.maxThreads = threads;
+		this.maxMemory = memory;
+	}
+	
 	@Override
 	public void addListener(PetriNetListener rg) {
 		listeners.add(rg);
@@ -136,13 +156,26 @@ public class DefaultPetriNetScheduler implements PetriNetScheduler {
 			}
 			
 			MutableMonad<Throwable> exception = new MutableMonad<>();
-			while (!runnings.isEmpty() || !ready.isEmpty()) {
+			
+			// resource accounting (only if setResources was called)
+			boolean budget = maxThreads>0;
+			HashMap<Transition,Integer> priority = budget?computeCriticalPathLengths():null;
+			ArrayList<Transition> waiting = new ArrayList<Transition>();
+			HashMap<Transition,Integer> granted = new HashMap<Transition,Integer>();
+			MutableInteger freeThreads = new MutableInteger(maxThreads);
+			MutableLong freeMemory = new MutableLong(maxMemory);
+			MutableInteger released = new MutableInteger();
+			MutableInteger failed = new MutableInteger();
+			int seenReleased = 0;
+			
+			while (!runnings.isEmpty() || !ready.isEmpty() || !waiting.isEmpty()) {
 				iter.clear();
 				
 				locki.lock();
-				while (ready.size() == 0 && runnings.size()>0) {
+				while (ready.size() == 0 && runnings.size()>0 && (waiting.isEmpty() || released.N==seenReleased)) {
 	                cond.await();
 	            }
+				seenReleased = released.N;
 				if (Thread.interrupted() || context.getExecutionId()!=eid) {
 //					for (Future<FireTransition> f : futures)
 //						f.cancel(true);
@@ -159,12 +192,45 @@ public class DefaultPetriNetScheduler implements PetriNetScheduler {
 				if (exception.Item!=null)
 					throw exception.Item;
 				
+				if (budget) {
+					if (failed.N>0) 
+						waiting.clear();
+					waiting.addAll(iter);
+					iter.clear();
+					waiting.sort((a,b)->{
+						int re = Integer.compare(priority.get(b), priority.get(a));
+						if (re==0)
+							re = Integer.compare(b.getJob().getRequiredThreads(), a.getJob().getRequiredThreads());
+						return re;
+					});
+					for (Iterator<Transition> it = waiting.iterator(); it.hasNext(); ) {
+						Transition n = it.next();
+						int threads = getThreads(n);
+						long memory = getMemory(n);
+						if ((threads<=freeThreads.N && memory<=freeMemory.N) || runnings.isEmpty()) {
+							freeThreads.N-=threads;
+							freeMemory.N-=memory;
+							granted.put(n, threads);
+							iter.add(n);
+							runnings.add(n);
+							it.remove();
+						}
+					}
+				}
 				
 				for (Transition n : iter) {
 					if (logging) log.log(Level.FINE,()->"Submitting "+n+" (id="+uid+") "+context);
 					
 					
-						futures.add(threadpool.submit(new FireTransition(n, eid, context, ft->{
+						futures.add(threadpool.submit(new FireTransition(n, eid, context, budget?granted.get(n):-1, ft->{
+							if (budget) {
+								locki.lock();
+									freeThreads.N+=getThreads(n);
+									freeMemory.N+=getMemory(n);
+									released.N++;
+								locki.unlock();
+							}
+
 							if (ft.getException()!=null) {
 								StringWriter exmsg = new StringWriter();
 								ft.getException().printStackTrace(new PrintWriter(exmsg));
@@ -180,6 +246,7 @@ public class DefaultPetriNetScheduler implements PetriNetScheduler {
 								locki.lock();
 								runnings.clear();
 								ready.clear();
+								failed.N++;
 									cond.signal();
 								locki.unlock();
 								
@@ -223,6 +290,38 @@ public class DefaultPetriNetScheduler implements PetriNetScheduler {
 		}
 	}
 
+	private int getThreads(Transition t) {
+		return Math.min(Math.max(0, t.getJob().getRequiredThreads()), maxThreads);
+	}
+	
+	private long getMemory(Transition t) {
+		return Math.min(Math.max(0, t.getJob().getRequiredMemory()), maxMemory);
+	}
+	
+	/**
+	 * Number of (non-negligible) enabled transitions on the longest path from each transition to a sink.
+	 * @return
+	 */
+	private HashMap<Transition,Integer> computeCriticalPathLengths() {
+		HashMap<Transition,Integer> re = new HashMap<Transition, Integer>();
+		for (Transition t : context.getPetrNet().getTransitions())
+			computeCriticalPathLength(t, re);
+		return re;
+	}
+	
+	private int computeCriticalPathLength(Transition t, HashMap<Transition,Integer> re) {
+		Integer l = re.get(t);
+		if (l!=null) return l;
+		int max = 0;
+		if (t.getOutput()!=null)
+			for (Transition c : t.getOutput().getConsumers())
+				if (!context.isDisabled(c))
+					max = Math.max(max, computeCriticalPathLength(c, re));
+		l = max+(context.isDisabled(t) || t.getJob().getRequiredThreads()<=0?0:1);
+		re.put(t, l);
+		return l;
+	}
+
 	private void addReadyConsumers(Place p, HashSet<Transition> ready) {
 		for (Transition t : p.getConsumers())
 			if (!ready.contains(t) && context.isReady(t))
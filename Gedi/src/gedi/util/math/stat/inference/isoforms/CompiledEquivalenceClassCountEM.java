@@ -0,0 +1,294 @@
+package gedi.util.math.stat.inference.isoforms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.BiConsumer;
+import java.util.function.ToDoubleFunction;
+
+import gedi.util.functions.EI;
+
+
+/**
+ * Same model as {@link EquivalenceClassCountEM}, but the equivalence classes are compiled once into CSR index arrays (classes to object indices),
+ * such that EM steps neither allocate nor look up objects. Iterations are accelerated by SQUAREM (scheme S3 of Varadhan and Roland, Scand J Stat 35, 335–353 (2008))
+ * and stop when the relative change of the log likelihood is below the tolerance.
+ *
+ * Several conditions with the same equivalence classes (i.e. only the class counts and, optionally, the effective lengths differ) can be
+ * solved in one pass by {@link #computeBatch(int, double[][], double[][], int, double[], double[][])}.
+ *
+ * @author erhard
+ *
+ */
+public class CompiledEquivalenceClassCountEM<O> {
+
+	private Object[] objects;
+	private int[] offsets;
+	private int[] members;
+	private double[] l;
+
+	private double tolerance = 1E-10;
+	private boolean accelerate = true;
+
+	public CompiledEquivalenceClassCountEM(O[][] E, ToDoubleFunction<O> l) {
+		HashMap<O,Integer> index = new HashMap<O, Integer>();
+		ArrayList<O> objects = new ArrayList<O>();
+
+		offsets = new int[E.length+1];
+		for (int e=0; e<E.length; e++)
+			offsets[e+1] = offsets[e]+E[e].length;
+
+		members = new int[offsets[E.length]];
+		int k = 0;
+		for (O[] e : E)
+			for (O o : e) {
+				Integer ind = index.get(o);
+				if (ind==null) {
+					index.put(o, ind = objects.size());
+					objects.add(o);
+				}
+				members[k++] = ind;
+			}
+
+		this.objects = objects.toArray();
+		this.l = new double[this.objects.length];
+		for (int i=0; i<this.l.length; i++)
+			this.l[i] = l.applyAsDouble(objects.get(i));
+	}
+
+	public CompiledEquivalenceClassCountEM<O> setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+		return this;
+	}
+
+	/**
+	 * Disable SQUAREM (i.e. plain fixed-point EM)
+	 * @param accelerate
+	 * @return
+	 */
+	public CompiledEquivalenceClassCountEM<O> setAccelerate(boolean accelerate) {
+		this.accelerate = accelerate;
+		return this;
+	}
+
+	public int getNumClasses() {
+		return offsets.length-1;
+	}
+
+	public int getNumObjects() {
+		return objects.length;
+	}
+
+	/**
+	 * Objects are indexed in the order of their first occurrence in the equivalence classes
+	 * @param index
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public O getObject(int index) {
+		return (O) objects[index];
+	}
+
+	/**
+	 * Effective lengths in the order of {@link #getObject(int)}
+	 * @return
+	 */
+	public double[] getLengths() {
+		return l;
+	}
+
+	public double compute(int maxiter, double[] alpha, BiConsumer<O,Double> proportionSetter) {
+		return compute(maxiter, alpha, proportionSetter, null);
+	}
+
+	public double compute(int maxiter, double[] alpha, BiConsumer<O,Double> proportionSetter, BiConsumer<O,Double> readSetter) {
+		return compute(maxiter, alpha, l, proportionSetter, readSetter);
+	}
+
+	/**
+	 * Uses the given effective lengths (in the order of {@link #getObject(int)}) instead of the ones given to the constructor.
+	 * @return the log likelihood
+	 */
+	public double compute(int maxiter, double[] alpha, double[] l, BiConsumer<O,Double> proportionSetter, BiConsumer<O,Double> readSetter) {
+		double[] pi = new double[objects.length];
+		double[] w = new double[objects.length];
+		double ll = solve(maxiter, alpha, l, pi, w, new Workspace(objects.length));
+
+		for (int i=0; i<objects.length; i++) {
+			if (proportionSetter!=null)
+				proportionSetter.accept(getObject(i), pi[i]);
+			if (readSetter!=null)
+				readSetter.accept(getObject(i), w[i]);
+		}
+		return ll;
+	}
+
+	/**
+	 * Solves several conditions using nthreads threads.
+	 * @param maxiter maximal number of EM steps
+	 * @param alpha class counts for each condition
+	 * @param l effective lengths for each condition (in the order of {@link #getObject(int)}), or null to use the lengths given to the constructor
+	 * @param nthreads
+	 * @param ll if not null, the log likelihoods are written into it
+	 * @param reads if not null, the expected number of reads of each object is written into it (for each condition)
+	 * @return the proportions for each condition (in the order of {@link #getObject(int)})
+	 */
+	public double[][] computeBatch(int maxiter, double[][] alpha, double[][] l, int nthreads, double[] ll, double[][] reads) {
+		int n = objects.length;
+		double[][] re = new double[alpha.length][n];
+
+		if (nthreads<=1) {
+			// solve inline, e.g. when called from within a parallelized iterator
+			Workspace ws = new Workspace(n);
+			for (int c=0; c<alpha.length; c++)
+				solve(maxiter, alpha, l, ll, reads, re, c, ws);
+			return re;
+		}
+
+		EI.seq(0, alpha.length).parallelized(nthreads, 1, ()->new Workspace(n), (ei,ws)->ei.map(c->{
+			solve(maxiter, alpha, l, ll, reads, re, c, ws);
+			return c;
+		})).drain();
+
+		return re;
+	}
+
+	private void solve(int maxiter, double[][] alpha, double[][] l, double[] ll, double[][] reads, double[][] re, int c, Workspace ws) {
+		double[] w = reads!=null?(reads[c]=new double[re[c].length]):ws.w;
+		double cll = solve(maxiter, alpha[c], l==null?this.l:l[c], re[c], w, ws);
+		if (ll!=null) ll[c] = cll;
+	}
+
+	private static class Workspace {
+		private double[] il;
+		private double[] p1;
+		private double[] p2;
+		private double[] q;
+		private double[] w;
+		public Workspace(int n) {
+			il = new double[n];
+			p1 = new double[n];
+			p2 = new double[n];
+			q = new double[n];
+			w = new double[n];
+		}
+	}
+
+	/**
+	 * Writes the proportions into pi, the expected reads into w and returns the log likelihood.
+	 */
+	private double solve(int maxiter, double[] alpha, double[] l, double[] pi, double[] w, Workspace ws) {
+		int n = pi.length;
+		if (n==0) return 0;
+
+		for (int i=0; i<n; i++)
+			ws.il[i] = 1/l[i];
+		Arrays.fill(pi, 1.0/n);
+
+		double ll = Double.NaN;
+		for (int it=0; it<maxiter; ) {
+			double ll0 = em(alpha, ws.il, pi, ws.p1, w);
+			it++;
+			if (Math.abs(ll0-ll)<=tolerance*Math.abs(ll))
+				break;
+			ll = ll0;
+
+			if (!accelerate || it==maxiter) {
+				System.arraycopy(ws.p1, 0, pi, 0, n);
+				continue;
+			}
+
+			em(alpha, ws.il, ws.p1, ws.p2, w);
+			it++;
+
+			// steplength from r=p1-p0 and v=p2-2p1+p0
+			double rr = 0;
+			double vv = 0;
+			for (int i=0; i<n; i++) {
+				double r = ws.p1[i]-pi[i];
+				double v = ws.p2[i]-2*ws.p1[i]+pi[i];
+				rr+=r*r;
+				vv+=v*v;
+			}
+			double a = vv==0?-1:Math.min(-1, -Math.sqrt(rr/vv));
+			if (a==-1 || it==maxiter) {
+				// this is exactly p2
+				System.arraycopy(ws.p2, 0, pi, 0, n);
+				continue;
+			}
+
+			double sum = 0;
+			for (int i=0; i<n; i++) {
+				double r = ws.p1[i]-pi[i];
+				double v = ws.p2[i]-2*ws.p1[i]+pi[i];
+				ws.q[i] = Math.max(0, pi[i]-2*a*r+a*a*v);
+				sum+=ws.q[i];
+			}
+			for (int i=0; i<n; i++)
+				ws.q[i]/=sum;
+
+			// stabilizing EM step; fall back to p2 if the extrapolation decreased the likelihood
+			double llq = em(alpha, ws.il, ws.q, pi, w);
+			it++;
+			if (!(llq>=ll0))
+				System.arraycopy(ws.p2, 0, pi, 0, n);
+		}
+
+		// final E step for the reads of pi
+		em(alpha, ws.il, pi, ws.p1, w);
+		return loglik(alpha, ws.il, pi);
+	}
+
+	/**
+	 * The log likelihood of pi exactly as computed by {@link EquivalenceClassCountEM}, i.e. classes without reads are included and the result 
+	 * is NaN if any of them has probability 0 (callers such as the OrfFinder rely on this to drop such conditions). {@link #em} skips these classes,
+	 * which is only used for convergence.
+	 */
+	private double loglik(double[] alpha, double[] il, double[] pi) {
+		double ll = 0;
+		for (int e=0; e<alpha.length; e++) {
+			double tot = 0;
+			for (int k=offsets[e]; k<offsets[e+1]; k++) {
+				int i = members[k];
+				tot+=pi[i]*il[i];
+			}
+			ll+=alpha[e]*Math.log(tot);
+		}
+		return ll;
+	}
+
+	/**
+	 * One EM step from pi (E step into w, M step into out); returns the log likelihood of pi over the classes with reads.
+	 */
+	private double em(double[] alpha, double[] il, double[] pi, double[] out, double[] w) {
+		Arrays.fill(w, 0);
+		double ll = 0;
+		for (int e=0; e<alpha.length; e++) {
+			if (alpha[e]==0) continue;
+			int start = offsets[e];
+			int end = offsets[e+1];
+
+			double tot = 0;
+			for (int k=start; k<end; k++) {
+				int i = members[k];
+				tot+=pi[i]*il[i];
+			}
+			ll+=alpha[e]*Math.log(tot);
+			if (tot==0) continue;
+
+			double f = alpha[e]/tot;
+			for (int k=start; k<end; k++) {
+				int i = members[k];
+				w[i]+=pi[i]*il[i]*f;
+			}
+		}
+
+		double sum = 0;
+		for (int i=0; i<w.length; i++)
+			sum+=w[i];
+		for (int i=0; i<w.length; i++)
+			out[i] = sum==0?pi[i]:w[i]/sum;
+		return ll;
+	}
+
+}
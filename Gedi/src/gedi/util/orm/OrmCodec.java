@@ -0,0 +1,457 @@
+package gedi.util.orm;
+
+import gedi.util.io.randomaccess.BinaryReader;
+import gedi.util.io.randomaccess.BinaryWriter;
+import gedi.util.orm.Orm.OrmInfo;
+import gedi.util.orm.special.SpecialBinarySerializer;
+import gedi.util.orm.special.SpecialSerializerExtensionPoint;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import sun.misc.Unsafe;
+
+/**
+ * Serializer for the fields of a single class, used by {@link OrmSerializer}. It is generated once at first use of the class (see {@link #get(Class)}):
+ * for each field (as given by {@link OrmInfo#getFields()}), an accessor specialized for its type and bound to its offset is created, and special serializers
+ * and enum constants are resolved, i.e. encoding or decoding a record neither dispatches on field types nor uses reflection. The wire format is
+ * identical to the one of {@link OrmSerializer}.
+ *
+ * If profiling is enabled (see {@link #setProfiling(boolean)}, or the system property gedi.orm.profile), the number of objects and bytes as well as the time
+ * spent are recorded for each class (including nested objects) and can be reported by {@link #getStatistics()}.
+ *
+ * @author erhard
+ *
+ */
+@SuppressWarnings({"unchecked","rawtypes"})
+public class OrmCodec<T> {
+
+	private static final ClassValue<OrmCodec<?>> codecs = new ClassValue<OrmCodec<?>>() {
+		@Override
+		protected OrmCodec<?> computeValue(Class<?> type) {
+			return new OrmCodec(type);
+		}
+	};
+	// only for the statistics; weak, such that codecs (and their classes) can be unloaded
+	private static final Set<OrmCodec<?>> all = Collections.newSetFromMap(new WeakHashMap<OrmCodec<?>,Boolean>());
+	private static volatile boolean profiling = Boolean.getBoolean("gedi.orm.profile");
+
+	public static <T> OrmCodec<T> get(Class<T> cls) {
+		return (OrmCodec<T>) codecs.get(cls);
+	}
+
+	public static void setProfiling(boolean profiling) {
+		OrmCodec.profiling = profiling;
+	}
+
+	public static boolean isProfiling() {
+		return profiling;
+	}
+
+	/**
+	 * Per class throughput of all codecs that have been used while profiling was enabled (table with header)
+	 * @return
+	 */
+	public static String getStatistics() {
+		ArrayList<OrmCodec<?>> l;
+		synchronized (all) {
+			l = new ArrayList<OrmCodec<?>>(all);
+		}
+		Collections.sort(l, (a,b)->Long.compare(b.encodeNanos.sum()+b.decodeNanos.sum(), a.encodeNanos.sum()+a.decodeNanos.sum()));
+		StringBuilder sb = new StringBuilder();
+		sb.append("Class\tEncoded\tEncoded bytes\tEncode objects/s\tEncode MB/s\tDecoded\tDecoded bytes\tDecode objects/s\tDecode MB/s\n");
+		for (OrmCodec<?> c : l) {
+			if (c.encoded.sum()==0 && c.decoded.sum()==0) continue;
+			sb.append(c.cls.getName());
+			appendThroughput(sb, c.encoded.sum(), c.encodedBytes.sum(), c.encodeNanos.sum());
+			appendThroughput(sb, c.decoded.sum(), c.decodedBytes.sum(), c.decodeNanos.sum());
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+
+	private static void appendThroughput(StringBuilder sb, long n, long bytes, long nanos) {
+		double sec = nanos*1E-9;
+		sb.append("\t").append(n).append("\t").append(bytes);
+		sb.append(String.format("\t%.0f\t%.2f", sec==0?0:n/sec, sec==0?0:bytes/sec/1024/1024));
+	}
+
+
+	private Class<T> cls;
+	private SpecialBinarySerializer<T> special;
+	private FieldCodec[] fields;
+
+	private LongAdder encoded = new LongAdder();
+	private LongAdder encodedBytes = new LongAdder();
+	private LongAdder encodeNanos = new LongAdder();
+	private LongAdder decoded = new LongAdder();
+	private LongAdder decodedBytes = new LongAdder();
+	private LongAdder decodeNanos = new LongAdder();
+
+	private OrmCodec(Class<T> cls) {
+		this.cls = cls;
+		SpecialSerializerExtensionPoint extPoint = SpecialSerializerExtensionPoint.getInstance();
+		if (extPoint.contains(cls))
+			special = extPoint.get(cls);
+
+		if (special!=null || cls.isArray() || cls.isEnum() || cls.isPrimitive())
+			fields = new FieldCodec[0];
+		else {
+			OrmInfo info = Orm.getInfo(cls);
+			Field[] f = info.getFields();
+			long[] offset = info.getPointerOffsets();
+			fields = new FieldCodec[f.length];
+			for (int i=0; i<f.length; i++)
+				fields[i] = createFieldCodec(f[i].getType(), offset[i], extPoint);
+		}
+		synchronized (all) {
+			all.add(this);
+		}
+	}
+
+	public Class<T> getType() {
+		return cls;
+	}
+
+	/**
+	 * The special serializer registered for this class, or null
+	 * @return
+	 */
+	public SpecialBinarySerializer<T> getSpecialSerializer() {
+		return special;
+	}
+
+	public long getEncoded() {
+		return encoded.sum();
+	}
+
+	public long getDecoded() {
+		return decoded.sum();
+	}
+
+	/**
+	 * Writes all fields of o
+	 * @param parent
+	 * @param out
+	 * @param o
+	 * @throws IOException
+	 */
+	public void encode(OrmSerializer parent, BinaryWriter out, T o) throws IOException {
+		if (!profiling) {
+			for (int i=0; i<fields.length; i++)
+				fields[i].write(parent, out, o);
+			return;
+		}
+		long pos = out.position();
+		long start = System.nanoTime();
+		for (int i=0; i<fields.length; i++)
+			fields[i].write(parent, out, o);
+		encodeNanos.add(System.nanoTime()-start);
+		encodedBytes.add(out.position()-pos);
+		encoded.increment();
+	}
+
+	/**
+	 * Reads all fields into re
+	 * @param parent
+	 * @param in
+	 * @param re
+	 * @throws IOException
+	 */
+	public void decode(OrmSerializer parent, BinaryReader in, T re) throws IOException {
+		if (!profiling) {
+			for (int i=0; i<fields.length; i++)
+				fields[i].read(parent, in, re);
+			return;
+		}
+		long pos = in.position();
+		long start = System.nanoTime();
+		for (int i=0; i<fields.length; i++)
+			fields[i].read(parent, in, re);
+		decodeNanos.add(System.nanoTime()-start);
+		decodedBytes.add(in.position()-pos);
+		decoded.increment();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("OrmCodec [class=%s, fields=%d, encoded=%d, decoded=%d]", cls.getName(), fields.length, getEncoded(), getDecoded());
+	}
+
+
+	private interface FieldCodec {
+		void write(OrmSerializer parent, BinaryWriter out, Object o) throws IOException;
+		void read(OrmSerializer parent, BinaryReader in, Object re) throws IOException;
+	}
+
+	private static FieldCodec createFieldCodec(Class<?> type, long offset, SpecialSerializerExtensionPoint extPoint) {
+		Unsafe unsafe = Orm.getUnsafe();
+
+		if (type==boolean.class)
+			return new FieldCodec() {
+				public void write(OrmSerializer parent, BinaryWriter out, Object o) throws IOException {
+					out.putByte(unsafe.getBoolean(o, offset)?1:0);
+				}
+				public void read(OrmSerializer parent, BinaryReader in, Object re) throws IOException {
+					unsafe.putBoolean(re, offset, in.getByte()!=0);
+				}
+			};
+		if (type==byte.class)
+			return new FieldCodec() {
+				public void write(OrmSerializer parent, BinaryWriter out, Object o) throws IOException {
+					out.putByte(unsafe.getByte(o, offset));
+				}
+				public void read(OrmSerializer parent, BinaryReader in, Object re) throws IOException {
+					unsafe.putByte(re, offset, (byte) in.getByte());
+				}
+			};
+		if (type==short.class)
+			return new FieldCodec() {
+				public void write(OrmSerializer parent, BinaryWriter out, Object o) throws IOException {
+					out.putShort(unsafe.getShort(o, offset));
+				}
+				public void read(OrmSerializer parent, BinaryReader in, Object re) throws IOException {
+					unsafe.putShort(re, offset, in.getShort());
+				}
+			};
+		if (type==int.class)
+			return new FieldCodec() {
+				public void write(OrmSerializer parent, BinaryWriter out, Object o) throws IOException {
+					out.putInt(unsafe.getInt(o, offset));
+				}
+				public void read(OrmSerializer parent, BinaryReader in, Object re) throws IOException {
+					unsafe.putInt(re, offset, in.getInt());
+				}
+			};
+		if (type==long.class)
+			return new FieldCodec() {
+				public void write(OrmSerializer parent, BinaryWriter out, Object o) throws IOException {
+					out.putLong(unsafe.getLong(o, offset));
+				}
+				public void read(OrmSerializer parent, BinaryReader in, Object re) throws IOException {
+					unsafe.putLong(re, offset, in.getLong());
+				}
+			};
+		if (type==char.class)
+			return new FieldCodec() {
+				public void write(OrmSerializer parent, BinaryWriter out, Object o) throws IOException {
+					out.putChar(unsafe.getChar(o, offset));
+				}
+				public void read(OrmSerializer parent, BinaryReader in, Object re) throws IOException {
+					unsafe.putChar(re, offset, in.getChar());
+				}
+			};
+		if (type==float.class)
+			return new FieldCodec() {
+				public void write(OrmSerializer parent, BinaryWriter out, Object o) throws IOException {
+					out.putFloat(unsafe.getFloat(o, offset));
+				}
+				public void read(OrmSerializer parent, BinaryReader in, Object re) throws IOException {
+					unsafe.putFloat(re, offset, in.getFloat());
+				}
+			};
+		if (type==double.class)
+			return new FieldCodec() {
+				public void write(OrmSerializer parent, BinaryWriter out, Object o) throws IOException {
+					out.putDouble(unsafe.getDouble(o, offset));
+				}
+				public void read(OrmSerializer parent, BinaryReader in, Object re) throws IOException {
+					unsafe.putDouble(re, offset, in.getDouble());
+				}
+			};
+		if (type.isPrimitive())
+			throw new RuntimeException("Unknown primitive type "+type);
+
+		if (extPoint.contains(type)) {
+			SpecialBinarySerializer<Object> ser = extPoint.get(type);
+			return new FieldCodec() {
+				public void write(OrmSerializer parent, BinaryWriter out, Object o) throws IOException {
+					ser.serialize(parent, out, unsafe.getObject(o, offset));
+				}
+				public void read(OrmSerializer parent, BinaryReader in, Object re) throws IOException {
+					unsafe.putObject(re, offset, ser.deserialize(parent, in));
+				}
+			};
+		}
+
+		if (type.isArray() && type.getComponentType().isPrimitive()) {
+			Class<?> comp = type.getComponentType();
+			// length+1 or 0 for null
+			return new FieldCodec() {
+				public void write(OrmSerializer parent, BinaryWriter out, Object o) throws IOException {
+					Object a = unsafe.getObject(o, offset);
+					if (a==null)
+						out.putCInt(0);
+					else {
+						out.putCInt(Array.getLength(a)+1);
+						writePrimitiveArray(out, comp, a);
+					}
+				}
+				public void read(OrmSerializer parent, BinaryReader in, Object re) throws IOException {
+					int len = in.getCInt();
+					unsafe.putObject(re, offset, len==0?null:readPrimitiveArray(in, comp, len-1));
+				}
+			};
+		}
+
+		if (type.isArray()) {
+			Class<?> comp = type.getComponentType();
+			// 0: null, 1: cached (id follows), 2: id, length and elements follow
+			return new FieldCodec() {
+				public void write(OrmSerializer parent, BinaryWriter out, Object o) throws IOException {
+					Object[] a = (Object[]) unsafe.getObject(o, offset);
+					Integer id;
+					if (a==null)
+						out.putCInt(0);
+					else if ((id=parent.getObjectId(a))!=null) {
+						out.putCInt(1);
+						out.putCInt(id);
+					} else {
+						out.putCInt(2);
+						out.putCInt(parent.isCacheObjects()?parent.indexObject(a, true):0);
+						out.putCInt(a.length);
+						for (int i=0; i<a.length; i++)
+							parent.serialize(out, a[i]);
+					}
+				}
+				public void read(OrmSerializer parent, BinaryReader in, Object re) throws IOException {
+					int ty = in.getCInt();
+					if (ty==0)
+						unsafe.putObject(re, offset, null);
+					else if (ty==1) {
+						int oid = in.getCInt();
+						if (oid==0) throw new RuntimeException("Object cache inconsistent!");
+						unsafe.putObject(re, offset, parent.getObject(oid));
+					} else {
+						int aoid = in.getCInt();
+						int len = in.getCInt();
+						Object[] a = (Object[]) Array.newInstance(comp, len);
+						if (parent.isCacheObjects() && parent.indexObject(a, true)!=aoid) throw new RuntimeException("Object cache inconsistent!");
+						for (int i=0; i<len; i++)
+							a[i] = parent.deserialize(in);
+						unsafe.putObject(re, offset, a);
+					}
+				}
+			};
+		}
+
+		if (type.isEnum()) {
+			Object[] constants = type.getEnumConstants();
+			// ordinal+1 or 0 for null
+			return new FieldCodec() {
+				public void write(OrmSerializer parent, BinaryWriter out, Object o) throws IOException {
+					Enum a = (Enum) unsafe.getObject(o, offset);
+					out.putCInt(a==null?0:a.ordinal()+1);
+				}
+				public void read(OrmSerializer parent, BinaryReader in, Object re) throws IOException {
+					int ordinal = in.getCInt();
+					unsafe.putObject(re, offset, ordinal==0?null:constants[ordinal-1]);
+				}
+			};
+		}
+
+		return new FieldCodec() {
+			public void write(OrmSerializer parent, BinaryWriter out, Object o) throws IOException {
+				parent.serialize(out, unsafe.getObject(o, offset));
+			}
+			public void read(OrmSerializer parent, BinaryReader in, Object re) throws IOException {
+				unsafe.putObject(re, offset, parent.deserialize(in));
+			}
+		};
+	}
+
+	/**
+	 * Writes the elements of a primitive array (without length); booleans are packed into bytes
+	 */
+	static void writePrimitiveArray(BinaryWriter out, Class<?> comp, Object o) throws IOException {
+		if (comp==boolean.class) {
+			boolean[] a = (boolean[]) o;
+			for (int i=0; i<a.length; i+=8) {
+				int b = 0;
+				for (int j=0; j<8 && i+j<a.length; j++)
+					if (a[i+j]) b |= 1<<j;
+				out.putByte(b);
+			}
+		} else if (comp==byte.class) {
+			byte[] a = (byte[]) o;
+			for (int i=0; i<a.length; i++)
+				out.putByte(a[i]);
+		} else if (comp==short.class) {
+			short[] a = (short[]) o;
+			for (int i=0; i<a.length; i++)
+				out.putShort(a[i]);
+		} else if (comp==int.class) {
+			int[] a = (int[]) o;
+			for (int i=0; i<a.length; i++)
+				out.putInt(a[i]);
+		} else if (comp==long.class) {
+			long[] a = (long[]) o;
+			for (int i=0; i<a.length; i++)
+				out.putLong(a[i]);
+		} else if (comp==char.class) {
+			char[] a = (char[]) o;
+			for (int i=0; i<a.length; i++)
+				out.putChar(a[i]);
+		} else if (comp==float.class) {
+			float[] a = (float[]) o;
+			for (int i=0; i<a.length; i++)
+				out.putFloat(a[i]);
+		} else if (comp==double.class) {
+			double[] a = (double[]) o;
+			for (int i=0; i<a.length; i++)
+				out.putDouble(a[i]);
+		} else
+			throw new RuntimeException("Unknown primitive type "+comp);
+	}
+
+	/**
+	 * Reads a primitive array of the given length written by {@link #writePrimitiveArray(BinaryWriter, Class, Object)}
+	 */
+	static Object readPrimitiveArray(BinaryReader in, Class<?> comp, int len) throws IOException {
+		if (comp==boolean.class) {
+			boolean[] a = new boolean[len];
+			for (int i=0; i<len; i+=8) {
+				int b = in.getByte();
+				for (int j=0; j<8 && i+j<len; j++)
+					a[i+j] = (b & (1<<j))!=0;
+			}
+			return a;
+		} else if (comp==byte.class) {
+			byte[] a = new byte[len];
+			for (int i=0; i<len; i++) a[i] = (byte) in.getByte();
+			return a;
+		} else if (comp==short.class) {
+			short[] a = new short[len];
+			for (int i=0; i<len; i++) a[i] = in.getShort();
+			return a;
+		} else if (comp==int.class) {
+			int[] a = new int[len];
+			for (int i=0; i<len; i++) a[i] = in.getInt();
+			return a;
+		} else if (comp==long.class) {
+			long[] a = new long[len];
+			for (int i=0; i<len; i++) a[i] = in.getLong();
+			return a;
+		} else if (comp==char.class) {
+			char[] a = new char[len];
+			for (int i=0; i<len; i++) a[i] = in.getChar();
+			return a;
+		} else if (comp==float.class) {
+			float[] a = new float[len];
+			for (int i=0; i<len; i++) a[i] = in.getFloat();
+			return a;
+		} else if (comp==double.class) {
+			double[] a = new double[len];
+			for (int i=0; i<len; i++) a[i] = in.getDouble();
+			return a;
+		}
+		throw new RuntimeException("Unknown primitive type "+comp);
+	}
+
+}
@@ -4,19 +4,14 @@ import gedi.util.functions.ExtendedIterator;
 import gedi.util.io.randomaccess.BinaryReader;
 import gedi.util.io.randomaccess.BinaryWriter;
 import gedi.util.io.randomaccess.serialization.BinarySerializable;
-import gedi.util.orm.Orm.OrmInfo;
-import gedi.util.orm.special.SpecialSerializerExtensionPoint;
 
 import java.io.IOException;
 import java.lang.reflect.Array;
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
 
-import sun.misc.Unsafe;
-
 /**
  * Each record starts with two cints (class id and object id). This combination always determines, whether objects are cached, and whether the current object is cached:
  * 0,0: null
@@ -24,6 +19,8 @@ import sun.misc.Unsafe;
  * n,0: no caching; data follow
  * n,n: first time this object, cached under this id; data follow
  * 
+ * The fields of objects are written by the {@link OrmCodec} of their class.
+ * 
  * @author erhard
  *
  */
@@ -40,11 +37,13 @@ public class OrmSerializer {
 	private ArrayList<Object> objecttable = new ArrayList<Object>();
 	private IdentityHashMap<Object,Integer> objectindex = new IdentityHashMap<Object,Integer>();
 
+	// most records are of the same class
+	private Class lastClass;
+	private int lastClassId;
+
 	private boolean cacheObjects = false;
 	private boolean useBinarySerializable = false;
 	
-	private SpecialSerializerExtensionPoint extPoint = SpecialSerializerExtensionPoint.getInstance();
-	
 	public OrmSerializer() {
 		objecttable.add(null);
 		classtable.add(null);
@@ -70,22 +69,28 @@ public class OrmSerializer {
 	 * @return
 	 */
 	private int obtainClassId(Class cls) {
+		if (cls==lastClass) return lastClassId;
 		Integer id = classindex.get(cls);
 		if (id==null) {
 			classindex.put(cls, id = classindex.size()+1);
 			classtable.add(cls);
 		}
-		return id;
+		lastClass = cls;
+		return lastClassId = id;
 	}
 	private Class obtainClass(int id) {
 		return classtable.get(id);
 	}
 	
-	private Integer getObjectId(Object o) {
-		return objectindex.get(o);
+	Integer getObjectId(Object o) {
+		return objectindex.isEmpty()?null:objectindex.get(o);
 	}
 	
-	private int indexObject(Object o, boolean throwIfIndexed) {
+	boolean isCacheObjects() {
+		return cacheObjects;
+	}
+	
+	int indexObject(Object o, boolean throwIfIndexed) {
 		if (objectindex.containsKey(o)) {
 			if (throwIfIndexed)
 				throw new RuntimeException("Object already indexed!");
@@ -104,7 +109,7 @@ public class OrmSerializer {
 		objectindex.put(o, index);
 		objecttable.set(index, o);
 	}
-	private <T> T getObject(int oid) {
+	<T> T getObject(int oid) {
 		return (T) objecttable.get(oid);
 	}
 	
@@ -169,198 +174,29 @@ public class OrmSerializer {
 			writer.putCInt(oid);
 			
 			if (useBinarySerializable && o instanceof BinarySerializable)((BinarySerializable)o).serialize(writer);
-			else if (extPoint.contains(o.getClass())) {
-				extPoint.<Object>get(o.getClass()).serialize(this,writer, o);
-			}
-			else if (o.getClass().isArray()) {
-				if (o.getClass()==boolean[].class) {
-					boolean[] a = (boolean[]) o;
-					int[] p = pack(a);
-					writer.putCInt(a.length);
-					for (int i=0; i<p.length; i++)
-						writer.putByte(p[i]);
-				} else if (o.getClass()==byte[].class) {
-					byte[] a = (byte[]) o;
-					writer.putCInt(a.length);
-					for (int i=0; i<a.length; i++)
-						writer.putByte(a[i]);
-				} else if (o.getClass()==short[].class) {
-					short[] a = (short[]) o;
-					writer.putCInt(a.length);
-					for (int i=0; i<a.length; i++)
-						writer.putShort(a[i]);
-				} else if (o.getClass()==int[].class) {
-					int[] a = (int[]) o;
-					writer.putCInt(a.length);
-					for (int i=0; i<a.length; i++)
-						writer.putInt(a[i]);
-				} else if (o.getClass()==long[].class) {
-					long[] a = (long[]) o;
-					writer.putCInt(a.length);
-					for (int i=0; i<a.length; i++)
-						writer.putLong(a[i]);
-				} else if (o.getClass()==char[].class) {
-					char[] a = (char[]) o;
-					writer.putCInt(a.length);
-					for (int i=0; i<a.length; i++)
-						writer.putChar(a[i]);
-				} else if (o.getClass()==float[].class) {
-					float[] a = (float[]) o;
-					writer.putCInt(a.length);
-					for (int i=0; i<a.length; i++)
-						writer.putFloat(a[i]);
-				} else if (o.getClass()==double[].class) {
-					double[] a = (double[]) o;
-					writer.putCInt(a.length);
-					for (int i=0; i<a.length; i++)
-						writer.putDouble(a[i]);
-				}else {
+			else {
+				OrmCodec codec = OrmCodec.get(o.getClass());
+				if (codec.getSpecialSerializer()!=null) {
+					codec.getSpecialSerializer().serialize(this,writer, o);
+				}
+				else if (o.getClass().isArray()) {
+					Class comp = o.getClass().getComponentType();
 					int l = Array.getLength(o);
 					writer.putCInt(l);
-					for (int i=0; i<l; i++) {
-						serialize(writer,Array.get(o, i));
+					if (comp.isPrimitive())
+						OrmCodec.writePrimitiveArray(writer, comp, o);
+					else {
+						Object[] a = (Object[]) o;
+						for (int i=0; i<l; i++) 
+							serialize(writer,a[i]);
 					}
 				}
-			}
-			else if (o.getClass().isEnum()) {
-				Enum a = (Enum) o;
-				writer.putCInt(a.ordinal());
-			}
-			else {
-				Unsafe unsafe = Orm.getUnsafe();
-				OrmInfo info = Orm.getInfo(o.getClass());
-				Field[] fields = info.getFields();
-				long[] offset = info.getPointerOffsets();
-				for (int fieldIndex=0; fieldIndex<fields.length; fieldIndex++) {
-					if (fields[fieldIndex].getType().isPrimitive()) {
-						if (fields[fieldIndex].getType()==boolean.class) 
-							writer.putByte(unsafe.getBoolean(o, offset[fieldIndex])?1:0);
-						else if (fields[fieldIndex].getType()==byte.class) 
-							writer.putByte(unsafe.getByte(o, offset[fieldIndex]));
-						else if (fields[fieldIndex].getType()==short.class) 
-							writer.putShort(unsafe.getShort(o, offset[fieldIndex]));
-						else if (fields[fieldIndex].getType()==int.class) 
-							writer.putInt(unsafe.getInt(o, offset[fieldIndex]));
-						else if (fields[fieldIndex].getType()==long.class) 
-							writer.putLong(unsafe.getLong(o, offset[fieldIndex]));
-						else if (fields[fieldIndex].getType()==char.class) 
-							writer.putChar(unsafe.getChar(o, offset[fieldIndex]));
-						else if (fields[fieldIndex].getType()==float.class) 
-							writer.putFloat(unsafe.getFloat(o, offset[fieldIndex]));
-						else if (fields[fieldIndex].getType()==double.class) 
-							writer.putDouble(unsafe.getDouble(o, offset[fieldIndex]));
-						else throw new RuntimeException();
-					}
-					else if (extPoint.contains(fields[fieldIndex].getType())) {
-						extPoint.<Object>get(fields[fieldIndex].getType()).serialize(this,writer, unsafe.getObject(o, offset[fieldIndex]));
-					}
-					else if (fields[fieldIndex].getType().isArray()) {
-						if (fields[fieldIndex].getType()==boolean[].class) {
-							boolean[] a = (boolean[]) unsafe.getObject(o, offset[fieldIndex]);
-							if (a==null) {
-								writer.putCInt(0);
-							} else {
-								int[] p = pack(a);
-								writer.putCInt(a.length+1);
-								for (int i=0; i<p.length; i++)
-									writer.putByte(p[i]);
-							}
-						} else if (fields[fieldIndex].getType()==byte[].class) {
-							byte[] a = (byte[]) unsafe.getObject(o, offset[fieldIndex]);
-							if (a==null) {
-								writer.putCInt(0);
-							} else {
-								writer.putCInt(a.length+1);
-								for (int i=0; i<a.length; i++)
-									writer.putByte(a[i]);
-							}
-						} else if (fields[fieldIndex].getType()==short[].class) {
-							short[] a = (short[]) unsafe.getObject(o, offset[fieldIndex]);
-							if (a==null) {
-								writer.putCInt(0);
-							} else {
-								writer.putCInt(a.length+1);
-								for (int i=0; i<a.length; i++)
-									writer.putShort(a[i]);
-							}
-						} else if (fields[fieldIndex].getType()==int[].class) {
-							int[] a = (int[]) unsafe.getObject(o, offset[fieldIndex]);
-							if (a==null) {
-								writer.putCInt(0);
-							} else {
-								writer.putCInt(a.length+1);
-								for (int i=0; i<a.length; i++)
-									writer.putInt(a[i]);
-							}
-						} else if (fields[fieldIndex].getType()==long[].class) {
-							long[] a = (long[]) unsafe.getObject(o, offset[fieldIndex]);
-							if (a==null) {
-								writer.putCInt(0);
-							} else {
-								writer.putCInt(a.length+1);
-								for (int i=0; i<a.length; i++)
-									writer.putLong(a[i]);
-							}
-						} else if (fields[fieldIndex].getType()==char[].class) {
-							char[] a = (char[]) unsafe.getObject(o, offset[fieldIndex]);
-							if (a==null) {
-								writer.putCInt(0);
-							} else {
-								writer.putCInt(a.length+1);
-								for (int i=0; i<a.length; i++)
-									writer.putChar(a[i]);
-							}
-						} else if (fields[fieldIndex].getType()==float[].class) {
-							float[] a = (float[]) unsafe.getObject(o, offset[fieldIndex]);
-							if (a==null) {
-								writer.putCInt(0);
-							} else {
-								writer.putCInt(a.length+1);
-								for (int i=0; i<a.length; i++)
-									writer.putFloat(a[i]);
-							}
-						} else if (fields[fieldIndex].getType()==double[].class) {
-							double[] a = (double[]) unsafe.getObject(o, offset[fieldIndex]);
-							if (a==null) {
-								writer.putCInt(0);
-							} else {
-								writer.putCInt(a.length+1);
-								for (int i=0; i<a.length; i++)
-									writer.putDouble(a[i]);
-							}
-						} else {
-							Object a = unsafe.getObject(o, offset[fieldIndex]);
-							if (a==null) {
-								writer.putCInt(0);
-							} else if (getObjectId(a)!=null) {
-								writer.putCInt(1);
-								writer.putCInt(getObjectId(a));
-							} else {
-								writer.putCInt(2);
-								
-								int aoid = 0;
-								if (cacheObjects) aoid = indexObject(a,true);
-								writer.putCInt(aoid);
-								
-								int l = Array.getLength(a);
-								writer.putCInt(l);
-								for (int i=0; i<l; i++) {
-									serialize(writer,Array.get(a, i));
-								}
-							}
-						}
-					} else if (fields[fieldIndex].getType().isEnum()) {
-						Enum a = (Enum) unsafe.getObject(o, offset[fieldIndex]);
-						if (a==null) {
-							writer.putCInt(0);
-						} else {
-							writer.putCInt(a.ordinal()+1);
-						}
-					} else {
-						Object a = unsafe.getObject(o, offset[fieldIndex]);
-						serialize(writer, a);
-					}
+				else if (o.getClass().isEnum()) {
+					Enum a = (Enum) o;
+					writer.putCInt(a.ordinal());
 				}
+				else 
+					codec.encode(this, writer, o);
 			}
 				
 		}
@@ -436,67 +272,29 @@ public class OrmSerializer {
 		T re;
 		boolean cached = false;
 		
-		if (extPoint.contains(cls)) {
+		OrmCodec<T> codec = OrmCodec.get(cls);
+		if (codec.getSpecialSerializer()!=null) {
 			if (cacheObjects && indexObject(placeholder,true)!=oid) 
 				throw new IOException("Object cache inconsistent for "+cls);
 			cached = true;
-			re = (T) extPoint.<Object>get(cls).deserialize(this,reader);
+			re = codec.getSpecialSerializer().deserialize(this,reader);
 			replaceIndexObject(re, oid);
-		} else if (cls==boolean[].class) {
-			int alen = reader.getCInt();
-			int plen = alen/8+((alen%8==0)?0:1);
-			int[] p = new int[plen];
-			for (int i=0; i<plen; i++) p[i] = reader.getByte();
-			boolean[] a = unpack(alen, p);
-			re = (T) a;
-		} else if (cls==byte[].class) {
-			int len = reader.getCInt();
-			byte[] a = new byte[len];
-			for (int i=0; i<len; i++) a[i] = (byte) reader.getByte();
-			re = (T) a;
-		} else if (cls==short[].class) {
+		} else if (cls.isArray() && cls.getComponentType().isPrimitive()) {
 			int len = reader.getCInt();
-			short[] a = new short[len];
-			for (int i=0; i<len; i++) a[i] = reader.getShort();
-			re = (T) a;
-		} else if (cls==int[].class) {
-			int len = reader.getCInt();
-			int[] a = new int[len];
-			for (int i=0; i<len; i++) a[i] = reader.getInt();
-			re = (T) a;
-		} else if (cls==long[].class) {
-			int len = reader.getCInt();
-			long[] a = new long[len];
-			for (int i=0; i<len; i++) a[i] = reader.getLong();
-			re = (T) a;
-		} else if (cls==char[].class) {
-			int len = reader.getCInt();
-			char[] a = new char[len];
-			for (int i=0; i<len; i++) a[i] = reader.getChar();
-			re = (T) a;
-		} else if (cls==float[].class) {
-			int len = reader.getCInt();
-			float[] a = new float[len];
-			for (int i=0; i<len; i++) a[i] = reader.getFloat();
-			re = (T) a;
-		} else if (cls==double[].class) {
-			int len = reader.getCInt();
-			double[] a = new double[len];
-			for (int i=0; i<len; i++) a[i] = reader.getDouble();
-			re = (T) a;
+			re = (T) OrmCodec.readPrimitiveArray(reader, cls.getComponentType(), len);
 		} else if (cls.isEnum()) {
 			int ordinal = reader.getCInt();
 			Object v = cls.getEnumConstants()[ordinal];
 			re = (T) v;
 		} else if (cls.isArray()) {
 			int len = reader.getCInt();
-			Object a = Array.newInstance(cls.getComponentType(), len);
+			Object[] a = (Object[]) Array.newInstance(cls.getComponentType(), len);
 			if (cacheObjects && indexObject(a,true)!=oid) 
 				throw new IOException("Object cache inconsistent!");
 			cached = true;
 			
 			for (int i=0; i<len; i++) 
-				Array.set(a, i, deserialize(reader));
+				a[i] = deserialize(reader);
 			re = (T) a;
 		}
 		else {
@@ -527,168 +325,8 @@ public class OrmSerializer {
 		if (useBinarySerializable && BinarySerializable.class.isAssignableFrom(re.getClass())) {
 			((BinarySerializable)re).deserialize(reader);
 		}
-		else {
-			Unsafe unsafe = Orm.getUnsafe();
-			OrmInfo info = Orm.getInfo(re.getClass());
-			Field[] fields = info.getFields();
-			long[] offset = info.getPointerOffsets();
-			for (int fieldIndex=0; fieldIndex<fields.length; fieldIndex++) {
-				if (fields[fieldIndex].getType()==boolean.class) 
-					unsafe.putBoolean(re, offset[fieldIndex], reader.getByte()!=0);
-				else if (fields[fieldIndex].getType()==byte.class) 
-					unsafe.putByte(re, offset[fieldIndex], (byte)reader.getByte());
-				else if (fields[fieldIndex].getType()==short.class) 
-					unsafe.putShort(re, offset[fieldIndex], reader.getShort());
-				else if (fields[fieldIndex].getType()==int.class) 
-					unsafe.putInt(re, offset[fieldIndex], reader.getInt());
-				else if (fields[fieldIndex].getType()==long.class) 
-					unsafe.putLong(re, offset[fieldIndex], reader.getLong());
-				else if (fields[fieldIndex].getType()==char.class) 
-					unsafe.putChar(re, offset[fieldIndex], reader.getChar());
-				else if (fields[fieldIndex].getType()==float.class) 
-					unsafe.putFloat(re, offset[fieldIndex], reader.getFloat());
-				else if (fields[fieldIndex].getType()==double.class) 
-					unsafe.putDouble(re, offset[fieldIndex], reader.getDouble());
-				else if (extPoint.contains(fields[fieldIndex].getType())) 
-					unsafe.putObject(re, offset[fieldIndex], extPoint.<Object>get(fields[fieldIndex].getType()).deserialize(this,reader));
-				else if (fields[fieldIndex].getType()==boolean[].class) {
-					int alen = reader.getCInt();
-					if (alen==0) {
-						unsafe.putObject(re, offset[fieldIndex],null);
-					} else {
-						alen--;
-						int plen = alen/8+((alen%8==0)?0:1);
-						int[] p = new int[plen];
-						for (int i=0; i<plen; i++) p[i] = reader.getByte();
-						boolean[] a = unpack(alen, p);
-						unsafe.putObject(re, offset[fieldIndex],a);
-					}
-				} else if (fields[fieldIndex].getType()==byte[].class) {
-					int len = reader.getCInt();
-					if (len==0) {
-						unsafe.putObject(re, offset[fieldIndex],null);
-					} else {
-						len--;
-						byte[] a = new byte[len];
-						for (int i=0; i<len; i++) a[i] = (byte) reader.getByte();
-						unsafe.putObject(re, offset[fieldIndex],a);
-					}
-				} else if (fields[fieldIndex].getType()==short[].class) {
-					int len = reader.getCInt();
-					if (len==0) {
-						unsafe.putObject(re, offset[fieldIndex],null);
-					} else {
-						len--;
-						short[] a = new short[len];
-						for (int i=0; i<len; i++) a[i] = reader.getShort();
-						unsafe.putObject(re, offset[fieldIndex],a);
-					}
-				} else if (fields[fieldIndex].getType()==int[].class) {
-					int len = reader.getCInt();
-					if (len==0) {
-						unsafe.putObject(re, offset[fieldIndex],null);
-					} else {
-						len--;
-						int[] a = new int[len];
-						for (int i=0; i<len; i++) a[i] = reader.getInt();
-						unsafe.putObject(re, offset[fieldIndex],a);
-					}
-				} else if (fields[fieldIndex].getType()==long[].class) {
-					int len = reader.getCInt();
-					if (len==0) {
-						unsafe.putObject(re, offset[fieldIndex],null);
-					} else {
-						len--;
-						long[] a = new long[len];
-						for (int i=0; i<len; i++) a[i] = reader.getLong();
-						unsafe.putObject(re, offset[fieldIndex],a);
-					}
-				} else if (fields[fieldIndex].getType()==char[].class) {
-					int len = reader.getCInt();
-					if (len==0) {
-						unsafe.putObject(re, offset[fieldIndex],null);
-					} else {
-						len--;
-						char[] a = new char[len];
-						for (int i=0; i<len; i++) a[i] = reader.getChar();
-						unsafe.putObject(re, offset[fieldIndex],a);
-					}
-				} else if (fields[fieldIndex].getType()==float[].class) {
-					int len = reader.getCInt();
-					if (len==0) {
-						unsafe.putObject(re, offset[fieldIndex],null);
-					} else {
-						len--;
-						float[] a = new float[len];
-						for (int i=0; i<len; i++) a[i] = reader.getFloat();
-						unsafe.putObject(re, offset[fieldIndex],a);
-					}
-				} else if (fields[fieldIndex].getType()==double[].class) {
-					int len = reader.getCInt();
-					if (len==0) {
-						unsafe.putObject(re, offset[fieldIndex],null);
-					} else {
-						len--;
-						double[] a = new double[len];
-						for (int i=0; i<len; i++) a[i] = reader.getDouble();
-						unsafe.putObject(re, offset[fieldIndex],a);
-					}
-				} else if (fields[fieldIndex].getType().isEnum()) {
-					int ordinal = reader.getCInt();
-					if (ordinal==0) {
-						unsafe.putObject(re, offset[fieldIndex],null);
-					} else {
-						ordinal--;
-						Object v = fields[fieldIndex].getType().getEnumConstants()[ordinal];
-						unsafe.putObject(re, offset[fieldIndex], v);
-					}
-				} else if (fields[fieldIndex].getType().isArray()) {
-					int ty = reader.getCInt();
-					if (ty==0) {
-						unsafe.putObject(re, offset[fieldIndex],null);
-					} else if (ty==1) {
-						int oid = reader.getCInt();
-						if (oid==0) throw new RuntimeException("Object cache inconsistent!");
-						Object o = getObject(oid);
-						unsafe.putObject(re, offset[fieldIndex],o);
-								
-					} else {
-						int aoid = reader.getCInt();
-						int len = reader.getCInt();
-						Object a = Array.newInstance(fields[fieldIndex].getType().getComponentType(), len);
-						if (cacheObjects && indexObject(a, true)!=aoid) throw new RuntimeException("Object cache inconsistent!");
-						
-						for (int i=0; i<len; i++) 
-							Array.set(a, i, deserialize(reader));
-						unsafe.putObject(re, offset[fieldIndex], a);
-					}
-				} else {
-					Object a = deserialize(reader);
-					unsafe.putObject(re, offset[fieldIndex], a);
-				}
-			}
-		}
-	}
-	
-	private int[] pack(boolean[] a) {
-		int[] re = new int[a.length/8+(a.length%8!=0?1:0)];
-		for (int i=0; i<a.length; i++) {
-			int index = i/8;
-			if (a[i])
-				re[index] |= 1<<(i%8);
-		}
-		return re;
-	}
-	
-	
-	private boolean[] unpack(int length, int[] a) {
-		boolean[] re = new boolean[length];
-		int index = 0;
-		for (int i=0; i<a.length; i++) {
-			for (int b=0; index<re.length && b<8; b++)
-				re[index++] = (a[i] & (1<<b)) !=0;
-		}
-		return re;
+		else 
+			OrmCodec.get((Class<Object>)re.getClass()).decode(this, reader, re);
 	}
 	
 }
@@ -42,6 +42,11 @@ public class DummyJob implements Job<Boolean> {
 	}
 	
 
+	@Override
+	public int getRequiredThreads() {
+		return 0;
+	}
+
 	@Override
 	public String getId() {
 		return "Dummy"+ind;
@@ -1,6 +1,7 @@
 package gedi.util.program;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -13,6 +14,7 @@ import java.util.logging.Logger;
 
 import gedi.app.Gedi;
 import gedi.util.ArrayUtils;
+import gedi.util.FileUtils;
 import gedi.util.StringUtils;
 import gedi.util.functions.EI;
 import gedi.util.io.text.LineOrientedFile;
@@ -40,6 +42,10 @@ public abstract class GediProgram {
 
 	private String changelog = "";
 	
+	private GediParameter<Integer> threadParameter;
+	private long memory = 0;
+	private int grantedThreads = -1;
+	
 	public GediProgram() {
 		this.name = getClass().getSimpleName();
 	}
@@ -81,6 +87,51 @@ public abstract class GediProgram {
 		this.outputSpec.add(output);
 	}
 	
+	/**
+	 * Declares the resources of this program, used for scheduling it within a composite program (see {@link #create(String, GediProgram...)}):
+	 * It uses at most the number of threads given by the parameter (by default, its Integer input named nthreads) and needs about memory bytes of heap.
+	 * During execution, the parameter returns the number of threads granted by the scheduler.
+	 * @param threads
+	 * @param memory
+	 */
+	protected void setResources(GediParameter<Integer> threads, long memory) {
+		this.threadParameter = threads;
+		this.memory = memory;
+	}
+	
+	protected void setRequiredMemory(long memory) {
+		this.memory = memory;
+	}
+	
+	public long getRequiredMemory() {
+		return memory;
+	}
+	
+	public int getRequiredThreads() {
+		GediParameter<?> p = getThreadParameter();
+		if (p==null || !(p.get() instanceof Integer)) return 1;
+		return Math.max(1, (Integer)p.get());
+	}
+	
+	void setGrantedThreads(int threads) {
+		this.grantedThreads = threads;
+	}
+	
+	private GediParameter<?> getThreadParameter() {
+		if (threadParameter!=null) return threadParameter;
+		return inputSpec.get("nthreads");
+	}
+	
+	boolean isThreadParameter(GediParameter<?> p) {
+		return p.equals(getThreadParameter());
+	}
+	
+	private Object getParameterValue(GediParameter<?> p) {
+		if (grantedThreads>0 && p==getThreadParameter())
+			return grantedThreads;
+		return p.get();
+	}
+	
 	protected boolean dontRunByUser() {
 		return runflag!=null && !runflag.getAsBoolean();
 	}
@@ -93,7 +144,7 @@ public abstract class GediProgram {
 	}
 	
 	protected int getIntParameter(int index) {
-		return (Integer)inputSpec.get(index).get();
+		return (Integer)getParameterValue(inputSpec.get(index));
 	}
 	
 	protected long getLongParameter(int index) {
@@ -109,7 +160,7 @@ public abstract class GediProgram {
 	}
 
 	protected <T> T getParameter(int index) {
-		return (T)inputSpec.get(index).get();
+		return (T)getParameterValue(inputSpec.get(index));
 	}
 	
 	protected <T> GediParameter<T> getInput(int index) {
@@ -125,7 +176,7 @@ public abstract class GediProgram {
 	}
 
 	protected int getIntParameter(String name) {
-		return (Integer)inputSpec.get(name).get();
+		return (Integer)getParameterValue(inputSpec.get(name));
 	}
 	
 	protected double getDoubleParameter(String name) {
@@ -137,7 +188,7 @@ public abstract class GediProgram {
 	}
 
 	protected <T> T getParameter(String name) {
-		return (T)inputSpec.get(name).get();
+		return (T)getParameterValue(inputSpec.get(name));
 	}
 
 	protected <T> GediParameter<T> getInput(String name) {
@@ -299,6 +350,7 @@ public abstract class GediProgram {
 				if (out.isRemoveFile() && out.getFile().exists()) {
 					Logger.getLogger("GEDI").info("Removing temp file "+out.getFile());
 					out.getFile().delete();
+					new File(out.getFile().getPath()+GediProgramManifest.EXTENSION).delete();
 				}
 		}
 	}
@@ -307,6 +359,16 @@ public abstract class GediProgram {
 	protected void initParameter(GediParameterSet params, GediParameterSpec inputSpec) {
 		
 	}
+	
+	/**
+	 * Total number of threads for all sub programs running concurrently: the thread parameter of this program (if any) or the number of processors.
+	 * @return
+	 */
+	protected int getThreadBudget() {
+		GediParameter<?> p = getThreadParameter();
+		if (p!=null && p.get() instanceof Integer && (Integer)p.get()>0) return (Integer)p.get();
+		return Runtime.getRuntime().availableProcessors();
+	}
 
 	/**
 	 * Create a program composed of subprograms.
@@ -357,6 +419,26 @@ public abstract class GediProgram {
 				
 				Transition goal = null;
 				
+				for (GediProgram s : findOutdated(subs)) {
+					if (context.isDryRun()) {
+						context.getLog().info(s.getName()+" is out of date and would be rerun with -"+CommandLineHandler.redo);
+						continue;
+					}
+					if (!getBooleanParameter(CommandLineHandler.redo)) {
+						context.getLog().warning(s.getName()+" is out of date, use -"+CommandLineHandler.redo+" to remove its outputs and rerun it");
+						continue;
+					}
+					context.getLog().info(s.getName()+" is out of date, removing its outputs");
+					new GediProgramManifest(s).delete();
+					for (GediParameter out : s.outputSpec.list)
+						if (out.isFile() && out.getFile().exists()) {
+							if (out.getFile().isDirectory())
+								FileUtils.deleteRecursive(out.getFile());
+							else
+								out.getFile().delete();
+						}
+				}
+				
 				PetriNet pn = new PetriNet();
 				HashMap<GediParameter,Place> places = new HashMap<>();
 				
@@ -441,6 +523,7 @@ public abstract class GediProgram {
 				econtext.setContext("context", context);
 				DefaultPetriNetScheduler scheduler = new DefaultPetriNetScheduler(econtext, pool);
 				scheduler.setRethrowExceptions(true);
+				scheduler.setResources(getThreadBudget(), Runtime.getRuntime().maxMemory());
 //				SingleThreadPetriNetScheduler scheduler = new SingleThreadPetriNetScheduler(econtext);
 						
 				for (Transition t : pn.getTransitions()) {
@@ -471,6 +554,49 @@ public abstract class GediProgram {
 	
 
 
+	/**
+	 * Finds the programs that have a manifest (see {@link GediProgramManifest}) and all outputs, but must be rerun since the manifest does not
+	 * match or a program producing one of its inputs is rerun. Outputs without a manifest are considered up to date.
+	 * @param subs
+	 * @return
+	 * @throws IOException
+	 */
+	@SuppressWarnings("rawtypes")
+	private static ArrayList<GediProgram> findOutdated(GediProgram[] subs) throws IOException {
+		HashMap<GediParameter,GediProgram> producer = new HashMap<>();
+		for (GediProgram s : subs) 
+			for (GediParameter out : s.outputSpec.list)
+				producer.put(out, s);
+		
+		ArrayList<GediProgram> re = new ArrayList<>();
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (GediProgram s : subs) {
+				if (re.contains(s) || s.dontRunByUser() || s.outputSpec.list.isEmpty()) continue;
+				boolean missing = false;
+				for (GediParameter out : s.outputSpec.list)
+					if (out.get()==null)
+						missing = true;
+				if (missing) continue;
+				GediProgramManifest m = new GediProgramManifest(s);
+				if (!m.exists()) continue;
+				
+				boolean outdated = !m.matches();
+				for (GediParameter in : s.inputSpec.list) {
+					GediProgram p = producer.get(in);
+					if (p!=null && p!=s && (re.contains(p) || p.wantToRunByUser()))
+						outdated = true;
+				}
+				if (outdated) {
+					re.add(s);
+					changed = true;
+				}
+			}
+		}
+		return re;
+	}
+
 	private static AtomicInteger index = new AtomicInteger(0);
 	private static class InitJob implements Job<Boolean> {
 
@@ -502,6 +628,11 @@ public abstract class GediProgram {
 		public Boolean execute(ExecutionContext context, MutableTuple input) {
 			return true;
 		}
+		
+		@Override
+		public int getRequiredThreads() {
+			return 0;
+		}
 
 		@Override
 		public String getId() {
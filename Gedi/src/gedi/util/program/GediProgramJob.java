@@ -29,6 +29,22 @@ public class GediProgramJob extends DummyJob {
 		return input;
 	}
 	
+	@Override
+	public int getRequiredThreads() {
+		return s.getRequiredThreads();
+	}
+	
+	@Override
+	public long getRequiredMemory() {
+		return s.getRequiredMemory();
+	}
+	
+	@Override
+	public Boolean execute(ExecutionContext context, MutableTuple input, int threads) {
+		s.setGrantedThreads(threads);
+		return execute(context, input);
+	}
+	
 	@Override
 	public Boolean execute(ExecutionContext context, MutableTuple input) {
 		if (dry) {
@@ -42,7 +58,8 @@ public class GediProgramJob extends DummyJob {
 		try {
 			GediProgramContext pc = context.getContext("context");
 			pc.startMessage(s.getName());
-			s.execute(pc);
+			if (s.execute(pc)==null)
+				new GediProgramManifest(s).write();
 			pc.finishMessage(s.getName());
 		} catch (Exception e) {
 			throw new RuntimeException("Could not run "+s,e);
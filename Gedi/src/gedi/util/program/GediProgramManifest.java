@@ -0,0 +1,171 @@
+package gedi.util.program;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import gedi.util.FileUtils;
+import gedi.util.StringUtils;
+import gedi.util.functions.EI;
+
+/**
+ * Fingerprint of a run of a {@link GediProgram}: program class (but not the version), its parameter values and the size and modification time
+ * (or a sampled checksum, see {@link #setSampledChecksums(boolean)}) of its input files. It is written next to the outputs after the
+ * program has run, and a composite program reruns a step (only with -redo, otherwise it warns) if its current fingerprint differs from the persisted one.
+ *
+ * @author erhard
+ *
+ */
+public class GediProgramManifest {
+
+	public static final String EXTENSION = ".manifest";
+
+	private static final HashSet<String> ignored = new HashSet<>(Arrays.asList(
+			CommandLineHandler.changelog,CommandLineHandler.h,CommandLineHandler.hh,CommandLineHandler.hhh,CommandLineHandler.progress,
+			CommandLineHandler.D,CommandLineHandler.dry,CommandLineHandler.keep,CommandLineHandler.redo,CommandLineHandler.goal
+			));
+
+	private static final int SAMPLES = 16;
+	private static final int SAMPLE_SIZE = 1<<16;
+
+	private static boolean sampledChecksums = Boolean.parseBoolean(System.getProperty("gedi.manifest.checksum", "false"));
+
+	/**
+	 * If true, input files are identified by their size and a checksum of a few evenly spaced chunks instead of size and modification time
+	 * (i.e. copied or touched inputs do not cause a rerun). The default is taken from the system property gedi.manifest.checksum.
+	 * @param sampledChecksums
+	 */
+	public static void setSampledChecksums(boolean sampledChecksums) {
+		GediProgramManifest.sampledChecksums = sampledChecksums;
+	}
+
+	public static boolean isSampledChecksums() {
+		return sampledChecksums;
+	}
+
+	private GediProgram program;
+
+	public GediProgramManifest(GediProgram program) {
+		this.program = program;
+	}
+
+	/**
+	 * The manifest file next to the first non-temporary file output (or the first file output), or null if the program does not have a file output
+	 * @return
+	 */
+	public File getFile() {
+		GediParameter<?> re = null;
+		for (GediParameter<?> out : program.getOutputSpec().list)
+			if (out.isFile() && (re==null || (re.isRemoveFile() && !out.isRemoveFile())))
+				re = out;
+		return re==null?null:new File(re.getFile().getPath()+EXTENSION);
+	}
+
+	public boolean exists() {
+		File f = getFile();
+		return f!=null && f.exists();
+	}
+
+	/**
+	 * Whether the persisted fingerprint is equal to the current one (false if there is none)
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean matches() throws IOException {
+		if (!exists()) return false;
+		return FileUtils.readAllText(getFile()).equals(compute());
+	}
+
+	public void write() throws IOException {
+		File f = getFile();
+		if (f!=null)
+			FileUtils.writeAllText(compute(), f);
+	}
+
+	public void delete() {
+		File f = getFile();
+		if (f!=null)
+			f.delete();
+	}
+
+	/**
+	 * Temporary files are not part of the fingerprint (they are removed after the run, and are covered by the manifest of the program
+	 * that produced them).
+	 * @return
+	 * @throws IOException
+	 */
+	public String compute() throws IOException {
+		TreeMap<String,String> entries = new TreeMap<>();
+		// the version is not part of the fingerprint, otherwise all results would be outdated after an upgrade
+		entries.put("program", program.getClass().getName()+" "+program.getName());
+
+		for (GediParameter<?> in : program.getInputSpec().list) {
+			if (ignored.contains(in.getName()) || program.isThreadParameter(in)) continue;
+			if (in.isFile()) {
+				if (!in.isRemoveFile())
+					entries.put("file "+in.getName(), fingerprint(in.getFile()));
+			}
+			else
+				entries.put("parameter "+in.getName(), in.getStringDescriptor());
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (String k : entries.keySet())
+			sb.append(k).append("\t").append(entries.get(k)).append("\n");
+		return sb.toString();
+	}
+
+	private static String fingerprint(File f) throws IOException {
+		if (!f.exists()) return f.getPath()+" missing";
+		if (f.isDirectory()) {
+			ArrayList<String> re = new ArrayList<>();
+			try (Stream<java.nio.file.Path> s = Files.walk(f.toPath())) {
+				for (java.nio.file.Path p : EI.wrap(s.iterator()).filter(p->p.toFile().isFile()).loop())
+					re.add(fingerprint(p.toFile()));
+			}
+			re.sort(String::compareTo);
+			return f.getPath()+" "+StringUtils.sha1(EI.wrap(re).concat(";"));
+		}
+		if (!sampledChecksums)
+			return f.getPath()+" "+f.length()+" "+f.lastModified();
+		return f.getPath()+" "+f.length()+" "+sampledChecksum(f);
+	}
+
+	private static String sampledChecksum(File f) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		byte[] buff = new byte[SAMPLE_SIZE];
+		try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+			long len = raf.length();
+			int samples = len<=(long)SAMPLES*SAMPLE_SIZE?1:SAMPLES;
+			for (int i=0; i<samples; i++) {
+				long pos = samples==1?0:(len-SAMPLE_SIZE)*i/(samples-1);
+				raf.seek(pos);
+				int n = (int) Math.min(samples==1?len:SAMPLE_SIZE, Integer.MAX_VALUE);
+				while (n>0) {
+					int r = raf.read(buff, 0, Math.min(n, buff.length));
+					if (r<0) break;
+					md.update(buff, 0, r);
+					n-=r;
+				}
+			}
+		}
+		StringBuilder sb = new StringBuilder();
+		for (byte b : md.digest())
+			sb.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
+		return sb.toString();
+	}
+
+}
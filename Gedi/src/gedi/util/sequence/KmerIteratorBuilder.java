@@ -57,6 +57,23 @@ public class KmerIteratorBuilder {
 		return re;
 	}
 	
+	/**
+	 * Hash of the kmer starting at offset in an ascii encoded sequence, or -1 if it contains a character not from the alphabet
+	 * @param s
+	 * @param offset
+	 * @return
+	 */
+	public int hash(byte[] s, int offset) {
+		int re = 0;
+		for (int i=0; i<q; i++) {
+			int c = isigma[s[offset+i]&0xFF];
+			if (c==-1)
+				return -1;
+			re |= c<<(2*(q-i-1));
+		}
+		return re;
+	}
+	
 	public char[] unhash(int index) {
 		char[] re = new char[q];
 		for (int i=0; i<q; i++)
@@ -88,6 +105,32 @@ public class KmerIteratorBuilder {
 			consumer.accept(it.nextInt());
 	}
 	
+	/**
+	 * Gets only overlapping kmers from the alphabet (and skips all others) of [start,end) of an ascii encoded sequence!
+	 * @param s
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public ByteKMerHashIterator iterateSequence(byte[] s, int start, int end) {
+		return new ByteKMerHashIterator(s, start, end);
+	}
+	
+	public void iterateSequence(byte[] s, int start, int end, IntConsumer consumer) {
+		int hash = 0;
+		int valid = 0; // number of valid characters before i
+		for (int i=start; i<end; i++) {
+			int c = isigma[s[i]&0xFF];
+			if (c==-1) {
+				valid = 0;
+				continue;
+			}
+			hash = ((hash<<2)&mask)|c;
+			if (++valid>=q)
+				consumer.accept(hash);
+		}
+	}
+	
 	public class KMerHashIterator implements IntIterator {
 
 		private CharSequence sequence;
@@ -151,4 +194,77 @@ public class KmerIteratorBuilder {
 	}
 
 	
+	/**
+	 * Same as {@link KMerHashIterator} for a range of an ascii encoded sequence; offsets are relative to the start of the range.
+	 * 
+	 * @author erhard
+	 *
+	 */
+	public class ByteKMerHashIterator implements IntIterator {
+
+		private byte[] sequence;
+		private int start;
+		private int end;
+		private int hash = -1; // always the next hash value
+		private int i;  // always the last position of the next kmer
+		private int rolling = 0;
+		private int valid = 0;
+		private int lastOffset;
+		
+		public ByteKMerHashIterator(byte[] sequence, int start, int end) {
+			this.sequence = sequence;
+			this.start = start;
+			this.end = end;
+			this.i = start-1;
+			advance();
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return hash!=-1;
+		}
+
+		@Override
+		public Integer next() {
+			return nextInt();
+		}
+
+		@Override
+		public void remove() {
+		}
+
+		@Override
+		public int nextInt() {
+			int re = hash;
+			lastOffset = i-q+1-start;
+			advance();
+			return re;
+		}
+		
+		public String nextKmer() {
+			return new String(unhash(nextInt()));
+		}
+		
+		public int getLastOffset() {
+			return lastOffset;
+		}
+		
+		private void advance() {
+			for (hash=-1; ++i<end; ) {
+				int c = isigma[sequence[i]&0xFF];
+				if (c==-1) {
+					valid = 0;
+					continue;
+				}
+				rolling = ((rolling<<2)&mask)|c;
+				if (++valid>=q) {
+					hash = rolling;
+					return;
+				}
+			}
+		}
+		
+	}
+
+	
 }
@@ -0,0 +1,128 @@
+package gedi.util.sequence;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import gedi.util.SequenceUtils;
+import gedi.util.io.randomaccess.BinaryReader;
+import gedi.util.io.randomaccess.BinaryWriter;
+
+/**
+ * Static helpers for DNA sequences (e.g. UMIs) of up to 32 nt packed into a long, 2 bits per base (the i-th base in bits 2i and 2i+1,
+ * i.e. exactly the bits of the corresponding {@link DnaSequence}). Longer sequences are stored in consecutive longs (words) of 32 nt each.
+ *
+ * The binary representation (see {@link #write(long[], int, int, BinaryWriter)}) is the same as for {@link gedi.util.FileUtils#writeBitVector}
+ * of a {@link DnaSequence} (without size).
+ *
+ * @author erhard
+ *
+ */
+public class PackedDnaSequence {
+
+	public static final int MAX_LENGTH = 32;
+
+	private PackedDnaSequence() {}
+
+	/**
+	 * Number of longs needed for a sequence of the given length.
+	 * @param length
+	 * @return
+	 */
+	public static int words(int length) {
+		return Math.max(1, (length+MAX_LENGTH-1)/MAX_LENGTH);
+	}
+
+	public static long pack(CharSequence s) {
+		if (s.length()>MAX_LENGTH) throw new IllegalArgumentException("Cannot pack sequences longer than "+MAX_LENGTH+"!");
+		long re = 0;
+		for (int i=0; i<s.length(); i++) {
+			int n = SequenceUtils.inv_nucleotides[s.charAt(i)];
+			if (n>3) throw new IllegalArgumentException("Cannot pack "+s.charAt(i)+"!");
+			re |= ((long)n)<<(2*i);
+		}
+		return re;
+	}
+
+	public static long pack(DnaSequence s) {
+		if (s.length()>MAX_LENGTH) throw new IllegalArgumentException("Cannot pack sequences longer than "+MAX_LENGTH+"!");
+		if (s.size()==0) return 0;
+		return s.getLongFromTo(0, s.size()-1);
+	}
+
+	/**
+	 * Packs the sequence into words(s.length()) longs in re, starting at offset.
+	 * @param s
+	 * @param re
+	 * @param offset
+	 */
+	public static void pack(DnaSequence s, long[] re, int offset) {
+		int bits = s.size();
+		for (int w=0; w*64<bits; w++)
+			re[offset+w] = s.getLongFromTo(w*64, Math.min(w*64+63, bits-1));
+		if (bits==0)
+			re[offset] = 0;
+	}
+
+	public static DnaSequence unpack(long[] packed, int offset, int length) {
+		DnaSequence re = new DnaSequence(length);
+		for (int w=0; w*64<re.size(); w++)
+			re.putLongFromTo(packed[offset+w], w*64, Math.min(w*64+63, re.size()-1));
+		return re;
+	}
+
+	public static DnaSequence unpack(long packed, int length) {
+		DnaSequence re = new DnaSequence(length);
+		if (length>0)
+			re.putLongFromTo(packed, 0, re.size()-1);
+		return re;
+	}
+
+	public static String toString(long packed, int length) {
+		char[] re = new char[length];
+		for (int i=0; i<length; i++)
+			re[i] = SequenceUtils.nucleotides[(int) ((packed>>>(2*i))&3)];
+		return new String(re);
+	}
+
+	/**
+	 * Sorts the given range of packed sequences (of at most 32 nt) and collapses equal sequences, i.e. afterwards, the range
+	 * starts with the distinct sequences, and counts (if not null) contains their multiplicities (counts must be at least as long as the range)
+	 * @param packed
+	 * @param from
+	 * @param to
+	 * @param counts
+	 * @return the number of distinct sequences
+	 */
+	public static int group(long[] packed, int from, int to, int[] counts) {
+		if (to<=from) return 0;
+		Arrays.sort(packed, from, to);
+		int n = 0;
+		int c = 1;
+		for (int i=from+1; i<=to; i++) {
+			if (i<to && packed[i]==packed[i-1])
+				c++;
+			else {
+				packed[from+n] = packed[i-1];
+				if (counts!=null) counts[n] = c;
+				n++;
+				c = 1;
+			}
+		}
+		return n;
+	}
+
+	public static void read(BinaryReader in, long[] re, int offset, int length) throws IOException {
+		int words = words(length);
+		Arrays.fill(re, offset, offset+words, 0);
+		int bytes = (length*2+7)/8;
+		for (int b=0; b<bytes; b++)
+			re[offset+b/8] |= ((long)in.getByte())<<(8*(b%8));
+	}
+
+	public static void write(long[] packed, int offset, int length, BinaryWriter out) throws IOException {
+		int bytes = (length*2+7)/8;
+		for (int b=0; b<bytes; b++)
+			out.putByte((int) ((packed[offset+b/8]>>>(8*(b%8)))&0xFF));
+	}
+
+}